@@ -0,0 +1,436 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Http.RequestClass;
+import io.imbo.client.Images.UploadResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Imports files to the server, picking up where an earlier run left off
+ *
+ * Files the journal holds are skipped without reading them or asking the server. The
+ * remaining files are imported in batches of `batchSize` files, each in three passes. The
+ * files are hashed in parallel, and their checksums are looked up on the server in chunks.
+ * Files with content the server already has, or which another file in the batch has, are
+ * journaled without being uploaded. The rest are uploaded concurrently as bulk requests,
+ * and journaled as each upload completes. A batch is done before the next one is hashed,
+ * so memory use is bounded and an interrupted import only redoes the current batch.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class BulkImporter {
+
+    /**
+     * Default number of concurrent uploads
+     */
+    public static final int DEFAULT_UPLOAD_CONCURRENCY = 4;
+
+    /**
+     * Default number of files imported per batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * Client to import with
+     */
+    private ImboClient client;
+
+    /**
+     * Journal of imported files
+     */
+    private ImportJournal journal;
+
+    /**
+     * Number of files hashed at the same time
+     */
+    private int hashConcurrency = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of concurrent uploads
+     */
+    private int uploadConcurrency = DEFAULT_UPLOAD_CONCURRENCY;
+
+    /**
+     * Number of files imported per batch
+     */
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Filter selecting the files to import from directories, or null for all files
+     */
+    private FileFilter filter;
+
+    /**
+     * Class constructor
+     *
+     * @param client Client to import with
+     * @param journal Journal of imported files
+     */
+    public BulkImporter(ImboClient client, ImportJournal journal) {
+        this.client = client.forRequestClass(RequestClass.BULK);
+        this.journal = journal;
+    }
+
+    /**
+     * Set the number of files hashed at the same time
+     *
+     * @param hashConcurrency Number of threads
+     * @return Returns this importer instance
+     */
+    public BulkImporter setHashConcurrency(int hashConcurrency) {
+        if (hashConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.hashConcurrency = hashConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the number of concurrent uploads
+     *
+     * @param uploadConcurrency Number of threads
+     * @return Returns this importer instance
+     */
+    public BulkImporter setUploadConcurrency(int uploadConcurrency) {
+        if (uploadConcurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.uploadConcurrency = uploadConcurrency;
+        return this;
+    }
+
+    /**
+     * Set the number of files imported per batch
+     *
+     * Every batch is hashed, checked against the server, uploaded and journaled before the
+     * next one is started.
+     *
+     * @param batchSize Number of files
+     * @return Returns this importer instance
+     */
+    public BulkImporter setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    /**
+     * Set the filter selecting the files to import from directories
+     *
+     * @param filter Filter, or null to import all files
+     * @return Returns this importer instance
+     */
+    public BulkImporter setFileFilter(FileFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Import every file in a directory and its subdirectories
+     *
+     * @param directory Directory to import
+     * @return Outcome of the import
+     * @throws IOException If the directory can not be listed, or the server can not be reached
+     */
+    public ImportResult importDirectory(File directory) throws IOException {
+        if (!directory.isDirectory()) {
+            throw new IOException("Not a directory: " + directory.getPath());
+        }
+
+        List<File> files = new ArrayList<File>();
+        this.collect(directory, files, new HashSet<String>());
+
+        return this.importFiles(files);
+    }
+
+    /**
+     * Import the files listed in a manifest
+     *
+     * The manifest holds a path on every line. Relative paths are resolved against the
+     * directory of the manifest, and blank lines are ignored.
+     *
+     * @param manifest Manifest file, encoded as UTF-8
+     * @return Outcome of the import
+     * @throws IOException If the manifest can not be read, or the server can not be reached
+     */
+    public ImportResult importManifest(File manifest) throws IOException {
+        File base = manifest.getAbsoluteFile().getParentFile();
+        List<File> files = new ArrayList<File>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "UTF-8"));
+
+        try {
+            String line;
+
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+
+                if (line.length() == 0) {
+                    continue;
+                }
+
+                File file = new File(line);
+                files.add(file.isAbsolute() ? file : new File(base, line));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return this.importFiles(files);
+    }
+
+    /**
+     * Import files
+     *
+     * @param files Files to import
+     * @return Outcome of the import
+     * @throws IOException If the server can not be reached when looking up checksums. The
+     *                     batches imported before stay journaled
+     */
+    public ImportResult importFiles(Collection<File> files) throws IOException {
+        ImportResult result = new ImportResult();
+        Map<String, File> pending = new LinkedHashMap<String, File>();
+
+        for (File file : files) {
+            if (journal.isImported(file)) {
+                result.addSkipped(1);
+                continue;
+            }
+
+            pending.put(ImportJournal.getKey(file), file);
+
+            if (pending.size() == batchSize) {
+                this.importBatch(pending, result);
+                pending = new LinkedHashMap<String, File>();
+            }
+        }
+
+        if (!pending.isEmpty()) {
+            this.importBatch(pending, result);
+        }
+
+        return result;
+    }
+
+    /**
+     * Import a batch of files not yet journaled
+     *
+     * @param pending Files to import, keyed by canonical path
+     * @param result Result to record the outcome in
+     * @throws IOException If the server can not be reached when looking up checksums
+     */
+    private void importBatch(Map<String, File> pending, ImportResult result) throws IOException {
+        Map<String, List<Snapshot>> byChecksum = this.hash(pending, result);
+
+        // The server uses the checksum of an image as its identifier, so it is journaled as such
+        Set<String> existing = client.findExistingChecksums(byChecksum.keySet());
+
+        for (String checksum : existing) {
+            List<Snapshot> snapshots = byChecksum.remove(checksum);
+
+            if (snapshots != null) {
+                this.record(snapshots, checksum, result);
+                result.addDuplicates(snapshots.size());
+            }
+        }
+
+        this.upload(byChecksum, result);
+    }
+
+    /**
+     * Hash files in parallel, grouping them by checksum
+     *
+     * @param files Files to hash, keyed by canonical path
+     * @param result Result to record failures in
+     * @return Files, grouped by checksum
+     * @throws IOException If interrupted while waiting
+     */
+    private Map<String, List<Snapshot>> hash(final Map<String, File> files, ImportResult result) throws IOException {
+        Map<String, BulkResult<Snapshot>> hashed = new BulkRunner(hashConcurrency).run(files.keySet(), new BulkOperation<Snapshot>() {
+            public Snapshot execute(String path) throws IOException {
+                File file = files.get(path);
+
+                // Read the size and time first, so a change while hashing is seen on the next run
+                long size = file.length();
+                long lastModified = file.lastModified();
+
+                return new Snapshot(file, size, lastModified, client.getImageChecksum(file));
+            }
+        });
+
+        Map<String, List<Snapshot>> byChecksum = new LinkedHashMap<String, List<Snapshot>>();
+
+        for (BulkResult<Snapshot> hash : hashed.values()) {
+            if (!hash.isSuccess()) {
+                result.addFailure(files.get(hash.getKey()), hash.getException());
+                continue;
+            }
+
+            Snapshot snapshot = hash.getValue();
+            List<Snapshot> group = byChecksum.get(snapshot.checksum);
+
+            if (group == null) {
+                group = new ArrayList<Snapshot>();
+                byChecksum.put(snapshot.checksum, group);
+            }
+
+            group.add(snapshot);
+        }
+
+        return byChecksum;
+    }
+
+    /**
+     * Upload one file of every group concurrently, journaling the whole group once it is stored
+     *
+     * @param byChecksum Files to upload, grouped by checksum
+     * @param result Result to record the outcome in
+     * @throws IOException If interrupted while waiting
+     */
+    private void upload(final Map<String, List<Snapshot>> byChecksum, ImportResult result) throws IOException {
+        Map<String, BulkResult<String>> uploaded = new BulkRunner(uploadConcurrency).run(byChecksum.keySet(), new BulkOperation<String>() {
+            public String execute(String checksum) throws IOException {
+                List<Snapshot> group = byChecksum.get(checksum);
+                UploadResult upload = client.addImageWithChecksum(group.get(0).file);
+
+                record(group, upload.getChecksum(), null);
+
+                return upload.getChecksum();
+            }
+        });
+
+        for (BulkResult<String> upload : uploaded.values()) {
+            List<Snapshot> group = byChecksum.get(upload.getKey());
+
+            if (upload.isSuccess()) {
+                result.addImported(1);
+                result.addDuplicates(group.size() - 1);
+            } else {
+                for (Snapshot snapshot : group) {
+                    result.addFailure(snapshot.file, upload.getException());
+                }
+            }
+        }
+    }
+
+    /**
+     * Journal a group of files stored on the server
+     *
+     * @param snapshots Files to journal
+     * @param imageIdentifier Image identifier the files are stored as
+     * @param result Result to record failures in, or null to throw them
+     * @throws IOException If the journal can not be written and there is no result
+     */
+    private void record(List<Snapshot> snapshots, String imageIdentifier, ImportResult result) throws IOException {
+        for (Snapshot snapshot : snapshots) {
+            try {
+                journal.record(snapshot.file, snapshot.size, snapshot.lastModified, imageIdentifier);
+            } catch (IOException e) {
+                if (result == null) {
+                    throw e;
+                }
+
+                result.addFailure(snapshot.file, e);
+            }
+        }
+    }
+
+    /**
+     * Collect the files in a directory and its subdirectories, in name order
+     *
+     * @param directory Directory to list
+     * @param files List to add files to
+     * @param visited Canonical paths of directories already listed, guarding against link cycles
+     * @throws IOException If the directory can not be listed
+     */
+    private void collect(File directory, List<File> files, Set<String> visited) throws IOException {
+        if (!visited.add(directory.getCanonicalPath())) {
+            return;
+        }
+
+        File[] children = directory.listFiles();
+
+        if (children == null) {
+            throw new IOException("Could not list directory " + directory.getPath());
+        }
+
+        Arrays.sort(children);
+
+        for (File child : children) {
+            if (child.isDirectory()) {
+                this.collect(child, files, visited);
+            } else if (child.isFile() && (filter == null || filter.accept(child))) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * File along with its size, modification time and checksum at the time it was hashed
+     */
+    private static class Snapshot {
+
+        /**
+         * File
+         */
+        final File file;
+
+        /**
+         * Size of the file
+         */
+        final long size;
+
+        /**
+         * Modification time of the file
+         */
+        final long lastModified;
+
+        /**
+         * MD5 checksum of the file
+         */
+        final String checksum;
+
+        /**
+         * Class constructor
+         *
+         * @param file File
+         * @param size Size of the file
+         * @param lastModified Modification time of the file
+         * @param checksum MD5 checksum of the file
+         */
+        Snapshot(File file, long size, long lastModified, String checksum) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+    }
+
+}
@@ -0,0 +1,27 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+/**
+ * Operation performed for every item in a bulk request
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public interface BulkOperation<T> {
+
+    /**
+     * Perform the operation for a single item
+     *
+     * @param key Key of the item, usually an image identifier
+     * @return Result of the operation
+     * @throws Exception
+     */
+    public T execute(String key) throws Exception;
+
+}
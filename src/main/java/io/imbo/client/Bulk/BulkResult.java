@@ -0,0 +1,104 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+/**
+ * Result of a single item in a bulk operation
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class BulkResult<T> {
+
+    /**
+     * Key (usually an image identifier) this result belongs to
+     */
+    private String key;
+
+    /**
+     * Value returned by the operation, if it succeeded
+     */
+    private T value;
+
+    /**
+     * Exception thrown by the operation, if it failed
+     */
+    private Exception exception;
+
+    /**
+     * Class constructor
+     *
+     * @param key Key this result belongs to
+     * @param value Value returned by the operation
+     * @param exception Exception thrown by the operation
+     */
+    private BulkResult(String key, T value, Exception exception) {
+        this.key = key;
+        this.value = value;
+        this.exception = exception;
+    }
+
+    /**
+     * Create a result for an item that succeeded
+     *
+     * @param key Key this result belongs to
+     * @param value Value returned by the operation
+     * @return Successful result
+     */
+    public static <T> BulkResult<T> success(String key, T value) {
+        return new BulkResult<T>(key, value, null);
+    }
+
+    /**
+     * Create a result for an item that failed
+     *
+     * @param key Key this result belongs to
+     * @param exception Exception thrown by the operation
+     * @return Failed result
+     */
+    public static <T> BulkResult<T> failure(String key, Exception exception) {
+        return new BulkResult<T>(key, null, exception);
+    }
+
+    /**
+     * Get the key this result belongs to
+     *
+     * @return Key, usually an image identifier
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the value returned by the operation
+     *
+     * @return Value, or null if the operation failed
+     */
+    public T getValue() {
+        return value;
+    }
+
+    /**
+     * Get the exception thrown by the operation
+     *
+     * @return Exception, or null if the operation succeeded
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    /**
+     * Whether or not the operation succeeded for this item
+     *
+     * @return True if the operation succeeded, false otherwise
+     */
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import io.imbo.client.util.DaemonThreadFactory;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an operation for a set of keys with bounded concurrency
+ *
+ * A fixed number of workers drain a shared cursor over the keys, so at most
+ * `concurrency` requests are in flight at any time no matter how many keys are passed.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class BulkRunner {
+
+    /**
+     * Default number of concurrent workers
+     */
+    public static final int DEFAULT_CONCURRENCY = 8;
+
+    /**
+     * Max number of concurrent workers
+     */
+    private int concurrency;
+
+    /**
+     * Class constructor
+     *
+     * @param concurrency Max number of concurrent workers
+     */
+    public BulkRunner(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Get the max number of concurrent workers
+     *
+     * @return Max number of concurrent workers
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Run the operation for every key
+     *
+     * Failures are recorded per key and never abort the other items.
+     *
+     * @param keys Keys to run the operation for. Duplicates are only processed once
+     * @param operation Operation to run
+     * @return Results for every key, in the same order as the keys were given
+     * @throws InterruptedIOException If the calling thread is interrupted while waiting
+     */
+    public <T> Map<String, BulkResult<T>> run(Collection<String> keys, final BulkOperation<T> operation) throws InterruptedIOException {
+        final String[] items = new LinkedHashSet<String>(keys).toArray(new String[0]);
+        final List<BulkResult<T>> results = new ArrayList<BulkResult<T>>(Collections.<BulkResult<T>>nCopies(items.length, null));
+        final AtomicInteger cursor = new AtomicInteger();
+
+        Runnable worker = new Runnable() {
+            public void run() {
+                int i;
+                while ((i = cursor.getAndIncrement()) < items.length) {
+                    results.set(i, execute(items[i], operation));
+                }
+            }
+        };
+
+        int workers = Math.min(concurrency, items.length);
+        if (workers <= 1) {
+            // Not worth spinning up a thread pool for
+            worker.run();
+        } else {
+            runWorkers(worker, workers);
+        }
+
+        Map<String, BulkResult<T>> map = new LinkedHashMap<String, BulkResult<T>>();
+        for (int i = 0; i < items.length; i++) {
+            map.put(items[i], results.get(i));
+        }
+
+        return map;
+    }
+
+    /**
+     * Run the operation for a single key, capturing any exception
+     *
+     * @param key Key to run the operation for
+     * @param operation Operation to run
+     * @return Result for the key
+     */
+    private <T> BulkResult<T> execute(String key, BulkOperation<T> operation) {
+        try {
+            return BulkResult.success(key, operation.execute(key));
+        } catch (Exception e) {
+            return BulkResult.failure(key, e);
+        }
+    }
+
+    /**
+     * Run a number of identical workers in a temporary thread pool and wait for them to finish
+     *
+     * @param worker Worker to run
+     * @param workers Number of workers to start
+     * @throws InterruptedIOException If the calling thread is interrupted while waiting
+     */
+    private void runWorkers(Runnable worker, int workers) throws InterruptedIOException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, new DaemonThreadFactory("imboclient-bulk"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        try {
+            for (int i = 0; i < workers; i++) {
+                futures.add(pool.submit(worker));
+            }
+
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Bulk operation was interrupted");
+        } catch (ExecutionException e) {
+            // Operations capture their own exceptions, so only errors end up here
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw (RuntimeException) cause;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+}
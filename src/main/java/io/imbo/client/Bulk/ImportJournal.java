@@ -0,0 +1,308 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Append-only journal of files imported to the server
+ *
+ * Every imported file is recorded by its canonical path on a line of its own, with its
+ * size, modification time and the image identifier it was stored as. The journal is read into memory when opened,
+ * so checking whether a file has been imported does not touch the server. A file counts
+ * as imported as long as its size and modification time are unchanged. A partly written
+ * last line, left by a crash, is discarded when the journal is opened.
+ *
+ * Lines are flushed as they are written, so they survive the process crashing. Losing the
+ * last lines to a power failure only means the files are checked against the server again.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImportJournal {
+
+    /**
+     * Charset of the journal
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Journal file
+     */
+    private File file;
+
+    /**
+     * Stream appending to the journal, opened on the first record
+     */
+    private FileOutputStream output;
+
+    /**
+     * Imported files, keyed by canonical path
+     */
+    private Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    /**
+     * Class constructor
+     *
+     * @param file Journal file. Created on the first record
+     * @throws IOException If the journal can not be read
+     */
+    public ImportJournal(File file) throws IOException {
+        this.file = file;
+        this.load();
+    }
+
+    /**
+     * Whether a file has been imported, and is unchanged since
+     *
+     * @param file File to check
+     * @return True if the file can be skipped
+     */
+    public boolean isImported(File file) {
+        String key = getKey(file);
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        return entry != null && entry.size == file.length() && entry.lastModified == file.lastModified();
+    }
+
+    /**
+     * Get the image identifier a file was imported as
+     *
+     * @param file Imported file
+     * @return Image identifier, or null if the file has not been imported
+     */
+    public String getImageIdentifier(File file) {
+        String key = getKey(file);
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(key);
+        }
+
+        return entry == null ? null : entry.imageIdentifier;
+    }
+
+    /**
+     * Record a file as imported
+     *
+     * @param file Imported file
+     * @param size Size of the file when it was read
+     * @param lastModified Modification time of the file when it was read
+     * @param imageIdentifier Image identifier the file was stored as
+     * @throws IOException If the journal can not be written
+     */
+    public void record(File file, long size, long lastModified, String imageIdentifier) throws IOException {
+        String key = getKey(file);
+        String line = size + "\t" + lastModified + "\t" + imageIdentifier + "\t" + escape(key) + "\n";
+
+        synchronized (this) {
+            if (output == null) {
+                output = new FileOutputStream(this.file, true);
+            }
+
+            output.write(line.getBytes(UTF8));
+            output.flush();
+
+            entries.put(key, new Entry(size, lastModified, imageIdentifier));
+        }
+    }
+
+    /**
+     * Get the key a file is journaled by
+     *
+     * The same file reached through different relative paths, or from another working
+     * directory, gets the same key.
+     *
+     * @param file File
+     * @return Canonical path of the file, or its absolute path if that can not be resolved
+     */
+    static String getKey(File file) {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    /**
+     * Get the number of files recorded
+     *
+     * @return Number of files
+     */
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    /**
+     * Sync the journal to disk and close it
+     *
+     * @throws IOException If the journal can not be synced
+     */
+    public synchronized void close() throws IOException {
+        if (output == null) {
+            return;
+        }
+
+        try {
+            output.getFD().sync();
+        } finally {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Read the journal, discarding a partly written last line
+     *
+     * @throws IOException If the journal can not be read
+     */
+    private void load() throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+
+        long complete = 0;
+        InputStream input = new BufferedInputStream(new FileInputStream(file));
+
+        try {
+            // Line breaks never occur inside multi-byte UTF-8 sequences, so split on bytes
+            // and keep the offset of the end of the last complete line
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long offset = 0;
+            int b;
+
+            while ((b = input.read()) != -1) {
+                offset++;
+
+                if (b != '\n') {
+                    line.write(b);
+                    continue;
+                }
+
+                this.parse(new String(line.toByteArray(), UTF8));
+                line.reset();
+                complete = offset;
+            }
+        } finally {
+            input.close();
+        }
+
+        if (complete < file.length()) {
+            RandomAccessFile journal = new RandomAccessFile(file, "rw");
+
+            try {
+                journal.setLength(complete);
+            } finally {
+                journal.close();
+            }
+        }
+    }
+
+    /**
+     * Parse a line of the journal
+     *
+     * @param line Line, without the line break
+     * @throws IOException If the line is invalid
+     */
+    private void parse(String line) throws IOException {
+        String[] fields = line.split("\t", 4);
+
+        if (fields.length != 4) {
+            throw new IOException("Invalid line in import journal " + file.getPath() + ": " + line);
+        }
+
+        try {
+            entries.put(unescape(fields[3]), new Entry(Long.parseLong(fields[0]), Long.parseLong(fields[1]), fields[2]));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid line in import journal " + file.getPath() + ": " + line, e);
+        }
+    }
+
+    /**
+     * Escape line breaks, tabs and backslashes in a path
+     *
+     * @param path Path to escape
+     * @return Escaped path
+     */
+    private static String escape(String path) {
+        return path.replace("\\", "\\\\").replace("\t", "\\t").replace("\n", "\\n");
+    }
+
+    /**
+     * Reverse escape()
+     *
+     * @param path Escaped path
+     * @return Path
+     */
+    private static String unescape(String path) {
+        StringBuilder result = new StringBuilder(path.length());
+
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+
+            if (c == '\\' && i + 1 < path.length()) {
+                char next = path.charAt(++i);
+                result.append(next == 't' ? '\t' : next == 'n' ? '\n' : next);
+            } else {
+                result.append(c);
+            }
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Recorded file
+     */
+    private static class Entry {
+
+        /**
+         * Size of the file when it was read
+         */
+        final long size;
+
+        /**
+         * Modification time of the file when it was read
+         */
+        final long lastModified;
+
+        /**
+         * Image identifier the file was stored as
+         */
+        final String imageIdentifier;
+
+        /**
+         * Class constructor
+         *
+         * @param size Size of the file
+         * @param lastModified Modification time of the file
+         * @param imageIdentifier Image identifier
+         */
+        Entry(long size, long lastModified, String imageIdentifier) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.imageIdentifier = imageIdentifier;
+        }
+
+    }
+
+}
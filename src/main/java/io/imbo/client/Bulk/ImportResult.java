@@ -0,0 +1,127 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a bulk import
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImportResult {
+
+    /**
+     * Number of files uploaded
+     */
+    private int importedCount;
+
+    /**
+     * Number of files skipped because the journal holds them
+     */
+    private int skippedCount;
+
+    /**
+     * Number of files not uploaded because the server or another file already has the image
+     */
+    private int duplicateCount;
+
+    /**
+     * Files which could not be imported, and why
+     */
+    private Map<File, Exception> failures = new LinkedHashMap<File, Exception>();
+
+    /**
+     * Get the number of files uploaded
+     *
+     * @return Number of files
+     */
+    public int getImportedCount() {
+        return importedCount;
+    }
+
+    /**
+     * Get the number of files skipped because an earlier run imported them
+     *
+     * @return Number of files
+     */
+    public int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Get the number of files not uploaded because the server or another file already has the image
+     *
+     * @return Number of files
+     */
+    public int getDuplicateCount() {
+        return duplicateCount;
+    }
+
+    /**
+     * Get the files which could not be imported
+     *
+     * Failed files are not journaled, so the next run retries them.
+     *
+     * @return Exceptions, keyed by file
+     */
+    public Map<File, Exception> getFailures() {
+        return Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Whether every file was imported or skipped
+     *
+     * @return True if no file failed
+     */
+    public boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Count files uploaded
+     *
+     * @param count Number of files
+     */
+    void addImported(int count) {
+        importedCount += count;
+    }
+
+    /**
+     * Count files skipped
+     *
+     * @param count Number of files
+     */
+    void addSkipped(int count) {
+        skippedCount += count;
+    }
+
+    /**
+     * Count duplicate files
+     *
+     * @param count Number of files
+     */
+    void addDuplicates(int count) {
+        duplicateCount += count;
+    }
+
+    /**
+     * Record a failed file
+     *
+     * @param file File
+     * @param exception Why it failed
+     */
+    void addFailure(File file, Exception exception) {
+        failures.put(file, exception);
+    }
+
+}
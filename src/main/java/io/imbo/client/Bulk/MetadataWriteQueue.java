@@ -0,0 +1,485 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Http.RequestClass;
+import io.imbo.client.Http.Response;
+import io.imbo.client.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Queues meta data edits and writes them behind the caller, merging edits to the same image
+ *
+ * Edits to an image are merged key by key in memory, the same way the server merges them,
+ * and written in a single request once the delay has passed since the first of them, or
+ * as soon as the number of images with pending edits reaches the size threshold. Writes
+ * run on a bounded number of daemon threads as bulk requests. Writes to the same image
+ * never overlap, so edits land in the order they were made.
+ *
+ * Every edit gets a future completing with the response of the write it was merged into.
+ * Edits merged together share the future, so cancelling it cancels the write for all of
+ * them. Reads do not see queued edits until they are written; call flush() first when
+ * that matters.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class MetadataWriteQueue {
+
+    /**
+     * Default time to wait for more edits to an image before writing, in milliseconds
+     */
+    public static final long DEFAULT_DELAY = 250;
+
+    /**
+     * Default number of images with pending edits which triggers writing all of them
+     */
+    public static final int DEFAULT_MAX_PENDING = 100;
+
+    /**
+     * Default number of concurrent writes
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Client to write the edits with
+     */
+    private ImboClient client;
+
+    /**
+     * Time to wait for more edits to an image before writing, in milliseconds
+     */
+    private long delay = DEFAULT_DELAY;
+
+    /**
+     * Number of images with pending edits which triggers writing all of them
+     */
+    private int maxPending = DEFAULT_MAX_PENDING;
+
+    /**
+     * Number of concurrent writes
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * Edits waiting to be written, keyed by image identifier, in the order they were queued
+     */
+    private Map<String, PendingEdit> pending = new LinkedHashMap<String, PendingEdit>();
+
+    /**
+     * Images with a write in flight
+     */
+    private Set<String> writing = new HashSet<String>();
+
+    /**
+     * Runs the timers and the writes, created on first use
+     */
+    private ScheduledThreadPoolExecutor executor;
+
+    /**
+     * Whether the queue has been shut down
+     */
+    private boolean shutdown = false;
+
+    /**
+     * Number of edits queued
+     */
+    private AtomicInteger editCount = new AtomicInteger();
+
+    /**
+     * Number of requests sent to the server
+     */
+    private AtomicInteger writeCount = new AtomicInteger();
+
+    /**
+     * Class constructor
+     *
+     * @param client Client to write the edits with
+     */
+    public MetadataWriteQueue(ImboClient client) {
+        this.client = client.forRequestClass(RequestClass.BULK);
+    }
+
+    /**
+     * Set the time to wait for more edits to an image before writing
+     *
+     * @param delay Delay, in milliseconds
+     * @return Returns this queue instance
+     */
+    public synchronized MetadataWriteQueue setDelay(long delay) {
+        if (delay < 0) {
+            throw new IllegalArgumentException("Delay can not be negative");
+        }
+
+        this.delay = delay;
+        return this;
+    }
+
+    /**
+     * Set the number of images with pending edits which triggers writing all of them
+     *
+     * @param maxPending Number of images
+     * @return Returns this queue instance
+     */
+    public synchronized MetadataWriteQueue setMaxPending(int maxPending) {
+        if (maxPending < 1) {
+            throw new IllegalArgumentException("Max number of pending images must be at least 1");
+        }
+
+        this.maxPending = maxPending;
+        return this;
+    }
+
+    /**
+     * Set the number of concurrent writes
+     *
+     * Must be set before the first edit is queued.
+     *
+     * @param concurrency Number of threads
+     * @return Returns this queue instance
+     */
+    public synchronized MetadataWriteQueue setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Queue an edit of the meta data of an image
+     *
+     * @param imageIdentifier Image identifier to edit meta data for
+     * @param metadata Meta data to add
+     * @return Future completing with the response from the server
+     * @throws IllegalStateException If the queue has been shut down
+     */
+    public Future<Response> edit(String imageIdentifier, JSONObject metadata) {
+        PendingEdit edit;
+        boolean full;
+
+        synchronized (this) {
+            if (shutdown) {
+                throw new IllegalStateException("Metadata write queue has been shut down");
+            }
+
+            edit = pending.get(imageIdentifier);
+
+            if (edit == null) {
+                final PendingEdit created = new PendingEdit(imageIdentifier);
+                pending.put(imageIdentifier, created);
+
+                this.getExecutor().schedule(new Runnable() {
+                    public void run() {
+                        flush(created);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+
+                edit = created;
+            }
+
+            edit.merge(metadata);
+            editCount.incrementAndGet();
+            full = pending.size() >= maxPending;
+        }
+
+        if (full) {
+            this.flush();
+        }
+
+        return edit.future;
+    }
+
+    /**
+     * Write the pending edits of an image now
+     *
+     * If a write to the image is in flight, the edits are written as soon as it finishes.
+     *
+     * @param imageIdentifier Image identifier to write edits for
+     */
+    public void flush(String imageIdentifier) {
+        PendingEdit edit;
+
+        synchronized (this) {
+            edit = this.take(imageIdentifier, null);
+        }
+
+        if (edit != null) {
+            this.start(edit);
+        }
+    }
+
+    /**
+     * Write all pending edits now
+     */
+    public void flush() {
+        List<String> imageIdentifiers;
+
+        synchronized (this) {
+            imageIdentifiers = new ArrayList<String>(pending.keySet());
+        }
+
+        for (String imageIdentifier : imageIdentifiers) {
+            this.flush(imageIdentifier);
+        }
+    }
+
+    /**
+     * Write all pending edits and stop accepting new ones
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+
+        this.flush();
+
+        synchronized (this) {
+            if (executor != null) {
+                executor.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Wait for pending edits to be written after a shutdown
+     *
+     * @param timeout Max time to wait
+     * @param unit Unit of the timeout
+     * @return Whether all edits were written in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        ScheduledThreadPoolExecutor pool;
+
+        synchronized (this) {
+            pool = executor;
+        }
+
+        return pool == null || pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Get the number of images with edits waiting to be written
+     *
+     * @return Number of images
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get the number of edits queued
+     *
+     * @return Number of edits
+     */
+    public int getEditCount() {
+        return editCount.get();
+    }
+
+    /**
+     * Get the number of requests sent to the server
+     *
+     * @return Number of requests
+     */
+    public int getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * Write an edit when its delay has passed, unless it has been written already
+     *
+     * @param edit Edit to write
+     */
+    private void flush(PendingEdit edit) {
+        synchronized (this) {
+            edit = this.take(edit.imageIdentifier, edit);
+        }
+
+        if (edit != null) {
+            this.start(edit);
+        }
+    }
+
+    /**
+     * Take the pending edit of an image for writing
+     *
+     * @param imageIdentifier Image identifier
+     * @param expected Edit which must still be pending, or null for any edit
+     * @return Edit to write, or null if there is none, or a write to the image is in flight
+     */
+    private PendingEdit take(String imageIdentifier, PendingEdit expected) {
+        PendingEdit edit = pending.get(imageIdentifier);
+
+        if (edit == null || (expected != null && edit != expected)) {
+            return null;
+        }
+
+        edit.due = true;
+
+        if (writing.contains(imageIdentifier)) {
+            return null;
+        }
+
+        pending.remove(imageIdentifier);
+        writing.add(imageIdentifier);
+
+        return edit;
+    }
+
+    /**
+     * Run the write of an edit, then start any edit to the image that became due meanwhile
+     *
+     * @param edit Edit to write
+     */
+    private void start(final PendingEdit edit) {
+        Runnable write = new Runnable() {
+            public void run() {
+                try {
+                    edit.future.run();
+                } finally {
+                    finished(edit.imageIdentifier);
+                }
+            }
+        };
+
+        try {
+            this.getExecutor().execute(write);
+        } catch (RejectedExecutionException e) {
+            // Edits which were waiting for a write in flight at shutdown are written in line
+            write.run();
+        }
+    }
+
+    /**
+     * Mark the write to an image as finished, starting the next one if it is due
+     *
+     * @param imageIdentifier Image identifier
+     */
+    private void finished(String imageIdentifier) {
+        PendingEdit next = null;
+
+        synchronized (this) {
+            writing.remove(imageIdentifier);
+
+            PendingEdit edit = pending.get(imageIdentifier);
+
+            if (edit != null && edit.due) {
+                next = this.take(imageIdentifier, edit);
+            }
+        }
+
+        if (next != null) {
+            this.start(next);
+        }
+    }
+
+    /**
+     * Get the executor, creating it on first use
+     *
+     * @return Executor
+     */
+    private synchronized ScheduledThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            executor = new ScheduledThreadPoolExecutor(concurrency, new DaemonThreadFactory("imboclient-metadata"));
+
+            // Pending edits are written at shutdown, so their timers are no longer needed
+            executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        }
+
+        return executor;
+    }
+
+    /**
+     * Merged edits to the meta data of an image
+     */
+    private class PendingEdit implements Callable<Response> {
+
+        /**
+         * Image identifier
+         */
+        final String imageIdentifier;
+
+        /**
+         * Merged meta data
+         */
+        final JSONObject metadata = new JSONObject();
+
+        /**
+         * Completes with the response of the write
+         */
+        final FutureTask<Response> future = new FutureTask<Response>(this);
+
+        /**
+         * Whether the edit should be written as soon as the image has no write in flight
+         */
+        boolean due = false;
+
+        /**
+         * Class constructor
+         *
+         * @param imageIdentifier Image identifier
+         */
+        PendingEdit(String imageIdentifier) {
+            this.imageIdentifier = imageIdentifier;
+        }
+
+        /**
+         * Merge meta data into the edit, later values replacing earlier ones
+         *
+         * @param edit Meta data to merge
+         */
+        void merge(JSONObject edit) {
+            Iterator<?> keys = edit.keys();
+
+            try {
+                while (keys.hasNext()) {
+                    String key = (String) keys.next();
+                    metadata.put(key, edit.get(key));
+                }
+            } catch (JSONException e) {
+                // Keys come from a valid object, so there is always a value to copy
+                throw new IllegalArgumentException(e);
+            }
+        }
+
+        /**
+         * Write the merged meta data
+         *
+         * @return Response from the server
+         * @throws IOException
+         */
+        public Response call() throws IOException {
+            writeCount.incrementAndGet();
+
+            return client.editMetadata(imageIdentifier, metadata);
+        }
+
+    }
+
+}
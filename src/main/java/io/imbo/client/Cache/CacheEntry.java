@@ -0,0 +1,117 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+/**
+ * Cached response body along with the validators needed to revalidate it
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CacheEntry {
+
+    /**
+     * Cached body
+     */
+    private byte[] data;
+
+    /**
+     * Value of the ETag response header, if any
+     */
+    private String etag;
+
+    /**
+     * Value of the Last-Modified response header, if any
+     */
+    private String lastModified;
+
+    /**
+     * Timestamp (in milliseconds) of when the entry was stored or last revalidated
+     */
+    private long storedAt;
+
+    /**
+     * Class constructor
+     *
+     * @param data Cached body
+     * @param etag Value of the ETag response header, or null
+     * @param lastModified Value of the Last-Modified response header, or null
+     * @param storedAt Timestamp (in milliseconds) of when the entry was stored
+     */
+    public CacheEntry(byte[] data, String etag, String lastModified, long storedAt) {
+        this.data = data;
+        this.etag = etag;
+        this.lastModified = lastModified;
+        this.storedAt = storedAt;
+    }
+
+    /**
+     * Get the cached body
+     *
+     * @return Cached body
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Get the value of the ETag response header
+     *
+     * @return ETag, or null if the server did not send one
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * Get the value of the Last-Modified response header
+     *
+     * @return Last-Modified, or null if the server did not send one
+     */
+    public String getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the timestamp of when the entry was stored or last revalidated
+     *
+     * @return Timestamp, in milliseconds
+     */
+    public long getStoredAt() {
+        return storedAt;
+    }
+
+    /**
+     * Whether or not the entry can be revalidated using a conditional request
+     *
+     * @return True if the entry has an ETag or a Last-Modified date
+     */
+    public boolean hasValidator() {
+        return etag != null || lastModified != null;
+    }
+
+    /**
+     * Get the weight of this entry, used for size-bounded eviction
+     *
+     * @return Weight, in bytes
+     */
+    public int getWeight() {
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * Create a copy of this entry marked as revalidated at the given time
+     *
+     * @param now Timestamp (in milliseconds) of the revalidation
+     * @return Revalidated entry
+     */
+    public CacheEntry revalidated(long now) {
+        return new CacheEntry(data, etag, lastModified, now);
+    }
+
+}
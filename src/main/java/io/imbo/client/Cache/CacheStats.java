@@ -0,0 +1,112 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hit, miss and eviction counters for a client-side cache
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CacheStats {
+
+    private AtomicLong hits = new AtomicLong();
+    private AtomicLong misses = new AtomicLong();
+    private AtomicLong revalidations = new AtomicLong();
+    private AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Record a lookup served from the cache
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
+
+    /**
+     * Record a lookup that had to go to the server
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Record a stale entry the server confirmed as unchanged
+     */
+    public void recordRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    /**
+     * Record an entry being evicted to make room for others, or because it expired
+     */
+    public void recordEviction() {
+        evictions.incrementAndGet();
+    }
+
+    /**
+     * Get the number of lookups served from the cache
+     *
+     * @return Number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that had to go to the server
+     *
+     * @return Number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of stale entries the server confirmed as unchanged
+     *
+     * @return Number of revalidations
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     * Get the number of evicted entries
+     *
+     * @return Number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the ratio of lookups served from the cache
+     *
+     * @return Hit ratio between 0 and 1
+     */
+    public double getHitRatio() {
+        long total = getHitCount() + getMissCount();
+
+        return total == 0 ? 0 : (double) getHitCount() / total;
+    }
+
+    /**
+     * Returns the counters in a human readable format
+     *
+     * @return Counters as a string
+     */
+    public String toString() {
+        return "hits=" + getHitCount() +
+            ", misses=" + getMissCount() +
+            ", revalidations=" + getRevalidationCount() +
+            ", evictions=" + getEvictionCount();
+    }
+
+}
@@ -0,0 +1,60 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+/**
+ * A single storage tier of the image data cache
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+interface CacheTier {
+
+    /**
+     * Get an entry
+     *
+     * @param key Cache key
+     * @return Entry, or null if not present
+     */
+    public CacheEntry get(String key);
+
+    /**
+     * Store an entry, evicting the least recently used entries if over capacity
+     *
+     * @param key Cache key
+     * @param entry Entry to store
+     */
+    public void put(String key, CacheEntry entry);
+
+    /**
+     * Remove an entry
+     *
+     * @param key Cache key
+     */
+    public void remove(String key);
+
+    /**
+     * Remove every entry whose key contains the given fragment
+     *
+     * @param fragment Fragment to look for
+     */
+    public void removeMatching(String fragment);
+
+    /**
+     * Remove all entries
+     */
+    public void clear();
+
+    /**
+     * Get the combined weight of all entries
+     *
+     * @return Weight, in bytes
+     */
+    public long getWeight();
+
+}
@@ -0,0 +1,437 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import io.imbo.client.util.Crypto;
+import io.imbo.client.util.FileUtils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk cache tier with weight-bounded LRU eviction
+ *
+ * Every entry is stored in its own file, named by the MD5 of its key, and read back in
+ * full with positional channel reads. Files are not memory-mapped, since a mapping stays
+ * open until it is garbage collected and would keep the file from being replaced or
+ * deleted on some platforms. Entries survive restarts: the index is rebuilt from the
+ * files in the directory, oldest first. Disk errors are never propagated - a file that
+ * cannot be read or written simply behaves like a cache miss.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+class DiskCacheTier implements CacheTier {
+
+    /**
+     * Marker at the start of every cache file
+     */
+    private static final int MAGIC = 0x494d4243;
+
+    /**
+     * File extension for cache files
+     */
+    private static final String EXTENSION = ".cache";
+
+    /**
+     * Charset used for the strings in the file header
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Directory holding the cache files
+     */
+    private File directory;
+
+    /**
+     * Cache files in access order, least recently used first
+     */
+    private LinkedHashMap<String, File> files = new LinkedHashMap<String, File>(16, 0.75f, true);
+
+    /**
+     * Max combined size of all cache files, in bytes
+     */
+    private long maxWeight;
+
+    /**
+     * Current combined size of all cache files, in bytes
+     */
+    private long weight = 0;
+
+    /**
+     * Stats to record evictions in
+     */
+    private CacheStats stats;
+
+    /**
+     * Class constructor
+     *
+     * @param directory Directory to store cache files in. Created if it does not exist
+     * @param maxWeight Max combined size of all cache files, in bytes
+     * @param stats Stats to record evictions in
+     * @throws IOException If the directory can not be created
+     */
+    DiskCacheTier(File directory, long maxWeight, CacheStats stats) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create cache directory " + directory);
+        }
+
+        this.directory = directory;
+        this.maxWeight = maxWeight;
+        this.stats = stats;
+
+        loadIndex();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public CacheEntry get(String key) {
+        File file;
+        synchronized (this) {
+            file = files.get(key);
+        }
+
+        if (file == null) {
+            return null;
+        }
+
+        try {
+            return read(file, key);
+        } catch (IOException e) {
+            removeIfMapped(key, file);
+            return null;
+        } catch (RuntimeException e) {
+            // Truncated or corrupt files fail with buffer underflows or bad lengths
+            removeIfMapped(key, file);
+            return null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void put(String key, CacheEntry entry) {
+        File file = getFile(key);
+        File temp = null;
+
+        try {
+            temp = File.createTempFile("entry", ".tmp", directory);
+            write(temp, key, entry);
+
+            synchronized (this) {
+                File previous = files.remove(key);
+                if (previous != null) {
+                    weight -= previous.length();
+                }
+
+                try {
+                    // Rename over the previous file, so concurrent readers never find it missing
+                    FileUtils.replace(temp, file);
+                } catch (IOException e) {
+                    file.delete();
+                    return;
+                }
+
+                files.put(key, file);
+                weight += file.length();
+                evict();
+            }
+        } catch (IOException e) {
+            // Best effort - the entry is still served from the heap tier
+        } finally {
+            if (temp != null && temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void remove(String key) {
+        File file = files.remove(key);
+
+        if (file != null) {
+            weight -= file.length();
+            file.delete();
+        }
+    }
+
+    /**
+     * Remove an entry after failing to read it, unless it has been replaced meanwhile
+     *
+     * @param key Cache key
+     * @param file File which could not be read
+     */
+    private synchronized void removeIfMapped(String key, File file) {
+        if (files.get(key) == file) {
+            remove(key);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void removeMatching(String fragment) {
+        Iterator<Map.Entry<String, File>> iterator = files.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, File> entry = iterator.next();
+
+            if (entry.getKey().contains(fragment)) {
+                weight -= entry.getValue().length();
+                entry.getValue().delete();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        for (File file : files.values()) {
+            file.delete();
+        }
+
+        files.clear();
+        weight = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    /**
+     * Evict the least recently used files until the tier is within its max weight
+     */
+    private void evict() {
+        Iterator<File> eldest = files.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            File file = eldest.next();
+            weight -= file.length();
+            file.delete();
+            eldest.remove();
+            stats.recordEviction();
+        }
+    }
+
+    /**
+     * Rebuild the index from the cache files already present in the directory
+     */
+    private void loadIndex() {
+        File[] existing = directory.listFiles(new FileFilter() {
+            public boolean accept(File file) {
+                return file.isFile() && file.getName().endsWith(EXTENSION);
+            }
+        });
+
+        if (existing == null) {
+            return;
+        }
+
+        // Oldest first, so the most recently written files are the last to be evicted
+        Arrays.sort(existing, new Comparator<File>() {
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        for (File file : existing) {
+            try {
+                files.put(readKey(file), file);
+                weight += file.length();
+            } catch (IOException e) {
+                file.delete();
+            } catch (RuntimeException e) {
+                file.delete();
+            }
+        }
+
+        evict();
+    }
+
+    /**
+     * Get the file used for the given key
+     *
+     * @param key Cache key
+     * @return File for the key
+     */
+    private File getFile(String key) {
+        return new File(directory, Crypto.md5(key) + EXTENSION);
+    }
+
+    /**
+     * Read the key stored in the header of a cache file
+     *
+     * @param file Cache file
+     * @return Cache key
+     * @throws IOException If the file is not a valid cache file
+     */
+    private String readKey(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.readInt() != MAGIC) {
+                throw new IOException("Not a cache file: " + file);
+            }
+
+            int length = raf.readInt();
+            if (length < 0 || length > raf.length()) {
+                throw new IOException("Invalid cache file: " + file);
+            }
+
+            byte[] key = new byte[length];
+            raf.readFully(key);
+
+            return new String(key, UTF8);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read a cache entry from a file
+     *
+     * @param file Cache file
+     * @param key Expected cache key
+     * @return Cache entry
+     * @throws IOException If the file can not be read or belongs to another key
+     */
+    private CacheEntry read(File file, String key) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Cache file too large: " + file);
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, buffer.position()) < 0) {
+                    throw new IOException("Cache file truncated: " + file);
+                }
+            }
+
+            buffer.flip();
+
+            if (buffer.getInt() != MAGIC || !key.equals(readString(buffer))) {
+                throw new IOException("Invalid cache file: " + file);
+            }
+
+            String etag = readString(buffer);
+            String lastModified = readString(buffer);
+            long storedAt = buffer.getLong();
+
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IOException("Invalid cache file: " + file);
+            }
+
+            byte[] data = new byte[length];
+            buffer.get(data);
+
+            return new CacheEntry(data, etag, lastModified, storedAt);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Write a cache entry to a file
+     *
+     * @param file File to write to
+     * @param key Cache key
+     * @param entry Cache entry
+     * @throws IOException If the file can not be written
+     */
+    private void write(File file, String key, CacheEntry entry) throws IOException {
+        byte[] keyBytes = key.getBytes(UTF8);
+        byte[] etag = entry.getEtag() == null ? null : entry.getEtag().getBytes(UTF8);
+        byte[] lastModified = entry.getLastModified() == null ? null : entry.getLastModified().getBytes(UTF8);
+        byte[] data = entry.getData();
+
+        ByteBuffer header = ByteBuffer.allocate(
+            4 + 4 + keyBytes.length +
+            4 + (etag == null ? 0 : etag.length) +
+            4 + (lastModified == null ? 0 : lastModified.length) +
+            8 + 4
+        );
+
+        header.putInt(MAGIC);
+        writeString(header, keyBytes);
+        writeString(header, etag);
+        writeString(header, lastModified);
+        header.putLong(entry.getStoredAt());
+        header.putInt(data.length);
+        header.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer[] buffers = { header, ByteBuffer.wrap(data) };
+
+            long remaining = header.remaining() + data.length;
+            while (remaining > 0) {
+                remaining -= channel.write(buffers);
+            }
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Read a length-prefixed string from a buffer
+     *
+     * @param buffer Buffer to read from
+     * @return String, or null if the stored length is negative
+     */
+    private String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Write a length-prefixed string to a buffer
+     *
+     * @param buffer Buffer to write to
+     * @param bytes String bytes, or null
+     */
+    private void writeString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+            return;
+        }
+
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+}
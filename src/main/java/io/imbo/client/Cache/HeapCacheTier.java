@@ -0,0 +1,123 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-heap cache tier with weight-bounded LRU eviction
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+class HeapCacheTier implements CacheTier {
+
+    /**
+     * Entries in access order, least recently used first
+     */
+    private LinkedHashMap<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true);
+
+    /**
+     * Max combined weight of all entries, in bytes
+     */
+    private long maxWeight;
+
+    /**
+     * Current combined weight of all entries, in bytes
+     */
+    private long weight = 0;
+
+    /**
+     * Stats to record evictions in
+     */
+    private CacheStats stats;
+
+    /**
+     * Class constructor
+     *
+     * @param maxWeight Max combined weight of all entries, in bytes
+     * @param stats Stats to record evictions in
+     */
+    HeapCacheTier(long maxWeight, CacheStats stats) {
+        this.maxWeight = maxWeight;
+        this.stats = stats;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized CacheEntry get(String key) {
+        return entries.get(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void put(String key, CacheEntry entry) {
+        remove(key);
+
+        if (entry.getWeight() > maxWeight) {
+            // Would evict everything else and still not fit
+            return;
+        }
+
+        entries.put(key, entry);
+        weight += entry.getWeight();
+
+        Iterator<CacheEntry> eldest = entries.values().iterator();
+        while (weight > maxWeight && eldest.hasNext()) {
+            weight -= eldest.next().getWeight();
+            eldest.remove();
+            stats.recordEviction();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void remove(String key) {
+        CacheEntry removed = entries.remove(key);
+
+        if (removed != null) {
+            weight -= removed.getWeight();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void removeMatching(String fragment) {
+        Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, CacheEntry> entry = iterator.next();
+
+            if (entry.getKey().contains(fragment)) {
+                weight -= entry.getValue().getWeight();
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+}
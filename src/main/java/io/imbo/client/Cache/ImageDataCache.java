@@ -0,0 +1,65 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through cache for image data, keyed by the fully transformed image URL
+ *
+ * Image variants rarely change, so unlike the generic response cache, entries are served
+ * without revalidation for a while (five minutes by default).
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImageDataCache extends ResponseCache {
+
+    /**
+     * Default time an entry is served without revalidation, in milliseconds
+     */
+    public static final long DEFAULT_MAX_AGE = 5 * 60 * 1000;
+
+    /**
+     * Create an in-heap cache
+     *
+     * @param maxHeapBytes Max combined size of the entries kept on the heap
+     */
+    public ImageDataCache(long maxHeapBytes) {
+        super(maxHeapBytes);
+
+        setMaxAge(DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Create a cache with an in-heap tier backed by an on-disk tier
+     *
+     * @param maxHeapBytes Max combined size of the entries kept on the heap
+     * @param directory Directory to store the on-disk tier in
+     * @param maxDiskBytes Max combined size of the entries kept on disk
+     * @throws IOException If the directory can not be created
+     */
+    public ImageDataCache(long maxHeapBytes, File directory, long maxDiskBytes) throws IOException {
+        super(maxHeapBytes, directory, maxDiskBytes);
+
+        setMaxAge(DEFAULT_MAX_AGE, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ImageDataCache setMaxAge(long maxAge, TimeUnit unit) {
+        super.setMaxAge(maxAge, unit);
+
+        return this;
+    }
+
+}
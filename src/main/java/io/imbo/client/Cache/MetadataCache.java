@@ -0,0 +1,259 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Bounded in-memory cache for image meta data
+ *
+ * Entries expire after a fixed time to live, and the least recently used entry is evicted
+ * once the cache is full. Callers get a copy of the cached object, so modifying the
+ * returned meta data never affects the cache.
+ *
+ * Readers filling the cache take a generation before fetching, and pass it to put(), so
+ * meta data fetched before a write is not cached after the write has invalidated it. The
+ * generation is shared by all images, so a write may also keep other fetches in flight
+ * from being cached.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class MetadataCache {
+
+    /**
+     * Default max number of entries
+     */
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    /**
+     * Default time to live for an entry, in milliseconds
+     */
+    public static final long DEFAULT_TTL = 60 * 1000;
+
+    /**
+     * Cached meta data along with its expiry time
+     */
+    private static class Entry {
+        private JSONObject metadata;
+        private long expiresAt;
+
+        private Entry(JSONObject metadata, long expiresAt) {
+            this.metadata = metadata;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Entries in access order, least recently used first
+     */
+    private LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    /**
+     * Max number of entries
+     */
+    private int maxEntries;
+
+    /**
+     * Time to live for an entry, in milliseconds
+     */
+    private long ttl;
+
+    /**
+     * Hit/miss/eviction counters
+     */
+    private CacheStats stats = new CacheStats();
+
+    /**
+     * Bumped on every write and invalidation
+     */
+    private long generation = 0;
+
+    /**
+     * Create a cache with the default size and time to live
+     */
+    public MetadataCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TTL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param maxEntries Max number of entries
+     * @param ttl Time to live for an entry
+     * @param unit Time unit of the time to live
+     */
+    public MetadataCache(int maxEntries, long ttl, TimeUnit unit) {
+        this.maxEntries = maxEntries;
+        this.ttl = unit.toMillis(ttl);
+    }
+
+    /**
+     * Get cached meta data for an image
+     *
+     * @param imageIdentifier Image identifier to get meta data for
+     * @return Copy of the cached meta data, or null if not cached or expired
+     */
+    public JSONObject get(String imageIdentifier) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = entries.get(imageIdentifier);
+
+            if (entry != null && entry.expiresAt <= System.currentTimeMillis()) {
+                entries.remove(imageIdentifier);
+                stats.recordEviction();
+                entry = null;
+            }
+        }
+
+        if (entry == null) {
+            stats.recordMiss();
+            return null;
+        }
+
+        stats.recordHit();
+        return copy(entry.metadata);
+    }
+
+    /**
+     * Get the current generation, to pass to put() once the meta data is fetched
+     *
+     * @return Generation
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Store meta data written to the server
+     *
+     * @param imageIdentifier Image identifier the meta data belongs to
+     * @param metadata Meta data to store. A copy is stored, so the caller may keep modifying it
+     */
+    public void put(String imageIdentifier, JSONObject metadata) {
+        Entry entry = new Entry(copy(metadata), System.currentTimeMillis() + ttl);
+
+        synchronized (this) {
+            generation++;
+            this.store(imageIdentifier, entry);
+        }
+    }
+
+    /**
+     * Store meta data fetched from the server, unless the cache was written to or
+     * invalidated since the fetch started
+     *
+     * @param imageIdentifier Image identifier the meta data belongs to
+     * @param metadata Meta data to store. A copy is stored, so the caller may keep modifying it
+     * @param generation Generation taken before the fetch started
+     * @return True if the meta data was stored
+     */
+    public boolean put(String imageIdentifier, JSONObject metadata, long generation) {
+        Entry entry = new Entry(copy(metadata), System.currentTimeMillis() + ttl);
+
+        synchronized (this) {
+            if (generation != this.generation) {
+                return false;
+            }
+
+            this.store(imageIdentifier, entry);
+            return true;
+        }
+    }
+
+    /**
+     * Store an entry, evicting the least recently used entries when full
+     *
+     * @param imageIdentifier Image identifier the meta data belongs to
+     * @param entry Entry to store
+     */
+    private void store(String imageIdentifier, Entry entry) {
+        entries.put(imageIdentifier, entry);
+
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > maxEntries && eldest.hasNext()) {
+            eldest.next();
+            eldest.remove();
+            stats.recordEviction();
+        }
+    }
+
+    /**
+     * Remove cached meta data for an image
+     *
+     * @param imageIdentifier Image identifier to remove meta data for
+     */
+    public synchronized void invalidate(String imageIdentifier) {
+        generation++;
+        entries.remove(imageIdentifier);
+    }
+
+    /**
+     * Remove all expired entries
+     */
+    public synchronized void purgeExpired() {
+        long now = System.currentTimeMillis();
+
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getValue().expiresAt <= now) {
+                iterator.remove();
+                stats.recordEviction();
+            }
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public synchronized void clear() {
+        generation++;
+        entries.clear();
+    }
+
+    /**
+     * Get the number of cached entries, including expired entries not yet purged
+     *
+     * @return Number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Get the cache statistics
+     *
+     * @return Hit/miss/eviction counters
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+    /**
+     * Create a deep copy of a meta data object
+     *
+     * @param metadata Meta data to copy
+     * @return Copy of the meta data, sharing no nested objects or arrays with the original
+     */
+    private JSONObject copy(JSONObject metadata) {
+        try {
+            return new JSONObject(metadata.toString());
+        } catch (JSONException e) {
+            // Can't happen, as the string comes from a valid object
+            return new JSONObject();
+        }
+    }
+
+}
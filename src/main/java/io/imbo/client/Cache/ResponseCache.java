@@ -0,0 +1,274 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import io.imbo.client.util.SingleFlight;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Read-through cache for response bodies, keyed by URL
+ *
+ * Entries live in a size-bounded in-heap tier, optionally backed by a larger on-disk tier.
+ * Concurrent misses for the same key are merged into a single fetch. Entries older than
+ * the max age are revalidated using the ETag / Last-Modified validators the server sent,
+ * so an unchanged resource costs a 304 response instead of the full body. By default
+ * every lookup is revalidated.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ResponseCache {
+
+    /**
+     * Loads image data from the server
+     */
+    public interface Loader {
+
+        /**
+         * Load the data for a key
+         *
+         * @param key Cache key (the URL)
+         * @param stale Stale entry to revalidate, or null if nothing is cached
+         * @return Fresh entry, or null if the stale entry is still valid
+         * @throws IOException
+         */
+        public CacheEntry load(String key, CacheEntry stale) throws IOException;
+
+    }
+
+    /**
+     * In-heap tier
+     */
+    private CacheTier heap;
+
+    /**
+     * Optional on-disk tier
+     */
+    private CacheTier disk;
+
+    /**
+     * Time an entry is served without revalidation, in milliseconds
+     */
+    private long maxAge = 0;
+
+    /**
+     * Merges concurrent loads of the same key
+     */
+    private SingleFlight<CacheEntry> loads = new SingleFlight<CacheEntry>();
+
+    /**
+     * Hit/miss/eviction counters
+     */
+    private CacheStats stats = new CacheStats();
+
+    /**
+     * Create an in-heap cache
+     *
+     * @param maxHeapBytes Max combined size of the entries kept on the heap
+     */
+    public ResponseCache(long maxHeapBytes) {
+        this.heap = new HeapCacheTier(maxHeapBytes, stats);
+    }
+
+    /**
+     * Create a cache with an in-heap tier backed by an on-disk tier
+     *
+     * @param maxHeapBytes Max combined size of the entries kept on the heap
+     * @param directory Directory to store the on-disk tier in
+     * @param maxDiskBytes Max combined size of the entries kept on disk
+     * @throws IOException If the directory can not be created
+     */
+    public ResponseCache(long maxHeapBytes, File directory, long maxDiskBytes) throws IOException {
+        this(maxHeapBytes);
+
+        this.disk = new DiskCacheTier(directory, maxDiskBytes, stats);
+    }
+
+    /**
+     * Set the time an entry is served without revalidation
+     *
+     * @param maxAge Max age
+     * @param unit Time unit of the max age
+     * @return This cache instance
+     */
+    public ResponseCache setMaxAge(long maxAge, TimeUnit unit) {
+        this.maxAge = unit.toMillis(maxAge);
+
+        return this;
+    }
+
+    /**
+     * Get the time an entry is served without revalidation
+     *
+     * @return Max age, in milliseconds
+     */
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Get a response body, loading it using the loader if missing or stale
+     *
+     * @param key Cache key (the URL)
+     * @param loader Loader used on misses and for revalidation
+     * @return Response body
+     * @throws IOException If the loader fails
+     */
+    public byte[] get(final String key, final Loader loader) throws IOException {
+        CacheEntry entry = lookup(key);
+
+        if (entry != null && System.currentTimeMillis() - entry.getStoredAt() < maxAge) {
+            stats.recordHit();
+            return entry.getData();
+        }
+
+        stats.recordMiss();
+
+        final CacheEntry stale = entry;
+        CacheEntry loaded = loads.execute(key, new Callable<CacheEntry>() {
+            public CacheEntry call() throws IOException {
+                CacheEntry fresh = loader.load(key, stale);
+
+                if (fresh == null) {
+                    if (stale == null) {
+                        throw new IOException("Server reported " + key + " as not modified, but nothing is cached");
+                    }
+
+                    stats.recordRevalidation();
+                    fresh = stale.revalidated(System.currentTimeMillis());
+                }
+
+                put(key, fresh);
+                return fresh;
+            }
+        });
+
+        return loaded.getData();
+    }
+
+    /**
+     * Get a cached entry without loading or revalidating it
+     *
+     * @param key Cache key (the URL)
+     * @return Cached entry, or null if not present
+     */
+    public CacheEntry lookup(String key) {
+        CacheEntry entry = heap.get(key);
+
+        if (entry == null && disk != null) {
+            entry = disk.get(key);
+
+            if (entry != null) {
+                // Promote to the heap tier
+                heap.put(key, entry);
+            }
+        }
+
+        return entry;
+    }
+
+    /**
+     * Store an entry in all tiers
+     *
+     * @param key Cache key (the URL)
+     * @param entry Entry to store
+     */
+    public void put(String key, CacheEntry entry) {
+        heap.put(key, entry);
+
+        if (disk != null) {
+            disk.put(key, entry);
+        }
+    }
+
+    /**
+     * Remove a single entry
+     *
+     * @param key Cache key (the URL)
+     */
+    public void invalidate(String key) {
+        heap.remove(key);
+
+        if (disk != null) {
+            disk.remove(key);
+        }
+    }
+
+    /**
+     * Remove all entries for an image, including its transformed variants and meta data
+     *
+     * @param imageIdentifier Image identifier of the image
+     */
+    public void invalidateImage(String imageIdentifier) {
+        String fragment = "/images/" + imageIdentifier;
+
+        heap.removeMatching(fragment);
+
+        if (disk != null) {
+            disk.removeMatching(fragment);
+        }
+    }
+
+    /**
+     * Remove the entries for the meta data of an image
+     *
+     * @param imageIdentifier Image identifier of the image
+     */
+    public void invalidateMetadata(String imageIdentifier) {
+        String fragment = "/images/" + imageIdentifier + "/meta";
+
+        heap.removeMatching(fragment);
+
+        if (disk != null) {
+            disk.removeMatching(fragment);
+        }
+    }
+
+    /**
+     * Remove all entries
+     */
+    public void clear() {
+        heap.clear();
+
+        if (disk != null) {
+            disk.clear();
+        }
+    }
+
+    /**
+     * Get the combined size of the entries kept on the heap
+     *
+     * @return Size, in bytes
+     */
+    public long getHeapSize() {
+        return heap.getWeight();
+    }
+
+    /**
+     * Get the combined size of the entries kept on disk
+     *
+     * @return Size, in bytes (0 if there is no disk tier)
+     */
+    public long getDiskSize() {
+        return disk == null ? 0 : disk.getWeight();
+    }
+
+    /**
+     * Get the cache statistics
+     *
+     * @return Hit/miss/eviction counters
+     */
+    public CacheStats getStats() {
+        return stats;
+    }
+
+}
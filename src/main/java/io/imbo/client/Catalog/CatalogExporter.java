@@ -0,0 +1,315 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Http.RequestClass;
+import io.imbo.client.Images.DownloadResult;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.Query;
+import io.imbo.client.util.DaemonThreadFactory;
+import io.imbo.client.util.FileUtils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Backs up the originals and meta data of the catalog to a local directory
+ *
+ * Originals are stored by checksum, as "ab/cd/abcd..." below the directory, and are
+ * streamed straight to disk with a number of downloads in flight. An original whose file
+ * exists is not downloaded again, so repeated exports only transfer new images. Downloads
+ * land in place once verified, so a file is never left half written.
+ *
+ * The properties and meta data of every listed image are written to "metadata.ndjson",
+ * one JSON object per line in the format of the images resource, along with the path of
+ * the original. The file is replaced once the listing completes.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CatalogExporter {
+
+    /**
+     * Default number of concurrent downloads
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Name of the meta data file
+     */
+    public static final String METADATA_FILE = "metadata.ndjson";
+
+    /**
+     * Client to export with
+     */
+    private ImboClient client;
+
+    /**
+     * Directory to export to
+     */
+    private File directory;
+
+    /**
+     * Number of concurrent downloads
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * Scanner listing the images
+     */
+    private CatalogScanner scanner;
+
+    /**
+     * Class constructor
+     *
+     * @param client Client to export with
+     * @param directory Directory to export to. Created if missing
+     */
+    public CatalogExporter(ImboClient client, File directory) {
+        this.client = client.forRequestClass(RequestClass.BULK);
+        this.directory = directory;
+        this.scanner = new CatalogScanner(this.client).setQuery(new Query().returnMetadata(true));
+    }
+
+    /**
+     * Set the number of concurrent downloads
+     *
+     * @param concurrency Number of threads
+     * @return Returns this exporter instance
+     */
+    public CatalogExporter setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Get the scanner listing the images
+     *
+     * Use this to tune the listing, for instance its concurrency or page size.
+     *
+     * @return Scanner
+     */
+    public CatalogScanner getScanner() {
+        return scanner;
+    }
+
+    /**
+     * Get the file an original is stored in
+     *
+     * @param checksum MD5 checksum of the original
+     * @return File below the export directory
+     */
+    public File getOriginalFile(String checksum) {
+        return new File(directory, getOriginalPath(checksum));
+    }
+
+    /**
+     * Export every image in the catalog
+     *
+     * @return Outcome of the export
+     * @throws IOException If the images can not be listed, or the meta data not written
+     */
+    public ExportResult export() throws IOException {
+        // Leave a second of slack, since listings only have second precision
+        return this.export(new Date(0), new Date(System.currentTimeMillis() + 1000));
+    }
+
+    /**
+     * Export the images added in [from, to)
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, exclusive
+     * @return Outcome of the export
+     * @throws IOException If the images can not be listed, or the meta data not written
+     */
+    public ExportResult export(Date from, Date to) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create export directory " + directory.getPath());
+        }
+
+        final ExportResult result = new ExportResult();
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("imboclient-export"));
+
+        // Bound the downloads waiting for a thread, so listing does not run far ahead
+        final Semaphore slots = new Semaphore(concurrency * 2);
+        final Set<String> scheduled = new HashSet<String>();
+
+        File metadataFile = new File(directory, METADATA_FILE);
+        File partial = new File(metadataFile.getPath() + ".part");
+        final Writer metadata = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(partial), "UTF-8"));
+        final SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        boolean complete = false;
+
+        try {
+            scanner.scan(from, to, new ImageHandler() {
+                public void handle(Image image) throws IOException {
+                    String checksum = image.getChecksum() != null ? image.getChecksum() : image.getIdentifier();
+
+                    try {
+                        metadata.write(toJson(image, checksum, dateFormat).toString());
+                    } catch (JSONException e) {
+                        throw new IOException("Could not write meta data of image " + image.getIdentifier(), e);
+                    }
+
+                    metadata.write('\n');
+                    result.addImage();
+
+                    if (!scheduled.add(checksum) || getOriginalFile(checksum).exists()) {
+                        result.addSkipped();
+                        return;
+                    }
+
+                    schedule(executor, slots, image.getIdentifier(), checksum, result);
+                }
+            });
+
+            metadata.close();
+            executor.shutdown();
+
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting for the downloads in flight
+            }
+
+            FileUtils.replace(partial, metadataFile);
+
+            complete = true;
+            return result;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export was interrupted");
+        } catch (JSONException e) {
+            throw new IOException("Invalid images response from server", e);
+        } finally {
+            if (!complete) {
+                executor.shutdownNow();
+                closeQuietly(metadata);
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Close a writer after a failure, without hiding the failure
+     *
+     * @param writer Writer to close
+     */
+    private static void closeQuietly(Writer writer) {
+        try {
+            writer.close();
+        } catch (IOException e) {
+            // The export already failed, and the partial file is deleted
+        }
+    }
+
+    /**
+     * Download an original in the background, once a slot is free
+     *
+     * @param executor Executor running the downloads
+     * @param slots Free slots for downloads
+     * @param imageIdentifier Image identifier
+     * @param checksum MD5 checksum of the original
+     * @param result Result to record the outcome in
+     * @throws InterruptedIOException If interrupted while waiting for a slot
+     */
+    private void schedule(ExecutorService executor, final Semaphore slots, final String imageIdentifier, final String checksum, final ExportResult result) throws InterruptedIOException {
+        try {
+            slots.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Export was interrupted");
+        }
+
+        executor.execute(new Runnable() {
+            public void run() {
+                try {
+                    File file = getOriginalFile(checksum);
+                    File parent = file.getParentFile();
+
+                    if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+                        throw new IOException("Could not create directory " + parent.getPath());
+                    }
+
+                    DownloadResult download = client.downloadImage(imageIdentifier, file);
+                    result.addDownloaded(download.getSize());
+                } catch (Exception e) {
+                    result.addFailure(imageIdentifier, e);
+                } finally {
+                    slots.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Get the line of the meta data file for an image
+     *
+     * @param image Image
+     * @param checksum MD5 checksum of the original
+     * @param dateFormat Format of the dates in the images resource
+     * @return JSON object readable by the Image class, along with the path of the original
+     * @throws JSONException
+     */
+    private static JSONObject toJson(Image image, String checksum, SimpleDateFormat dateFormat) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("imageIdentifier", image.getIdentifier());
+        json.put("checksum", checksum);
+        json.putOpt("publicKey", image.getPublicKey());
+        json.putOpt("extension", image.getExtension());
+        json.putOpt("mime", image.getMimeType());
+        json.put("size", image.getSize());
+        json.put("width", image.getWidth());
+        json.put("height", image.getHeight());
+        json.putOpt("added", image.getAddedDate() == null ? null : dateFormat.format(image.getAddedDate()));
+        json.putOpt("updated", image.getUpdatedDate() == null ? null : dateFormat.format(image.getUpdatedDate()));
+        json.putOpt("metadata", image.getMetadata());
+        json.put("path", getOriginalPath(checksum));
+
+        return json;
+    }
+
+    /**
+     * Get the path of an original relative to the export directory
+     *
+     * @param checksum MD5 checksum of the original
+     * @return Path, using "/" as separator
+     */
+    private static String getOriginalPath(String checksum) {
+        String name = checksum.toLowerCase(Locale.US);
+
+        if (name.length() < 4) {
+            return name;
+        }
+
+        return name.substring(0, 2) + "/" + name.substring(2, 4) + "/" + name;
+    }
+
+}
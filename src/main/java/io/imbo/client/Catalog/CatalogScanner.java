@@ -0,0 +1,460 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.ImagesResponse;
+import io.imbo.client.Images.Query;
+import io.imbo.client.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.JSONException;
+
+/**
+ * Scans the images added within a time range using parallel time windows
+ *
+ * Instead of paging deep into a single listing, the range is split into windows using
+ * the from/to filters of the query. Windows are scanned concurrently, and a window with
+ * more than `maxWindowHits` images is split into smaller windows before it is paged
+ * through, so no window needs deep page offsets.
+ *
+ * The server filters on whole seconds, so windows are aligned to seconds and are never
+ * split below one second. A single second holding more than `maxWindowHits` images is
+ * paged through instead.
+ *
+ * Windows are half-open: [start, end). Images are always passed to the handler on the
+ * thread calling scan(), either in window order or as soon as a window has been fetched.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CatalogScanner {
+
+    /**
+     * Default number of windows scanned concurrently
+     */
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    /**
+     * Default number of images to fetch per request
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Default max number of images in a window before it is split
+     */
+    public static final int DEFAULT_MAX_WINDOW_HITS = 1000;
+
+    /**
+     * Client used to list images
+     */
+    private ImboClient client;
+
+    /**
+     * Query to base the requests on
+     */
+    private Query query = new Query();
+
+    /**
+     * Number of windows scanned concurrently
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * Number of images to fetch per request
+     */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Max number of images in a window before it is split
+     */
+    private int maxWindowHits = DEFAULT_MAX_WINDOW_HITS;
+
+    /**
+     * Whether to pass images to the handler in time order
+     */
+    private boolean ordered = false;
+
+    /**
+     * Number of requests sent during the last scan
+     */
+    private AtomicInteger requestCount = new AtomicInteger();
+
+    /**
+     * Number of windows split during the last scan
+     */
+    private int splitCount = 0;
+
+    /**
+     * Class constructor
+     *
+     * @param client Client used to list images
+     */
+    public CatalogScanner(ImboClient client) {
+        this.client = client;
+    }
+
+    /**
+     * Set the query to base the requests on
+     *
+     * Use this to filter or project the images, for instance with fields or returnMetadata.
+     * Page, limit, from and to are set by the scanner.
+     *
+     * @param query Query to base the requests on
+     * @return Returns this scanner instance
+     */
+    public CatalogScanner setQuery(Query query) {
+        this.query = query.copy();
+        return this;
+    }
+
+    /**
+     * Set the number of windows scanned concurrently
+     *
+     * @param concurrency Number of concurrent requests
+     * @return Returns this scanner instance
+     */
+    public CatalogScanner setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Get the number of windows scanned concurrently
+     *
+     * @return Number of concurrent requests
+     */
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Set the number of images to fetch per request
+     *
+     * @param pageSize Number of images per request
+     * @return Returns this scanner instance
+     */
+    public CatalogScanner setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Set the max number of images in a window before it is split
+     *
+     * @param maxWindowHits Max number of images in a window
+     * @return Returns this scanner instance
+     */
+    public CatalogScanner setMaxWindowHits(int maxWindowHits) {
+        if (maxWindowHits < 1) {
+            throw new IllegalArgumentException("Max window hits must be at least 1");
+        }
+
+        this.maxWindowHits = maxWindowHits;
+        return this;
+    }
+
+    /**
+     * Set whether images should be passed to the handler in time order
+     *
+     * Ordered scans hold the images of a window until all earlier windows are done.
+     * Within a window, images come in the order returned by the server, which is
+     * ascending by date added unless the query specifies a sort.
+     *
+     * @param ordered Whether to keep time order
+     * @return Returns this scanner instance
+     */
+    public CatalogScanner setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * Get the number of requests sent during the last scan
+     *
+     * @return Number of requests
+     */
+    public int getRequestCount() {
+        return requestCount.get();
+    }
+
+    /**
+     * Get the number of windows split during the last scan
+     *
+     * @return Number of splits
+     */
+    public int getSplitCount() {
+        return splitCount;
+    }
+
+    /**
+     * Scan all images added in [from, to)
+     *
+     * @param from Start of the range, inclusive
+     * @param to End of the range, exclusive
+     * @param handler Handler receiving the images
+     * @return Number of images passed to the handler
+     * @throws IOException If a request or the handler fails
+     * @throws JSONException If the server returns an invalid response
+     */
+    public int scan(Date from, Date to, ImageHandler handler) throws IOException, JSONException {
+        // Images are added at whole seconds, so these are the first second in and out of range
+        long start = toSeconds(from);
+        long end = toSeconds(to);
+
+        requestCount.set(0);
+        splitCount = 0;
+
+        if (end <= start) {
+            return 0;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency, new DaemonThreadFactory("imboclient-scan"));
+        CompletionService<Window> completion = new ExecutorCompletionService<Window>(executor);
+
+        // Start times of the windows not yet passed to the handler, and the finished ones among them
+        TreeSet<Long> pending = new TreeSet<Long>();
+        Map<Long, Window> finished = new HashMap<Long, Window>();
+        int outstanding = 0;
+        int count = 0;
+
+        try {
+            for (Window window : split(start, end, concurrency)) {
+                pending.add(window.start);
+                completion.submit(window);
+                outstanding++;
+            }
+
+            while (outstanding > 0) {
+                Window window = this.take(completion);
+                outstanding--;
+
+                if (window.children != null) {
+                    splitCount++;
+                    pending.remove(window.start);
+
+                    for (Window child : window.children) {
+                        pending.add(child.start);
+                        completion.submit(child);
+                        outstanding++;
+                    }
+
+                    continue;
+                }
+
+                if (!ordered) {
+                    pending.remove(window.start);
+                    count += this.deliver(window, handler);
+                    continue;
+                }
+
+                finished.put(window.start, window);
+
+                while (!pending.isEmpty() && finished.containsKey(pending.first())) {
+                    count += this.deliver(finished.remove(pending.pollFirst()), handler);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return count;
+    }
+
+    /**
+     * Get the first whole second at or after a date
+     *
+     * @param date Date
+     * @return Seconds since the Unix epoch
+     */
+    private static long toSeconds(Date date) {
+        long millis = date.getTime();
+        long seconds = millis / 1000;
+
+        return seconds * 1000 < millis ? seconds + 1 : seconds;
+    }
+
+    /**
+     * Split [start, end) into a number of equally wide windows
+     *
+     * @param start Start of the range in seconds, inclusive
+     * @param end End of the range in seconds, exclusive
+     * @param parts Number of windows wanted
+     * @return Windows covering the range, at least one second wide
+     */
+    private List<Window> split(long start, long end, long parts) {
+        long width = end - start;
+        parts = Math.max(1, Math.min(parts, width));
+
+        List<Window> windows = new ArrayList<Window>();
+        long windowStart = start;
+
+        for (long i = 1; i <= parts; i++) {
+            long windowEnd = i == parts ? end : start + (width / parts) * i + Math.min(i, width % parts);
+            windows.add(new Window(windowStart, windowEnd));
+            windowStart = windowEnd;
+        }
+
+        return windows;
+    }
+
+    /**
+     * Pass the images of a window to the handler
+     *
+     * @param window Window to deliver
+     * @param handler Handler receiving the images
+     * @return Number of images delivered
+     * @throws IOException If the handler fails
+     */
+    private int deliver(Window window, ImageHandler handler) throws IOException {
+        for (Image image : window.images) {
+            handler.handle(image);
+        }
+
+        return window.images.size();
+    }
+
+    /**
+     * Wait for the next window to finish
+     *
+     * @param completion Completion service running the windows
+     * @return The finished window
+     * @throws IOException If the window failed or the thread was interrupted
+     * @throws JSONException If the server returned an invalid response
+     */
+    private Window take(CompletionService<Window> completion) throws IOException, JSONException {
+        Future<Window> future;
+
+        try {
+            future = completion.take();
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning the catalog");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof JSONException) {
+                throw (JSONException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException("Scanning the catalog failed", cause);
+        }
+    }
+
+    /**
+     * Fetch one page of a window
+     *
+     * @param window Window to fetch
+     * @param page Page number, starting at 1
+     * @return Response from the server
+     */
+    private ImagesResponse fetch(Window window, int page) throws IOException, JSONException {
+        Query windowQuery = query.copy()
+            .from(new Date(window.start * 1000))
+            .to(new Date((window.end - 1) * 1000))
+            .page(page)
+            .limit(pageSize);
+
+        if (ordered && (windowQuery.sort() == null || windowQuery.sort().isEmpty())) {
+            windowQuery.addSort("added", Query.SORT_ASC);
+        }
+
+        requestCount.incrementAndGet();
+        return client.getImages(windowQuery);
+    }
+
+    /**
+     * A time window of the scan, in whole seconds
+     *
+     * Fetches its first page, and either splits itself when it holds too many images
+     * or pages through the rest of them.
+     */
+    private class Window implements Callable<Window> {
+
+        /**
+         * Start of the window in seconds, inclusive
+         */
+        private long start;
+
+        /**
+         * End of the window in seconds, exclusive
+         */
+        private long end;
+
+        /**
+         * Images in the window, once fetched
+         */
+        private List<Image> images;
+
+        /**
+         * Smaller windows replacing this one, if it was split
+         */
+        private List<Window> children;
+
+        public Window(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        public Window call() throws IOException, JSONException {
+            ImagesResponse response = fetch(this, 1);
+            int totalHits = response.getTotalHits();
+
+            // A single second can not be narrowed down any further, so it is paged through
+            if (totalHits > maxWindowHits && end - start > 1) {
+                // Assume images are spread evenly, and aim for windows just below the limit
+                children = split(start, end, (totalHits + maxWindowHits - 1) / maxWindowHits);
+                return this;
+            }
+
+            images = new ArrayList<Image>(totalHits);
+            images.addAll(response.getImages());
+
+            int pages = (totalHits + pageSize - 1) / pageSize;
+            for (int page = 2; page <= pages; page++) {
+                images.addAll(fetch(this, page).getImages());
+            }
+
+            return this;
+        }
+
+    }
+
+}
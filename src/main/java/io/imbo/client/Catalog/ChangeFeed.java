@@ -0,0 +1,429 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.ImagesResponse;
+import io.imbo.client.Images.Query;
+import io.imbo.client.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+
+/**
+ * Delivers images that were added or updated since the last poll
+ *
+ * The feed keeps a watermark: the newest timestamp it has delivered. Every poll asks the
+ * server for images newer than the watermark minus an overlap window, so images stamped
+ * with a slightly skewed clock are not missed. Images seen again within the overlap
+ * are skipped unless their timestamp changed.
+ *
+ * Delivery is at least once: the watermark is stored after images have been handled, so
+ * a restart may deliver images from the overlap window again.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChangeFeed {
+
+    /**
+     * Default time between polls, in milliseconds
+     */
+    public static final long DEFAULT_POLL_INTERVAL = 30000;
+
+    /**
+     * Default overlap window, in milliseconds
+     */
+    public static final long DEFAULT_OVERLAP = 60000;
+
+    /**
+     * Default number of images to fetch per request
+     */
+    public static final int DEFAULT_PAGE_SIZE = 100;
+
+    /**
+     * Client used to list images
+     */
+    private ImboClient client;
+
+    /**
+     * Handler receiving changed images
+     */
+    private ImageHandler handler;
+
+    /**
+     * Store for the watermark, if any
+     */
+    private WatermarkStore watermarkStore;
+
+    /**
+     * Query to base the requests on
+     */
+    private Query query = new Query();
+
+    /**
+     * Time between polls, in milliseconds
+     */
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    /**
+     * Overlap window, in milliseconds
+     */
+    private long overlap = DEFAULT_OVERLAP;
+
+    /**
+     * Number of images to fetch per request
+     */
+    private int pageSize = DEFAULT_PAGE_SIZE;
+
+    /**
+     * Whether to follow updates, or only new images
+     */
+    private boolean trackUpdates = true;
+
+    /**
+     * Newest timestamp delivered, or -1 if nothing has been delivered
+     */
+    private long watermark = -1;
+
+    /**
+     * Whether the watermark has been read from the store
+     */
+    private boolean watermarkLoaded = false;
+
+    /**
+     * Timestamps of the images delivered within the overlap window, keyed by image identifier
+     */
+    private Map<String, Long> delivered = new HashMap<String, Long>();
+
+    /**
+     * Scheduler running background polls
+     */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Error from the last background poll, if it failed
+     */
+    private volatile Exception lastError;
+
+    /**
+     * Class constructor
+     *
+     * @param client Client used to list images
+     * @param handler Handler receiving changed images, oldest change first
+     */
+    public ChangeFeed(ImboClient client, ImageHandler handler) {
+        this.client = client;
+        this.handler = handler;
+    }
+
+    /**
+     * Set the store used to persist the watermark
+     *
+     * @param watermarkStore Store for the watermark
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setWatermarkStore(WatermarkStore watermarkStore) {
+        this.watermarkStore = watermarkStore;
+        this.watermarkLoaded = false;
+        return this;
+    }
+
+    /**
+     * Set the query to base the requests on
+     *
+     * Use this to filter the images or fetch meta data along with them. Page, limit,
+     * sorting and from are set by the feed.
+     *
+     * @param query Query to base the requests on
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setQuery(Query query) {
+        this.query = query.copy();
+        return this;
+    }
+
+    /**
+     * Set the time between background polls
+     *
+     * @param interval Time between polls
+     * @param unit Unit of the interval
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setPollInterval(long interval, TimeUnit unit) {
+        this.pollInterval = unit.toMillis(interval);
+        return this;
+    }
+
+    /**
+     * Set the overlap window
+     *
+     * Should be larger than the clock skew between the servers stamping the images.
+     *
+     * @param overlap Overlap window
+     * @param unit Unit of the overlap
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setOverlap(long overlap, TimeUnit unit) {
+        this.overlap = unit.toMillis(overlap);
+        return this;
+    }
+
+    /**
+     * Set the number of images to fetch per request
+     *
+     * @param pageSize Number of images per request
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be at least 1");
+        }
+
+        this.pageSize = pageSize;
+        return this;
+    }
+
+    /**
+     * Set whether to deliver updated images, or only new ones
+     *
+     * When only following new images, the feed filters on the date added using the from
+     * parameter. When following updates, it reads the images sorted by date updated
+     * until it passes the watermark.
+     *
+     * @param trackUpdates Whether to deliver updated images
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setTrackUpdates(boolean trackUpdates) {
+        this.trackUpdates = trackUpdates;
+        return this;
+    }
+
+    /**
+     * Set the watermark, overriding any stored value
+     *
+     * @param watermark Date to deliver changes from
+     * @return Returns this feed instance
+     */
+    public synchronized ChangeFeed setWatermark(Date watermark) {
+        this.watermark = watermark == null ? -1 : watermark.getTime();
+        this.watermarkLoaded = true;
+        this.delivered.clear();
+        return this;
+    }
+
+    /**
+     * Get the watermark
+     *
+     * @return Newest timestamp delivered, or null if nothing has been delivered
+     */
+    public synchronized Date getWatermark() {
+        return watermark < 0 ? null : new Date(watermark);
+    }
+
+    /**
+     * Get the error from the last background poll
+     *
+     * @return The error, or null if the last poll succeeded
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    /**
+     * Fetch changes since the last poll and pass them to the handler
+     *
+     * @return Number of images passed to the handler
+     * @throws IOException If a request, the handler or the watermark store fails
+     * @throws JSONException If the server returns an invalid response
+     */
+    public synchronized int poll() throws IOException, JSONException {
+        if (!watermarkLoaded) {
+            watermark = watermarkStore == null ? -1 : watermarkStore.load();
+            watermarkLoaded = true;
+        }
+
+        long cutoff = watermark < 0 ? -1 : watermark - overlap;
+        List<Image> changes = this.fetchChanges(cutoff);
+
+        // Deliver the oldest changes first, so the watermark can follow each image
+        Collections.sort(changes, new Comparator<Image>() {
+            public int compare(Image a, Image b) {
+                long diff = getTimestamp(a) - getTimestamp(b);
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+
+        long previous = watermark;
+        int count = 0;
+
+        try {
+            for (Image image : changes) {
+                handler.handle(image);
+
+                long timestamp = getTimestamp(image);
+                delivered.put(image.getIdentifier(), timestamp);
+                watermark = Math.max(watermark, timestamp);
+                count++;
+            }
+        } finally {
+            this.prune();
+
+            if (watermarkStore != null && watermark != previous) {
+                watermarkStore.save(watermark);
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Start polling in the background
+     *
+     * Failed polls are retried at the next interval, see getLastError().
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+
+        scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("imboclient-feed"));
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                try {
+                    poll();
+                    lastError = null;
+                } catch (Exception e) {
+                    lastError = e;
+                }
+            }
+        }, 0, pollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop polling in the background
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Fetch the images changed after the cutoff which have not been delivered yet
+     *
+     * @param cutoff Timestamp to fetch changes from, or -1 to fetch everything
+     * @return Changed images
+     */
+    private List<Image> fetchChanges(long cutoff) throws IOException, JSONException {
+        Query changesQuery = query.copy().limit(pageSize).sort(null);
+
+        if (changesQuery.fields() != null && !changesQuery.fields().isEmpty()) {
+            // The feed needs these to track the images, even when the caller projects
+            for (String field : new String[] { "imageIdentifier", "added", "updated" }) {
+                if (!changesQuery.fields().contains(field)) {
+                    changesQuery.addField(field);
+                }
+            }
+        }
+
+        if (trackUpdates) {
+            changesQuery.addSort("updated", Query.SORT_DESC);
+        } else {
+            changesQuery.addSort("added", Query.SORT_ASC);
+
+            if (cutoff >= 0) {
+                changesQuery.from(new Date(cutoff));
+            }
+        }
+
+        Map<String, Image> changes = new HashMap<String, Image>();
+        int page = 1;
+
+        while (true) {
+            ImagesResponse response = client.getImages(changesQuery.page(page));
+            List<Image> images = response.getImages();
+            boolean passedCutoff = false;
+
+            for (Image image : images) {
+                long timestamp = getTimestamp(image);
+
+                if (timestamp < 0) {
+                    continue;
+                }
+
+                if (timestamp < cutoff) {
+                    // Sorted by date updated, so the rest of the images are older too
+                    passedCutoff = trackUpdates;
+                    break;
+                }
+
+                Long previous = delivered.get(image.getIdentifier());
+                if (previous != null && previous >= timestamp) {
+                    continue;
+                }
+
+                changes.put(image.getIdentifier(), image);
+            }
+
+            if (passedCutoff || images.size() < pageSize || page * pageSize >= response.getTotalHits()) {
+                break;
+            }
+
+            page++;
+        }
+
+        return new ArrayList<Image>(changes.values());
+    }
+
+    /**
+     * Forget delivered images which are older than the overlap window
+     */
+    private void prune() {
+        long cutoff = watermark - overlap;
+        Iterator<Long> iterator = delivered.values().iterator();
+
+        while (iterator.hasNext()) {
+            if (iterator.next() < cutoff) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Get the timestamp the feed tracks for an image
+     *
+     * @param image The image
+     * @return Date updated (or added when only following new images) in milliseconds,
+     *         or -1 if the image has no date
+     */
+    private long getTimestamp(Image image) {
+        Date date = trackUpdates ? image.getUpdatedDate() : null;
+
+        if (date == null) {
+            date = image.getAddedDate();
+        }
+
+        return date == null ? -1 : date.getTime();
+    }
+
+}
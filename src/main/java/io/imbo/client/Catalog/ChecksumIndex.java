@@ -0,0 +1,356 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.Query;
+import io.imbo.client.util.Crypto;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.Date;
+
+import org.json.JSONException;
+
+/**
+ * Local Bloom filter of the checksums known to exist on the server
+ *
+ * Answers "definitely not on the server" or "maybe on the server" without a request. The
+ * bits live outside the Java heap, either in a direct buffer or in a memory-mapped file
+ * which keeps the index across restarts.
+ *
+ * A Bloom filter can not forget entries, so checksums of deleted images stay "maybe"
+ * until the index is cleared and populated again. A "maybe" is always confirmed by the
+ * server, so a stale entry only costs a request.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChecksumIndex {
+
+    /**
+     * Identifies an index file ("IMBF")
+     */
+    private static final int MAGIC = 0x494d4246;
+
+    /**
+     * Size of the file header: magic, bit count, hash count and entry count
+     */
+    private static final int HEADER_SIZE = 24;
+
+    /**
+     * Bits, preceded by the header
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Number of bits in the filter
+     */
+    private long bitCount;
+
+    /**
+     * Number of bits set per checksum
+     */
+    private int hashCount;
+
+    /**
+     * Number of checksums added
+     */
+    private long count;
+
+    /**
+     * Create an index kept in memory outside the heap
+     *
+     * @param expectedEntries Number of checksums the index should hold
+     * @param falsePositiveRate Wanted ratio of "maybe" answers for unknown checksums, for
+     *                          instance 0.01
+     */
+    public ChecksumIndex(long expectedEntries, double falsePositiveRate) {
+        this.setSize(expectedEntries, falsePositiveRate);
+        this.buffer = ByteBuffer.allocateDirect(this.getBufferSize());
+        this.writeHeader();
+    }
+
+    /**
+     * Create or open an index stored in a memory-mapped file
+     *
+     * An existing index file is reused as is, in which case the sizing parameters are ignored.
+     *
+     * @param file File holding the index
+     * @param expectedEntries Number of checksums the index should hold
+     * @param falsePositiveRate Wanted ratio of "maybe" answers for unknown checksums
+     * @throws IOException If the file can not be mapped or is not an index file
+     */
+    public ChecksumIndex(File file, long expectedEntries, double falsePositiveRate) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            boolean exists = raf.length() > 0;
+
+            if (exists) {
+                if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+                    throw new IOException(file.getPath() + " is not a checksum index");
+                }
+
+                this.bitCount = raf.readLong();
+                this.hashCount = raf.readInt();
+                this.count = raf.readLong();
+
+                if (raf.length() != HEADER_SIZE + this.bitCount / 8) {
+                    throw new IOException(file.getPath() + " is truncated");
+                }
+            } else {
+                this.setSize(expectedEntries, falsePositiveRate);
+            }
+
+            MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, this.getBufferSize());
+            this.buffer = mapped;
+
+            if (!exists) {
+                this.writeHeader();
+            }
+        } finally {
+            // The mapping stays valid after the file is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Add a checksum to the index
+     *
+     * @param checksum Image checksum
+     */
+    public void add(String checksum) {
+        long[] hash = hash(checksum);
+
+        synchronized (this) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bitCount;
+                int index = HEADER_SIZE + (int) (bit >>> 3);
+
+                buffer.put(index, (byte) (buffer.get(index) | (1 << (bit & 7))));
+            }
+
+            count++;
+            buffer.putLong(16, count);
+        }
+    }
+
+    /**
+     * Add a set of checksums to the index
+     *
+     * @param checksums Image checksums
+     */
+    public void addAll(Collection<String> checksums) {
+        for (String checksum : checksums) {
+            this.add(checksum);
+        }
+    }
+
+    /**
+     * Check if a checksum might be on the server
+     *
+     * @param checksum Image checksum
+     * @return False if the checksum is definitely not on the server, true if it might be
+     */
+    public boolean mightContain(String checksum) {
+        long[] hash = hash(checksum);
+
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash[0] + i * hash[1]) & Long.MAX_VALUE) % bitCount;
+
+            if ((buffer.get(HEADER_SIZE + (int) (bit >>> 3)) & (1 << (bit & 7))) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Add the checksums of every image on the server
+     *
+     * @param client Client to scan the catalog with
+     * @return Number of checksums added
+     * @throws IOException If the scan fails
+     * @throws JSONException If the server returns an invalid response
+     */
+    public int populate(ImboClient client) throws IOException, JSONException {
+        CatalogScanner scanner = new CatalogScanner(client).setQuery(new Query().addField("checksum"));
+
+        int added = scanner.scan(new Date(0), new Date(System.currentTimeMillis() + 1), new ImageHandler() {
+            public void handle(Image image) {
+                if (image.getChecksum() != null) {
+                    add(image.getChecksum());
+                }
+            }
+        });
+
+        this.flush();
+
+        return added;
+    }
+
+    /**
+     * Remove all checksums from the index
+     */
+    public synchronized void clear() {
+        for (int i = HEADER_SIZE; i < buffer.capacity(); i++) {
+            buffer.put(i, (byte) 0);
+        }
+
+        count = 0;
+        buffer.putLong(16, count);
+    }
+
+    /**
+     * Write changes to a memory-mapped index to disk
+     */
+    public synchronized void flush() {
+        if (buffer instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) buffer).force();
+        }
+    }
+
+    /**
+     * Get the number of checksums added
+     *
+     * @return Number of checksums
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the number of bits in the filter
+     *
+     * @return Number of bits
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Get the number of bits set per checksum
+     *
+     * @return Number of hash functions
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Get the expected ratio of "maybe" answers for unknown checksums at the current fill
+     *
+     * @return Expected false positive rate
+     */
+    public synchronized double getExpectedFalsePositiveRate() {
+        return Math.pow(1 - Math.exp(-(double) hashCount * count / bitCount), hashCount);
+    }
+
+    /**
+     * Calculate the number of bits and hash functions for the wanted capacity
+     *
+     * @param expectedEntries Number of checksums the index should hold
+     * @param falsePositiveRate Wanted false positive rate
+     */
+    private void setSize(long expectedEntries, double falsePositiveRate) {
+        if (expectedEntries < 1) {
+            throw new IllegalArgumentException("Expected entries must be at least 1");
+        }
+
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("False positive rate must be between 0 and 1");
+        }
+
+        double bits = -expectedEntries * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+
+        // Round up to whole longs, which keeps the bit count a multiple of 8
+        bitCount = Math.max(64, ((long) Math.ceil(bits) + 63) / 64 * 64);
+
+        if (bitCount / 8 > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Checksum index would be larger than 2 GB");
+        }
+
+        hashCount = (int) Math.max(1, Math.min(16, Math.round((double) bitCount / expectedEntries * Math.log(2))));
+    }
+
+    /**
+     * Get the size of the buffer holding the header and the bits
+     *
+     * @return Size in bytes
+     */
+    private int getBufferSize() {
+        return HEADER_SIZE + (int) (bitCount / 8);
+    }
+
+    /**
+     * Write the header to the start of the buffer
+     */
+    private void writeHeader() {
+        buffer.putInt(0, MAGIC);
+        buffer.putLong(4, bitCount);
+        buffer.putInt(12, hashCount);
+        buffer.putLong(16, count);
+    }
+
+    /**
+     * Get two 64 bit hashes of a checksum
+     *
+     * Checksums are MD5 hashes already, so their hex digits are used directly. Anything
+     * else is hashed with MD5 first.
+     *
+     * @param checksum Image checksum
+     * @return Two hashes used for double hashing
+     */
+    private static long[] hash(String checksum) {
+        long[] hash = parseHex(checksum);
+
+        if (hash == null) {
+            hash = parseHex(Crypto.md5(checksum));
+        }
+
+        return hash;
+    }
+
+    /**
+     * Parse a 32 character hex string into two longs
+     *
+     * @param hex Hex string
+     * @return Two longs, or null if the string is not 32 hex digits
+     */
+    private static long[] parseHex(String hex) {
+        if (hex.length() != 32) {
+            return null;
+        }
+
+        long[] result = new long[2];
+
+        for (int i = 0; i < 32; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+
+            if (digit < 0) {
+                return null;
+            }
+
+            result[i / 16] = (result[i / 16] << 4) | digit;
+        }
+
+        // A zero step would put every probe on the same bit
+        result[1] |= 1;
+
+        return result;
+    }
+
+}
@@ -0,0 +1,137 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Outcome of a catalog export
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ExportResult {
+
+    /**
+     * Number of images listed
+     */
+    private int imageCount;
+
+    /**
+     * Number of originals downloaded
+     */
+    private int downloadedCount;
+
+    /**
+     * Number of originals already stored locally
+     */
+    private int skippedCount;
+
+    /**
+     * Number of bytes downloaded
+     */
+    private long byteCount;
+
+    /**
+     * Images whose originals could not be downloaded, and why
+     */
+    private Map<String, Exception> failures = new LinkedHashMap<String, Exception>();
+
+    /**
+     * Get the number of images listed, and written to the meta data file
+     *
+     * @return Number of images
+     */
+    public synchronized int getImageCount() {
+        return imageCount;
+    }
+
+    /**
+     * Get the number of originals downloaded
+     *
+     * @return Number of originals
+     */
+    public synchronized int getDownloadedCount() {
+        return downloadedCount;
+    }
+
+    /**
+     * Get the number of originals already stored locally
+     *
+     * @return Number of originals
+     */
+    public synchronized int getSkippedCount() {
+        return skippedCount;
+    }
+
+    /**
+     * Get the number of bytes downloaded
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * Get the images whose originals could not be downloaded
+     *
+     * Failed originals are not stored, so the next export retries them.
+     *
+     * @return Exceptions, keyed by image identifier
+     */
+    public synchronized Map<String, Exception> getFailures() {
+        return Collections.unmodifiableMap(new LinkedHashMap<String, Exception>(failures));
+    }
+
+    /**
+     * Whether every original was stored
+     *
+     * @return True if no download failed
+     */
+    public synchronized boolean isSuccess() {
+        return failures.isEmpty();
+    }
+
+    /**
+     * Count a listed image
+     */
+    synchronized void addImage() {
+        imageCount++;
+    }
+
+    /**
+     * Count a downloaded original
+     *
+     * @param size Number of bytes downloaded
+     */
+    synchronized void addDownloaded(long size) {
+        downloadedCount++;
+        byteCount += size;
+    }
+
+    /**
+     * Count an original already stored locally
+     */
+    synchronized void addSkipped() {
+        skippedCount++;
+    }
+
+    /**
+     * Record a failed download
+     *
+     * @param imageIdentifier Image identifier
+     * @param exception Why it failed
+     */
+    synchronized void addFailure(String imageIdentifier, Exception exception) {
+        failures.put(imageIdentifier, exception);
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.util.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Stores the watermark of a change feed in a file
+ *
+ * The watermark is written to a temporary file which is renamed over the previous one, so
+ * a crash while saving leaves the old watermark in place.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class FileWatermarkStore implements WatermarkStore {
+
+    /**
+     * Charset used for the file contents
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * File holding the watermark
+     */
+    private File file;
+
+    /**
+     * Class constructor
+     *
+     * @param file File holding the watermark. Created on the first save
+     */
+    public FileWatermarkStore(File file) {
+        this.file = file;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized long load() throws IOException {
+        if (!file.exists()) {
+            return -1;
+        }
+
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int read = input.read(data, offset, data.length - offset);
+                if (read < 0) {
+                    break;
+                }
+
+                offset += read;
+            }
+
+            return Long.parseLong(new String(data, 0, offset, UTF8).trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid watermark in " + file.getPath(), e);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public synchronized void save(long watermark) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File temp = File.createTempFile("watermark", ".tmp", directory);
+
+        try {
+            FileOutputStream output = new FileOutputStream(temp);
+
+            try {
+                output.write(Long.toString(watermark).getBytes(UTF8));
+                output.getFD().sync();
+            } finally {
+                output.close();
+            }
+
+            FileUtils.replace(temp, file);
+        } finally {
+            if (temp.exists()) {
+                temp.delete();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.Images.Image;
+
+import java.io.IOException;
+
+/**
+ * Receives images found while scanning the catalog
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public interface ImageHandler {
+
+    /**
+     * Handle an image
+     *
+     * @param image Image to handle
+     * @throws IOException If the image can not be handled. Aborts the scan
+     */
+    public void handle(Image image) throws IOException;
+
+}
@@ -0,0 +1,36 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import java.io.IOException;
+
+/**
+ * Persists the watermark of a change feed between runs
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public interface WatermarkStore {
+
+    /**
+     * Load the stored watermark
+     *
+     * @return Watermark in milliseconds, or -1 if none has been stored
+     * @throws IOException If the watermark can not be read
+     */
+    public long load() throws IOException;
+
+    /**
+     * Store a watermark
+     *
+     * @param watermark Watermark in milliseconds
+     * @throws IOException If the watermark can not be written
+     */
+    public void save(long watermark) throws IOException;
+
+}
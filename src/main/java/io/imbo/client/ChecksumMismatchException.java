@@ -0,0 +1,66 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown when transferred image data does not match the checksum reported by the server
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChecksumMismatchException extends IOException {
+
+    /**
+     * Serial UID
+     */
+    private static final long serialVersionUID = -2217390520443312075L;
+
+    /**
+     * Checksum reported by the server
+     */
+    private String expectedChecksum;
+
+    /**
+     * Checksum of the transferred data
+     */
+    private String actualChecksum;
+
+    /**
+     * Exception constructor
+     *
+     * @param expectedChecksum Checksum reported by the server
+     * @param actualChecksum Checksum of the transferred data
+     */
+    public ChecksumMismatchException(String expectedChecksum, String actualChecksum) {
+        super("Checksum mismatch: server reported " + expectedChecksum + ", data has " + actualChecksum);
+
+        this.expectedChecksum = expectedChecksum;
+        this.actualChecksum = actualChecksum;
+    }
+
+    /**
+     * Get the checksum reported by the server
+     *
+     * @return Expected checksum
+     */
+    public String getExpectedChecksum() {
+        return this.expectedChecksum;
+    }
+
+    /**
+     * Get the checksum of the transferred data
+     *
+     * @return Actual checksum
+     */
+    public String getActualChecksum() {
+        return this.actualChecksum;
+    }
+
+}
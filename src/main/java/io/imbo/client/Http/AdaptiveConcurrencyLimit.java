@@ -0,0 +1,291 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+/**
+ * Concurrency limit which adapts to the latency and errors of the server
+ *
+ * The limit follows the latency gradient: the long-term average latency divided by the
+ * short-term one. While latency is stable the limit grows by about its square root per
+ * sample, and as requests start to queue on the server and latency rises it shrinks in
+ * proportion. Overload responses and failed requests cut it by a fixed ratio. The limit
+ * does not grow while the requests in flight use less than half of it, as there is
+ * nothing to learn about the server from that. Thread-safe.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class AdaptiveConcurrencyLimit {
+
+    /**
+     * Default number of requests allowed in flight before the first sample
+     */
+    public static final int DEFAULT_INITIAL_LIMIT = 4;
+
+    /**
+     * Default factor short-term latency may grow by before the limit shrinks
+     */
+    public static final double DEFAULT_TOLERANCE = 1.5;
+
+    /**
+     * Default ratio the limit is multiplied with when a request is dropped
+     */
+    public static final double DEFAULT_BACKOFF_RATIO = 0.9;
+
+    /**
+     * Number of recent latency samples kept for metrics
+     */
+    public static final int SAMPLE_HISTORY = 100;
+
+    /**
+     * Weight of a new limit when smoothing it with the current one
+     */
+    private static final double SMOOTHING = 0.2;
+
+    /**
+     * Weight of a sample in the short-term latency average, for a window of 10 samples
+     */
+    private static final double SHORT_WINDOW = 2.0 / 11;
+
+    /**
+     * Weight of a sample in the long-term latency average, for a window of 600 samples
+     */
+    private static final double LONG_WINDOW = 2.0 / 601;
+
+    /**
+     * Lowest limit
+     */
+    private int minLimit;
+
+    /**
+     * Highest limit
+     */
+    private int maxLimit;
+
+    /**
+     * Current limit, kept fractional so it can grow gradually
+     */
+    private double limit;
+
+    /**
+     * Factor short-term latency may grow by before the limit shrinks
+     */
+    private double tolerance = DEFAULT_TOLERANCE;
+
+    /**
+     * Ratio the limit is multiplied with when a request is dropped
+     */
+    private double backoffRatio = DEFAULT_BACKOFF_RATIO;
+
+    /**
+     * Short-term average latency, in nanoseconds
+     */
+    private double shortLatency;
+
+    /**
+     * Long-term average latency, in nanoseconds
+     */
+    private double longLatency;
+
+    /**
+     * Recent latency samples, in nanoseconds
+     */
+    private long[] samples = new long[SAMPLE_HISTORY];
+
+    /**
+     * Number of latency samples taken
+     */
+    private long sampleCount;
+
+    /**
+     * Number of dropped requests
+     */
+    private long dropCount;
+
+    /**
+     * Class constructor
+     *
+     * @param minLimit Lowest limit
+     * @param maxLimit Highest limit
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit) {
+        this(minLimit, maxLimit, Math.max(minLimit, Math.min(maxLimit, DEFAULT_INITIAL_LIMIT)));
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param minLimit Lowest limit
+     * @param maxLimit Highest limit
+     * @param initialLimit Limit before the first sample
+     */
+    public AdaptiveConcurrencyLimit(int minLimit, int maxLimit, int initialLimit) {
+        if (minLimit < 1 || maxLimit < minLimit) {
+            throw new IllegalArgumentException("Limits must be at least 1, with the lowest limit not above the highest");
+        }
+
+        if (initialLimit < minLimit || initialLimit > maxLimit) {
+            throw new IllegalArgumentException("Initial limit must be between the lowest and highest limit");
+        }
+
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = initialLimit;
+    }
+
+    /**
+     * Set the factor short-term latency may grow by before the limit shrinks
+     *
+     * @param tolerance Factor, at least 1
+     * @return Returns this limit instance
+     */
+    public synchronized AdaptiveConcurrencyLimit setTolerance(double tolerance) {
+        if (tolerance < 1) {
+            throw new IllegalArgumentException("Tolerance must be at least 1");
+        }
+
+        this.tolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Set the ratio the limit is multiplied with when a request is dropped
+     *
+     * @param backoffRatio Ratio, between 0 and 1
+     * @return Returns this limit instance
+     */
+    public synchronized AdaptiveConcurrencyLimit setBackoffRatio(double backoffRatio) {
+        if (backoffRatio <= 0 || backoffRatio >= 1) {
+            throw new IllegalArgumentException("Backoff ratio must be between 0 and 1");
+        }
+
+        this.backoffRatio = backoffRatio;
+        return this;
+    }
+
+    /**
+     * Update the limit with the outcome of a finished request
+     *
+     * @param latency Time the request took, in nanoseconds
+     * @param inFlight Number of requests in flight when the request finished, itself included
+     * @param dropped Whether the request failed or the server reported being overloaded
+     */
+    public synchronized void onSample(long latency, int inFlight, boolean dropped) {
+        samples[(int) (sampleCount % SAMPLE_HISTORY)] = latency;
+        sampleCount++;
+
+        if (dropped) {
+            dropCount++;
+            limit = Math.max(minLimit, limit * backoffRatio);
+            return;
+        }
+
+        if (shortLatency == 0) {
+            shortLatency = latency;
+            longLatency = latency;
+        } else {
+            shortLatency += (latency - shortLatency) * SHORT_WINDOW;
+            longLatency += (latency - longLatency) * LONG_WINDOW;
+        }
+
+        // Let the baseline follow latency down quickly after a period of overload
+        if (longLatency > shortLatency * 2) {
+            longLatency *= 0.95;
+        }
+
+        if (inFlight < limit / 2) {
+            return;
+        }
+
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * longLatency / shortLatency));
+        double newLimit = limit * gradient + Math.sqrt(limit);
+
+        limit = limit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        limit = Math.max(minLimit, Math.min(maxLimit, limit));
+    }
+
+    /**
+     * Get the number of requests currently allowed in flight
+     *
+     * @return Limit
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Get the lowest limit
+     *
+     * @return Lowest limit
+     */
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    /**
+     * Get the highest limit
+     *
+     * @return Highest limit
+     */
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    /**
+     * Get the short-term average latency
+     *
+     * @return Latency in nanoseconds, or 0 before the first successful request
+     */
+    public synchronized long getShortTermLatency() {
+        return (long) shortLatency;
+    }
+
+    /**
+     * Get the long-term average latency the short-term latency is compared with
+     *
+     * @return Latency in nanoseconds, or 0 before the first successful request
+     */
+    public synchronized long getLongTermLatency() {
+        return (long) longLatency;
+    }
+
+    /**
+     * Get the most recent latency samples
+     *
+     * @return Up to SAMPLE_HISTORY samples in nanoseconds, oldest first
+     */
+    public synchronized long[] getLatencySamples() {
+        int count = (int) Math.min(sampleCount, SAMPLE_HISTORY);
+        long[] recent = new long[count];
+
+        for (int i = 0; i < count; i++) {
+            recent[i] = samples[(int) ((sampleCount - count + i) % SAMPLE_HISTORY)];
+        }
+
+        return recent;
+    }
+
+    /**
+     * Get the number of requests sampled
+     *
+     * @return Number of requests
+     */
+    public synchronized long getSampleCount() {
+        return sampleCount;
+    }
+
+    /**
+     * Get the number of dropped requests
+     *
+     * @return Number of requests
+     */
+    public synchronized long getDropCount() {
+        return dropCount;
+    }
+
+}
@@ -13,6 +13,7 @@ import io.imbo.client.Url.Url;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
 
@@ -97,6 +98,20 @@ public interface HttpClient {
      */
     public ImboResponse post(URI url, InputStream input, List<Header> headers) throws IOException;
     
+    /**
+     * Perform a POST-request against the given URL, streaming the body
+     *
+     * The input is sent as it is read, without buffering it in memory first.
+     *
+     * @param url URL to perform request against
+     * @param input Input stream to use for reading POST-data from
+     * @param length Number of bytes in the input, or -1 if unknown
+     * @param headers Headers to send along with the request
+     * @return HTTP response
+     * @throws IOException
+     */
+    public Response post(URI url, InputStream input, long length, List<Header> headers) throws IOException;
+    
     /**
      * Perform a POST-request against the given URL
      *
@@ -136,6 +151,31 @@ public interface HttpClient {
      */
     public Response get(Url url) throws IOException;
 
+    /**
+     * Perform a GET-request against the given URL
+     *
+     * @param url URL to perform request against
+     * @param headers Headers to send along with the request
+     * @return HTTP response
+     * @throws IOException
+     */
+    public Response get(URI url, List<Header> headers) throws IOException;
+
+    /**
+     * Perform a GET-request against the given URL, streaming the body to an output stream
+     *
+     * The body of a successful response is written to the output as it arrives instead of
+     * being kept in the response. Responses shorter than their Content-Length fail, as do
+     * full responses to a request with a Range header.
+     *
+     * @param url URL to perform request against
+     * @param headers Headers to send along with the request
+     * @param output Stream to write the response body to
+     * @return HTTP response, without a body
+     * @throws IOException
+     */
+    public Response get(URI url, List<Header> headers, OutputStream output) throws IOException;
+
     /**
      * Perform a HEAD-request against the given URL
      *
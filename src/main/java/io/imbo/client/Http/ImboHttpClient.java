@@ -16,6 +16,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLConnection;
 import java.util.ArrayList;
@@ -29,14 +31,17 @@ import org.apache.http.HttpVersion;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.message.BasicHeader;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
@@ -51,6 +56,16 @@ import org.apache.http.util.EntityUtils;
  */
 public class ImboHttpClient implements HttpClient {
 
+    /**
+     * Default max number of pooled connections, per host and in total
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+
+    /**
+     * Max number of pooled connections, per host and in total
+     */
+    private int maxConnections = DEFAULT_MAX_CONNECTIONS;
+
     /**
      * Apache HTTP client to use for requests
      */
@@ -66,27 +81,30 @@ public class ImboHttpClient implements HttpClient {
      */
     private List<Header> requestHeaders = new ArrayList<Header>();
 
+    /**
+     * Schedules requests onto the connections, created on first use
+     */
+    private RequestDispatcher dispatcher;
+
+    /**
+     * Class of the requests sent by this client
+     */
+    private RequestClass requestClass = RequestClass.INTERACTIVE;
+
+    /**
+     * Optional throttle pacing requests and the bytes sent and received
+     */
+    private RequestThrottle throttle;
+
     /**
      * Response handler for the web client
      */
     private ResponseHandler<ImboResponse> defaultHandler = new ResponseHandler<ImboResponse>() {
         public ImboResponse handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
-            ImboResponse imboResponse = new ImboResponse();
+            ImboResponse imboResponse = createResponse(response);
 
             HttpEntity entity    = response.getEntity();
             Header contentType   = response.getFirstHeader("Content-Type");
-            Header contentLength = response.getLastHeader("Content-Length");
-            
-            imboResponse.setStatusCode(response.getStatusLine().getStatusCode());
-            imboResponse.setHeaders(response.getAllHeaders());
-            
-            if (contentType != null) {
-                imboResponse.setContentType(contentType.getValue().split(";")[0].trim());
-            }
-            
-            if (contentLength != null) {
-                imboResponse.setContentLength(Long.parseLong(contentLength.getValue()));
-            }
 
             if (entity != null && contentType.getValue().startsWith("image/")) {
                 imboResponse.setRawBody(EntityUtils.toByteArray(entity));
@@ -156,6 +174,20 @@ public class ImboHttpClient implements HttpClient {
         return this.request(post);
 	}
     
+    /**
+     * {@inheritDoc}
+     */
+    public ImboResponse post(URI url, InputStream input, long length, List<Header> headers) throws IOException {
+        HttpPost post = new HttpPost(url);
+        post.setEntity(new InputStreamEntity(input, length));
+        
+        if (headers != null) {
+            post.setHeaders(headers.toArray(new Header[0]));
+        }
+        
+        return this.request(post);
+    }
+    
     /**
      * {@inheritDoc}
      */
@@ -205,6 +237,59 @@ public class ImboHttpClient implements HttpClient {
         return this.get(url.toUri());
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public ImboResponse get(URI url, List<Header> headers) throws IOException {
+        HttpGet get = new HttpGet(url);
+        
+        if (headers != null) {
+            get.setHeaders(headers.toArray(new Header[0]));
+        }
+        
+        return this.request(get);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public ImboResponse get(URI url, List<Header> headers, final OutputStream output) throws IOException {
+        final HttpGet get = new HttpGet(url);
+        
+        if (headers != null) {
+            get.setHeaders(headers.toArray(new Header[0]));
+        }
+        
+        return this.request(get, new ResponseHandler<ImboResponse>() {
+            public ImboResponse handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+                HttpEntity entity = response.getEntity();
+                int statusCode = response.getStatusLine().getStatusCode();
+                
+                // Errors and empty responses are handled as usual, so error details are kept
+                if (entity == null || statusCode >= 300) {
+                    return defaultHandler.handleResponse(response);
+                }
+                
+                // A server ignoring the range sends the whole body, which must not be written
+                // where the caller expects the range to go
+                if (statusCode != 206 && get.containsHeader("Range")) {
+                    EntityUtils.consume(entity);
+                    throw new IOException("Server ignored the requested range for " + get.getURI());
+                }
+                
+                ImboResponse imboResponse = createResponse(response);
+                Header contentLength = response.getLastHeader("Content-Length");
+                long received = copy(entity.getContent(), output);
+                
+                if (contentLength != null && received != imboResponse.getContentLength()) {
+                    throw new IOException("Response truncated: expected " + imboResponse.getContentLength() + " bytes, received " + received);
+                }
+                
+                return imboResponse;
+            }
+        });
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -354,7 +439,7 @@ public class ImboHttpClient implements HttpClient {
      *
      * @return HTTP parameters
      */
-    public org.apache.http.client.HttpClient getHttpClient() {
+    public synchronized org.apache.http.client.HttpClient getHttpClient() {
         if (webClient == null) {
             this.setHttpClient(getDefaultHttpClient());
         }
@@ -368,12 +453,126 @@ public class ImboHttpClient implements HttpClient {
      * @param params HTTP parameters to use for requests
      * @return HTTP client instance
      */
-    public HttpClient setHttpClient(org.apache.http.client.HttpClient httpClient) {
+    public synchronized HttpClient setHttpClient(org.apache.http.client.HttpClient httpClient) {
         webClient = httpClient;
 
         return this;
     }
     
+    /**
+     * Set the max number of pooled connections used by the default HTTP client
+     *
+     * Only has an effect if called before the first request is made, and if no custom
+     * HTTP client has been set.
+     *
+     * @param maxConnections Max number of connections, per host and in total
+     * @return HTTP client instance
+     */
+    public ImboHttpClient setMaxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+
+        return this;
+    }
+
+    /**
+     * Get the max number of pooled connections used by the default HTTP client
+     *
+     * @return Max number of connections, per host and in total
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+    
+    /**
+     * Set the dispatcher scheduling requests onto the connections
+     *
+     * Clients created with forRequestClass() keep sharing the dispatcher they were created
+     * with.
+     *
+     * @param dispatcher Request dispatcher
+     * @return HTTP client instance
+     */
+    public synchronized ImboHttpClient setDispatcher(RequestDispatcher dispatcher) {
+        this.dispatcher = dispatcher;
+
+        return this;
+    }
+
+    /**
+     * Get the dispatcher scheduling requests onto the connections
+     *
+     * The default dispatcher allows as many requests in flight as there are pooled
+     * connections, and lets bulk requests use half of them.
+     *
+     * @return Request dispatcher
+     */
+    public synchronized RequestDispatcher getDispatcher() {
+        if (dispatcher == null) {
+            dispatcher = new RequestDispatcher(maxConnections);
+        }
+
+        return dispatcher;
+    }
+
+    /**
+     * Set the throttle pacing requests and the bytes sent and received
+     *
+     * Requests are paced by the public key in their URL and the class of this client.
+     * Clients created with forRequestClass() keep sharing the throttle they were created
+     * with.
+     *
+     * @param throttle Request throttle, or null to disable throttling
+     * @return HTTP client instance
+     */
+    public ImboHttpClient setThrottle(RequestThrottle throttle) {
+        this.throttle = throttle;
+
+        return this;
+    }
+
+    /**
+     * Get the throttle pacing requests and the bytes sent and received
+     *
+     * @return Request throttle, or null if requests are not throttled
+     */
+    public RequestThrottle getThrottle() {
+        return throttle;
+    }
+
+    /**
+     * Get the class of the requests sent by this client
+     *
+     * @return Request class
+     */
+    public RequestClass getRequestClass() {
+        return requestClass;
+    }
+
+    /**
+     * Get a client sending requests of the given class
+     *
+     * The returned client shares connections, request headers and dispatcher with this
+     * one, and is cheap enough to create for a single call.
+     *
+     * @param requestClass Class of the requests
+     * @return HTTP client instance for the request class
+     */
+    public ImboHttpClient forRequestClass(RequestClass requestClass) {
+        if (requestClass == this.requestClass) {
+            return this;
+        }
+
+        ImboHttpClient client = new ImboHttpClient();
+        client.maxConnections = this.maxConnections;
+        client.webClient = this.getHttpClient();
+        client.requestHeaders = this.requestHeaders;
+        client.dispatcher = this.getDispatcher();
+        client.throttle = this.throttle;
+        client.requestClass = requestClass;
+
+        return client;
+    }
+
     /**
      * Get the default response handler
      * 
@@ -390,13 +589,51 @@ public class ImboHttpClient implements HttpClient {
      * @return HTTP response
      */
     protected ImboResponse request(HttpRequestBase request) throws IOException {
+        return this.request(request, defaultHandler);
+    }
+
+    /**
+     * Perform a request of the given HTTP method against the given URL
+     *
+     * @param request Request to perform
+     * @param handler Handler turning the HTTP response into a response instance
+     * @return HTTP response
+     */
+    protected ImboResponse request(HttpRequestBase request, ResponseHandler<ImboResponse> handler) throws IOException {
         // Add request headers to outgoing request
         for (Header header : requestHeaders) {
             request.addHeader(header);
         }
 
-        // Perform request using default handler
-        ImboResponse response = getHttpClient().execute(request, defaultHandler);
+        // Pace the request before taking a connection, so no connection is held while waiting
+        if (throttle != null) {
+            handler = this.throttleRequest(request, handler);
+        }
+
+        // Wait for a connection in the lane of this client, then perform the request
+        // using the given handler
+        RequestDispatcher requestDispatcher = getDispatcher();
+        ImboResponse response;
+
+        requestDispatcher.acquire(requestClass);
+
+        TimedResponseHandler timedHandler = new TimedResponseHandler(handler);
+        long start = System.nanoTime();
+        boolean dropped = true;
+
+        try {
+            response = getHttpClient().execute(request, timedHandler);
+
+            // Requests which got no response, or were turned away because the server is
+            // overloaded, tell the adaptive limit of the lane to back off
+            int statusCode = response.getStatusCode();
+            dropped = statusCode == 429 || statusCode == 503;
+        } finally {
+            // Only the time until the response headers arrived is a latency sample, so
+            // streaming a large or throttled response body does not shrink the limit
+            long end = timedHandler.hasResponded() ? timedHandler.getRespondedAt() : System.nanoTime();
+            requestDispatcher.release(requestClass, end - start, dropped);
+        }
 
         // Check for errors and throw exception if encountering any
         if (response.isError()) {
@@ -413,6 +650,101 @@ public class ImboHttpClient implements HttpClient {
         return response;
     }
     
+    /**
+     * Wait for a request to fit in the request rate, and pace its body and the body of its
+     * response by the byte rate
+     *
+     * @param request Request to perform
+     * @param handler Handler turning the HTTP response into a response instance
+     * @return Handler reading the response body at the byte rate
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    private ResponseHandler<ImboResponse> throttleRequest(HttpRequestBase request, final ResponseHandler<ImboResponse> handler) throws InterruptedIOException {
+        final String publicKey = RequestThrottle.getPublicKey(request.getURI());
+        throttle.acquireRequest(publicKey, requestClass);
+
+        if (!throttle.isThrottlingBytes(publicKey, requestClass)) {
+            return handler;
+        }
+
+        if (request instanceof HttpEntityEnclosingRequestBase) {
+            HttpEntityEnclosingRequestBase upload = (HttpEntityEnclosingRequestBase) request;
+
+            if (upload.getEntity() != null) {
+                upload.setEntity(new ThrottledEntity(upload.getEntity(), throttle, publicKey, requestClass));
+            }
+        }
+
+        final RequestThrottle responseThrottle = throttle;
+        final RequestClass responseClass = requestClass;
+
+        return new ResponseHandler<ImboResponse>() {
+            public ImboResponse handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+                if (response.getEntity() != null) {
+                    response.setEntity(new ThrottledEntity(response.getEntity(), responseThrottle, publicKey, responseClass));
+                }
+
+                return handler.handleResponse(response);
+            }
+        };
+    }
+
+    /**
+     * Response handler noting when the response headers arrived, before the body is read
+     */
+    private static class TimedResponseHandler implements ResponseHandler<ImboResponse> {
+
+        /**
+         * Handler turning the HTTP response into a response instance
+         */
+        private final ResponseHandler<ImboResponse> handler;
+
+        /**
+         * Whether a response has arrived
+         */
+        private boolean responded = false;
+
+        /**
+         * Time the response arrived, in nanoseconds
+         */
+        private long respondedAt;
+
+        /**
+         * Class constructor
+         *
+         * @param handler Handler turning the HTTP response into a response instance
+         */
+        public TimedResponseHandler(ResponseHandler<ImboResponse> handler) {
+            this.handler = handler;
+        }
+
+        public ImboResponse handleResponse(HttpResponse response) throws ClientProtocolException, IOException {
+            respondedAt = System.nanoTime();
+            responded = true;
+
+            return handler.handleResponse(response);
+        }
+
+        /**
+         * Check whether a response has arrived
+         *
+         * @return True if the handler was given a response
+         */
+        public boolean hasResponded() {
+            return responded;
+        }
+
+        /**
+         * Get the time the response arrived
+         *
+         * @return Time in nanoseconds, as given by System.nanoTime()
+         */
+        public long getRespondedAt() {
+            return respondedAt;
+        }
+
+    }
+
     /**
      * Get a default HTTP client
      * 
@@ -426,12 +758,69 @@ public class ImboHttpClient implements HttpClient {
         HttpConnectionParams.setConnectionTimeout(httpParams, 20000);
         HttpConnectionParams.setSoTimeout(httpParams, 20000);
         
-        DefaultHttpClient client = new DefaultHttpClient();
+        // Pool connections so the client can be shared between threads and keep-alive
+        // connections are reused across requests
+        PoolingClientConnectionManager connectionManager = new PoolingClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        
+        DefaultHttpClient client = new DefaultHttpClient(connectionManager);
         client.setParams(httpParams);
         
         return client;
     }
     
+    /**
+     * Create a response instance holding the status and headers of a HTTP response
+     *
+     * @param response HTTP response
+     * @return Response instance, without a body
+     */
+    private ImboResponse createResponse(HttpResponse response) {
+        ImboResponse imboResponse = new ImboResponse();
+
+        Header contentType   = response.getFirstHeader("Content-Type");
+        Header contentLength = response.getLastHeader("Content-Length");
+        
+        imboResponse.setStatusCode(response.getStatusLine().getStatusCode());
+        imboResponse.setHeaders(response.getAllHeaders());
+        
+        if (contentType != null) {
+            imboResponse.setContentType(contentType.getValue().split(";")[0].trim());
+        }
+        
+        if (contentLength != null) {
+            imboResponse.setContentLength(Long.parseLong(contentLength.getValue()));
+        }
+
+        return imboResponse;
+    }
+
+    /**
+     * Copy a stream to an output stream, closing the input
+     *
+     * @param input Stream to read from
+     * @param output Stream to write to
+     * @return Number of bytes copied
+     * @throws IOException
+     */
+    protected long copy(InputStream input, OutputStream output) throws IOException {
+        long count = 0;
+        int read;
+        byte[] data = new byte[16384];
+
+        try {
+            while ((read = input.read(data, 0, data.length)) != -1) {
+                output.write(data, 0, read);
+                count += read;
+            }
+        } finally {
+            input.close();
+        }
+
+        return count;
+    }
+
     /**
      * Read input stream into a byte array
      * 
@@ -194,6 +194,27 @@ public class ImboResponse implements Response {
 		return headers.get("X-Imbo-ImageIdentifier");
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getETag() {
+		return getHeader("ETag");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getLastModified() {
+		return getHeader("Last-Modified");
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public boolean isNotModified() {
+		return getStatusCode() == 304;
+	}
+	
 	/**
 	 * {@inheritDoc}
 	 */
@@ -226,6 +247,23 @@ public class ImboResponse implements Response {
 		return this;
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	public String getHeader(String name) {
+		if (headers == null) {
+			return null;
+		}
+		
+		for (String key : headers.keySet()) {
+			if (key.equalsIgnoreCase(name)) {
+				return headers.get(key);
+			}
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * Returns the response as a string (only the response body)
 	 * 
@@ -0,0 +1,344 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import io.imbo.client.ServerException;
+import io.imbo.client.util.ChannelOutputStream;
+import io.imbo.client.util.DaemonThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Downloads large resources to a file using HTTP byte ranges
+ *
+ * The file is sized up front and split into segments which are fetched concurrently, each
+ * written in place through positional writes on a shared file channel. A segment whose
+ * connection breaks continues from the last byte it received instead of starting over.
+ *
+ * Servers which do not advertise "Accept-Ranges: bytes" are downloaded in a single request,
+ * which starts over if it breaks.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RangeDownloader {
+
+    /**
+     * Default number of segments fetched concurrently
+     */
+    public static final int DEFAULT_SEGMENTS = 4;
+
+    /**
+     * Default smallest segment worth a request of its own, in bytes
+     */
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 1024 * 1024;
+
+    /**
+     * Default number of times a segment is resumed before giving up
+     */
+    public static final int DEFAULT_MAX_RETRIES = 3;
+
+    /**
+     * HTTP client to download with
+     */
+    private HttpClient httpClient;
+
+    /**
+     * Number of segments fetched concurrently
+     */
+    private int segments = DEFAULT_SEGMENTS;
+
+    /**
+     * Smallest segment worth a request of its own
+     */
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+
+    /**
+     * Number of times a segment is resumed before giving up
+     */
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+
+    /**
+     * Number of times a segment was resumed
+     */
+    private AtomicInteger resumeCount = new AtomicInteger();
+
+    /**
+     * Class constructor
+     *
+     * @param httpClient HTTP client to download with
+     */
+    public RangeDownloader(HttpClient httpClient) {
+        this.httpClient = httpClient;
+    }
+
+    /**
+     * Set the number of segments fetched concurrently
+     *
+     * @param segments Number of segments, 1 to fetch the resource in a single (resumable) request
+     * @return Returns this downloader instance
+     */
+    public RangeDownloader setSegments(int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("Segments must be at least 1");
+        }
+
+        this.segments = segments;
+        return this;
+    }
+
+    /**
+     * Set the smallest segment worth a request of its own
+     *
+     * @param minSegmentSize Size in bytes
+     * @return Returns this downloader instance
+     */
+    public RangeDownloader setMinSegmentSize(long minSegmentSize) {
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+        return this;
+    }
+
+    /**
+     * Set the number of times in a row a segment is resumed without receiving any data
+     * before giving up
+     *
+     * @param maxRetries Number of retries
+     * @return Returns this downloader instance
+     */
+    public RangeDownloader setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+        return this;
+    }
+
+    /**
+     * Get the number of times a segment was resumed after a broken connection
+     *
+     * @return Number of resumes
+     */
+    public int getResumeCount() {
+        return resumeCount.get();
+    }
+
+    /**
+     * Download a resource to a file
+     *
+     * @param url URL of the resource
+     * @param file File to write to. Existing contents are replaced
+     * @return Number of bytes downloaded
+     * @throws IOException If the download fails
+     */
+    public long download(URI url, File file) throws IOException {
+        return this.download(url, file, httpClient.head(url));
+    }
+
+    /**
+     * Download a resource to a file, using the response of an earlier HEAD request
+     *
+     * @param url URL of the resource
+     * @param file File to write to. Existing contents are replaced
+     * @param head Response of a HEAD request for the resource
+     * @return Number of bytes downloaded
+     * @throws IOException If the download fails
+     */
+    public long download(URI url, File file, Response head) throws IOException {
+        String contentLength = head.getHeader("Content-Length");
+        boolean ranges = "bytes".equalsIgnoreCase(head.getHeader("Accept-Ranges"));
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+
+        try {
+            final FileChannel channel = raf.getChannel();
+
+            if (contentLength == null || !ranges) {
+                raf.setLength(0);
+                return this.fetchWhole(url, raf);
+            }
+
+            long length = Long.parseLong(contentLength.trim());
+            raf.setLength(length);
+
+            if (length == 0) {
+                // Nothing to fetch, and there is no valid range of an empty resource
+                return 0;
+            }
+
+            List<long[]> segmentRanges = this.split(length);
+
+            if (segmentRanges.size() == 1) {
+                this.fetchRange(url, channel, 0, length - 1);
+            } else {
+                this.fetchConcurrently(url, channel, segmentRanges);
+            }
+
+            channel.force(false);
+            return length;
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Split a resource into byte ranges
+     *
+     * @param length Length of the resource
+     * @return Inclusive [start, end] ranges covering the resource
+     */
+    private List<long[]> split(long length) {
+        List<long[]> result = new ArrayList<long[]>();
+
+        if (length == 0) {
+            return result;
+        }
+
+        long count = Math.max(1, Math.min(segments, length / minSegmentSize));
+        long size = (length + count - 1) / count;
+
+        for (long start = 0; start < length; start += size) {
+            result.add(new long[] { start, Math.min(length, start + size) - 1 });
+        }
+
+        return result;
+    }
+
+    /**
+     * Fetch byte ranges concurrently
+     *
+     * @param url URL of the resource
+     * @param channel Channel to write to
+     * @param ranges Ranges to fetch
+     * @throws IOException If any range fails
+     */
+    private void fetchConcurrently(final URI url, final FileChannel channel, List<long[]> ranges) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(ranges.size(), new DaemonThreadFactory("imboclient-download"));
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+        try {
+            for (final long[] range : ranges) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws IOException {
+                        fetchRange(url, channel, range[0], range[1]);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while downloading " + url);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+
+                    throw new IOException("Downloading " + url + " failed", cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetch a byte range, resuming from the last received byte if the connection breaks
+     *
+     * @param url URL of the resource
+     * @param channel Channel to write to
+     * @param start First byte of the range
+     * @param end Last byte of the range
+     * @throws IOException If the range can not be fetched
+     */
+    private void fetchRange(URI url, FileChannel channel, long start, long end) throws IOException {
+        ChannelOutputStream output = new ChannelOutputStream(channel, start);
+        int retries = 0;
+
+        while (output.getPosition() <= end) {
+            long position = output.getPosition();
+            List<Header> headers = new ArrayList<Header>();
+            headers.add(new BasicHeader("Range", "bytes=" + position + "-" + end));
+
+            try {
+                httpClient.get(url, headers, output);
+
+                if (output.getPosition() == position) {
+                    throw new IOException("No data received for bytes " + position + "-" + end + " of " + url);
+                }
+            } catch (ServerException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (output.getPosition() > position) {
+                    // The request made progress, so only failures in a row count
+                    retries = 0;
+                } else if (++retries > maxRetries) {
+                    throw e;
+                }
+
+                resumeCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Fetch a resource in a single request, starting over if the connection breaks
+     *
+     * @param url URL of the resource
+     * @param raf File to write to
+     * @return Number of bytes downloaded
+     * @throws IOException If the resource can not be fetched
+     */
+    private long fetchWhole(URI url, RandomAccessFile raf) throws IOException {
+        int retries = 0;
+
+        while (true) {
+            ChannelOutputStream output = new ChannelOutputStream(raf.getChannel(), 0);
+
+            try {
+                httpClient.get(url, null, output);
+                raf.setLength(output.getPosition());
+                return output.getPosition();
+            } catch (ServerException e) {
+                throw e;
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                if (++retries > maxRetries) {
+                    throw e;
+                }
+
+                raf.setLength(0);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,28 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+/**
+ * Classes of requests, each scheduled in its own lane by the request dispatcher
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public enum RequestClass {
+
+    /**
+     * Requests someone is waiting for, like fetching an image for a page
+     */
+    INTERACTIVE,
+
+    /**
+     * Background and batch work, like re-indexing meta data
+     */
+    BULK
+
+}
@@ -0,0 +1,392 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+
+/**
+ * Schedules requests of different classes onto a shared set of connections
+ *
+ * Every request class has its own lane with a quota of connections it may hold at once,
+ * so bulk work can never take the connections interactive requests need. When requests of
+ * several classes are waiting for a free connection, it goes to the lane that has had the
+ * least service relative to its weight (stride scheduling). Requests within a lane are
+ * served in the order they arrived. A lane can also be given an adaptive limit, which
+ * narrows its quota to what the server can sustain.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RequestDispatcher {
+
+    /**
+     * Default weight of interactive requests
+     */
+    public static final int DEFAULT_INTERACTIVE_WEIGHT = 4;
+
+    /**
+     * Default weight of bulk requests
+     */
+    public static final int DEFAULT_BULK_WEIGHT = 1;
+
+    /**
+     * Max number of requests in flight across all lanes
+     */
+    private int maxConcurrent;
+
+    /**
+     * Number of requests in flight across all lanes
+     */
+    private int inFlight;
+
+    /**
+     * Lanes, indexed by the ordinal of their request class
+     */
+    private Lane[] lanes;
+
+    /**
+     * Pass of the lane which was last given a connection
+     */
+    private double virtualTime;
+
+    /**
+     * Class constructor
+     *
+     * Interactive requests may use every connection, while bulk requests may use half of
+     * them, leaving the rest for interactive requests at all times.
+     *
+     * @param maxConcurrent Max number of requests in flight across all lanes
+     */
+    public RequestDispatcher(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Max number of concurrent requests must be at least 1");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        this.lanes = new Lane[RequestClass.values().length];
+
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+
+        this.lane(RequestClass.INTERACTIVE).set(maxConcurrent, DEFAULT_INTERACTIVE_WEIGHT);
+        this.lane(RequestClass.BULK).set(Math.max(1, maxConcurrent / 2), DEFAULT_BULK_WEIGHT);
+    }
+
+    /**
+     * Wait for a connection to become available to a request of the given class
+     *
+     * Every successful call must be followed by a call to release().
+     *
+     * @param requestClass Class of the request
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    public synchronized void acquire(RequestClass requestClass) throws InterruptedIOException {
+        Thread current = Thread.currentThread();
+        Lane lane = this.lane(requestClass);
+
+        // A lane which has been idle must not have banked service to spend in one burst
+        if (lane.waiting.isEmpty() && lane.inFlight == 0) {
+            lane.pass = Math.max(lane.pass, virtualTime);
+        }
+
+        lane.waiting.add(current);
+
+        try {
+            while (this.next() != lane || lane.waiting.getFirst() != current) {
+                this.wait();
+            }
+        } catch (InterruptedException e) {
+            lane.waiting.remove(current);
+            this.notifyAll();
+
+            InterruptedIOException exception = new InterruptedIOException("Interrupted while waiting for a connection");
+            exception.initCause(e);
+            throw exception;
+        }
+
+        lane.waiting.removeFirst();
+        lane.inFlight++;
+        lane.dispatched++;
+        inFlight++;
+
+        virtualTime = lane.pass;
+        lane.pass += 1.0 / lane.weight;
+
+        // The next request in line may be able to go as well
+        this.notifyAll();
+    }
+
+    /**
+     * Give back the connection of a finished request
+     *
+     * @param requestClass Class of the request
+     */
+    public synchronized void release(RequestClass requestClass) {
+        this.release(requestClass, -1, false);
+    }
+
+    /**
+     * Give back the connection of a finished request, updating the adaptive limit of its
+     * lane with the outcome
+     *
+     * @param requestClass Class of the request
+     * @param latency Time the request took, in nanoseconds, or -1 to skip the update
+     * @param dropped Whether the request failed or the server reported being overloaded
+     */
+    public synchronized void release(RequestClass requestClass, long latency, boolean dropped) {
+        Lane lane = this.lane(requestClass);
+
+        if (lane.inFlight == 0) {
+            throw new IllegalStateException("No " + requestClass + " request in flight");
+        }
+
+        if (lane.limit != null && latency >= 0) {
+            lane.limit.onSample(latency, lane.inFlight, dropped);
+        }
+
+        lane.inFlight--;
+        inFlight--;
+
+        this.notifyAll();
+    }
+
+    /**
+     * Set the max number of requests in flight across all lanes
+     *
+     * Lowering the limit does not affect requests already in flight.
+     *
+     * @param maxConcurrent Max number of requests
+     * @return Returns this dispatcher instance
+     */
+    public synchronized RequestDispatcher setMaxConcurrent(int maxConcurrent) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("Max number of concurrent requests must be at least 1");
+        }
+
+        this.maxConcurrent = maxConcurrent;
+        this.notifyAll();
+
+        return this;
+    }
+
+    /**
+     * Get the max number of requests in flight across all lanes
+     *
+     * @return Max number of requests
+     */
+    public synchronized int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     * Set the max number of connections requests of a class may hold at once
+     *
+     * @param requestClass Class of requests
+     * @param quota Max number of connections
+     * @return Returns this dispatcher instance
+     */
+    public synchronized RequestDispatcher setQuota(RequestClass requestClass, int quota) {
+        if (quota < 1) {
+            throw new IllegalArgumentException("Quota must be at least 1");
+        }
+
+        this.lane(requestClass).quota = quota;
+        this.notifyAll();
+
+        return this;
+    }
+
+    /**
+     * Get the max number of connections requests of a class may hold at once
+     *
+     * @param requestClass Class of requests
+     * @return Max number of connections
+     */
+    public synchronized int getQuota(RequestClass requestClass) {
+        return this.lane(requestClass).quota;
+    }
+
+    /**
+     * Set the share of free connections requests of a class get when several classes wait
+     *
+     * @param requestClass Class of requests
+     * @param weight Relative weight
+     * @return Returns this dispatcher instance
+     */
+    public synchronized RequestDispatcher setWeight(RequestClass requestClass, int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be at least 1");
+        }
+
+        this.lane(requestClass).weight = weight;
+
+        return this;
+    }
+
+    /**
+     * Get the share of free connections requests of a class get when several classes wait
+     *
+     * @param requestClass Class of requests
+     * @return Relative weight
+     */
+    public synchronized int getWeight(RequestClass requestClass) {
+        return this.lane(requestClass).weight;
+    }
+
+    /**
+     * Let the number of connections requests of a class may hold adapt to the server
+     *
+     * The lane never holds more connections than its quota, whatever the adaptive limit.
+     *
+     * @param requestClass Class of requests
+     * @param limit Adaptive limit, or null to use the quota only
+     * @return Returns this dispatcher instance
+     */
+    public synchronized RequestDispatcher setLimit(RequestClass requestClass, AdaptiveConcurrencyLimit limit) {
+        this.lane(requestClass).limit = limit;
+        this.notifyAll();
+
+        return this;
+    }
+
+    /**
+     * Get the adaptive limit of requests of a class
+     *
+     * @param requestClass Class of requests
+     * @return Adaptive limit, or null if none is set
+     */
+    public synchronized AdaptiveConcurrencyLimit getLimit(RequestClass requestClass) {
+        return this.lane(requestClass).limit;
+    }
+
+    /**
+     * Get the number of requests of a class in flight
+     *
+     * @param requestClass Class of requests
+     * @return Number of requests
+     */
+    public synchronized int getInFlight(RequestClass requestClass) {
+        return this.lane(requestClass).inFlight;
+    }
+
+    /**
+     * Get the number of requests of a class waiting for a connection
+     *
+     * @param requestClass Class of requests
+     * @return Number of requests
+     */
+    public synchronized int getQueued(RequestClass requestClass) {
+        return this.lane(requestClass).waiting.size();
+    }
+
+    /**
+     * Get the number of requests of a class which have been given a connection
+     *
+     * @param requestClass Class of requests
+     * @return Number of requests
+     */
+    public synchronized long getDispatchedCount(RequestClass requestClass) {
+        return this.lane(requestClass).dispatched;
+    }
+
+    /**
+     * Pick the lane which gets the next free connection
+     *
+     * @return Lane, or null if no waiting request may go
+     */
+    private Lane next() {
+        if (inFlight >= maxConcurrent) {
+            return null;
+        }
+
+        Lane next = null;
+
+        for (Lane lane : lanes) {
+            if (!lane.waiting.isEmpty() && lane.inFlight < lane.getQuota() && (next == null || lane.pass < next.pass)) {
+                next = lane;
+            }
+        }
+
+        return next;
+    }
+
+    /**
+     * Get the lane of a request class
+     *
+     * @param requestClass Class of requests
+     * @return Lane
+     */
+    private Lane lane(RequestClass requestClass) {
+        return lanes[requestClass.ordinal()];
+    }
+
+    /**
+     * State of a request class
+     */
+    private static class Lane {
+
+        /**
+         * Max number of connections held at once
+         */
+        int quota;
+
+        /**
+         * Share of free connections when several lanes wait
+         */
+        int weight;
+
+        /**
+         * Optional limit narrowing the quota to what the server can sustain
+         */
+        AdaptiveConcurrencyLimit limit;
+
+        /**
+         * Number of requests in flight
+         */
+        int inFlight;
+
+        /**
+         * Number of requests given a connection
+         */
+        long dispatched;
+
+        /**
+         * Service received so far, relative to the weight. The lowest pass goes next
+         */
+        double pass;
+
+        /**
+         * Threads waiting for a connection, in arrival order
+         */
+        LinkedList<Thread> waiting = new LinkedList<Thread>();
+
+        /**
+         * Set the quota and weight
+         *
+         * @param quota Max number of connections held at once
+         * @param weight Share of free connections
+         */
+        void set(int quota, int weight) {
+            this.quota = quota;
+            this.weight = weight;
+        }
+
+        /**
+         * Get the number of connections the lane may hold right now
+         *
+         * @return Quota, or the adaptive limit if that is lower
+         */
+        int getQuota() {
+            return limit == null ? quota : Math.min(quota, limit.getLimit());
+        }
+
+    }
+
+}
@@ -0,0 +1,295 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import io.imbo.client.util.ThrottledInputStream;
+import io.imbo.client.util.ThrottledOutputStream;
+import io.imbo.client.util.TokenBucket;
+
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Paces requests and the bytes sent and received, per public key and request class
+ *
+ * Limits are token buckets. Request limits hold a single token, so requests are spaced
+ * evenly instead of going out in bursts the server might reject. Byte limits allow a
+ * burst of 50 ms worth of data, at least BYTE_BURST_MIN bytes, so data flows in chunks
+ * the size of a network buffer. Limits set without a public key apply to every key
+ * without limits of its own, with every key getting a bucket of its own at that rate.
+ * Thread-safe.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RequestThrottle {
+
+    /**
+     * Smallest burst of bytes allowed by a byte limit
+     */
+    public static final int BYTE_BURST_MIN = 16384;
+
+    /**
+     * Matches the public key in the path of a URL to a user resource
+     */
+    private static final Pattern PUBLIC_KEY = Pattern.compile("/users/([^/.]+)");
+
+    /**
+     * Request limits, keyed by public key and request class
+     */
+    private ConcurrentHashMap<String, TokenBucket> requestLimits = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Byte limits, keyed by public key and request class
+     */
+    private ConcurrentHashMap<String, TokenBucket> byteLimits = new ConcurrentHashMap<String, TokenBucket>();
+
+    /**
+     * Request limits of keys using the default limit, keyed by public key and request class
+     */
+    private ConcurrentHashMap<String, KeyLimit> requestKeyLimits = new ConcurrentHashMap<String, KeyLimit>();
+
+    /**
+     * Byte limits of keys using the default limit, keyed by public key and request class
+     */
+    private ConcurrentHashMap<String, KeyLimit> byteKeyLimits = new ConcurrentHashMap<String, KeyLimit>();
+
+    /**
+     * Set the max number of requests per second
+     *
+     * @param publicKey Public key to limit, or null for every key without a limit of its own
+     * @param requestClass Class of requests to limit
+     * @param requestsPerSecond Requests per second, or 0 to remove the limit
+     * @return Returns this throttle instance
+     */
+    public RequestThrottle setRequestRate(String publicKey, RequestClass requestClass, double requestsPerSecond) {
+        setLimit(requestLimits, publicKey, requestClass, requestsPerSecond, 1);
+
+        return this;
+    }
+
+    /**
+     * Set the max number of bytes per second sent or received
+     *
+     * Uploads and downloads each get the full rate.
+     *
+     * @param publicKey Public key to limit, or null for every key without a limit of its own
+     * @param requestClass Class of requests to limit
+     * @param bytesPerSecond Bytes per second, or 0 to remove the limit
+     * @return Returns this throttle instance
+     */
+    public RequestThrottle setByteRate(String publicKey, RequestClass requestClass, long bytesPerSecond) {
+        setLimit(byteLimits, publicKey, requestClass, bytesPerSecond, Math.max(BYTE_BURST_MIN, bytesPerSecond / 20));
+
+        return this;
+    }
+
+    /**
+     * Get the max number of requests per second
+     *
+     * @param publicKey Public key, or null for the limit of keys without a limit of their own
+     * @param requestClass Class of requests
+     * @return Requests per second, or 0 if not limited
+     */
+    public double getRequestRate(String publicKey, RequestClass requestClass) {
+        TokenBucket limit = getLimit(requestLimits, requestKeyLimits, publicKey, requestClass);
+
+        return limit == null ? 0 : limit.getRate();
+    }
+
+    /**
+     * Get the max number of bytes per second sent or received
+     *
+     * @param publicKey Public key, or null for the limit of keys without a limit of their own
+     * @param requestClass Class of requests
+     * @return Bytes per second, or 0 if not limited
+     */
+    public long getByteRate(String publicKey, RequestClass requestClass) {
+        TokenBucket limit = getLimit(byteLimits, byteKeyLimits, publicKey, requestClass);
+
+        return limit == null ? 0 : (long) limit.getRate();
+    }
+
+    /**
+     * Wait until a request fits in the request rate
+     *
+     * @param publicKey Public key the request is made for, or null if none
+     * @param requestClass Class of the request
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    public void acquireRequest(String publicKey, RequestClass requestClass) throws InterruptedIOException {
+        TokenBucket limit = getLimit(requestLimits, requestKeyLimits, publicKey, requestClass);
+
+        if (limit == null) {
+            return;
+        }
+
+        try {
+            limit.acquire(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling");
+        }
+    }
+
+    /**
+     * Pace reading from a stream by the byte rate
+     *
+     * @param input Stream to read from
+     * @param publicKey Public key the data belongs to, or null if none
+     * @param requestClass Class of the request
+     * @return Throttled stream, or the stream itself if there is no byte limit
+     */
+    public InputStream throttle(InputStream input, String publicKey, RequestClass requestClass) {
+        TokenBucket limit = getLimit(byteLimits, byteKeyLimits, publicKey, requestClass);
+
+        return limit == null ? input : new ThrottledInputStream(input, limit);
+    }
+
+    /**
+     * Pace writing to a stream by the byte rate
+     *
+     * @param output Stream to write to
+     * @param publicKey Public key the data belongs to, or null if none
+     * @param requestClass Class of the request
+     * @return Throttled stream, or the stream itself if there is no byte limit
+     */
+    public OutputStream throttle(OutputStream output, String publicKey, RequestClass requestClass) {
+        TokenBucket limit = getLimit(byteLimits, byteKeyLimits, publicKey, requestClass);
+
+        return limit == null ? output : new ThrottledOutputStream(output, limit);
+    }
+
+    /**
+     * Whether there is a byte limit for a public key and request class
+     *
+     * @param publicKey Public key, or null if none
+     * @param requestClass Class of requests
+     * @return True if bytes are throttled
+     */
+    public boolean isThrottlingBytes(String publicKey, RequestClass requestClass) {
+        return getLimit(byteLimits, byteKeyLimits, publicKey, requestClass) != null;
+    }
+
+    /**
+     * Get the public key a URL belongs to
+     *
+     * @param url URL to a resource on the server
+     * @return Public key, or null for resources not belonging to a user
+     */
+    public static String getPublicKey(URI url) {
+        String path = url.getRawPath();
+        Matcher matcher = PUBLIC_KEY.matcher(path == null ? "" : path);
+
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    /**
+     * Set or remove a limit
+     *
+     * @param limits Limits to update
+     * @param publicKey Public key, or null for the default limit
+     * @param requestClass Class of requests
+     * @param rate Tokens per second, or 0 to remove the limit
+     * @param capacity Max number of tokens in the bucket
+     */
+    private static void setLimit(ConcurrentHashMap<String, TokenBucket> limits, String publicKey, RequestClass requestClass, double rate, double capacity) {
+        if (rate < 0) {
+            throw new IllegalArgumentException("Rate can not be negative");
+        }
+
+        if (rate == 0) {
+            limits.remove(key(publicKey, requestClass));
+        } else {
+            limits.put(key(publicKey, requestClass), new TokenBucket(rate, capacity));
+        }
+    }
+
+    /**
+     * Get the limit for a public key, falling back to a bucket of its own at the default limit
+     *
+     * @param limits Limits to look in
+     * @param keyLimits Buckets of keys using the default limit
+     * @param publicKey Public key, or null for the default limit
+     * @param requestClass Class of requests
+     * @return Limit, or null if not limited
+     */
+    private static TokenBucket getLimit(ConcurrentHashMap<String, TokenBucket> limits, ConcurrentHashMap<String, KeyLimit> keyLimits, String publicKey, RequestClass requestClass) {
+        TokenBucket fallback = limits.get(key(null, requestClass));
+
+        if (publicKey == null) {
+            return fallback;
+        }
+
+        String key = key(publicKey, requestClass);
+        TokenBucket limit = limits.get(key);
+
+        if (limit != null || fallback == null) {
+            return limit;
+        }
+
+        while (true) {
+            KeyLimit current = keyLimits.get(key);
+
+            if (current != null && current.source == fallback) {
+                return current.bucket;
+            }
+
+            // Missing, or copied from a default limit which has since been replaced
+            KeyLimit created = new KeyLimit(fallback);
+
+            if (current == null ? keyLimits.putIfAbsent(key, created) == null : keyLimits.replace(key, current, created)) {
+                return created.bucket;
+            }
+        }
+    }
+
+    /**
+     * Build the key of a limit
+     *
+     * @param publicKey Public key, or null for the default limit
+     * @param requestClass Class of requests
+     * @return Map key
+     */
+    private static String key(String publicKey, RequestClass requestClass) {
+        return requestClass.name() + (publicKey == null ? "" : ":" + publicKey);
+    }
+
+    /**
+     * Bucket of a public key using the default limit
+     */
+    private static class KeyLimit {
+
+        /**
+         * Default limit the bucket was copied from
+         */
+        final TokenBucket source;
+
+        /**
+         * Bucket of the public key
+         */
+        final TokenBucket bucket;
+
+        /**
+         * Class constructor
+         *
+         * @param source Default limit to copy the rate and capacity of
+         */
+        KeyLimit(TokenBucket source) {
+            this.source = source;
+            this.bucket = new TokenBucket(source.getRate(), source.getCapacity());
+        }
+
+    }
+
+}
@@ -44,6 +44,14 @@ public interface Response {
      */
     public HashMap<String, String> getHeaders();
     
+    /**
+     * Get a header value, matching the header name case-insensitively
+     * 
+     * @param name Name of the header
+     * @return Header value, or null if not present
+     */
+    public String getHeader(String name);
+    
     /**
      * Set the headers for this HTTP response
      * 
@@ -135,6 +143,27 @@ public interface Response {
      */
     public String getImageIdentifier();
     
+    /**
+     * Get the entity tag of this response
+     * 
+     * @return ETag header value, or null if not present
+     */
+    public String getETag();
+    
+    /**
+     * Get the last modification date of this response
+     * 
+     * @return Last-Modified header value, or null if not present
+     */
+    public String getLastModified();
+    
+    /**
+     * Whether or not the server reported the resource as unchanged (HTTP 304)
+     * 
+     * @return True if the resource was not modified, false otherwise
+     */
+    public boolean isNotModified();
+    
     /**
      * Get the content type of this response
      * 
@@ -0,0 +1,66 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Entity whose content is paced by the byte rate of a request throttle
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+class ThrottledEntity extends HttpEntityWrapper {
+
+    /**
+     * Throttle pacing the content
+     */
+    private RequestThrottle throttle;
+
+    /**
+     * Public key the content belongs to
+     */
+    private String publicKey;
+
+    /**
+     * Class of the request
+     */
+    private RequestClass requestClass;
+
+    /**
+     * Wrap an entity
+     *
+     * @param entity Entity to wrap
+     * @param throttle Throttle pacing the content
+     * @param publicKey Public key the content belongs to, or null if none
+     * @param requestClass Class of the request
+     */
+    ThrottledEntity(HttpEntity entity, RequestThrottle throttle, String publicKey, RequestClass requestClass) {
+        super(entity);
+
+        this.throttle = throttle;
+        this.publicKey = publicKey;
+        this.requestClass = requestClass;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return throttle.throttle(wrappedEntity.getContent(), publicKey, requestClass);
+    }
+
+    @Override
+    public void writeTo(OutputStream output) throws IOException {
+        wrappedEntity.writeTo(throttle.throttle(output, publicKey, requestClass));
+    }
+
+}
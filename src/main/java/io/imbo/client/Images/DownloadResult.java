@@ -0,0 +1,75 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Images;
+
+import io.imbo.client.Http.Response;
+
+/**
+ * Result of a download: the server response and the checksum of the data received
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class DownloadResult {
+
+    /**
+     * Response from the server
+     */
+    private Response response;
+
+    /**
+     * MD5 checksum of the downloaded data
+     */
+    private String checksum;
+
+    /**
+     * Number of bytes downloaded
+     */
+    private long size;
+
+    /**
+     * Class constructor
+     *
+     * @param response Response from the server
+     * @param checksum MD5 checksum of the downloaded data
+     * @param size Number of bytes downloaded
+     */
+    public DownloadResult(Response response, String checksum, long size) {
+        this.response = response;
+        this.checksum = checksum;
+        this.size = size;
+    }
+
+    /**
+     * Get the response from the server
+     *
+     * @return Response
+     */
+    public Response getResponse() {
+        return response;
+    }
+
+    /**
+     * Get the MD5 checksum of the downloaded data
+     *
+     * @return Hex-encoded checksum
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Get the number of bytes downloaded
+     *
+     * @return Size in bytes
+     */
+    public long getSize() {
+        return size;
+    }
+
+}
@@ -33,6 +33,7 @@ public class Image {
     private int height;
     private String checksum;
     private String publicKey;
+    private JSONObject metadata;
 
     public Image() {
         // Allow a raw state
@@ -137,6 +138,15 @@ public class Image {
         return publicKey;
     }
 
+    /**
+     * Returns the meta data of the image
+     *
+     * @return Meta data, or null if the image was fetched without meta data
+     */
+    public JSONObject getMetadata() {
+        return metadata;
+    }
+
     /**
      * Set the date when the image was added
      *
@@ -159,9 +169,14 @@ public class Image {
      * Parse a date in format: "EEE, d MMM yyyy HH:mm:ss z", converting it to a Date
      *
      * @param date Date definition, in format: "EEE, d MMM yyyy HH:mm:ss z"
-     * @return Parsed date
+     * @return Parsed date, or null if no date was given (for instance when the field was
+     *         left out of a projected listing)
      */
     private Date parseDate(String date) {
+        if (date == null) {
+            return null;
+        }
+
         DateFormat dateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US);
         try {
             return dateFormat.parse(date);
@@ -185,8 +200,11 @@ public class Image {
         checksum   = data.optString("checksum", null);
         publicKey  = data.optString("publicKey", null);
 
-        setAddedDate(data.optString("added", ""));
-        setUpdatedDate(data.optString("updated", ""));
+        metadata   = data.optJSONObject("metadata");
+
+        // Projected listings may leave out any field, so only parse the dates that are present
+        setAddedDate(data.optString("added", null));
+        setUpdatedDate(data.optString("updated", null));
     }
 
 }
\ No newline at end of file
@@ -13,6 +13,8 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 
+import org.apache.http.message.BasicNameValuePair;
+
 /**
  * Query class for the images resource
  *
@@ -147,7 +149,7 @@ public class Query {
     /**
      * Sets the date to fetch from when querying
      *
-     * @param from The lower date limit to fetch from
+     * @param from The lower date limit to fetch from. Sent with second precision
      * @return Returns this query instance
      */
     public Query from(Date from) {
@@ -167,7 +169,7 @@ public class Query {
     /**
      * Sets the date to fetch to when querying
      *
-     * @param to The upper date limit to fetch to
+     * @param to The upper date limit to fetch to. Sent with second precision
      * @return Returns this query instance
      */
     public Query to(Date to) {
@@ -191,7 +193,7 @@ public class Query {
      * @return Returns this query instance
      */
     public Query ids(List<String> ids) {
-    	this.ids = (ArrayList<String>) ids;
+    	this.ids = ids == null ? null : new ArrayList<String>(ids);
     	return this;
     }
     
@@ -231,7 +233,7 @@ public class Query {
      * @return List of checksums
      */
     public List<String> checksums() {
-    	return ids;
+    	return checksums;
     }
     
     /**
@@ -241,7 +243,7 @@ public class Query {
      * @return Returns this query instance
      */
     public Query checksums(List<String> checksums) {
-    	this.checksums = (ArrayList<String>) checksums;
+    	this.checksums = checksums == null ? null : new ArrayList<String>(checksums);
     	return this;
     }
     
@@ -291,7 +293,7 @@ public class Query {
      * @return Returns this query instance
      */
     public Query fields(List<String> fields) {
-    	this.fields = (ArrayList<String>) fields;
+    	this.fields = fields == null ? null : new ArrayList<String>(fields);
     	return this;
     }
     
@@ -341,7 +343,7 @@ public class Query {
      * @return Returns this query instance
      */
     public Query sort(List<String> sort) {
-    	this.sort = (ArrayList<String>) sort;
+    	this.sort = sort == null ? null : new ArrayList<String>(sort);
     	return this;
     }
     
@@ -392,7 +394,30 @@ public class Query {
     }
     
     /**
-     * Returns the parameters as a HashMap
+     * Create a copy of this query
+     * 
+     * @return A new query instance with the same values
+     */
+    public Query copy() {
+    	Query copy = new Query();
+    	copy.page(this.page())
+    	    .limit(this.limit())
+    	    .returnMetadata(this.returnMetadata())
+    	    .from(this.from())
+    	    .to(this.to())
+    	    .ids(this.ids())
+    	    .checksums(this.checksums())
+    	    .fields(this.fields())
+    	    .sort(this.sort());
+    	
+    	return copy;
+    }
+    
+    /**
+     * Returns the scalar parameters as a HashMap
+     * 
+     * List parameters (ids, checksums, fields and sort) can not be represented in a map,
+     * use toQueryParams() to get the complete set of parameters.
      * 
      * @return HashMap of key => values
      */
@@ -412,14 +437,80 @@ public class Query {
     	}
     	
     	if (this.from() != null) {
-    		params.put("from", Long.toString(this.from().getTime()));
+    		params.put("from", toUnixTime(this.from()));
     	}
     	
     	if (this.to() != null) {
-    		params.put("to", Long.toString(this.to().getTime()));
+    		params.put("to", toUnixTime(this.to()));
     	}
     	
     	return params;
     }
+    
+    /**
+     * Returns all parameters, including the list parameters, as query parameters
+     * 
+     * List parameters are sent once per value using the "name[]" notation, for instance
+     * "fields[]=imageIdentifier&fields[]=checksum".
+     * 
+     * @return List of query parameters, in a stable order
+     */
+    public List<BasicNameValuePair> toQueryParams() {
+    	List<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
+    	
+    	if (this.limit() > 0) {
+    		params.add(new BasicNameValuePair("limit", Integer.toString(this.limit())));
+    	}
+    	
+    	if (this.page() > 0) {
+    		params.add(new BasicNameValuePair("page", Integer.toString(this.page())));
+    	}
+    	
+    	if (this.returnMetadata()) {
+    		params.add(new BasicNameValuePair("metadata", "1"));
+    	}
+    	
+    	if (this.from() != null) {
+    		params.add(new BasicNameValuePair("from", toUnixTime(this.from())));
+    	}
+    	
+    	if (this.to() != null) {
+    		params.add(new BasicNameValuePair("to", toUnixTime(this.to())));
+    	}
+    	
+    	addListParams(params, "ids[]", this.ids);
+    	addListParams(params, "checksums[]", this.checksums);
+    	addListParams(params, "fields[]", this.fields);
+    	addListParams(params, "sort[]", this.sort);
+    	
+    	return params;
+    }
+    
+    /**
+     * Format a date the way the server filters on it
+     * 
+     * @param date Date to format
+     * @return Whole seconds since the Unix epoch
+     */
+    private static String toUnixTime(Date date) {
+    	return Long.toString(date.getTime() / 1000);
+    }
+    
+    /**
+     * Add one query parameter per value in a list
+     * 
+     * @param params Parameters to add to
+     * @param name Name of the parameter
+     * @param values Values to add, may be null
+     */
+    private void addListParams(List<BasicNameValuePair> params, String name, List<String> values) {
+    	if (values == null) {
+    		return;
+    	}
+    	
+    	for (String value : values) {
+    		params.add(new BasicNameValuePair(name, value));
+    	}
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,337 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Images;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Http.RequestClass;
+import io.imbo.client.Url.TransformationTemplate;
+import io.imbo.client.util.DaemonThreadFactory;
+import io.imbo.client.util.TokenBucket;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Requests transformed variants of new images in the background, so the server has them
+ * cached before the first real request
+ *
+ * Requests run on a small pool of low-priority daemon threads with a bounded queue, and
+ * are paced by a rate limit. When the queue is full, variants are skipped rather than
+ * holding up the caller. Failures are counted and otherwise ignored.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class VariantWarmer {
+
+    /**
+     * Default number of concurrent warm-up requests
+     */
+    public static final int DEFAULT_CONCURRENCY = 2;
+
+    /**
+     * Default number of variants waiting to be requested
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Default max number of warm-up requests per second
+     */
+    public static final double DEFAULT_REQUESTS_PER_SECOND = 10;
+
+    /**
+     * Client to build URLs and send requests with
+     */
+    private ImboClient client;
+
+    /**
+     * Variants to request for every image
+     */
+    private List<TransformationTemplate> templates;
+
+    /**
+     * Number of concurrent warm-up requests
+     */
+    private int concurrency = DEFAULT_CONCURRENCY;
+
+    /**
+     * Number of variants waiting to be requested
+     */
+    private int queueCapacity = DEFAULT_QUEUE_CAPACITY;
+
+    /**
+     * Max number of warm-up requests per second
+     */
+    private double requestsPerSecond = DEFAULT_REQUESTS_PER_SECOND;
+
+    /**
+     * Whether to fetch the variants instead of only requesting their headers
+     */
+    private boolean useGet = false;
+
+    /**
+     * Executor running the requests, created on first use
+     */
+    private ThreadPoolExecutor executor;
+
+    /**
+     * Paces the requests
+     */
+    private TokenBucket rateLimiter;
+
+    /**
+     * Number of variants requested successfully
+     */
+    private AtomicInteger warmedCount = new AtomicInteger();
+
+    /**
+     * Number of variants whose request failed
+     */
+    private AtomicInteger failedCount = new AtomicInteger();
+
+    /**
+     * Number of variants skipped because the queue was full
+     */
+    private AtomicInteger droppedCount = new AtomicInteger();
+
+    /**
+     * Class constructor
+     *
+     * Warm-up requests are sent as bulk requests.
+     *
+     * @param client Client to build URLs and send requests with
+     * @param templates Variants to request for every image
+     */
+    public VariantWarmer(ImboClient client, List<TransformationTemplate> templates) {
+        this.client = client.forRequestClass(RequestClass.BULK);
+        this.templates = new ArrayList<TransformationTemplate>(templates);
+    }
+
+    /**
+     * Set the number of concurrent warm-up requests
+     *
+     * Must be set before the first image is warmed up.
+     *
+     * @param concurrency Number of threads
+     * @return Returns this warmer instance
+     */
+    public VariantWarmer setConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Set the number of variants which may wait to be requested
+     *
+     * Must be set before the first image is warmed up.
+     *
+     * @param queueCapacity Number of variants
+     * @return Returns this warmer instance
+     */
+    public VariantWarmer setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        }
+
+        this.queueCapacity = queueCapacity;
+        return this;
+    }
+
+    /**
+     * Set the max number of warm-up requests per second
+     *
+     * @param requestsPerSecond Requests per second. Must be positive
+     * @return Returns this warmer instance
+     */
+    public synchronized VariantWarmer setRequestsPerSecond(double requestsPerSecond) {
+        if (!(requestsPerSecond > 0)) {
+            throw new IllegalArgumentException("Requests per second must be positive");
+        }
+
+        this.requestsPerSecond = requestsPerSecond;
+
+        if (rateLimiter != null) {
+            rateLimiter.setRate(requestsPerSecond);
+        }
+
+        return this;
+    }
+
+    /**
+     * Set whether to fetch the variants instead of only requesting their headers
+     *
+     * Imbo transforms images for HEAD requests as well, so fetching is only needed when a
+     * cache in front of the server should be warmed too.
+     *
+     * @param useGet True to send GET requests, false to send HEAD requests
+     * @return Returns this warmer instance
+     */
+    public VariantWarmer setUseGet(boolean useGet) {
+        this.useGet = useGet;
+        return this;
+    }
+
+    /**
+     * Queue warm-up requests for every variant of an image
+     *
+     * @param imageIdentifier Image identifier of the new image
+     * @return Number of variants queued. Variants which do not fit in the queue are skipped
+     */
+    public int warm(String imageIdentifier) {
+        ThreadPoolExecutor pool = this.getExecutor();
+        int queued = 0;
+
+        for (TransformationTemplate template : templates) {
+            final String url = client.getImageUrl(imageIdentifier, template);
+
+            try {
+                pool.execute(new Runnable() {
+                    public void run() {
+                        request(url);
+                    }
+                });
+
+                queued++;
+            } catch (RejectedExecutionException e) {
+                droppedCount.incrementAndGet();
+            }
+        }
+
+        return queued;
+    }
+
+    /**
+     * Stop accepting images, letting queued requests finish
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Wait for queued requests to finish after a shutdown
+     *
+     * @param timeout Max time to wait
+     * @param unit Unit of the timeout
+     * @return Whether all requests finished in time
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        ThreadPoolExecutor pool;
+
+        synchronized (this) {
+            pool = executor;
+        }
+
+        return pool == null || pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Get the number of variants requested successfully
+     *
+     * @return Number of variants
+     */
+    public int getWarmedCount() {
+        return warmedCount.get();
+    }
+
+    /**
+     * Get the number of variants whose request failed
+     *
+     * @return Number of variants
+     */
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Get the number of variants skipped because the queue was full
+     *
+     * @return Number of variants
+     */
+    public int getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * Request a variant, waiting for the rate limit first
+     *
+     * @param url Signed URL to the variant
+     */
+    private void request(String url) {
+        try {
+            rateLimiter.acquire(1);
+
+            if (useGet) {
+                client.getHttpClient().get(new URI(url), null, new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+
+                    @Override
+                    public void write(byte[] buffer, int offset, int length) {
+                    }
+                });
+            } else {
+                client.getHttpClient().head(new URI(url));
+            }
+
+            warmedCount.incrementAndGet();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failedCount.incrementAndGet();
+        } catch (Exception e) {
+            // A warm-up is only a hint, so nothing may escape from it
+            failedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Get the executor, creating it on first use
+     *
+     * @return Executor
+     */
+    private synchronized ThreadPoolExecutor getExecutor() {
+        if (executor == null) {
+            // Create the rate limiter first, as workers use it as soon as the executor is visible
+            rateLimiter = new TokenBucket(requestsPerSecond, 1);
+
+            final ThreadFactory daemons = new DaemonThreadFactory("imboclient-warmup");
+
+            executor = new ThreadPoolExecutor(
+                concurrency, concurrency, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = daemons.newThread(runnable);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+
+                        return thread;
+                    }
+                }
+            );
+            executor.allowCoreThreadTimeOut(true);
+        }
+
+        return executor;
+    }
+
+}
@@ -8,41 +8,80 @@
  */
 package io.imbo.client;
 
+import io.imbo.client.Bulk.BulkOperation;
+import io.imbo.client.Bulk.BulkResult;
+import io.imbo.client.Bulk.BulkRunner;
+import io.imbo.client.Bulk.MetadataWriteQueue;
+import io.imbo.client.Cache.CacheEntry;
+import io.imbo.client.Cache.ImageDataCache;
+import io.imbo.client.Cache.MetadataCache;
+import io.imbo.client.Cache.ResponseCache;
+import io.imbo.client.Catalog.ChecksumIndex;
 import io.imbo.client.Http.HttpClient;
 import io.imbo.client.Http.ImboHttpClient;
+import io.imbo.client.Http.RangeDownloader;
+import io.imbo.client.Http.RequestClass;
+import io.imbo.client.Http.RequestThrottle;
 import io.imbo.client.Http.Response;
+import io.imbo.client.Images.DownloadResult;
 import io.imbo.client.Images.Image;
 import io.imbo.client.Images.ImagesResponse;
 import io.imbo.client.Images.Query;
+import io.imbo.client.Images.UploadResult;
+import io.imbo.client.Images.VariantWarmer;
+import io.imbo.client.Url.AccessToken;
 import io.imbo.client.Url.ImageUrl;
 import io.imbo.client.Url.ImagesUrl;
+import io.imbo.client.Url.ImmutableImageUrl;
 import io.imbo.client.Url.MetadataUrl;
 import io.imbo.client.Url.StatusUrl;
+import io.imbo.client.Url.TransformationTemplate;
 import io.imbo.client.Url.Url;
+import io.imbo.client.Url.UrlSigner;
 import io.imbo.client.Url.UserUrl;
 import io.imbo.client.util.Crypto;
+import io.imbo.client.util.DigestingInputStream;
+import io.imbo.client.util.DigestingOutputStream;
+import io.imbo.client.util.FileUtils;
+import io.imbo.client.util.SingleFlight;
 import io.imbo.client.util.TextUtils;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import org.apache.http.Header;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicNameValuePair;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -53,6 +92,17 @@ import org.json.JSONObject;
  */
 public class ImboClient {
 
+    /**
+     * Default number of keys per request when checking for existing images or listing
+     * meta data
+     */
+    public static final int DEFAULT_EXISTENCE_CHUNK_SIZE = 100;
+
+    /**
+     * Number of URLs each thread should sign at least when signing in parallel
+     */
+    private static final int PARALLEL_URL_SIGNING_THRESHOLD = 512;
+
     /**
      * URLs for the server hosts
      */
@@ -73,6 +123,56 @@ public class ImboClient {
      */
     private HttpClient httpClient;
 
+    /**
+     * Max number of concurrent requests for bulk operations
+     */
+    private int bulkConcurrency = BulkRunner.DEFAULT_CONCURRENCY;
+
+    /**
+     * Number of keys per request when checking for existing images or listing meta data
+     */
+    private int existenceChunkSize = DEFAULT_EXISTENCE_CHUNK_SIZE;
+
+    /**
+     * Optional cache for image data
+     */
+    private ImageDataCache imageDataCache;
+
+    /**
+     * Optional cache used for conditional requests against the JSON resources
+     */
+    private ResponseCache responseCache;
+
+    /**
+     * Optional cache for image meta data
+     */
+    private MetadataCache metadataCache;
+
+    /**
+     * Optional local index of checksums on the server
+     */
+    private ChecksumIndex checksumIndex;
+
+    /**
+     * Merges identical in-flight GET and HEAD requests, if enabled
+     */
+    private SingleFlight<Response> requestFlights;
+
+    /**
+     * Requests standard variants of newly added images in the background, if enabled
+     */
+    private VariantWarmer variantWarmer;
+
+    /**
+     * Writes meta data edits behind the caller, if enabled
+     */
+    private MetadataWriteQueue metadataWriteQueue;
+
+    /**
+     * Signs URLs to transformed images, created when first needed
+     */
+    private volatile UrlSigner urlSigner;
+
     /**
      * Constructs the Imbo client
      *
@@ -147,6 +247,122 @@ public class ImboClient {
         return new ImageUrl(hostname, publicKey, privateKey, imageIdentifier);
     }
 
+    /**
+     * Get an immutable URL to a specific image
+     *
+     * Transformations applied to the URL return new URLs, so it can be cached and shared
+     * between threads.
+     *
+     * @param imageIdentifier Image identifier for the wanted image
+     * @return Immutable URL to the image
+     */
+    public ImmutableImageUrl getImmutableImageUrl(String imageIdentifier) {
+        String hostname = getHostForImageIdentifier(imageIdentifier);
+        AccessToken accessToken = privateKey == null ? new AccessToken() : this.getUrlSigner();
+
+        return new ImmutableImageUrl(hostname, publicKey, privateKey, imageIdentifier, accessToken);
+    }
+
+    /**
+     * Get the URL to a specific image with a compiled set of transformations applied
+     *
+     * @param imageIdentifier Image identifier for the wanted image
+     * @param template Compiled transformations to apply
+     * @return Signed URL to the transformed image, as a String
+     */
+    public String getImageUrl(String imageIdentifier, TransformationTemplate template) {
+        String hostname = getHostForImageIdentifier(imageIdentifier);
+
+        if (privateKey == null) {
+            return template.bind(hostname, publicKey, privateKey, imageIdentifier);
+        }
+
+        return this.getUrlSigner().sign(hostname, imageIdentifier, template);
+    }
+
+    /**
+     * Get the URLs to a number of images, with each of a number of compiled sets of
+     * transformations applied
+     *
+     * Useful for generating the variants of a gallery or a srcset attribute in one go.
+     *
+     * @param imageIdentifiers Image identifiers for the wanted images
+     * @param templates Compiled transformations to apply to every image
+     * @return Signed URLs, indexed by image and then by template
+     */
+    public String[][] getImageUrls(List<String> imageIdentifiers, List<TransformationTemplate> templates) {
+        String[] ids = imageIdentifiers.toArray(new String[0]);
+        TransformationTemplate[] compiled = templates.toArray(new TransformationTemplate[0]);
+        String[][] urls = new String[ids.length][compiled.length];
+
+        this.signImageUrls(ids, compiled, urls, 0, ids.length);
+
+        return urls;
+    }
+
+    /**
+     * Get the URLs to a number of images, with each of a number of compiled sets of
+     * transformations applied, spreading large batches across the threads of an executor
+     *
+     * The calling thread signs a share of the URLs itself. Batches too small to gain from
+     * running in parallel are signed on the calling thread only.
+     *
+     * @param imageIdentifiers Image identifiers for the wanted images
+     * @param templates Compiled transformations to apply to every image
+     * @param executor Executor to sign URLs on
+     * @return Signed URLs, indexed by image and then by template
+     * @throws InterruptedIOException If the calling thread is interrupted while waiting
+     */
+    public String[][] getImageUrls(List<String> imageIdentifiers, List<TransformationTemplate> templates, ExecutorService executor) throws InterruptedIOException {
+        final String[] ids = imageIdentifiers.toArray(new String[0]);
+        final TransformationTemplate[] compiled = templates.toArray(new TransformationTemplate[0]);
+        final String[][] urls = new String[ids.length][compiled.length];
+
+        int parts = (int) Math.min(
+            Runtime.getRuntime().availableProcessors(),
+            ((long) ids.length * compiled.length) / PARALLEL_URL_SIGNING_THRESHOLD
+        );
+
+        if (parts <= 1) {
+            this.signImageUrls(ids, compiled, urls, 0, ids.length);
+            return urls;
+        }
+
+        int size = (ids.length + parts - 1) / parts;
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+
+        for (int start = size; start < ids.length; start += size) {
+            final int from = start;
+            final int to = Math.min(ids.length, start + size);
+
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    signImageUrls(ids, compiled, urls, from, to);
+                }
+            }));
+        }
+
+        this.signImageUrls(ids, compiled, urls, 0, size);
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while signing image URLs");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw (RuntimeException) cause;
+        }
+
+        return urls;
+    }
+
     /**
      * Get the URL to the meta data of a specific image
      *
@@ -169,9 +385,57 @@ public class ImboClient {
     public Response addImage(File image) throws IOException {
         validateLocalFile(image);
         
+        if (this.checksumIndex != null) {
+            // The index needs the checksum, so hash the file while it is sent
+            InputStream input = new FileInputStream(image);
+            
+            try {
+                return this.upload(input, image.length(), false).getResponse();
+            } finally {
+                input.close();
+            }
+        }
+        
         URI signedUrl = getSignedUrl("POST", getImagesUrl());
 
-        return this.getHttpClient().post(signedUrl, image);
+        return this.warmUp(this.getHttpClient().post(signedUrl, image));
+    }
+
+    /**
+     * Add a new image to the server, computing its checksum while it is sent
+     *
+     * The file is read once. If the server reports the identifier of the stored image, it is
+     * compared with the checksum of the data that was sent.
+     *
+     * @param image File instance to add to the server
+     * @return Response from the server along with the checksum of the image
+     * @throws ChecksumMismatchException If the server reports a different checksum
+     * @throws IOException
+     */
+    public UploadResult addImageWithChecksum(File image) throws IOException {
+        validateLocalFile(image);
+        InputStream input = new FileInputStream(image);
+        
+        try {
+            return this.upload(input, image.length(), true);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Add a new image to the server from a stream, computing its checksum while it is sent
+     *
+     * The stream is sent as it is read, and is not closed.
+     *
+     * @param input Stream of image data
+     * @param length Number of bytes in the stream, or -1 if unknown
+     * @return Response from the server along with the checksum of the image
+     * @throws ChecksumMismatchException If the server reports a different checksum
+     * @throws IOException
+     */
+    public UploadResult addImageWithChecksum(InputStream input, long length) throws IOException {
+        return this.upload(input, length, true);
     }
 
     /**
@@ -188,8 +452,13 @@ public class ImboClient {
 
         URI signedUrl = getSignedUrl("POST", getImagesUrl());
         ByteArrayInputStream buffer = new ByteArrayInputStream(bytes);
+        Response response = this.getHttpClient().post(signedUrl, buffer);
+
+        if (this.checksumIndex != null) {
+            this.checksumIndex.add(this.getImageChecksum(new ByteArrayInputStream(bytes)));
+        }
 
-        return this.getHttpClient().post(signedUrl, buffer);
+        return this.warmUp(response);
     }
 
     /**
@@ -245,10 +514,14 @@ public class ImboClient {
      * @throws IOException 
      */
     public boolean imageWithChecksumExists(String imageChecksum) throws IOException {
+        if (this.checksumIndex != null && !this.checksumIndex.mightContain(imageChecksum)) {
+            return false;
+        }
+
         Query query = (new Query()).addChecksum(imageChecksum).limit(1);
     	
     	try {
-            this.getImages(query);
+            return !this.getImages(query).getImages().isEmpty();
         } catch (ServerException e) {
             if (e.getErrorCode() == 404) {
                 return false;
@@ -256,10 +529,71 @@ public class ImboClient {
             
             throw e;
         } catch (JSONException e) {
-			e.printStackTrace();
-		}
-        
-        return true;
+            throw new IOException("Invalid images response from server", e);
+        }
+    }
+
+    /**
+     * Checks which of the given image identifiers exist on the server
+     *
+     * The identifiers are looked up in chunks using the images resource, with a number of
+     * chunks in flight at the same time (see setBulkConcurrency).
+     *
+     * @param imageIdentifiers Image identifiers to check
+     * @return The image identifiers that exist on the server
+     * @throws IOException If any of the lookups fail
+     */
+    public Set<String> findExistingImageIdentifiers(Collection<String> imageIdentifiers) throws IOException {
+        return this.findExisting(imageIdentifiers, false);
+    }
+
+    /**
+     * Checks which of the given image checksums exist on the server
+     *
+     * @param imageChecksums Image checksums to check
+     * @return The checksums of the images that exist on the server
+     * @throws IOException If any of the lookups fail
+     */
+    public Set<String> findExistingChecksums(Collection<String> imageChecksums) throws IOException {
+        if (this.checksumIndex == null) {
+            return this.findExisting(imageChecksums, true);
+        }
+
+        // Only ask the server about the checksums the local index can not rule out
+        List<String> candidates = new ArrayList<String>();
+        for (String checksum : imageChecksums) {
+            if (this.checksumIndex.mightContain(checksum)) {
+                candidates.add(checksum);
+            }
+        }
+
+        return candidates.isEmpty() ? new HashSet<String>() : this.findExisting(candidates, true);
+    }
+
+    /**
+     * Set the number of identifiers or checksums looked up per request when checking
+     * for existing images or listing meta data for a set of images
+     *
+     * @param existenceChunkSize Number of keys per request
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setExistenceChunkSize(int existenceChunkSize) {
+        if (existenceChunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+
+        this.existenceChunkSize = existenceChunkSize;
+        return this;
+    }
+
+    /**
+     * Get the number of identifiers or checksums looked up per request when checking
+     * for existing images or listing meta data for a set of images
+     *
+     * @return Number of keys per request
+     */
+    public int getExistenceChunkSize() {
+        return this.existenceChunkSize;
     }
 
     /**
@@ -270,9 +604,17 @@ public class ImboClient {
      * @throws IOException 
      */
     public Response headImage(String imageIdentifier) throws IOException {
-        ImageUrl url = this.getImageUrl(imageIdentifier);
+        final ImageUrl url = this.getImageUrl(imageIdentifier);
+        
+        if (this.requestFlights == null) {
+            return this.getHttpClient().head(url);
+        }
         
-        return this.getHttpClient().head(url);
+        return this.requestFlights.execute(HttpClient.HEAD + " " + url.toString(), new Callable<Response>() {
+            public Response call() throws IOException {
+                return getHttpClient().head(url);
+            }
+        });
     }
 
     /**
@@ -286,7 +628,22 @@ public class ImboClient {
         ImageUrl url  = this.getImageUrl(imageIdentifier);
         URI signedUrl = this.getSignedUrl("DELETE", url);
         
-        return this.getHttpClient().delete(signedUrl);
+        Response response = this.getHttpClient().delete(signedUrl);
+        
+        if (this.imageDataCache != null) {
+            this.imageDataCache.invalidateImage(imageIdentifier);
+        }
+        
+        if (this.responseCache != null) {
+            this.responseCache.invalidateImage(imageIdentifier);
+        }
+        
+        this.invalidateMetadata(imageIdentifier);
+        
+        // The checksum index can not forget entries. Lookups for the deleted checksum
+        // are answered with "maybe" and confirmed by the server
+        
+        return response;
     }
 
     /**
@@ -306,7 +663,37 @@ public class ImboClient {
         ArrayList<Header> headers = new ArrayList<Header>();
         headers.add(new BasicHeader("Content-Type", "application/json"));
         
-        return this.getHttpClient().post(signedUrl, data, headers);
+        try {
+            return this.getHttpClient().post(signedUrl, data, headers);
+        } finally {
+            // The server merges the edit into the existing meta data, so refetch on next read
+            this.invalidateMetadata(imageIdentifier);
+        }
+    }
+
+    /**
+     * Edit image meta data, writing it behind the caller if a write queue is set
+     *
+     * Without a write queue, the edit is written right away and the returned future is
+     * already complete.
+     *
+     * @param imageIdentifier Image identifier to edit meta data for
+     * @param metadata Actual meta data to add
+     * @return Future completing with the response from the server
+     */
+    public Future<Response> editMetadataLater(final String imageIdentifier, final JSONObject metadata) {
+        if (this.metadataWriteQueue != null) {
+            return this.metadataWriteQueue.edit(imageIdentifier, metadata);
+        }
+
+        FutureTask<Response> edit = new FutureTask<Response>(new Callable<Response>() {
+            public Response call() throws IOException {
+                return editMetadata(imageIdentifier, metadata);
+            }
+        });
+        edit.run();
+
+        return edit;
     }
 
     /**
@@ -326,7 +713,23 @@ public class ImboClient {
         ArrayList<Header> headers = new ArrayList<Header>();
         headers.add(new BasicHeader("Content-Type", "application/json"));
         
-        return this.getHttpClient().put(signedUrl, data, headers);
+        Response response;
+        try {
+            response = this.getHttpClient().put(signedUrl, data, headers);
+        } catch (IOException e) {
+            this.invalidateMetadata(imageIdentifier);
+            throw e;
+        }
+        
+        if (this.metadataCache != null) {
+            this.metadataCache.put(imageIdentifier, metadata);
+        }
+        
+        if (this.responseCache != null) {
+            this.responseCache.invalidateMetadata(imageIdentifier);
+        }
+        
+        return response;
     }
 
     /**
@@ -340,7 +743,11 @@ public class ImboClient {
         MetadataUrl url = this.getMetadataUrl(imageIdentifier);
         URI signedUrl = this.getSignedUrl(HttpClient.DELETE, url);
 
-        return this.getHttpClient().delete(signedUrl);
+        try {
+            return this.getHttpClient().delete(signedUrl);
+        } finally {
+            this.invalidateMetadata(imageIdentifier);
+        }
     }
 
     /**
@@ -352,8 +759,36 @@ public class ImboClient {
      * @throws IOException 
      */
     public JSONObject getMetadata(String imageIdentifier) throws JSONException, IOException {
+        if (this.metadataCache == null) {
+            return this.fetchMetadata(imageIdentifier);
+        }
+        
+        JSONObject metadata = this.metadataCache.get(imageIdentifier);
+        if (metadata == null) {
+            // Taken first, so a write while fetching keeps the old meta data out of the cache
+            long generation = this.metadataCache.getGeneration();
+            metadata = this.fetchMetadata(imageIdentifier);
+            this.metadataCache.put(imageIdentifier, metadata, generation);
+        }
+        
+        return metadata;
+    }
+
+    /**
+     * Fetch image meta data from the server
+     *
+     * @param imageIdentifier Image identifier to get meta data for
+     * @return Meta data as a JSONObject
+     * @throws JSONException 
+     * @throws IOException 
+     */
+    private JSONObject fetchMetadata(String imageIdentifier) throws JSONException, IOException {
         MetadataUrl url = this.getMetadataUrl(imageIdentifier);
         
+        if (this.responseCache != null) {
+            return new JSONObject(this.getCachedBody(this.responseCache, url.toUri()));
+        }
+        
         Response response = this.getHttpClient().get(url);
 
         JSONObject body = new JSONObject(response.getBody());
@@ -361,6 +796,103 @@ public class ImboClient {
         return body;
     }
 
+    /**
+     * Get meta data for a set of images
+     *
+     * The meta data is listed along with the images, a chunk of identifiers per request (see
+     * setExistenceChunkSize). Images the listings do not return, for instance because a
+     * listing failed, are fetched one by one. Requests are spread over a bounded number of
+     * concurrent connections (see setBulkConcurrency), and are sent as bulk requests.
+     * Failures are reported per image and never abort the batch.
+     *
+     * @param imageIdentifiers Image identifiers to get meta data for
+     * @return Meta data results, keyed by image identifier
+     * @throws IOException If the calling thread is interrupted while waiting
+     */
+    public Map<String, BulkResult<JSONObject>> getMetadata(Collection<String> imageIdentifiers) throws IOException {
+        final ImboClient bulk = this.forRequestClass(RequestClass.BULK);
+        final Map<String, JSONObject> found = new HashMap<String, JSONObject>();
+        Set<String> listed = new LinkedHashSet<String>();
+
+        for (String imageIdentifier : imageIdentifiers) {
+            JSONObject cached = this.metadataCache == null ? null : this.metadataCache.get(imageIdentifier);
+
+            if (cached != null) {
+                found.put(imageIdentifier, cached);
+            } else {
+                listed.add(imageIdentifier);
+            }
+        }
+
+        if (!listed.isEmpty()) {
+            long generation = this.metadataCache == null ? 0 : this.metadataCache.getGeneration();
+            Map<String, BulkResult<List<Image>>> chunks = bulk.listInChunks(listed, false, new Query().returnMetadata(true));
+
+            for (BulkResult<List<Image>> chunk : chunks.values()) {
+                if (!chunk.isSuccess()) {
+                    // Left to the requests for single images below
+                    continue;
+                }
+
+                for (Image image : chunk.getValue()) {
+                    String imageIdentifier = image.getIdentifier();
+
+                    if (image.getMetadata() == null || !listed.contains(imageIdentifier)) {
+                        continue;
+                    }
+
+                    found.put(imageIdentifier, image.getMetadata());
+
+                    if (this.metadataCache != null) {
+                        this.metadataCache.put(imageIdentifier, image.getMetadata(), generation);
+                    }
+                }
+            }
+        }
+
+        return this.getBulkRunner().run(imageIdentifiers, new BulkOperation<JSONObject>() {
+            public JSONObject execute(String imageIdentifier) throws JSONException, IOException {
+                JSONObject metadata = found.get(imageIdentifier);
+
+                return metadata != null ? metadata : bulk.getMetadata(imageIdentifier);
+            }
+        });
+    }
+
+    /**
+     * Edit meta data for a set of images
+     *
+     * @param metadata Meta data to add, keyed by image identifier
+     * @return Responses from the server, keyed by image identifier
+     * @throws IOException If the calling thread is interrupted while waiting
+     */
+    public Map<String, BulkResult<Response>> editMetadata(final Map<String, JSONObject> metadata) throws IOException {
+        final ImboClient bulk = this.forRequestClass(RequestClass.BULK);
+
+        return this.getBulkRunner().run(metadata.keySet(), new BulkOperation<Response>() {
+            public Response execute(String imageIdentifier) throws IOException {
+                return bulk.editMetadata(imageIdentifier, metadata.get(imageIdentifier));
+            }
+        });
+    }
+
+    /**
+     * Replace all existing meta data for a set of images
+     *
+     * @param metadata Meta data to add, keyed by image identifier
+     * @return Responses from the server, keyed by image identifier
+     * @throws IOException If the calling thread is interrupted while waiting
+     */
+    public Map<String, BulkResult<Response>> replaceMetadata(final Map<String, JSONObject> metadata) throws IOException {
+        final ImboClient bulk = this.forRequestClass(RequestClass.BULK);
+
+        return this.getBulkRunner().run(metadata.keySet(), new BulkOperation<Response>() {
+            public Response execute(String imageIdentifier) throws IOException {
+                return bulk.replaceMetadata(imageIdentifier, metadata.get(imageIdentifier));
+            }
+        });
+    }
+
     /**
      * Get the number of images currently stored on the server for the current user
      *
@@ -398,19 +930,17 @@ public class ImboClient {
      */
     public ImagesResponse getImages(Query query) throws IOException, JSONException {
         ImagesUrl url = this.getImagesUrl();
-        HashMap<String, String> params = null;
         
         if (query != null) {
-            params = query.toHashMap();
-            
-            String key;
-            Iterator<String> keyIterator = params.keySet().iterator();
-            while (keyIterator.hasNext()) {
-                key = keyIterator.next();
-                url.addQueryParam(key, params.get(key));
+            for (BasicNameValuePair param : query.toQueryParams()) {
+                url.addQueryParam(param.getName(), param.getValue());
             }
         }
         
+        if (this.responseCache != null) {
+            return new ImagesResponse(new JSONObject(this.getCachedBody(this.responseCache, url.toUri())));
+        }
+        
         // Fetch the response
         Response httpResponse = this.getHttpClient().get(url.toUri());
         return new ImagesResponse(new JSONObject(httpResponse.getBody()));
@@ -435,25 +965,139 @@ public class ImboClient {
      * @throws IOException 
      */
     public byte[] getImageData(URI url) throws IOException {
-        Response response = this.getHttpClient().get(url);
+        ResponseCache cache = this.imageDataCache != null ? this.imageDataCache : this.responseCache;
+        
+        if (cache == null) {
+            Response response = this.coalescedGet(url);
+            
+            return response.getRawBody();
+        }
         
-        return response.getRawBody();
+        return cache.get(url.toString(), this.getConditionalLoader(url));
     }
 
     /**
-     * Get properties of an image
+     * Download the original data of an image to an output stream, verifying it on the way
      *
-     * @param imageIdentifier Image identifier to get properties for
-     * @return Image instance containing the properties
-     * @throws IOException 
+     * The data is hashed while it is written. The download fails if it is shorter than the
+     * size reported by the server, or if its checksum differs from the one reported by the
+     * server. The output is not closed.
+     *
+     * @param imageIdentifier The image identifier to download
+     * @param output Stream to write the image data to
+     * @return Response from the server along with the checksum of the data
+     * @throws ChecksumMismatchException If the data does not match the reported checksum
+     * @throws IOException If the download fails or is incomplete
      */
-    public Image getImageProperties(String imageIdentifier) throws IOException {
-        Response response = this.headImage(imageIdentifier);
-        HashMap<String, String> headers = response.getHeaders();
+    public DownloadResult downloadImage(String imageIdentifier, OutputStream output) throws IOException {
+        return this.download(this.getImageUrl(imageIdentifier).toUri(), output, imageIdentifier);
+    }
+
+    /**
+     * Download a (possibly transformed) image to an output stream, verifying it on the way
+     *
+     * Transformed images are verified against the Content-Length and ETag of the response.
+     *
+     * @param url URL to the image
+     * @param output Stream to write the image data to
+     * @return Response from the server along with the checksum of the data
+     * @throws ChecksumMismatchException If the data does not match the reported checksum
+     * @throws IOException If the download fails or is incomplete
+     */
+    public DownloadResult downloadImage(ImageUrl url, OutputStream output) throws IOException {
+        return this.download(url.toUri(), output, null);
+    }
+
+    /**
+     * Download the original data of an image to a file, verifying it on the way
+     *
+     * The data is written to a ".part" file next to the target, which replaces the target
+     * once the download has been verified. A failed download leaves no partial file behind.
+     *
+     * @param imageIdentifier The image identifier to download
+     * @param file File to write the image data to
+     * @return Response from the server along with the checksum of the data
+     * @throws ChecksumMismatchException If the data does not match the reported checksum
+     * @throws IOException If the download fails or is incomplete
+     */
+    public DownloadResult downloadImage(String imageIdentifier, File file) throws IOException {
+        File partial = new File(file.getPath() + ".part");
+        OutputStream output = new BufferedOutputStream(new FileOutputStream(partial));
+        boolean complete = false;
         
-        JSONObject data = new JSONObject();
         try {
-            data.put("imageIdentifier", imageIdentifier);
+            DownloadResult result = this.downloadImage(imageIdentifier, output);
+            output.close();
+            
+            FileUtils.replace(partial, file);
+            
+            complete = true;
+            return result;
+        } finally {
+            if (!complete) {
+                output.close();
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Download the original data of an image to a file in concurrent byte ranges
+     *
+     * The file is sized up front and the segments are written in place as they arrive. A
+     * segment whose connection breaks continues from its last received byte. Servers which
+     * do not support byte ranges are downloaded in a single request. Once complete, the file
+     * is read back once to verify it against the image identifier, and replaces the target.
+     *
+     * @param imageIdentifier The image identifier to download
+     * @param file File to write the image data to
+     * @param segments Number of byte ranges to fetch concurrently
+     * @return Response to the HEAD request for the image along with the checksum of the data
+     * @throws ChecksumMismatchException If the data does not match the image identifier
+     * @throws IOException If the download fails or is incomplete
+     */
+    public DownloadResult downloadImage(String imageIdentifier, File file, int segments) throws IOException {
+        Response head = this.headImage(imageIdentifier);
+        File partial = new File(file.getPath() + ".part");
+        boolean complete = false;
+        
+        try {
+            long size = new RangeDownloader(this.getHttpClient())
+                .setSegments(segments)
+                .download(this.getImageUrl(imageIdentifier).toUri(), partial, head);
+            
+            this.verifySize(size, head.getHeader("X-Imbo-OriginalFileSize"));
+            
+            String checksum = this.getImageChecksum(partial);
+            if (!checksum.equalsIgnoreCase(imageIdentifier)) {
+                throw new ChecksumMismatchException(imageIdentifier, checksum);
+            }
+            
+            FileUtils.replace(partial, file);
+            
+            complete = true;
+            return new DownloadResult(head, checksum, size);
+        } finally {
+            if (!complete) {
+                partial.delete();
+            }
+        }
+    }
+
+    /**
+     * Get properties of an image
+     *
+     * @param imageIdentifier Image identifier to get properties for
+     * @return Image instance containing the properties
+     * @throws IOException 
+     */
+    public Image getImageProperties(String imageIdentifier) throws IOException {
+        Response response = this.headImage(imageIdentifier);
+        HashMap<String, String> headers = response.getHeaders();
+        
+        JSONObject data = new JSONObject();
+        try {
+            data.put("imageIdentifier", imageIdentifier);
             data.put("extension",       headers.get("X-Imbo-OriginalExtension"));
             data.put("mime",            headers.get("X-Imbo-OriginalMimeType"));
             data.put("size",            Integer.parseInt(headers.get("X-Imbo-OriginalFileSize")));
@@ -505,6 +1149,10 @@ public class ImboClient {
     public JSONObject getUserInfo() throws JSONException, IOException {
     	UserUrl url = this.getUserUrl();
     	
+    	if (this.responseCache != null) {
+    	    return new JSONObject(this.getCachedBody(this.responseCache, url.toUri()));
+    	}
+    	
     	Response response = this.getHttpClient().get(url);
     	
         return new JSONObject(response.getBody());
@@ -559,7 +1207,7 @@ public class ImboClient {
      * @param client HTTP client to be used
      * @return Returns this instance of the Imbo client
      */
-    public ImboClient setHttpClient(HttpClient client) {
+    public synchronized ImboClient setHttpClient(HttpClient client) {
         this.httpClient = client;
 
         return this;
@@ -570,7 +1218,7 @@ public class ImboClient {
      * 
      * @return HTTP client
      */
-    public HttpClient getHttpClient() {
+    public synchronized HttpClient getHttpClient() {
     	if (this.httpClient == null) {
     		this.setHttpClient(new ImboHttpClient());
     	}
@@ -578,6 +1226,597 @@ public class ImboClient {
     	return this.httpClient;
     }
 
+    /**
+     * Get a view of this client sending its requests as the given class
+     *
+     * The view shares keys, caches and settings with this client as they are when the view
+     * is created. With the default HTTP client, requests from the view are scheduled in
+     * their own lane, so bulk work does not hold up interactive requests. Other HTTP clients
+     * are used as they are.
+     *
+     * @param requestClass Class of the requests sent by the view
+     * @return Client sending requests of the given class
+     */
+    public ImboClient forRequestClass(RequestClass requestClass) {
+        HttpClient client = this.getHttpClient();
+
+        if (!(client instanceof ImboHttpClient)) {
+            return this;
+        }
+
+        ImboHttpClient laneClient = ((ImboHttpClient) client).forRequestClass(requestClass);
+
+        if (laneClient == client) {
+            return this;
+        }
+
+        ImboClient view = new ImboClient(this.serverUrls, this.publicKey, this.privateKey);
+        view.httpClient = laneClient;
+        view.bulkConcurrency = this.bulkConcurrency;
+        view.existenceChunkSize = this.existenceChunkSize;
+        view.imageDataCache = this.imageDataCache;
+        view.responseCache = this.responseCache;
+        view.metadataCache = this.metadataCache;
+        view.checksumIndex = this.checksumIndex;
+        view.requestFlights = this.requestFlights;
+        view.variantWarmer = this.variantWarmer;
+        view.metadataWriteQueue = this.metadataWriteQueue;
+        view.urlSigner = this.urlSigner;
+
+        return view;
+    }
+
+    /**
+     * Set the throttle pacing requests and the bytes sent and received
+     *
+     * Limits are looked up by the public key of each request, so one throttle can be shared
+     * by clients for several keys. Views created with forRequestClass() before the throttle
+     * was set are not throttled.
+     *
+     * @param throttle Request throttle, or null to disable throttling
+     * @return Returns this instance of the Imbo client
+     * @throws IllegalStateException If a custom HTTP client is used
+     */
+    public ImboClient setThrottle(RequestThrottle throttle) {
+        HttpClient client = this.getHttpClient();
+
+        if (!(client instanceof ImboHttpClient)) {
+            throw new IllegalStateException("Throttling is only supported by the default HTTP client");
+        }
+
+        ((ImboHttpClient) client).setThrottle(throttle);
+
+        return this;
+    }
+
+    /**
+     * Get the throttle pacing requests and the bytes sent and received
+     *
+     * @return Request throttle, or null if requests are not throttled
+     */
+    public RequestThrottle getThrottle() {
+        HttpClient client = this.getHttpClient();
+
+        return client instanceof ImboHttpClient ? ((ImboHttpClient) client).getThrottle() : null;
+    }
+
+    /**
+     * Set the cache used for image data
+     *
+     * When set, getImageData() serves repeated fetches of the same (transformed) image URL
+     * from the cache, and revalidates stale entries using conditional requests.
+     *
+     * @param cache Cache to use, or null to disable caching
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setImageDataCache(ImageDataCache cache) {
+        this.imageDataCache = cache;
+
+        return this;
+    }
+
+    /**
+     * Get the cache used for image data
+     *
+     * @return Image data cache, or null if caching is disabled
+     */
+    public ImageDataCache getImageDataCache() {
+        return this.imageDataCache;
+    }
+
+    /**
+     * Set the cache used for conditional requests
+     *
+     * When set, getMetadata(), getImages(), getUserInfo() and (unless an image data cache
+     * is set) getImageData() keep the last representation of every URL and revalidate it
+     * using If-None-Match / If-Modified-Since, so unchanged resources only cost a 304.
+     *
+     * @param cache Cache to use, or null to disable conditional requests
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setResponseCache(ResponseCache cache) {
+        this.responseCache = cache;
+
+        return this;
+    }
+
+    /**
+     * Get the cache used for conditional requests
+     *
+     * @return Response cache, or null if conditional requests are disabled
+     */
+    public ResponseCache getResponseCache() {
+        return this.responseCache;
+    }
+
+    /**
+     * Set the cache used for image meta data
+     *
+     * When set, getMetadata() serves repeated reads from memory until the entry expires.
+     * Writes made through this client keep the cache consistent: replaceMetadata() stores
+     * the new meta data, while editMetadata(), deleteMetadata() and deleteImage() drop it.
+     *
+     * @param cache Cache to use, or null to disable meta data caching
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setMetadataCache(MetadataCache cache) {
+        this.metadataCache = cache;
+
+        return this;
+    }
+
+    /**
+     * Get the cache used for image meta data
+     *
+     * @return Meta data cache, or null if meta data caching is disabled
+     */
+    public MetadataCache getMetadataCache() {
+        return this.metadataCache;
+    }
+
+    /**
+     * Set a local index of checksums on the server
+     *
+     * Checksum lookups consult the index first, and only ask the server when the index
+     * reports that the checksum might be present. Uploads through this client are added
+     * to the index. Use ChecksumIndex.populate() to fill it from the server.
+     *
+     * @param checksumIndex Checksum index, or null to disable
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setChecksumIndex(ChecksumIndex checksumIndex) {
+        this.checksumIndex = checksumIndex;
+        return this;
+    }
+
+    /**
+     * Get the local index of checksums on the server
+     *
+     * @return Checksum index, or null if disabled
+     */
+    public ChecksumIndex getChecksumIndex() {
+        return this.checksumIndex;
+    }
+
+    /**
+     * Set a warmer requesting standard variants of newly added images in the background
+     *
+     * Images added through this client are handed to the warmer once the server reports
+     * their identifier, so the first real request for a variant hits a warm cache.
+     *
+     * @param variantWarmer Variant warmer, or null to disable
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setVariantWarmer(VariantWarmer variantWarmer) {
+        this.variantWarmer = variantWarmer;
+        return this;
+    }
+
+    /**
+     * Get the warmer requesting variants of newly added images
+     *
+     * @return Variant warmer, or null if disabled
+     */
+    public VariantWarmer getVariantWarmer() {
+        return this.variantWarmer;
+    }
+
+    /**
+     * Set a queue writing meta data edits behind the caller
+     *
+     * When set, editMetadataLater() queues edits, merging edits to the same image into a
+     * single request.
+     *
+     * @param metadataWriteQueue Meta data write queue, or null to disable
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setMetadataWriteQueue(MetadataWriteQueue metadataWriteQueue) {
+        this.metadataWriteQueue = metadataWriteQueue;
+        return this;
+    }
+
+    /**
+     * Get the queue writing meta data edits behind the caller
+     *
+     * @return Meta data write queue, or null if disabled
+     */
+    public MetadataWriteQueue getMetadataWriteQueue() {
+        return this.metadataWriteQueue;
+    }
+
+    /**
+     * Enable or disable coalescing of identical concurrent reads
+     *
+     * When enabled, concurrent calls to headImage(), getImageProperties() and getImageData()
+     * resolving to the same method and URL share a single request. Waiters receive the same
+     * response instance, which must be treated as read-only.
+     *
+     * @param enabled Whether or not to coalesce identical in-flight requests
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setRequestCoalescing(boolean enabled) {
+        this.requestFlights = enabled ? new SingleFlight<Response>() : null;
+
+        return this;
+    }
+
+    /**
+     * Whether or not identical concurrent reads are coalesced
+     *
+     * @return True if coalescing is enabled, false otherwise
+     */
+    public boolean isRequestCoalescing() {
+        return this.requestFlights != null;
+    }
+
+    /**
+     * Get the number of calls that were served by another caller's in-flight request
+     *
+     * @return Number of coalesced calls (0 if coalescing is disabled)
+     */
+    public long getCoalescedRequestCount() {
+        return this.requestFlights == null ? 0 : this.requestFlights.getCoalescedCount();
+    }
+
+    /**
+     * Set the max number of concurrent requests used by bulk operations
+     *
+     * The default HTTP client pools ImboHttpClient.DEFAULT_MAX_CONNECTIONS connections
+     * per host; raise that as well when going above it. To let the number of bulk requests
+     * in flight adapt to what the server can sustain, set this to the highest acceptable
+     * value and give the bulk lane of the dispatcher an AdaptiveConcurrencyLimit.
+     *
+     * @param concurrency Max number of concurrent requests
+     * @return Returns this instance of the Imbo client
+     */
+    public ImboClient setBulkConcurrency(int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Concurrency must be at least 1");
+        }
+
+        this.bulkConcurrency = concurrency;
+
+        return this;
+    }
+
+    /**
+     * Get the max number of concurrent requests used by bulk operations
+     *
+     * @return Max number of concurrent requests
+     */
+    public int getBulkConcurrency() {
+        return this.bulkConcurrency;
+    }
+
+    /**
+     * Get a runner for bulk operations
+     *
+     * @return Bulk runner using the configured concurrency
+     */
+    protected BulkRunner getBulkRunner() {
+        return new BulkRunner(this.bulkConcurrency);
+    }
+
+    /**
+     * Send image data to the server, hashing it on the way
+     *
+     * @param input Stream of image data
+     * @param length Number of bytes in the stream, or -1 if unknown
+     * @param verify Whether to compare the checksum with the one reported by the server
+     * @return Response from the server along with the checksum of the data sent
+     * @throws IOException
+     */
+    private UploadResult upload(InputStream input, long length, boolean verify) throws IOException {
+        DigestingInputStream digestingInput = new DigestingInputStream(input);
+        URI signedUrl = getSignedUrl("POST", getImagesUrl());
+        
+        Response response = this.getHttpClient().post(signedUrl, digestingInput, length, null);
+        String checksum = digestingInput.getChecksum();
+        
+        if (verify) {
+            String reported = this.getReportedImageIdentifier(response);
+            
+            if (reported != null && !reported.equalsIgnoreCase(checksum)) {
+                throw new ChecksumMismatchException(reported, checksum);
+            }
+        }
+        
+        if (this.checksumIndex != null) {
+            this.checksumIndex.add(checksum);
+        }
+        
+        this.warmUp(response);
+        
+        return new UploadResult(response, checksum, digestingInput.getCount());
+    }
+
+    /**
+     * Download a resource to an output stream, checking its size and checksum
+     *
+     * @param url URL to download
+     * @param output Stream to write the data to
+     * @param originalChecksum Checksum of the original image if the URL is not transformed,
+     *                         which also enables checking the original file size
+     * @return Response from the server along with the checksum of the data
+     * @throws IOException
+     */
+    private DownloadResult download(URI url, OutputStream output, String originalChecksum) throws IOException {
+        DigestingOutputStream digestingOutput = new DigestingOutputStream(output);
+        Response response = this.getHttpClient().get(url, null, digestingOutput);
+        
+        String checksum = digestingOutput.getChecksum();
+        long size = digestingOutput.getCount();
+        
+        this.verifySize(size, response.getHeader("Content-Length"));
+        
+        if (originalChecksum != null) {
+            this.verifySize(size, response.getHeader("X-Imbo-OriginalFileSize"));
+        }
+        
+        // The ETag is the MD5 of the response body, and originals are identified by their MD5
+        String expected = response.getETag() == null ? null : response.getETag().replace("\"", "");
+        if (expected == null || !expected.matches("[0-9a-fA-F]{32}")) {
+            expected = originalChecksum;
+        }
+        
+        if (expected != null && !expected.equalsIgnoreCase(checksum)) {
+            throw new ChecksumMismatchException(expected, checksum);
+        }
+        
+        return new DownloadResult(response, checksum, size);
+    }
+
+    /**
+     * Check the number of bytes received against a size reported by the server
+     *
+     * @param size Number of bytes received
+     * @param reported Size reported by the server, or null if not reported
+     * @throws IOException If the sizes differ
+     */
+    private void verifySize(long size, String reported) throws IOException {
+        if (reported == null) {
+            return;
+        }
+        
+        try {
+            long expected = Long.parseLong(reported.trim());
+            
+            if (expected != size) {
+                throw new IOException("Incomplete download: expected " + expected + " bytes, received " + size);
+            }
+        } catch (NumberFormatException e) {
+            // Nothing to compare with
+        }
+    }
+
+    /**
+     * Queue warm-up requests for the variants of a newly added image, if enabled
+     *
+     * @param response Response from adding the image
+     * @return The response
+     */
+    private Response warmUp(Response response) {
+        if (this.variantWarmer != null && response.isSuccess()) {
+            String imageIdentifier = this.getReportedImageIdentifier(response);
+            
+            if (imageIdentifier != null) {
+                this.variantWarmer.warm(imageIdentifier);
+            }
+        }
+        
+        return response;
+    }
+
+    /**
+     * Get the image identifier the server reported for an added image
+     *
+     * The server uses the MD5 checksum of the image data as its identifier.
+     *
+     * @param response Response from adding the image
+     * @return Image identifier, or null if the server did not report one
+     */
+    private String getReportedImageIdentifier(Response response) {
+        String imageIdentifier = response.getImageIdentifier();
+        
+        if (imageIdentifier == null && response.getBody() != null) {
+            try {
+                imageIdentifier = new JSONObject(response.getBody()).optString("imageIdentifier", null);
+            } catch (JSONException e) {
+                // Not a JSON body, so there is nothing to compare with
+            }
+        }
+        
+        return imageIdentifier;
+    }
+
+    /**
+     * Look up which image identifiers or checksums exist, in concurrent chunks
+     *
+     * @param keys Image identifiers or checksums to check
+     * @param checksums Whether the keys are checksums
+     * @return The keys that exist on the server
+     * @throws IOException If any of the lookups fail
+     */
+    private Set<String> findExisting(Collection<String> keys, final boolean checksums) throws IOException {
+        Query projection = new Query()
+            .addField("imageIdentifier")
+            .addField("checksum");
+
+        Map<String, BulkResult<List<Image>>> results = this.listInChunks(keys, checksums, projection);
+        Set<String> existing = new HashSet<String>();
+
+        for (BulkResult<List<Image>> result : results.values()) {
+            if (!result.isSuccess()) {
+                Exception e = result.getException();
+
+                if (e instanceof IOException) {
+                    throw (IOException) e;
+                } else if (e instanceof RuntimeException) {
+                    throw (RuntimeException) e;
+                }
+
+                throw new IOException("Invalid images response from server", e);
+            }
+
+            for (Image image : result.getValue()) {
+                existing.add(checksums ? image.getChecksum() : image.getIdentifier());
+            }
+        }
+
+        // Only report keys that were asked for
+        existing.retainAll(keys);
+
+        return existing;
+    }
+
+    /**
+     * List the images matching a set of identifiers or checksums, a chunk of keys per request
+     *
+     * @param keys Image identifiers or checksums to list
+     * @param checksums Whether the keys are checksums rather than image identifiers
+     * @param template Query holding the fields and flags to list with
+     * @return Images listed for every chunk, keyed by the index of the chunk
+     * @throws IOException If the calling thread is interrupted while waiting
+     */
+    private Map<String, BulkResult<List<Image>>> listInChunks(Collection<String> keys, final boolean checksums, final Query template) throws IOException {
+        final List<List<String>> chunks = new ArrayList<List<String>>();
+        List<String> chunkKeys = new ArrayList<String>();
+
+        for (String key : new LinkedHashSet<String>(keys)) {
+            if (chunks.isEmpty() || chunks.get(chunks.size() - 1).size() == this.existenceChunkSize) {
+                chunks.add(new ArrayList<String>());
+                chunkKeys.add(Integer.toString(chunks.size() - 1));
+            }
+
+            chunks.get(chunks.size() - 1).add(key);
+        }
+
+        return this.getBulkRunner().run(chunkKeys, new BulkOperation<List<Image>>() {
+            public List<Image> execute(String chunk) throws IOException, JSONException {
+                List<String> values = chunks.get(Integer.parseInt(chunk));
+                Query query = template.copy().limit(values.size());
+
+                if (checksums) {
+                    query.checksums(values);
+                } else {
+                    query.ids(values);
+                }
+
+                List<Image> found = new ArrayList<Image>();
+                ImagesResponse response;
+
+                do {
+                    response = ImboClient.this.getImages(query);
+                    found.addAll(response.getImages());
+                    query.page(query.page() + 1);
+                } while (!response.getImages().isEmpty() && response.getPageNumber() * response.getLimit() < response.getTotalHits());
+
+                return found;
+            }
+        });
+    }
+
+    /**
+     * Drop cached meta data for an image from the meta data and response caches
+     *
+     * @param imageIdentifier Image identifier to drop meta data for
+     */
+    private void invalidateMetadata(String imageIdentifier) {
+        if (this.metadataCache != null) {
+            this.metadataCache.invalidate(imageIdentifier);
+        }
+
+        if (this.responseCache != null) {
+            this.responseCache.invalidateMetadata(imageIdentifier);
+        }
+    }
+
+    /**
+     * Perform a GET-request, sharing the response with identical in-flight requests if
+     * coalescing is enabled
+     *
+     * @param url URL to fetch
+     * @return Response from the server
+     * @throws IOException
+     */
+    private Response coalescedGet(final URI url) throws IOException {
+        if (this.requestFlights == null) {
+            return this.getHttpClient().get(url);
+        }
+        
+        return this.requestFlights.execute(HttpClient.GET + " " + url.toString(), new Callable<Response>() {
+            public Response call() throws IOException {
+                return getHttpClient().get(url);
+            }
+        });
+    }
+
+    /**
+     * Get a response body through a cache, as a string
+     *
+     * @param cache Cache to use
+     * @param url URL to fetch
+     * @return Response body, or the cached body if the server reported it as unchanged
+     * @throws IOException
+     */
+    private String getCachedBody(ResponseCache cache, URI url) throws IOException {
+        return new String(cache.get(url.toString(), this.getConditionalLoader(url)), Charset.forName("UTF-8"));
+    }
+
+    /**
+     * Get a cache loader performing conditional GET-requests against the given URL
+     *
+     * @param url URL to fetch
+     * @return Loader returning null when the server reports the cached entry as unchanged
+     */
+    private ResponseCache.Loader getConditionalLoader(final URI url) {
+        return new ResponseCache.Loader() {
+            public CacheEntry load(String key, CacheEntry stale) throws IOException {
+                List<Header> headers = new ArrayList<Header>();
+                
+                if (stale != null && stale.getEtag() != null) {
+                    headers.add(new BasicHeader("If-None-Match", stale.getEtag()));
+                }
+                
+                if (stale != null && stale.getLastModified() != null) {
+                    headers.add(new BasicHeader("If-Modified-Since", stale.getLastModified()));
+                }
+                
+                Response response = getHttpClient().get(url, headers);
+                if (response.isNotModified()) {
+                    return null;
+                }
+                
+                byte[] body = response.getRawBody();
+                if (body == null) {
+                    body = response.getBody().getBytes(Charset.forName("UTF-8"));
+                }
+                
+                return new CacheEntry(body, response.getETag(), response.getLastModified(), System.currentTimeMillis());
+            }
+        };
+    }
+
     /**
      * Generate a signature that can be sent to the server
      *
@@ -704,6 +1943,43 @@ public class ImboClient {
         return url;
     }
 
+    /**
+     * Sign the URLs for a range of images
+     *
+     * @param ids Image identifiers
+     * @param templates Compiled transformations to apply to every image
+     * @param urls Array to store the URLs in, indexed by image and then by template
+     * @param from Index of the first image to sign URLs for
+     * @param to Index after the last image to sign URLs for
+     */
+    private void signImageUrls(String[] ids, TransformationTemplate[] templates, String[][] urls, int from, int to) {
+        UrlSigner signer = privateKey == null ? null : this.getUrlSigner();
+
+        for (int i = from; i < to; i++) {
+            String hostname = getHostForImageIdentifier(ids[i]);
+
+            for (int j = 0; j < templates.length; j++) {
+                urls[i][j] = signer == null
+                    ? templates[j].bind(hostname, publicKey, privateKey, ids[i])
+                    : signer.sign(hostname, ids[i], templates[j]);
+            }
+        }
+    }
+
+    /**
+     * Get the signer used for URLs to transformed images
+     *
+     * @return URL signer for the keys of this client
+     */
+    private UrlSigner getUrlSigner() {
+        if (this.urlSigner == null) {
+            // Signers hold no shared state, so a race only creates a spare instance
+            this.urlSigner = new UrlSigner(publicKey, privateKey);
+        }
+
+        return this.urlSigner;
+    }
+
     /**
      * Get a predictable hostname for the given image identifier
      *
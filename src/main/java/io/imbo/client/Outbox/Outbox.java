@@ -0,0 +1,833 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Outbox;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.ServerException;
+import io.imbo.client.Catalog.FileWatermarkStore;
+import io.imbo.client.Catalog.WatermarkStore;
+import io.imbo.client.Http.RequestClass;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.json.JSONObject;
+
+/**
+ * Durable queue of write operations, replayed against the server once it is available
+ *
+ * Operations are appended to a log file and synced to disk before append returns, so they
+ * survive crashes and restarts. The offset of the first operation not yet written to the
+ * server is kept in a checkpoint file, which is only moved forward once an operation has
+ * been performed. When everything has been replayed, the log is truncated.
+ *
+ * Replay runs one operation at a time as bulk requests, and backs off exponentially while
+ * the server is unavailable. Operations the server rejects for good (4xx responses other
+ * than 408 and 429) are skipped and counted as failed. An operation interrupted by a
+ * crash may be performed twice, which all supported operations are safe against.
+ * Appending an operation does nothing if the last pending operation on the same image has
+ * the same idempotency key, so repeated writes are stored once while a later write that
+ * undoes an earlier one is kept. Appending waits while the outbox holds more than the max
+ * number of pending bytes. An operation is stored as a single record of at most
+ * MAX_RECORD_SIZE bytes, which limits the size of images that can be queued.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class Outbox {
+
+    /**
+     * Default max number of bytes of pending operations
+     */
+    public static final long DEFAULT_MAX_PENDING_BYTES = 256L * 1024 * 1024;
+
+    /**
+     * Max number of bytes of a single stored operation
+     */
+    public static final int MAX_RECORD_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default max time to wait for room in the outbox, in milliseconds
+     */
+    public static final long DEFAULT_APPEND_TIMEOUT = 30000;
+
+    /**
+     * Shortest wait before retrying after a failed replay, in milliseconds
+     */
+    public static final long MIN_BACKOFF = 1000;
+
+    /**
+     * Longest wait before retrying after a failed replay, in milliseconds
+     */
+    public static final long MAX_BACKOFF = 60000;
+
+    /**
+     * Size of the header of every record: payload length and checksum
+     */
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Client to perform the operations with
+     */
+    private ImboClient client;
+
+    /**
+     * Log file
+     */
+    private RandomAccessFile log;
+
+    /**
+     * Channel of the log file
+     */
+    private FileChannel channel;
+
+    /**
+     * Store for the checkpoint
+     */
+    private WatermarkStore checkpointStore;
+
+    /**
+     * Offset of the first pending operation
+     */
+    private long checkpoint;
+
+    /**
+     * Offset of the end of the log
+     */
+    private long size;
+
+    /**
+     * Number of pending operations, keyed by idempotency key
+     */
+    private Map<String, Integer> pendingKeys = new HashMap<String, Integer>();
+
+    /**
+     * Last pending operation on every image, keyed by image identifier
+     */
+    private Map<String, Pending> latest = new HashMap<String, Pending>();
+
+    /**
+     * Number of pending operations
+     */
+    private int pendingCount;
+
+    /**
+     * Max number of bytes of pending operations
+     */
+    private long maxPendingBytes = DEFAULT_MAX_PENDING_BYTES;
+
+    /**
+     * Max time to wait for room in the outbox, in milliseconds
+     */
+    private long appendTimeout = DEFAULT_APPEND_TIMEOUT;
+
+    /**
+     * Number of operations performed
+     */
+    private int replayedCount;
+
+    /**
+     * Number of operations the server rejected
+     */
+    private int failedCount;
+
+    /**
+     * Makes sure only one replay runs at a time
+     */
+    private final Object replayLock = new Object();
+
+    /**
+     * Thread replaying operations in the background, if started
+     */
+    private Thread replayer;
+
+    /**
+     * Whether the outbox has been closed
+     */
+    private boolean closed = false;
+
+    /**
+     * Class constructor
+     *
+     * Opens the outbox in the given directory, recovering the operations left by an
+     * earlier run. A partly written operation at the end of the log, left by a crash
+     * while appending, is discarded.
+     *
+     * @param client Client to perform the operations with
+     * @param directory Directory holding the outbox files. Created if missing
+     * @throws IOException If the outbox can not be opened
+     */
+    public Outbox(ImboClient client, File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create outbox directory " + directory.getPath());
+        }
+
+        this.client = client.forRequestClass(RequestClass.BULK);
+        this.checkpointStore = new FileWatermarkStore(new File(directory, "outbox.checkpoint"));
+        this.log = new RandomAccessFile(new File(directory, "outbox.log"), "rw");
+        this.channel = log.getChannel();
+
+        try {
+            this.recover();
+        } catch (IOException e) {
+            log.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Set the max number of bytes of pending operations
+     *
+     * A single operation larger than this is still accepted into an empty outbox.
+     *
+     * @param maxPendingBytes Number of bytes
+     * @return Returns this outbox instance
+     */
+    public synchronized Outbox setMaxPendingBytes(long maxPendingBytes) {
+        this.maxPendingBytes = maxPendingBytes;
+        this.notifyAll();
+
+        return this;
+    }
+
+    /**
+     * Set the max time to wait for room in the outbox
+     *
+     * @param appendTimeout Timeout, in milliseconds
+     * @return Returns this outbox instance
+     */
+    public synchronized Outbox setAppendTimeout(long appendTimeout) {
+        this.appendTimeout = appendTimeout;
+
+        return this;
+    }
+
+    /**
+     * Queue adding an image
+     *
+     * @param image File to add
+     * @return Idempotency key of the operation
+     * @throws IllegalArgumentException If the file is larger than MAX_RECORD_SIZE
+     * @throws IOException If the file can not be read, or the operation can not be stored
+     */
+    public String addImage(File image) throws IOException {
+        long length = image.length();
+
+        if (length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Image is larger than " + MAX_RECORD_SIZE + " bytes: " + image.getPath());
+        }
+
+        byte[] data = new byte[(int) length];
+        DataInputStream input = new DataInputStream(new FileInputStream(image));
+
+        try {
+            input.readFully(data);
+        } catch (EOFException e) {
+            throw new IOException("File changed while reading " + image.getPath());
+        } finally {
+            input.close();
+        }
+
+        return this.addImage(data);
+    }
+
+    /**
+     * Queue adding an image
+     *
+     * @param image Image data
+     * @return Idempotency key of the operation
+     * @throws IllegalArgumentException If the operation is larger than MAX_RECORD_SIZE
+     * @throws IOException If the operation can not be stored
+     */
+    public String addImage(byte[] image) throws IOException {
+        return this.queue(OutboxEntry.addImage(image));
+    }
+
+    /**
+     * Queue an edit of the meta data of an image
+     *
+     * @param imageIdentifier Image identifier to edit meta data for
+     * @param metadata Meta data to add
+     * @return Idempotency key of the operation
+     * @throws IOException If the operation can not be stored
+     */
+    public String editMetadata(String imageIdentifier, JSONObject metadata) throws IOException {
+        return this.queue(OutboxEntry.editMetadata(imageIdentifier, metadata));
+    }
+
+    /**
+     * Queue deleting an image
+     *
+     * @param imageIdentifier Image identifier of the image to delete
+     * @return Idempotency key of the operation
+     * @throws IOException If the operation can not be stored
+     */
+    public String deleteImage(String imageIdentifier) throws IOException {
+        return this.queue(OutboxEntry.deleteImage(imageIdentifier));
+    }
+
+    /**
+     * Append an operation to the outbox, waiting for room if it is full
+     *
+     * The operation is on disk when this returns.
+     *
+     * @param entry Operation to append
+     * @return True if appended, false if the last pending operation on the image has the same key
+     * @throws IllegalArgumentException If the operation is larger than MAX_RECORD_SIZE
+     * @throws IOException If the outbox stays full for the append timeout, or the
+     *                     operation can not be written
+     */
+    public synchronized boolean append(OutboxEntry entry) throws IOException {
+        this.ensureOpen();
+
+        Pending last = latest.get(getTarget(entry));
+
+        if (last != null && last.key.equals(entry.getKey())) {
+            return false;
+        }
+
+        byte[] payload = entry.toBytes();
+
+        if (payload.length > MAX_RECORD_SIZE) {
+            throw new IllegalArgumentException("Operation is larger than " + MAX_RECORD_SIZE + " bytes");
+        }
+
+        long deadline = System.currentTimeMillis() + appendTimeout;
+
+        while (size > checkpoint && size - checkpoint + HEADER_SIZE + payload.length > maxPendingBytes) {
+            long wait = deadline - System.currentTimeMillis();
+
+            if (wait <= 0) {
+                throw new IOException("Outbox is full");
+            }
+
+            try {
+                this.wait(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for room in the outbox");
+            }
+
+            this.ensureOpen();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        record.flip();
+
+        while (record.hasRemaining()) {
+            channel.write(record, size + record.position());
+        }
+
+        channel.force(false);
+
+        this.track(entry, size);
+        size += HEADER_SIZE + payload.length;
+        this.notifyAll();
+
+        return true;
+    }
+
+    /**
+     * Perform pending operations until the outbox is empty
+     *
+     * @return Number of operations performed or skipped
+     * @throws IOException If the server is unavailable. Operations performed before the
+     *                     failure stay done, and the failed one is retried on the next replay
+     */
+    public int replay() throws IOException {
+        synchronized (replayLock) {
+            int replayed = 0;
+
+            while (true) {
+                long start;
+                long end;
+
+                synchronized (this) {
+                    this.ensureOpen();
+                    start = checkpoint;
+                    end = size;
+
+                    if (start == end) {
+                        this.compact();
+                        return replayed;
+                    }
+                }
+
+                long offset = start;
+
+                while (offset < end) {
+                    Record record = this.readRecord(offset, end);
+
+                    if (record == null) {
+                        throw new IOException("Outbox log is corrupt at offset " + offset);
+                    }
+
+                    boolean performed = true;
+
+                    try {
+                        record.entry.send(client);
+                    } catch (ServerException e) {
+                        if (!isRejection(e)) {
+                            throw e;
+                        }
+
+                        performed = false;
+                    }
+
+                    this.advance(record, offset, performed);
+                    offset = record.end;
+                    replayed++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Start replaying operations in the background as they are appended
+     *
+     * Failed replays are retried after waiting MIN_BACKOFF, doubling the wait for every
+     * failure in a row up to MAX_BACKOFF.
+     */
+    public synchronized void start() {
+        this.ensureOpenState();
+
+        if (replayer != null) {
+            return;
+        }
+
+        replayer = new Thread(new Runnable() {
+            public void run() {
+                runReplayer();
+            }
+        }, "imboclient-outbox");
+        replayer.setDaemon(true);
+        replayer.start();
+    }
+
+    /**
+     * Stop replaying and close the files
+     *
+     * Pending operations stay in the outbox, and are replayed when it is opened again.
+     *
+     * @throws IOException If the files can not be closed
+     */
+    public void close() throws IOException {
+        Thread thread;
+
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+
+            closed = true;
+            thread = replayer;
+            this.notifyAll();
+        }
+
+        if (thread != null) {
+            thread.interrupt();
+
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (replayLock) {
+            log.close();
+        }
+    }
+
+    /**
+     * Get the number of pending operations
+     *
+     * @return Number of operations
+     */
+    public synchronized int getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Get the number of bytes of pending operations
+     *
+     * @return Number of bytes
+     */
+    public synchronized long getPendingBytes() {
+        return size - checkpoint;
+    }
+
+    /**
+     * Whether an operation is pending
+     *
+     * @param key Idempotency key of the operation
+     * @return True if the operation has not been performed yet
+     */
+    public synchronized boolean isPending(String key) {
+        return pendingKeys.containsKey(key);
+    }
+
+    /**
+     * Get the number of operations performed
+     *
+     * @return Number of operations
+     */
+    public synchronized int getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * Get the number of operations the server rejected
+     *
+     * @return Number of operations
+     */
+    public synchronized int getFailedCount() {
+        return failedCount;
+    }
+
+    /**
+     * Append an operation, returning its key
+     *
+     * @param entry Operation to append
+     * @return Idempotency key of the operation
+     * @throws IOException If the operation can not be stored
+     */
+    private String queue(OutboxEntry entry) throws IOException {
+        this.append(entry);
+
+        return entry.getKey();
+    }
+
+    /**
+     * Replay operations until the outbox is closed
+     */
+    private void runReplayer() {
+        long backoff = MIN_BACKOFF;
+
+        while (true) {
+            try {
+                this.replay();
+                backoff = MIN_BACKOFF;
+            } catch (IOException e) {
+                if (this.isClosed()) {
+                    return;
+                }
+
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+
+                backoff = Math.min(MAX_BACKOFF, backoff * 2);
+                continue;
+            }
+
+            synchronized (this) {
+                try {
+                    while (!closed && checkpoint == size) {
+                        this.wait();
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (closed) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Track a pending operation
+     *
+     * @param entry Operation
+     * @param offset Offset of the operation in the log
+     */
+    private void track(OutboxEntry entry, long offset) {
+        Integer count = pendingKeys.get(entry.getKey());
+
+        pendingKeys.put(entry.getKey(), count == null ? 1 : count + 1);
+        latest.put(getTarget(entry), new Pending(entry.getKey(), offset));
+        pendingCount++;
+    }
+
+    /**
+     * Move the checkpoint past a replayed operation
+     *
+     * @param record Replayed operation
+     * @param offset Offset of the replayed operation
+     * @param performed Whether the server accepted the operation
+     * @throws IOException If the checkpoint can not be saved
+     */
+    private synchronized void advance(Record record, long offset, boolean performed) throws IOException {
+        checkpointStore.save(record.end);
+        checkpoint = record.end;
+
+        String key = record.entry.getKey();
+        int count = pendingKeys.get(key);
+
+        if (count == 1) {
+            pendingKeys.remove(key);
+        } else {
+            pendingKeys.put(key, count - 1);
+        }
+
+        String target = getTarget(record.entry);
+        Pending last = latest.get(target);
+
+        // Later operations on the image stay the last pending one
+        if (last != null && last.offset == offset) {
+            latest.remove(target);
+        }
+
+        pendingCount--;
+
+        if (performed) {
+            replayedCount++;
+        } else {
+            failedCount++;
+        }
+
+        this.notifyAll();
+    }
+
+    /**
+     * Truncate the log once every operation has been replayed
+     *
+     * The log is truncated before the checkpoint is reset, and a checkpoint past the end
+     * of the log is treated as an empty outbox, so a crash in between loses nothing.
+     *
+     * @throws IOException If the files can not be updated
+     */
+    private void compact() throws IOException {
+        if (size == 0) {
+            return;
+        }
+
+        channel.truncate(0);
+        channel.force(true);
+        checkpointStore.save(0);
+
+        checkpoint = 0;
+        size = 0;
+    }
+
+    /**
+     * Load the checkpoint and the keys of pending operations, discarding a partly
+     * written operation at the end of the log
+     *
+     * @throws IOException If the files can not be read
+     */
+    private void recover() throws IOException {
+        long length = channel.size();
+        checkpoint = Math.max(0, checkpointStore.load());
+
+        if (checkpoint > length) {
+            checkpoint = length;
+        }
+
+        size = checkpoint;
+
+        Record record;
+
+        while ((record = this.readRecord(size, length)) != null) {
+            this.track(record.entry, size);
+            size = record.end;
+        }
+
+        if (size < length) {
+            channel.truncate(size);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Read the record at an offset of the log
+     *
+     * @param offset Offset of the record
+     * @param limit Offset of the end of the records to read
+     * @return Record, or null if there is no complete and valid record at the offset
+     * @throws IOException If the log can not be read
+     */
+    private Record readRecord(long offset, long limit) throws IOException {
+        if (limit - offset < HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        this.readFully(header, offset);
+
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+
+        if (length < 0 || length > MAX_RECORD_SIZE || length > limit - offset - HEADER_SIZE) {
+            return null;
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        this.readFully(payload, offset + HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+
+        if ((int) crc.getValue() != checksum) {
+            return null;
+        }
+
+        try {
+            return new Record(OutboxEntry.fromStream(new ByteArrayInputStream(payload.array())), offset + HEADER_SIZE + length);
+        } catch (IOException e) {
+            // Checksum matched but the payload does not parse, so treat it as corrupt
+            return null;
+        }
+    }
+
+    /**
+     * Fill a buffer from the log
+     *
+     * @param buffer Buffer to fill
+     * @param position Offset in the log to read from
+     * @throws IOException If the log ends before the buffer is full
+     */
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of outbox log");
+            }
+        }
+    }
+
+    /**
+     * Get the image an operation applies to
+     *
+     * @param entry Operation
+     * @return Image identifier, or the idempotency key if the entry has none
+     */
+    private static String getTarget(OutboxEntry entry) {
+        return entry.getImageIdentifier() != null ? entry.getImageIdentifier() : entry.getKey();
+    }
+
+    /**
+     * Whether the server rejected an operation for good
+     *
+     * @param e Exception thrown by the server
+     * @return True for client errors other than timeouts and rate limiting
+     */
+    private static boolean isRejection(ServerException e) {
+        int code = e.getErrorCode();
+
+        return code >= 400 && code < 500 && code != 408 && code != 429;
+    }
+
+    /**
+     * Whether the outbox has been closed
+     *
+     * @return True if closed
+     */
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Make sure the outbox is open
+     *
+     * @throws IOException If the outbox has been closed
+     */
+    private void ensureOpen() throws IOException {
+        if (closed) {
+            throw new IOException("Outbox is closed");
+        }
+    }
+
+    /**
+     * Make sure the outbox is open
+     *
+     * @throws IllegalStateException If the outbox has been closed
+     */
+    private void ensureOpenState() {
+        if (closed) {
+            throw new IllegalStateException("Outbox is closed");
+        }
+    }
+
+    /**
+     * Idempotency key and offset of a pending operation
+     */
+    private static class Pending {
+
+        /**
+         * Idempotency key
+         */
+        final String key;
+
+        /**
+         * Offset of the operation in the log
+         */
+        final long offset;
+
+        /**
+         * Class constructor
+         *
+         * @param key Idempotency key
+         * @param offset Offset of the operation in the log
+         */
+        Pending(String key, long offset) {
+            this.key = key;
+            this.offset = offset;
+        }
+
+    }
+
+    /**
+     * Operation read from the log
+     */
+    private static class Record {
+
+        /**
+         * Operation
+         */
+        final OutboxEntry entry;
+
+        /**
+         * Offset of the end of the record
+         */
+        final long end;
+
+        /**
+         * Class constructor
+         *
+         * @param entry Operation
+         * @param end Offset of the end of the record
+         */
+        Record(OutboxEntry entry, long end) {
+            this.entry = entry;
+            this.end = end;
+        }
+
+    }
+
+}
@@ -0,0 +1,263 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Outbox;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.ServerException;
+import io.imbo.client.Http.Response;
+import io.imbo.client.util.Crypto;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Write operation stored in an outbox
+ *
+ * Every entry has an idempotency key. The factory methods derive it from the operation
+ * itself, so the same operation queued twice in a row is stored once.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class OutboxEntry {
+
+    /**
+     * Add an image
+     */
+    public static final int ADD_IMAGE = 1;
+
+    /**
+     * Edit the meta data of an image
+     */
+    public static final int EDIT_METADATA = 2;
+
+    /**
+     * Delete an image
+     */
+    public static final int DELETE_IMAGE = 3;
+
+    /**
+     * Charset used for meta data
+     */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Type of operation
+     */
+    private int type;
+
+    /**
+     * Idempotency key
+     */
+    private String key;
+
+    /**
+     * Image identifier the operation applies to
+     */
+    private String imageIdentifier;
+
+    /**
+     * Image or meta data to send, or null if none
+     */
+    private byte[] data;
+
+    /**
+     * Class constructor
+     *
+     * @param type Type of operation
+     * @param key Idempotency key
+     * @param imageIdentifier Image identifier the operation applies to, or null if unknown
+     * @param data Image or meta data to send, or null if none
+     */
+    public OutboxEntry(int type, String key, String imageIdentifier, byte[] data) {
+        if (type < ADD_IMAGE || type > DELETE_IMAGE) {
+            throw new IllegalArgumentException("Unknown operation type: " + type);
+        }
+
+        if (key == null) {
+            throw new IllegalArgumentException("Idempotency key is required");
+        }
+
+        this.type = type;
+        this.key = key;
+        this.imageIdentifier = imageIdentifier;
+        this.data = data;
+    }
+
+    /**
+     * Create an entry adding an image
+     *
+     * @param image Image data
+     * @return Outbox entry
+     */
+    public static OutboxEntry addImage(byte[] image) {
+        // The server uses the checksum of an image as its identifier
+        String checksum = Crypto.md5(image);
+
+        return new OutboxEntry(ADD_IMAGE, "add:" + checksum, checksum, image);
+    }
+
+    /**
+     * Create an entry editing the meta data of an image
+     *
+     * @param imageIdentifier Image identifier to edit meta data for
+     * @param metadata Meta data to add
+     * @return Outbox entry
+     */
+    public static OutboxEntry editMetadata(String imageIdentifier, JSONObject metadata) {
+        String json = metadata.toString();
+
+        return new OutboxEntry(EDIT_METADATA, "edit:" + imageIdentifier + ":" + Crypto.md5(json), imageIdentifier, json.getBytes(UTF8));
+    }
+
+    /**
+     * Create an entry deleting an image
+     *
+     * @param imageIdentifier Image identifier of the image to delete
+     * @return Outbox entry
+     */
+    public static OutboxEntry deleteImage(String imageIdentifier) {
+        return new OutboxEntry(DELETE_IMAGE, "delete:" + imageIdentifier, imageIdentifier, null);
+    }
+
+    /**
+     * Get the type of operation
+     *
+     * @return One of ADD_IMAGE, EDIT_METADATA and DELETE_IMAGE
+     */
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * Get the idempotency key
+     *
+     * @return Idempotency key
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Get the image identifier the operation applies to
+     *
+     * @return Image identifier, or null if unknown
+     */
+    public String getImageIdentifier() {
+        return imageIdentifier;
+    }
+
+    /**
+     * Get the image or meta data to send
+     *
+     * @return Data, or null if none
+     */
+    public byte[] getData() {
+        return data;
+    }
+
+    /**
+     * Perform the operation
+     *
+     * Operations are safe to repeat: adding an image twice stores it once, edits merge the
+     * same values again, and deleting an image which is already gone counts as done.
+     *
+     * @param client Client to perform the operation with
+     * @return Response from the server, or null if the image was already deleted
+     * @throws IOException
+     */
+    Response send(ImboClient client) throws IOException {
+        switch (type) {
+            case ADD_IMAGE:
+                return client.addImage(data);
+
+            case EDIT_METADATA:
+                try {
+                    return client.editMetadata(imageIdentifier, new JSONObject(new String(data, UTF8)));
+                } catch (JSONException e) {
+                    throw new IOException("Invalid meta data in outbox entry " + key, e);
+                }
+
+            default:
+                try {
+                    return client.deleteImage(imageIdentifier);
+                } catch (ServerException e) {
+                    if (e.getErrorCode() == 404) {
+                        return null;
+                    }
+
+                    throw e;
+                }
+        }
+    }
+
+    /**
+     * Serialize the entry
+     *
+     * @return Serialized entry
+     */
+    byte[] toBytes() {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + (data == null ? 0 : data.length));
+            DataOutputStream output = new DataOutputStream(buffer);
+
+            output.writeByte(type);
+            output.writeUTF(key);
+            output.writeBoolean(imageIdentifier != null);
+            output.writeUTF(imageIdentifier == null ? "" : imageIdentifier);
+            output.writeInt(data == null ? -1 : data.length);
+
+            if (data != null) {
+                output.write(data);
+            }
+
+            output.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            // Writing to memory does not fail
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Deserialize an entry
+     *
+     * @param input Stream holding a serialized entry
+     * @return Outbox entry
+     * @throws IOException If the entry is invalid
+     */
+    static OutboxEntry fromStream(InputStream input) throws IOException {
+        DataInputStream data = new DataInputStream(input);
+
+        int type = data.readByte();
+        String key = data.readUTF();
+        boolean hasImageIdentifier = data.readBoolean();
+        String imageIdentifier = data.readUTF();
+        int length = data.readInt();
+        byte[] bytes = null;
+
+        if (length >= 0) {
+            bytes = new byte[length];
+            data.readFully(bytes);
+        }
+
+        try {
+            return new OutboxEntry(type, key, hasImageIdentifier ? imageIdentifier : null, bytes);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid outbox entry", e);
+        }
+    }
+
+}
@@ -11,6 +11,9 @@ package io.imbo.client.Url;
 import io.imbo.client.util.TextUtils;
 
 import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.http.message.BasicNameValuePair;
 
 /**
  * Image URL
@@ -47,17 +50,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl border(String color, int width, int height) {
-        if (color == null) {
-            color = "000000";
-        }
-        
-        addQueryParam("t[]", ( 
-                "border:color=" +
-                TextUtils.normalizeColor(color) +
-                ",width=" + width +
-                ",height=" + height
-            )
-        );
+        addQueryParam(Transformations.PARAM, Transformations.border(color, width, height));
         
         return this;
     }
@@ -80,7 +73,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl compress(int level) {
-        addQueryParam("t[]", "compress:level=" + level);
+        addQueryParam(Transformations.PARAM, Transformations.compress(level));
         
         return this;
     }
@@ -101,7 +94,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl convert(String type) {
-        imageIdentifier = imageIdentifier.substring(0, 32) + "." + type;
+        imageIdentifier = Transformations.convert(imageIdentifier, type);
         
         return this;
     }
@@ -143,14 +136,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl crop(int x, int y, int width, int height) {
-        addQueryParam("t[]", ( 
-                "crop:" +
-                "x=" + x +
-                ",y=" + y + 
-                ",width=" + width +
-                ",height=" + height
-            )
-        );
+        addQueryParam(Transformations.PARAM, Transformations.crop(x, y, width, height));
         
         return this;
     }
@@ -185,17 +171,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl resize(int width, int height) {
-        ArrayList<String> params = new ArrayList<String>();
-        
-        if (width > 0) {
-            params.add("width=" + width);
-        }
-        
-        if (height > 0) {
-            params.add("height=" + height);
-        }
-        
-        addQueryParam("t[]", "resize:" + TextUtils.join(",", params));
+        addQueryParam(Transformations.PARAM, Transformations.resize(width, height));
         
         return this;
     }
@@ -208,17 +184,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl maxSize(int maxWidth, int maxHeight) {
-        ArrayList<String> params = new ArrayList<String>();
-        
-        if (maxWidth > 0) {
-            params.add("width=" + maxWidth);
-        }
-        
-        if (maxHeight > 0) {
-            params.add("height=" + maxHeight);
-        }
-        
-        addQueryParam("t[]", "maxSize:" + TextUtils.join(",", params));
+        addQueryParam(Transformations.PARAM, Transformations.maxSize(maxWidth, maxHeight));
         
         return this;
     }
@@ -231,16 +197,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl rotate(double angle, String bg) {
-        // Don't put decimals into the URL if we have no fractions
-        String ang = Double.toString(angle);
-        if ((angle - (int) angle) == 0) {
-            ang = Integer.toString((int) angle);
-        }
-        
-        addQueryParam("t[]",
-            "rotate:angle=" + ang +
-            ",bg=" + TextUtils.normalizeColor(bg)
-        );
+        addQueryParam(Transformations.PARAM, Transformations.rotate(angle, bg));
         
         return this;
     }
@@ -264,19 +221,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl thumbnail(int width, int height, String fit) {
-        if (width == 0) {
-            width = 50;
-        }
-        
-        if (height == 0) {
-            width = 50;
-        }
-        
-        if (fit == null) {
-            fit = "outbound";
-        }
-        
-        addQueryParam("t[]", "thumbnail:width=" + width + ",height=" + height + ",fit=" + fit);
+        addQueryParam(Transformations.PARAM, Transformations.thumbnail(width, height, fit));
         
         return this;
     }
@@ -302,22 +247,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl canvas(int width, int height, String mode, int x, int y, String bg) {
-        ArrayList<String> params = new ArrayList<String>();
-        params.add("width="  + width);
-        params.add("height=" + height);
-        
-        if (mode != null) {
-            params.add("mode=" + mode);
-        }
-        
-        params.add("x=" + x);
-        params.add("y=" + y);
-        
-        if (bg != null) {
-            params.add("bg=" + TextUtils.normalizeColor(bg));
-        }
-        
-        addQueryParam("t[]", "canvas:" + TextUtils.join(",", params));
+        addQueryParam(Transformations.PARAM, Transformations.canvas(width, height, mode, x, y, bg));
         
         return this;
     }
@@ -330,7 +260,7 @@ public class ImageUrl extends ImboUrl implements Url {
      * @return ImageUrl
      */
     public ImageUrl canvas(int width, int height) {
-        addQueryParam("t[]", "canvas:width=" + width + ",height=" + height);
+        addQueryParam(Transformations.PARAM, Transformations.canvas(width, height));
         
         return this;
     }
@@ -368,6 +298,39 @@ public class ImageUrl extends ImboUrl implements Url {
         return this;
     }
     
+    /**
+     * Rewrite the transformations of the URL into a canonical form
+     *
+     * Differently built chains which produce the same image end up as the same URL, which
+     * improves the hit rate of the transformation caches. Transformations are placed
+     * before any other query parameters.
+     *
+     * @return ImageUrl
+     * @see TransformationCanonicalizer
+     */
+    public ImageUrl canonicalize() {
+        List<String> transformations = new ArrayList<String>();
+        List<BasicNameValuePair> others = new ArrayList<BasicNameValuePair>();
+
+        for (BasicNameValuePair param : getQueryParams()) {
+            if (Transformations.PARAM.equals(param.getName())) {
+                transformations.add(param.getValue());
+            } else {
+                others.add(param);
+            }
+        }
+
+        List<BasicNameValuePair> params = new ArrayList<BasicNameValuePair>();
+        for (String transformation : TransformationCanonicalizer.canonicalize(transformations)) {
+            params.add(new BasicNameValuePair(Transformations.PARAM, transformation));
+        }
+
+        params.addAll(others);
+        setQueryParams(params);
+
+        return this;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -380,6 +343,15 @@ public class ImageUrl extends ImboUrl implements Url {
         return this;
     }
     
+    /**
+     * Get the extension the image is converted to
+     *
+     * @return Extension, or null if the image is not converted
+     */
+    String getExtension() {
+        return imageIdentifier.length() > 33 ? imageIdentifier.substring(33) : null;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -13,6 +13,8 @@ import io.imbo.client.util.TextUtils;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.http.message.BasicNameValuePair;
 
@@ -139,6 +141,24 @@ public abstract class ImboUrl implements Url {
         return this;
     }
 
+    /**
+     * Get the query parameters added to the URL
+     *
+     * @return Unmodifiable list of query parameters, in the order they were added
+     */
+    List<BasicNameValuePair> getQueryParams() {
+        return Collections.unmodifiableList(queryParams);
+    }
+
+    /**
+     * Replace the query parameters of the URL
+     *
+     * @param params New query parameters
+     */
+    void setQueryParams(List<BasicNameValuePair> params) {
+        queryParams = new ArrayList<BasicNameValuePair>(params);
+    }
+
     /**
      * Resets the URL - removes all query parameters
      *
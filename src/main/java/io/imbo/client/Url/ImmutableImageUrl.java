@@ -0,0 +1,538 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import io.imbo.client.util.TextUtils;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.message.BasicNameValuePair;
+
+/**
+ * Immutable image URL
+ *
+ * Works like {@link ImageUrl}, except that every transformation returns a new URL and
+ * leaves the original untouched. Derived URLs share the query parameters of the URL they
+ * were derived from instead of copying them, and the generated URL is computed only once.
+ * Instances are thread-safe, so a base URL can be cached and reused by any number of
+ * threads.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public final class ImmutableImageUrl implements Url {
+
+    /**
+     * Query parameter, linked to the parameters added before it
+     */
+    private static final class Param {
+
+        /**
+         * The parameter
+         */
+        final BasicNameValuePair pair;
+
+        /**
+         * Parameters added before this one, or null
+         */
+        final Param previous;
+
+        /**
+         * Number of parameters up to and including this one
+         */
+        final int size;
+
+        Param(BasicNameValuePair pair, Param previous) {
+            this.pair = pair;
+            this.previous = previous;
+            this.size = previous == null ? 1 : previous.size + 1;
+        }
+
+    }
+
+    /**
+     * Base URL
+     */
+    private final String baseUrl;
+
+    /**
+     * Public key
+     */
+    private final String publicKey;
+
+    /**
+     * Private key
+     */
+    private final String privateKey;
+
+    /**
+     * Image identifier, with the extension of any conversion
+     */
+    private final String imageIdentifier;
+
+    /**
+     * Access token generator
+     */
+    private final AccessToken accessToken;
+
+    /**
+     * Last query parameter added, or null if there are none
+     */
+    private final Param params;
+
+    /**
+     * The generated URL, once computed
+     */
+    private volatile String url;
+
+    /**
+     * Class constructor
+     *
+     * @param baseUrl The base URL to use
+     * @param publicKey The public key to use
+     * @param privateKey The private key to use
+     * @param imageIdentifier The image identifier to use in the URL
+     */
+    public ImmutableImageUrl(String baseUrl, String publicKey, String privateKey, String imageIdentifier) {
+        this(baseUrl, publicKey, privateKey, imageIdentifier, new AccessToken());
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param baseUrl The base URL to use
+     * @param publicKey The public key to use
+     * @param privateKey The private key to use
+     * @param imageIdentifier The image identifier to use in the URL
+     * @param accessToken Access token generator to sign the URL with
+     */
+    public ImmutableImageUrl(String baseUrl, String publicKey, String privateKey, String imageIdentifier, AccessToken accessToken) {
+        this(baseUrl, publicKey, privateKey, imageIdentifier, accessToken, null);
+    }
+
+    /**
+     * Class constructor
+     *
+     * @param baseUrl The base URL to use
+     * @param publicKey The public key to use
+     * @param privateKey The private key to use
+     * @param imageIdentifier The image identifier to use in the URL
+     * @param accessToken Access token generator to sign the URL with
+     * @param params Last query parameter added, or null
+     */
+    private ImmutableImageUrl(String baseUrl, String publicKey, String privateKey, String imageIdentifier, AccessToken accessToken, Param params) {
+        this.baseUrl = baseUrl;
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+        this.imageIdentifier = imageIdentifier;
+        this.accessToken = accessToken;
+        this.params = params;
+    }
+
+    /**
+     * Get a URL with a border transformation applied
+     *
+     * @param color Color of the border, in hex format
+     * @param width Width of the left and right sides of the border
+     * @param height Height of the left and right sides of the border
+     * @return New URL
+     */
+    public ImmutableImageUrl border(String color, int width, int height) {
+        return this.transform(Transformations.border(color, width, height));
+    }
+
+    /**
+     * Get a URL with a 1px border transformation applied
+     *
+     * @param color Color of the border, in hex format. Defaults to '000000' (black)
+     * @return New URL
+     */
+    public ImmutableImageUrl border(String color) {
+        return border(color, 1, 1);
+    }
+
+    /**
+     * Get a URL with a compress transformation applied
+     *
+     * @param level A value between 0 and 100 where 100 is the highest compression ratio
+     * @return New URL
+     */
+    public ImmutableImageUrl compress(int level) {
+        return this.transform(Transformations.compress(level));
+    }
+
+    /**
+     * Get a URL with a compress transformation with a compression level of 75 applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl compress() {
+        return compress(75);
+    }
+
+    /**
+     * Get a URL which triggers the convert transformation
+     *
+     * @param type The type to convert to
+     * @return New URL
+     */
+    public ImmutableImageUrl convert(String type) {
+        return new ImmutableImageUrl(baseUrl, publicKey, privateKey, Transformations.convert(imageIdentifier, type), accessToken, params);
+    }
+
+    /**
+     * Get a URL which triggers GIF conversion
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl gif() {
+        return convert("gif");
+    }
+
+    /**
+     * Get a URL which triggers JPG conversion
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl jpg() {
+        return convert("jpg");
+    }
+
+    /**
+     * Get a URL which triggers PNG conversion
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl png() {
+        return convert("png");
+    }
+
+    /**
+     * Get a URL with a crop transformation applied
+     *
+     * @param x X coordinate of the top left corner of the crop
+     * @param y Y coordinate of the top left corner of the crop
+     * @param width Width of the crop
+     * @param height Height of the crop
+     * @return New URL
+     */
+    public ImmutableImageUrl crop(int x, int y, int width, int height) {
+        return this.transform(Transformations.crop(x, y, width, height));
+    }
+
+    /**
+     * Get a URL with a flipHorizontally transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl flipHorizontally() {
+        return this.transform("flipHorizontally");
+    }
+
+    /**
+     * Get a URL with a flipVertically transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl flipVertically() {
+        return this.transform("flipVertically");
+    }
+
+    /**
+     * Get a URL with a resize transformation applied
+     *
+     * @param width Width of the resized image, or 0 to keep the aspect ratio
+     * @param height Height of the resized image, or 0 to keep the aspect ratio
+     * @return New URL
+     */
+    public ImmutableImageUrl resize(int width, int height) {
+        return this.transform(Transformations.resize(width, height));
+    }
+
+    /**
+     * Get a URL with a maxSize transformation applied
+     *
+     * @param maxWidth Max width of the resized image, or 0 for no limit
+     * @param maxHeight Max height of the resized image, or 0 for no limit
+     * @return New URL
+     */
+    public ImmutableImageUrl maxSize(int maxWidth, int maxHeight) {
+        return this.transform(Transformations.maxSize(maxWidth, maxHeight));
+    }
+
+    /**
+     * Get a URL with a rotate transformation applied
+     *
+     * @param angle The angle to rotate
+     * @param bg Background color of the rotated image
+     * @return New URL
+     */
+    public ImmutableImageUrl rotate(double angle, String bg) {
+        return this.transform(Transformations.rotate(angle, bg));
+    }
+
+    /**
+     * Get a URL with a rotate transformation on a black background applied
+     *
+     * @param angle The angle to rotate
+     * @return New URL
+     */
+    public ImmutableImageUrl rotate(double angle) {
+        return rotate(angle, "000000");
+    }
+
+    /**
+     * Get a URL with a thumbnail transformation applied
+     *
+     * @param width Width of the thumbnail
+     * @param height Height of the thumbnail
+     * @param fit Fit type. 'outbound' or 'inset'
+     * @return New URL
+     */
+    public ImmutableImageUrl thumbnail(int width, int height, String fit) {
+        return this.transform(Transformations.thumbnail(width, height, fit));
+    }
+
+    /**
+     * Get a URL with a 50x50 thumbnail transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl thumbnail() {
+        return thumbnail(50, 50, null);
+    }
+
+    /**
+     * Get a URL with a canvas transformation applied
+     *
+     * @param width Width of the new canvas
+     * @param height Height of the new canvas
+     * @param mode The placement mode
+     * @param x X coordinate of the placement of the upper left corner of the existing image
+     * @param y Y coordinate of the placement of the upper left corner of the existing image
+     * @param bg Background color of the canvas
+     * @return New URL
+     */
+    public ImmutableImageUrl canvas(int width, int height, String mode, int x, int y, String bg) {
+        return this.transform(Transformations.canvas(width, height, mode, x, y, bg));
+    }
+
+    /**
+     * Get a URL with a canvas transformation applied
+     *
+     * @param width Width of the new canvas
+     * @param height Height of the new canvas
+     * @return New URL
+     */
+    public ImmutableImageUrl canvas(int width, int height) {
+        return this.transform(Transformations.canvas(width, height));
+    }
+
+    /**
+     * Get a URL with a transpose transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl transpose() {
+        return this.transform("transpose");
+    }
+
+    /**
+     * Get a URL with a transverse transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl transverse() {
+        return this.transform("transverse");
+    }
+
+    /**
+     * Get a URL with a desaturate transformation applied
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl desaturate() {
+        return this.transform("desaturate");
+    }
+
+    /**
+     * Get a URL with a query parameter added
+     *
+     * @param key Name of the parameter. For instance "page" or "t[]"
+     * @param value Value of the parameter. For instance "10" or "border:width=50,height=50"
+     * @return New URL
+     */
+    public ImmutableImageUrl addQueryParam(String key, String value) {
+        Param param = new Param(new BasicNameValuePair(key, value), params);
+
+        return new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier, accessToken, param);
+    }
+
+    /**
+     * Get the URL to the original image, without transformations or conversion
+     *
+     * @return New URL
+     */
+    public ImmutableImageUrl reset() {
+        return new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier.substring(0, 32), accessToken, null);
+    }
+
+    /**
+     * Get a URL with the transformations rewritten into a canonical form
+     *
+     * Differently built chains which produce the same image end up as the same URL, which
+     * improves the hit rate of the transformation caches. Transformations are placed
+     * before any other query parameters.
+     *
+     * @return New URL
+     * @see TransformationCanonicalizer
+     */
+    public ImmutableImageUrl canonicalize() {
+        List<String> transformations = new ArrayList<String>();
+        List<BasicNameValuePair> others = new ArrayList<BasicNameValuePair>();
+
+        for (BasicNameValuePair param : this.getQueryParams()) {
+            if (Transformations.PARAM.equals(param.getName())) {
+                transformations.add(param.getValue());
+            } else {
+                others.add(param);
+            }
+        }
+
+        Param canonical = null;
+        for (String transformation : TransformationCanonicalizer.canonicalize(transformations)) {
+            canonical = new Param(new BasicNameValuePair(Transformations.PARAM, transformation), canonical);
+        }
+
+        for (BasicNameValuePair param : others) {
+            canonical = new Param(param, canonical);
+        }
+
+        return new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier, accessToken, canonical);
+    }
+
+    /**
+     * Get the image identifier of the URL, with the extension of any conversion
+     *
+     * @return Image identifier
+     */
+    public String getImageIdentifier() {
+        return imageIdentifier;
+    }
+
+    /**
+     * Returns the URL with query parameters added
+     *
+     * Computed on first use and reused afterwards.
+     *
+     * @return Full URL with query parameters, as a String
+     */
+    public String getUrl() {
+        String result = url;
+
+        if (result == null) {
+            // Racing threads compute the same value, so there is no need to lock
+            result = this.buildUrl();
+            url = result;
+        }
+
+        return result;
+    }
+
+    /**
+     * Get the complete URL as an URL-encoded string
+     *
+     * @return URL-encoded string
+     */
+    public String getUrlEncoded() {
+        return getUrl().replace("&", "&amp;").replace("[]", "%5B%5D");
+    }
+
+    /**
+     * Returns the URL with query parameters added
+     *
+     * @return Full URL with query parameters, as a String
+     */
+    public String toString() {
+        return getUrl();
+    }
+
+    /**
+     * Returns the URL in URI format
+     *
+     * @return Full URL with query parameters, as a URI
+     */
+    public URI toUri() {
+        try {
+            return new URI(getUrl());
+        } catch (URISyntaxException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Get a URL with a transformation added
+     *
+     * @param transformation Transformation to add
+     * @return New URL
+     */
+    private ImmutableImageUrl transform(String transformation) {
+        return this.addQueryParam(Transformations.PARAM, transformation);
+    }
+
+    /**
+     * Build the URL, signing it if keys are available
+     *
+     * @return Full URL
+     */
+    private String buildUrl() {
+        String resourceUrl = TextUtils.join("/", new String[] { baseUrl, "users", publicKey, "images", imageIdentifier });
+        Iterable<BasicNameValuePair> query = this.getQueryParams();
+
+        String rawUrl = resourceUrl;
+        if (params != null) {
+            rawUrl += "?" + TextUtils.join("&", query, false);
+        }
+
+        if (publicKey == null || privateKey == null) {
+            return rawUrl;
+        }
+
+        String token = accessToken.generateToken(rawUrl, privateKey);
+
+        if (params == null) {
+            return resourceUrl + "?accessToken=" + token;
+        }
+
+        return resourceUrl + "?" + TextUtils.join("&", query, true) + "&accessToken=" + token;
+    }
+
+    /**
+     * Get the query parameters in the order they were added
+     *
+     * @return Query parameters
+     */
+    private Iterable<BasicNameValuePair> getQueryParams() {
+        if (params == null) {
+            return Arrays.asList(new BasicNameValuePair[0]);
+        }
+
+        BasicNameValuePair[] pairs = new BasicNameValuePair[params.size];
+        for (Param param = params; param != null; param = param.previous) {
+            pairs[param.size - 1] = param.pair;
+        }
+
+        return Arrays.asList(pairs);
+    }
+
+}
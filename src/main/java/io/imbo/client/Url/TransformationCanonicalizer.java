@@ -0,0 +1,373 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import io.imbo.client.util.TextUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Rewrites transformation chains into a canonical form
+ *
+ * Chains which are built differently but produce the same image end up as the same URL,
+ * so they hit the same entries in the server and CDN caches. Only rewrites which are
+ * equivalent regardless of the input image are made:
+ *
+ * <ul>
+ * <li>Colors are lowercased and stripped of '#', and three-digit colors are expanded</li>
+ * <li>Rotation angles are normalized to [0, 360)</li>
+ * <li>Rotations by 0 degrees, empty resizes and zero-width borders are removed</li>
+ * <li>Adjacent identical flips, transposes and transverses cancel out</li>
+ * <li>Adjacent duplicate desaturates and max sizes are collapsed</li>
+ * <li>A resize to an exact size right after the same resize is removed</li>
+ * <li>A max size right after a resize to an exact size within it is removed</li>
+ * <li>A crop within the crop right before it is merged into it</li>
+ * <li>Only the last compression is kept, and moved to the end of the chain</li>
+ * </ul>
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public final class TransformationCanonicalizer {
+
+    /**
+     * Transformations which are undone by applying them again
+     */
+    private static final List<String> INVOLUTIONS = Arrays.asList(
+        "flipHorizontally", "flipVertically", "transpose", "transverse"
+    );
+
+    /**
+     * Parsed transformation
+     */
+    private static final class Transformation {
+
+        /**
+         * Name of the transformation
+         */
+        final String name;
+
+        /**
+         * Parameters of the transformation, in their original order
+         */
+        final Map<String, String> params;
+
+        Transformation(String name, Map<String, String> params) {
+            this.name = name;
+            this.params = params;
+        }
+
+        int getInt(String key) {
+            String value = params.get(key);
+
+            try {
+                return value == null ? 0 : Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        boolean isNamed(String other) {
+            return name.equals(other);
+        }
+
+        @Override
+        public String toString() {
+            if (params.isEmpty()) {
+                return name;
+            }
+
+            List<String> pairs = new ArrayList<String>();
+            for (Map.Entry<String, String> param : params.entrySet()) {
+                pairs.add(param.getKey() + "=" + param.getValue());
+            }
+
+            return name + ":" + TextUtils.join(",", pairs);
+        }
+
+    }
+
+    /**
+     * Utility class
+     */
+    private TransformationCanonicalizer() {
+    }
+
+    /**
+     * Canonicalize a chain of transformations
+     *
+     * @param transformations Transformations, as given in the "t[]" query parameters
+     * @return Canonical transformations
+     */
+    public static List<String> canonicalize(List<String> transformations) {
+        LinkedList<Transformation> chain = new LinkedList<Transformation>();
+        Transformation compress = null;
+
+        for (String value : transformations) {
+            Transformation transformation = normalize(parse(value));
+
+            if (isNoop(transformation)) {
+                continue;
+            }
+
+            if (transformation.isNamed("compress")) {
+                // Compression applies to the output image, wherever it is in the chain
+                compress = transformation;
+                continue;
+            }
+
+            append(chain, transformation);
+        }
+
+        if (compress != null) {
+            chain.add(compress);
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (Transformation transformation : chain) {
+            result.add(transformation.toString());
+        }
+
+        return result;
+    }
+
+    /**
+     * Append a transformation to a chain, merging it with the previous one where possible
+     *
+     * @param chain Chain to append to
+     * @param transformation Transformation to append
+     */
+    private static void append(LinkedList<Transformation> chain, Transformation transformation) {
+        Transformation previous = chain.isEmpty() ? null : chain.getLast();
+
+        if (previous == null) {
+            chain.add(transformation);
+            return;
+        }
+
+        String name = transformation.name;
+
+        if (INVOLUTIONS.contains(name) && previous.isNamed(name) && previous.params.isEmpty() && transformation.params.isEmpty()) {
+            chain.removeLast();
+        } else if ((name.equals("desaturate") || name.equals("maxSize")) && previous.toString().equals(transformation.toString())) {
+            // Applying these again changes nothing
+        } else if (name.equals("resize") && isExactResize(transformation) && previous.toString().equals(transformation.toString())) {
+            // The image already has the exact size
+        } else if (name.equals("maxSize") && isExactResize(previous) && fitsWithin(previous, transformation)) {
+            // The resized image is already within the max size
+        } else if (name.equals("crop") && previous.isNamed("crop") && isWithin(transformation, previous)) {
+            chain.removeLast();
+            chain.add(mergeCrops(previous, transformation));
+        } else {
+            chain.add(transformation);
+        }
+    }
+
+    /**
+     * Parse a transformation
+     *
+     * @param value Transformation, as given in a "t[]" query parameter
+     * @return Parsed transformation
+     */
+    private static Transformation parse(String value) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        int colon = value.indexOf(':');
+
+        if (colon == -1) {
+            return new Transformation(value, params);
+        }
+
+        for (String pair : value.substring(colon + 1).split(",")) {
+            int equals = pair.indexOf('=');
+
+            if (equals == -1) {
+                params.put(pair, "");
+            } else {
+                params.put(pair.substring(0, equals), pair.substring(equals + 1));
+            }
+        }
+
+        return new Transformation(value.substring(0, colon), params);
+    }
+
+    /**
+     * Normalize the parameters of a transformation
+     *
+     * @param transformation Transformation to normalize
+     * @return The transformation
+     */
+    private static Transformation normalize(Transformation transformation) {
+        for (Map.Entry<String, String> param : transformation.params.entrySet()) {
+            if (param.getKey().equals("color") || param.getKey().equals("bg")) {
+                param.setValue(normalizeColor(param.getValue()));
+            }
+        }
+
+        String angle = transformation.params.get("angle");
+        if (transformation.isNamed("rotate") && angle != null) {
+            try {
+                double degrees = Double.parseDouble(angle) % 360;
+                if (degrees < 0) {
+                    degrees += 360;
+                }
+
+                String normalized = Double.toString(degrees);
+                if ((degrees - (int) degrees) == 0) {
+                    normalized = Integer.toString((int) degrees);
+                }
+
+                transformation.params.put("angle", normalized);
+            } catch (NumberFormatException e) {
+                // Leave it to the server to complain
+            }
+        }
+
+        return transformation;
+    }
+
+    /**
+     * Normalize a color, expanding three-digit hex colors
+     *
+     * @param color Color to normalize
+     * @return Normalized color
+     */
+    private static String normalizeColor(String color) {
+        String normalized = TextUtils.normalizeColor(color);
+
+        if (normalized.matches("[0-9a-f]{3}")) {
+            StringBuilder expanded = new StringBuilder(6);
+            for (int i = 0; i < 3; i++) {
+                expanded.append(normalized.charAt(i)).append(normalized.charAt(i));
+            }
+
+            return expanded.toString();
+        }
+
+        return normalized;
+    }
+
+    /**
+     * Check whether a transformation leaves every image unchanged
+     *
+     * @param transformation Transformation to check
+     * @return Whether the transformation does nothing
+     */
+    private static boolean isNoop(Transformation transformation) {
+        if (transformation.isNamed("rotate")) {
+            return "0".equals(transformation.params.get("angle"));
+        }
+
+        if (transformation.isNamed("resize") || transformation.isNamed("maxSize")) {
+            for (String key : transformation.params.keySet()) {
+                if (!key.equals("") && !key.equals("width") && !key.equals("height")) {
+                    return false;
+                }
+            }
+
+            return transformation.getInt("width") == 0 && transformation.getInt("height") == 0;
+        }
+
+        if (transformation.isNamed("border")) {
+            return transformation.getInt("width") == 0 && transformation.getInt("height") == 0
+                && transformation.params.containsKey("width") && transformation.params.containsKey("height");
+        }
+
+        return false;
+    }
+
+    /**
+     * Check whether a transformation is a resize to an exact width and height
+     *
+     * @param transformation Transformation to check
+     * @return Whether the result has a known size
+     */
+    private static boolean isExactResize(Transformation transformation) {
+        return transformation.isNamed("resize")
+            && transformation.params.size() == 2
+            && transformation.getInt("width") > 0
+            && transformation.getInt("height") > 0;
+    }
+
+    /**
+     * Check whether an exact resize fits within a max size
+     *
+     * @param resize Exact resize
+     * @param maxSize Max size
+     * @return Whether the max size leaves the resized image unchanged
+     */
+    private static boolean fitsWithin(Transformation resize, Transformation maxSize) {
+        int maxWidth = maxSize.getInt("width");
+        int maxHeight = maxSize.getInt("height");
+
+        if (maxWidth < 0 || maxHeight < 0 || maxSize.params.size() != (maxWidth > 0 ? 1 : 0) + (maxHeight > 0 ? 1 : 0)) {
+            return false;
+        }
+
+        return (maxWidth == 0 || resize.getInt("width") <= maxWidth)
+            && (maxHeight == 0 || resize.getInt("height") <= maxHeight);
+    }
+
+    /**
+     * Check whether a crop lies within the area of the crop before it
+     *
+     * @param crop Crop to check
+     * @param previous Crop before it
+     * @return Whether the crop lies within the previous crop
+     */
+    private static boolean isWithin(Transformation crop, Transformation previous) {
+        if (!isPlainCrop(crop) || !isPlainCrop(previous)) {
+            return false;
+        }
+
+        return crop.getInt("x") + crop.getInt("width") <= previous.getInt("width")
+            && crop.getInt("y") + crop.getInt("height") <= previous.getInt("height");
+    }
+
+    /**
+     * Check whether a crop has exactly a position and a size, all valid
+     *
+     * @param crop Crop to check
+     * @return Whether the crop can be merged
+     */
+    private static boolean isPlainCrop(Transformation crop) {
+        if (crop.params.size() != 4) {
+            return false;
+        }
+
+        for (String key : new String[] { "x", "y", "width", "height" }) {
+            if (!crop.params.containsKey(key) || crop.getInt(key) < 0) {
+                return false;
+            }
+        }
+
+        return crop.getInt("width") > 0 && crop.getInt("height") > 0;
+    }
+
+    /**
+     * Merge a crop into the crop before it
+     *
+     * @param first First crop
+     * @param second Crop within the first
+     * @return Single crop with the same result
+     */
+    private static Transformation mergeCrops(Transformation first, Transformation second) {
+        Map<String, String> params = new LinkedHashMap<String, String>();
+        params.put("x", Integer.toString(first.getInt("x") + second.getInt("x")));
+        params.put("y", Integer.toString(first.getInt("y") + second.getInt("y")));
+        params.put("width", Integer.toString(second.getInt("width")));
+        params.put("height", Integer.toString(second.getInt("height")));
+
+        return new Transformation("crop", params);
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import io.imbo.client.util.TextUtils;
+
+import java.util.List;
+
+import org.apache.http.message.BasicNameValuePair;
+
+/**
+ * Transformation chain compiled once and applied to many images
+ *
+ * The query string of the chain is encoded when the template is compiled, so binding it
+ * to an image only joins the path and generates the access token. Templates are
+ * immutable and can be shared between threads.
+ *
+ * <pre>
+ * TransformationTemplate template = TransformationTemplate.compile(
+ *     TransformationTemplate.chain().thumbnail(200, 200, "outbound").compress(80).jpg()
+ * );
+ *
+ * String url = client.getImageUrl(imageIdentifier, template);
+ * </pre>
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public final class TransformationTemplate {
+
+    /**
+     * Image identifier used when building a chain to compile
+     */
+    private static final String PLACEHOLDER_IDENTIFIER = "00000000000000000000000000000000";
+
+    /**
+     * Query string as signed, with raw values
+     */
+    private final String rawQuery;
+
+    /**
+     * Query string as sent, with URL-encoded values
+     */
+    private final String encodedQuery;
+
+    /**
+     * Extension the image is converted to, or null
+     */
+    private final String extension;
+
+    /**
+     * Access token generator
+     */
+    private final AccessToken accessToken;
+
+    /**
+     * Class constructor
+     *
+     * @param rawQuery Query string as signed
+     * @param encodedQuery Query string as sent
+     * @param extension Extension the image is converted to, or null
+     * @param accessToken Access token generator
+     */
+    private TransformationTemplate(String rawQuery, String encodedQuery, String extension, AccessToken accessToken) {
+        this.rawQuery = rawQuery;
+        this.encodedQuery = encodedQuery;
+        this.extension = extension;
+        this.accessToken = accessToken;
+    }
+
+    /**
+     * Start a transformation chain to compile into a template
+     *
+     * @return Image URL for a placeholder image, without host or keys
+     */
+    public static ImageUrl chain() {
+        return new ImageUrl(null, null, null, PLACEHOLDER_IDENTIFIER);
+    }
+
+    /**
+     * Compile the transformations applied to an image URL into a template
+     *
+     * The image, host and keys of the URL are ignored; only its transformations are kept.
+     *
+     * @param url Image URL with transformations applied
+     * @return Compiled template
+     */
+    public static TransformationTemplate compile(ImageUrl url) {
+        List<BasicNameValuePair> params = url.getQueryParams();
+
+        return new TransformationTemplate(
+            TextUtils.join("&", params, false),
+            TextUtils.join("&", params, true),
+            url.getExtension(),
+            url.getAccessToken()
+        );
+    }
+
+    /**
+     * Bind the template to an image
+     *
+     * Returns the same URL as applying the compiled transformations to an image URL with
+     * the given host, keys and image identifier.
+     *
+     * @param baseUrl The base URL to use
+     * @param publicKey The public key to use
+     * @param privateKey The private key to use, or null to leave the URL unsigned
+     * @param imageIdentifier The image identifier to use in the URL
+     * @return Signed URL to the transformed image
+     */
+    public String bind(String baseUrl, String publicKey, String privateKey, String imageIdentifier) {
+        StringBuilder url = new StringBuilder(baseUrl.length() + imageIdentifier.length() + 64);
+        this.appendResource(url, baseUrl, publicKey, imageIdentifier);
+
+        int resourceLength = url.length();
+        this.appendQuery(url, false);
+
+        if (publicKey == null || privateKey == null) {
+            return url.toString();
+        }
+
+        String token = accessToken.generateToken(url.toString(), privateKey);
+
+        url.setLength(resourceLength);
+        this.appendQuery(url, true);
+
+        return url.append(encodedQuery.length() > 0 ? '&' : '?').append("accessToken=").append(token).toString();
+    }
+
+    /**
+     * Append the resource URL of an image to a builder
+     *
+     * @param url Builder to append to
+     * @param baseUrl The base URL to use
+     * @param publicKey The public key to use
+     * @param imageIdentifier The image identifier to use in the URL
+     */
+    void appendResource(StringBuilder url, String baseUrl, String publicKey, String imageIdentifier) {
+        url.append(baseUrl).append("/users/").append(publicKey).append("/images/");
+
+        if (extension == null) {
+            url.append(imageIdentifier);
+        } else {
+            url.append(imageIdentifier, 0, 32).append('.').append(extension);
+        }
+    }
+
+    /**
+     * Append the query string of the template to a builder
+     *
+     * @param url Builder to append to
+     * @param encoded Whether to append the URL-encoded query string or the one that is signed
+     */
+    void appendQuery(StringBuilder url, boolean encoded) {
+        String query = encoded ? encodedQuery : rawQuery;
+
+        if (query.length() > 0) {
+            url.append('?').append(query);
+        }
+    }
+
+    /**
+     * Get the query string of the template, as sent
+     *
+     * @return URL-encoded query string, empty if there are no transformations
+     */
+    public String getQueryString() {
+        return encodedQuery;
+    }
+
+    /**
+     * Get the extension the template converts images to
+     *
+     * @return Extension, or null if images are not converted
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import io.imbo.client.util.TextUtils;
+
+import java.util.ArrayList;
+
+/**
+ * Builds the values of transformation query parameters
+ *
+ * Shared by the image URL implementations, so they always produce identical URLs.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+final class Transformations {
+
+    /**
+     * Name of the query parameter holding transformations
+     */
+    static final String PARAM = "t[]";
+
+    /**
+     * Utility class
+     */
+    private Transformations() {
+    }
+
+    /**
+     * Border transformation
+     *
+     * @param color Color of the border, in hex format. Defaults to '000000' (black)
+     * @param width Width of the left and right sides of the border
+     * @param height Height of the left and right sides of the border
+     * @return Transformation
+     */
+    static String border(String color, int width, int height) {
+        if (color == null) {
+            color = "000000";
+        }
+
+        return "border:color=" + TextUtils.normalizeColor(color) + ",width=" + width + ",height=" + height;
+    }
+
+    /**
+     * Compress transformation
+     *
+     * @param level A value between 0 and 100 where 100 is the highest compression ratio
+     * @return Transformation
+     */
+    static String compress(int level) {
+        return "compress:level=" + level;
+    }
+
+    /**
+     * Crop transformation
+     *
+     * @param x X coordinate of the top left corner of the crop
+     * @param y Y coordinate of the top left corner of the crop
+     * @param width Width of the crop
+     * @param height Height of the crop
+     * @return Transformation
+     */
+    static String crop(int x, int y, int width, int height) {
+        return "crop:x=" + x + ",y=" + y + ",width=" + width + ",height=" + height;
+    }
+
+    /**
+     * Resize transformation
+     *
+     * @param width Width of the resized image, or 0 to keep the aspect ratio
+     * @param height Height of the resized image, or 0 to keep the aspect ratio
+     * @return Transformation
+     */
+    static String resize(int width, int height) {
+        return "resize:" + dimensions(width, height);
+    }
+
+    /**
+     * Max size transformation
+     *
+     * @param maxWidth Max width of the resized image, or 0 for no limit
+     * @param maxHeight Max height of the resized image, or 0 for no limit
+     * @return Transformation
+     */
+    static String maxSize(int maxWidth, int maxHeight) {
+        return "maxSize:" + dimensions(maxWidth, maxHeight);
+    }
+
+    /**
+     * Rotate transformation
+     *
+     * @param angle Angle to rotate the image by
+     * @param bg Background color of the uncovered areas, in hex format
+     * @return Transformation
+     */
+    static String rotate(double angle, String bg) {
+        // Don't put decimals into the URL if we have no fractions
+        String ang = Double.toString(angle);
+        if ((angle - (int) angle) == 0) {
+            ang = Integer.toString((int) angle);
+        }
+
+        return "rotate:angle=" + ang + ",bg=" + TextUtils.normalizeColor(bg);
+    }
+
+    /**
+     * Thumbnail transformation
+     *
+     * @param width Width of the thumbnail
+     * @param height Height of the thumbnail
+     * @param fit Fit style of the thumbnail ('inset' or 'outbound'). Defaults to 'outbound'
+     * @return Transformation
+     */
+    static String thumbnail(int width, int height, String fit) {
+        if (width == 0) {
+            width = 50;
+        }
+
+        if (height == 0) {
+            width = 50;
+        }
+
+        if (fit == null) {
+            fit = "outbound";
+        }
+
+        return "thumbnail:width=" + width + ",height=" + height + ",fit=" + fit;
+    }
+
+    /**
+     * Canvas transformation
+     *
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     * @param mode Placement mode of the image, or null for the default
+     * @param x X coordinate of the image on the canvas
+     * @param y Y coordinate of the image on the canvas
+     * @param bg Background color of the canvas, or null for the default
+     * @return Transformation
+     */
+    static String canvas(int width, int height, String mode, int x, int y, String bg) {
+        ArrayList<String> params = new ArrayList<String>();
+        params.add("width="  + width);
+        params.add("height=" + height);
+
+        if (mode != null) {
+            params.add("mode=" + mode);
+        }
+
+        params.add("x=" + x);
+        params.add("y=" + y);
+
+        if (bg != null) {
+            params.add("bg=" + TextUtils.normalizeColor(bg));
+        }
+
+        return "canvas:" + TextUtils.join(",", params);
+    }
+
+    /**
+     * Canvas transformation with default placement and background
+     *
+     * @param width Width of the canvas
+     * @param height Height of the canvas
+     * @return Transformation
+     */
+    static String canvas(int width, int height) {
+        return "canvas:width=" + width + ",height=" + height;
+    }
+
+    /**
+     * Identifier with a convert transformation applied
+     *
+     * @param imageIdentifier Image identifier, possibly already converted
+     * @param type The type to convert to
+     * @return Image identifier with the extension of the type
+     */
+    static String convert(String imageIdentifier, String type) {
+        return imageIdentifier.substring(0, 32) + "." + type;
+    }
+
+    /**
+     * Width and height parameters, leaving out the ones which are not set
+     *
+     * @param width Width, or 0 if not set
+     * @param height Height, or 0 if not set
+     * @return Parameters
+     */
+    private static String dimensions(int width, int height) {
+        ArrayList<String> params = new ArrayList<String>();
+
+        if (width > 0) {
+            params.add("width=" + width);
+        }
+
+        if (height > 0) {
+            params.add("height=" + height);
+        }
+
+        return TextUtils.join(",", params);
+    }
+
+}
@@ -0,0 +1,217 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import io.imbo.client.util.Crypto;
+
+import java.security.GeneralSecurityException;
+
+import javax.crypto.Mac;
+
+/**
+ * Access token generator for signing large numbers of URLs with a single private key
+ *
+ * Every thread keeps its own initialized HMAC and string builder, so signing a URL does
+ * not set up the algorithm or allocate intermediate strings. Instances are thread-safe.
+ * Tokens for other keys are generated like the plain access token does.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class UrlSigner extends AccessToken {
+
+    /**
+     * Hex digits, for encoding tokens
+     */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * Builder reused by every signer on the current thread
+     */
+    private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(256);
+        }
+    };
+
+    /**
+     * Buffer for the bytes of the URL being signed, reused by every signer on the current thread
+     */
+    private static final ThreadLocal<byte[][]> BYTES = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] { new byte[256] };
+        }
+    };
+
+    /**
+     * Public key to sign URLs for
+     */
+    private final String publicKey;
+
+    /**
+     * Private key to sign URLs with
+     */
+    private final String privateKey;
+
+    /**
+     * HMAC initialized with the private key, per thread
+     */
+    private final ThreadLocal<Mac> mac = new ThreadLocal<Mac>() {
+        @Override
+        protected Mac initialValue() {
+            try {
+                return Crypto.createHmacSha256(privateKey);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Could not initialize HMAC-SHA256", e);
+            }
+        }
+    };
+
+    /**
+     * Class constructor
+     *
+     * @param publicKey Public key to sign URLs for
+     * @param privateKey Private key to sign URLs with
+     */
+    public UrlSigner(String publicKey, String privateKey) {
+        if (privateKey == null) {
+            throw new IllegalArgumentException("A private key is required to sign URLs");
+        }
+
+        this.publicKey = publicKey;
+        this.privateKey = privateKey;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String generateToken(String url, String key) {
+        if (!privateKey.equals(key)) {
+            return super.generateToken(url, key);
+        }
+
+        StringBuilder token = new StringBuilder(64);
+        this.appendToken(token, url);
+
+        return token.toString();
+    }
+
+    /**
+     * Sign the URL to an image with a compiled set of transformations applied
+     *
+     * Returns the same URL as binding the template with the keys of this signer.
+     *
+     * @param baseUrl The base URL to use
+     * @param imageIdentifier The image identifier to use in the URL
+     * @param template Compiled transformations to apply
+     * @return Signed URL to the transformed image
+     */
+    public String sign(String baseUrl, String imageIdentifier, TransformationTemplate template) {
+        StringBuilder url = BUILDER.get();
+        url.setLength(0);
+
+        template.appendResource(url, baseUrl, publicKey, imageIdentifier);
+        int resourceLength = url.length();
+
+        template.appendQuery(url, false);
+        int signedLength = url.length();
+        template.appendQuery(url, true);
+
+        byte[] data = this.toBytes(url, signedLength);
+        byte[] digest;
+
+        if (data == null) {
+            // Non-ASCII URLs are encoded the same way as by the plain access token
+            digest = mac.get().doFinal(url.substring(0, signedLength).getBytes());
+        } else {
+            digest = this.digest(data, signedLength);
+        }
+
+        // Only the encoded query string is sent
+        url.delete(resourceLength, signedLength);
+        url.append(template.getQueryString().length() > 0 ? '&' : '?').append("accessToken=");
+        appendHex(url, digest);
+
+        return url.toString();
+    }
+
+    /**
+     * Append the token for a URL to a builder
+     *
+     * @param builder Builder to append to
+     * @param url URL to generate the token for
+     */
+    private void appendToken(StringBuilder builder, String url) {
+        byte[] data = this.toBytes(url, url.length());
+
+        if (data == null) {
+            appendHex(builder, mac.get().doFinal(url.getBytes()));
+        } else {
+            appendHex(builder, this.digest(data, url.length()));
+        }
+    }
+
+    /**
+     * Hash the first bytes of a buffer
+     *
+     * @param data Buffer
+     * @param length Number of bytes to hash
+     * @return HMAC of the bytes
+     */
+    private byte[] digest(byte[] data, int length) {
+        Mac algorithm = mac.get();
+        algorithm.update(data, 0, length);
+
+        return algorithm.doFinal();
+    }
+
+    /**
+     * Copy the first characters of a sequence into the per-thread byte buffer
+     *
+     * @param chars Characters to copy
+     * @param length Number of characters to copy
+     * @return The per-thread buffer, or null if the characters are not all ASCII
+     */
+    private byte[] toBytes(CharSequence chars, int length) {
+        byte[][] holder = BYTES.get();
+
+        if (holder[0].length < length) {
+            holder[0] = new byte[Math.max(length, holder[0].length * 2)];
+        }
+
+        byte[] bytes = holder[0];
+
+        for (int i = 0; i < length; i++) {
+            char c = chars.charAt(i);
+
+            if (c >= 0x80) {
+                return null;
+            }
+
+            bytes[i] = (byte) c;
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Append bytes to a builder as lowercase hex
+     *
+     * @param builder Builder to append to
+     * @param bytes Bytes to append
+     */
+    private static void appendHex(StringBuilder builder, byte[] bytes) {
+        for (byte b : bytes) {
+            builder.append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+        }
+    }
+
+}
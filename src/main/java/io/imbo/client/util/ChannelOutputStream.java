@@ -0,0 +1,70 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Output stream writing to a file channel at a given position
+ *
+ * Uses positional writes, so several streams can write to different regions of the same
+ * channel at the same time. Closing the stream does not close the channel.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChannelOutputStream extends OutputStream {
+
+    /**
+     * Channel to write to
+     */
+    private FileChannel channel;
+
+    /**
+     * Position of the next byte to write
+     */
+    private long position;
+
+    /**
+     * Class constructor
+     *
+     * @param channel Channel to write to
+     * @param position Position of the first byte to write
+     */
+    public ChannelOutputStream(FileChannel channel, long position) {
+        this.channel = channel;
+        this.position = position;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(buffer, offset, length);
+
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    /**
+     * Get the position of the next byte to write
+     *
+     * @return Position in the channel
+     */
+    public long getPosition() {
+        return position;
+    }
+
+}
@@ -10,6 +10,7 @@ package io.imbo.client.util;
 
 import java.nio.charset.Charset;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import javax.crypto.Mac;
@@ -30,33 +31,83 @@ public class Crypto {
      * @return Hashed output
      */
     public static String hashHmacSha256(String data, String key) {
-        Charset charset = Charset.forName("UTF-8");
-        String algoName = "HmacSHA256";
         Mac algorithm = null;
         try {
-            algorithm = Mac.getInstance(algoName);
+            algorithm = createHmacSha256(key);
         } catch (NoSuchAlgorithmException e) {
             // This should hopefully never happen
             return "hmac-sha-256-algorithm-not-found";
+        } catch (InvalidKeyException e) {
+            // .. And this shouldn't really ever happen, either
+            return "invalid-key-for-access-token-generation";
         }
 
+        return toHex(algorithm.doFinal(data.getBytes()));
+    }
+
+    /**
+     * Create an HMAC-SHA256 algorithm initialized with a given key
+     *
+     * The returned instance can be reused for any number of hashes, but not concurrently.
+     *
+     * @param key Key to use for hashing
+     * @return Initialized algorithm
+     * @throws NoSuchAlgorithmException If HMAC-SHA256 is not available
+     * @throws InvalidKeyException If the key can not be used
+     */
+    public static Mac createHmacSha256(String key) throws NoSuchAlgorithmException, InvalidKeyException {
+        Charset charset = Charset.forName("UTF-8");
+        String algoName = "HmacSHA256";
+        Mac algorithm = Mac.getInstance(algoName);
+
         byte[] byteKey = charset.encode(key).array();
-        SecretKeySpec secretKey = new javax.crypto.spec.SecretKeySpec(byteKey, algoName);
+        algorithm.init(new SecretKeySpec(byteKey, algoName));
+
+        return algorithm;
+    }
+
+    /**
+     * Hash a string of data with the MD5 algorithm
+     *
+     * @param data Input data
+     * @return Hex-encoded MD5 hash
+     */
+    public static String md5(String data) {
+        return md5(data.getBytes(Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Hash binary data with the MD5 algorithm
+     *
+     * @param data Input data
+     * @return Hex-encoded MD5 hash
+     */
+    public static String md5(byte[] data) {
+        MessageDigest digest;
         try {
-            algorithm.init(secretKey);
-        } catch (InvalidKeyException e) {
-            // .. And this shouldn't really ever happen, either
-            return "invalid-key-for-access-token-generation";
+            digest = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is required to be present on every Java platform
+            return "md5-algo-not-defined";
         }
 
-        final byte[] macData = algorithm.doFinal(data.getBytes());
+        return toHex(digest.digest(data));
+    }
 
-        String result = "";
-        for (final byte element : macData) {
-           result += Integer.toString((element & 0xff) + 0x100, 16).substring(1);
+    /**
+     * Encode a byte array as a lowercase hex string
+     *
+     * @param bytes Bytes to encode
+     * @return Hex-encoded string
+     */
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte element : bytes) {
+            sb.append(Character.forDigit((element >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(element & 0xf, 16));
         }
 
-        return result;
+        return sb.toString();
     }
 
 }
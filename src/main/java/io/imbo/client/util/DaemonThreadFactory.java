@@ -0,0 +1,51 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread factory creating named daemon threads, so that worker pools owned by the
+ * client never keep the JVM alive
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class DaemonThreadFactory implements ThreadFactory {
+
+    /**
+     * Prefix for the thread names
+     */
+    private String prefix;
+
+    /**
+     * Sequence number of the next thread
+     */
+    private AtomicInteger sequence = new AtomicInteger(1);
+
+    /**
+     * Class constructor
+     *
+     * @param prefix Prefix for the thread names, for instance "imboclient-bulk"
+     */
+    public DaemonThreadFactory(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, prefix + "-" + sequence.getAndIncrement());
+        thread.setDaemon(true);
+
+        return thread;
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Input stream which hashes and counts the bytes read through it
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class DigestingInputStream extends DigestInputStream {
+
+    /**
+     * Number of bytes read
+     */
+    private long count = 0;
+
+    /**
+     * Wrap a stream, hashing it with MD5
+     *
+     * @param input Stream to wrap
+     */
+    public DigestingInputStream(InputStream input) {
+        super(input, createMd5());
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+
+        if (b != -1) {
+            count++;
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+
+        if (read > 0) {
+            count += read;
+        }
+
+        return read;
+    }
+
+    /**
+     * Get the number of bytes read so far
+     *
+     * @return Number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the checksum of the bytes read so far
+     *
+     * @return Hex-encoded MD5 checksum
+     */
+    public String getChecksum() {
+        try {
+            // Digest a clone, so reading can continue afterwards
+            return Crypto.toHex(((MessageDigest) getMessageDigest().clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            return Crypto.toHex(getMessageDigest().digest());
+        }
+    }
+
+    /**
+     * Create an MD5 digest
+     *
+     * @return MD5 message digest
+     */
+    static MessageDigest createMd5() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // MD5 is required to be present on every Java platform
+            throw new IllegalStateException("MD5 is not available", e);
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+
+/**
+ * Output stream which hashes and counts the bytes written through it
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class DigestingOutputStream extends DigestOutputStream {
+
+    /**
+     * Number of bytes written
+     */
+    private long count = 0;
+
+    /**
+     * Wrap a stream, hashing it with MD5
+     *
+     * @param output Stream to wrap
+     */
+    public DigestingOutputStream(OutputStream output) {
+        super(output, DigestingInputStream.createMd5());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        super.write(b);
+        count++;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        super.write(buffer, offset, length);
+        count += length;
+    }
+
+    /**
+     * Get the number of bytes written so far
+     *
+     * @return Number of bytes
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the checksum of the bytes written so far
+     *
+     * @return Hex-encoded MD5 checksum
+     */
+    public String getChecksum() {
+        try {
+            // Digest a clone, so writing can continue afterwards
+            return Crypto.toHex(((MessageDigest) getMessageDigest().clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            return Crypto.toHex(getMessageDigest().digest());
+        }
+    }
+
+}
@@ -0,0 +1,42 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Various file utilities
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class FileUtils {
+
+    /**
+     * Replace a file with another one
+     *
+     * The source is renamed over the target, which replaces the target atomically on POSIX
+     * systems, so a crash leaves either the old or the new file in place. Only if the rename
+     * fails, as it does on Windows when the target exists, is the target deleted first.
+     *
+     * @param source File to move
+     * @param target File to replace
+     * @throws IOException If the file can not be replaced
+     */
+    public static void replace(File source, File target) throws IOException {
+        if (source.renameTo(target)) {
+            return;
+        }
+
+        if (!source.exists() || target.exists() && !target.delete() || !source.renameTo(target)) {
+            throw new IOException("Could not move " + source.getPath() + " to " + target.getPath());
+        }
+    }
+
+}
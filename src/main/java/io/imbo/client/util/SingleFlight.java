@@ -0,0 +1,101 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Merges concurrent calls sharing the same key into a single execution
+ *
+ * The first caller for a key runs the call; callers arriving while it is in flight wait
+ * for and share its result (or exception). Nothing is cached once the call completes.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class SingleFlight<V> {
+
+    /**
+     * Calls currently in flight, keyed by call key
+     */
+    private ConcurrentHashMap<String, FutureTask<V>> inFlight = new ConcurrentHashMap<String, FutureTask<V>>();
+
+    /**
+     * Number of callers that shared the result of another caller's execution
+     */
+    private AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Execute a call, or wait for an identical call already in flight
+     *
+     * @param key Key identifying identical calls
+     * @param call Call to execute if none is in flight for the key
+     * @return Result of the call
+     * @throws IOException If the call failed with an IOException, or the caller was interrupted
+     */
+    public V execute(String key, Callable<V> call) throws IOException {
+        FutureTask<V> task = new FutureTask<V>(call);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+
+        if (existing == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+
+            existing = task;
+        } else {
+            coalesced.incrementAndGet();
+        }
+
+        try {
+            return existing.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for in-flight request");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Get the number of calls currently in flight
+     *
+     * @return Number of calls in flight
+     */
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Get the number of callers that shared the result of another caller's execution
+     *
+     * @return Number of coalesced callers
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+
+/**
+ * Input stream which paces reads by a byte rate
+ *
+ * Every byte read takes a token from the bucket, so reads are held up once the rate is
+ * used up. The bucket can be shared by several streams to limit their combined rate.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ThrottledInputStream extends FilterInputStream {
+
+    /**
+     * Bucket holding one token per byte
+     */
+    private TokenBucket bucket;
+
+    /**
+     * Wrap a stream
+     *
+     * @param input Stream to wrap
+     * @param bucket Bucket holding one token per byte
+     */
+    public ThrottledInputStream(InputStream input, TokenBucket bucket) {
+        super(input);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+
+        if (b != -1) {
+            this.pace(1);
+        }
+
+        return b;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        int read = super.read(buffer, offset, length);
+
+        if (read > 0) {
+            this.pace(read);
+        }
+
+        return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+
+        if (skipped > 0) {
+            this.pace(skipped);
+        }
+
+        return skipped;
+    }
+
+    /**
+     * Wait until the given number of bytes fit in the rate
+     *
+     * @param bytes Number of bytes
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    private void pace(long bytes) throws InterruptedIOException {
+        try {
+            bucket.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling");
+        }
+    }
+
+}
@@ -0,0 +1,69 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream which paces writes by a byte rate
+ *
+ * Every byte written takes a token from the bucket, so writes are held up once the rate
+ * is used up. The bucket can be shared by several streams to limit their combined rate.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ThrottledOutputStream extends FilterOutputStream {
+
+    /**
+     * Bucket holding one token per byte
+     */
+    private TokenBucket bucket;
+
+    /**
+     * Wrap a stream
+     *
+     * @param output Stream to wrap
+     * @param bucket Bucket holding one token per byte
+     */
+    public ThrottledOutputStream(OutputStream output, TokenBucket bucket) {
+        super(output);
+        this.bucket = bucket;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.pace(1);
+        out.write(b);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        this.pace(length);
+        out.write(buffer, offset, length);
+    }
+
+    /**
+     * Wait until the given number of bytes fit in the rate
+     *
+     * @param bytes Number of bytes
+     * @throws InterruptedIOException If interrupted while waiting
+     */
+    private void pace(long bytes) throws InterruptedIOException {
+        try {
+            bucket.acquire(bytes);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while throttling");
+        }
+    }
+
+}
@@ -0,0 +1,158 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket rate limiter
+ *
+ * Tokens are added at a steady rate, up to the size of the bucket. Taking more tokens
+ * than are available reserves them ahead of time and waits until they would have been
+ * added, so callers are paced evenly instead of being rejected. Thread-safe.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class TokenBucket {
+
+    /**
+     * Tokens added per second
+     */
+    private double rate;
+
+    /**
+     * Max number of tokens in the bucket
+     */
+    private double capacity;
+
+    /**
+     * Tokens in the bucket. Negative when tokens have been reserved ahead of time
+     */
+    private double tokens;
+
+    /**
+     * Time of the last refill, in nanoseconds
+     */
+    private long refilledAt;
+
+    /**
+     * Class constructor
+     *
+     * The bucket starts out full.
+     *
+     * @param rate Tokens added per second
+     * @param capacity Max number of tokens in the bucket, which is the largest burst allowed
+     */
+    public TokenBucket(double rate, double capacity) {
+        if (rate <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Rate and capacity must be positive");
+        }
+
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Take tokens from the bucket, waiting until they are available
+     *
+     * @param permits Number of tokens to take
+     * @throws InterruptedException If interrupted while waiting. The tokens stay taken
+     */
+    public void acquire(long permits) throws InterruptedException {
+        long wait = this.reserve(permits);
+
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    /**
+     * Take tokens from the bucket if they are available right away
+     *
+     * @param permits Number of tokens to take
+     * @return Whether the tokens were taken
+     */
+    public synchronized boolean tryAcquire(long permits) {
+        this.refill();
+
+        if (tokens < permits) {
+            return false;
+        }
+
+        tokens -= permits;
+        return true;
+    }
+
+    /**
+     * Reserve tokens and get the time to wait until they are available
+     *
+     * @param permits Number of tokens to reserve
+     * @return Time to wait, in nanoseconds
+     */
+    public synchronized long reserve(long permits) {
+        this.refill();
+        tokens -= permits;
+
+        return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+    }
+
+    /**
+     * Change the rate tokens are added at
+     *
+     * @param rate Tokens added per second
+     */
+    public synchronized void setRate(double rate) {
+        if (rate <= 0) {
+            throw new IllegalArgumentException("Rate must be positive");
+        }
+
+        this.refill();
+        this.rate = rate;
+    }
+
+    /**
+     * Get the rate tokens are added at
+     *
+     * @return Tokens added per second
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Get the max number of tokens in the bucket
+     *
+     * @return Capacity
+     */
+    public synchronized double getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Get the number of tokens currently available
+     *
+     * @return Tokens, negative if tokens are reserved ahead of time
+     */
+    public synchronized double getAvailable() {
+        this.refill();
+        return tokens;
+    }
+
+    /**
+     * Add the tokens accumulated since the last refill
+     */
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilledAt) / 1e9 * rate);
+        refilledAt = now;
+    }
+
+}
@@ -0,0 +1,244 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.imbo.client.ServerException;
+import io.imbo.client.Catalog.CatalogClientStub;
+import io.imbo.client.Http.HttpClient;
+import io.imbo.client.Http.ImboResponse;
+import io.imbo.client.Images.UploadResult;
+import io.imbo.client.util.TempFiles;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Bulk importer test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class BulkImporterTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery();
+
+    private File directory;
+    private File journalFile;
+    private ImportClientStub client;
+
+    /**
+     * Files uploaded, in the order they were uploaded
+     */
+    private List<String> uploads = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Client recording uploads instead of sending them
+     */
+    private class ImportClientStub extends CatalogClientStub {
+        private boolean failing = false;
+        private ImportJournal journal;
+        private List<Integer> journaledAtLookup = new ArrayList<Integer>();
+
+        @Override
+        public UploadResult addImageWithChecksum(File image) throws IOException {
+            if (failing) {
+                throw new ServerException("Service unavailable", 503);
+            }
+
+            String checksum = getImageChecksum(image);
+            uploads.add(image.getName());
+            addImage(checksum, 1000L, 1000L);
+
+            return new UploadResult(new ImboResponse(), checksum, image.length());
+        }
+
+        @Override
+        public Set<String> findExistingChecksums(Collection<String> imageChecksums) throws IOException {
+            if (journal != null) {
+                journaledAtLookup.add(journal.getCount());
+            }
+
+            return super.findExistingChecksums(imageChecksums);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TempFiles.createDirectory("imboclient-import");
+        journalFile = new File(directory.getPath() + ".journal");
+
+        client = new ImportClientStub();
+        // Keep requests on the stub instead of a lane of the default HTTP client
+        client.setHttpClient(context.mock(HttpClient.class));
+    }
+
+    @After
+    public void tearDown() {
+        TempFiles.delete(directory);
+        journalFile.delete();
+    }
+
+    private File write(String path, String content) throws IOException {
+        File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content.getBytes("UTF-8"));
+        output.close();
+
+        return file;
+    }
+
+    /**
+     * Every file in the tree must be uploaded once, and content shared by files only once
+     */
+    @Test
+    public void testUploadsEveryFileInTheTreeOnce() throws IOException {
+        write("a.jpg", "first");
+        write("sub/b.jpg", "second");
+        write("sub/deeper/c.jpg", "first");
+
+        ImportJournal journal = new ImportJournal(journalFile);
+        ImportResult result = new BulkImporter(client, journal).setHashConcurrency(2).importDirectory(directory);
+
+        assertTrue(result.isSuccess());
+        assertEquals(2, result.getImportedCount());
+        assertEquals(1, result.getDuplicateCount());
+        assertEquals(2, uploads.size());
+        assertEquals(3, journal.getCount());
+    }
+
+    /**
+     * Every batch must be journaled before the next one is looked up, and content uploaded in
+     * an earlier batch must not be uploaded again
+     */
+    @Test
+    public void testJournalsEveryBatchBeforeStartingTheNext() throws IOException {
+        write("a.jpg", "first");
+        write("b.jpg", "second");
+        write("c.jpg", "third");
+        write("d.jpg", "first");
+        write("e.jpg", "fourth");
+
+        ImportJournal journal = new ImportJournal(journalFile);
+        client.journal = journal;
+        ImportResult result = new BulkImporter(client, journal).setBatchSize(2).importDirectory(directory);
+
+        assertTrue(result.isSuccess());
+        assertEquals(Arrays.asList(0, 2, 4), client.journaledAtLookup);
+        assertEquals(4, result.getImportedCount());
+        assertEquals(1, result.getDuplicateCount());
+        assertEquals(4, uploads.size());
+        assertEquals(new HashSet<String>(Arrays.asList("a.jpg", "b.jpg", "c.jpg", "e.jpg")), new HashSet<String>(uploads));
+        assertEquals(5, journal.getCount());
+    }
+
+    /**
+     * Images the server already has must be journaled without uploading them
+     */
+    @Test
+    public void testSkipsImagesTheServerAlreadyHas() throws IOException {
+        File existing = write("a.jpg", "first");
+        write("b.jpg", "second");
+        client.addImage(client.getImageChecksum(existing), 1000L, 1000L);
+
+        ImportJournal journal = new ImportJournal(journalFile);
+        ImportResult result = new BulkImporter(client, journal).importDirectory(directory);
+
+        assertEquals(1, result.getImportedCount());
+        assertEquals(1, result.getDuplicateCount());
+        assertEquals(Collections.singletonList("b.jpg"), uploads);
+        assertEquals(client.getImageChecksum(existing), journal.getImageIdentifier(existing));
+    }
+
+    /**
+     * A restarted import must skip journaled files without asking the server, and retry failures
+     */
+    @Test
+    public void testResumesFromTheJournal() throws IOException {
+        write("a.jpg", "first");
+        write("b.jpg", "second");
+
+        ImportJournal journal = new ImportJournal(journalFile);
+        new BulkImporter(client, journal).importDirectory(directory);
+        journal.close();
+
+        File added = write("c.jpg", "third");
+        client.failing = true;
+        client.getQueries().clear();
+
+        journal = new ImportJournal(journalFile);
+        ImportResult result = new BulkImporter(client, journal).importDirectory(directory);
+
+        assertEquals(2, result.getSkippedCount());
+        assertFalse(result.isSuccess());
+        assertTrue(result.getFailures().containsKey(added));
+        assertEquals(1, client.getQueries().size());
+        assertEquals(1, client.getQueries().get(0).checksums().size());
+
+        client.failing = false;
+        result = new BulkImporter(client, journal).importDirectory(directory);
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, result.getImportedCount());
+        assertEquals(3, journal.getCount());
+    }
+
+    /**
+     * Files changed since they were journaled must be imported again
+     */
+    @Test
+    public void testImportsFilesChangedSinceTheyWereJournaled() throws IOException {
+        File file = write("a.jpg", "first");
+
+        ImportJournal journal = new ImportJournal(journalFile);
+        new BulkImporter(client, journal).importDirectory(directory);
+
+        write("a.jpg", "changed content");
+        file.setLastModified(file.lastModified() + 5000);
+
+        ImportResult result = new BulkImporter(client, journal).importDirectory(directory);
+        assertEquals(1, result.getImportedCount());
+        assertEquals(2, uploads.size());
+    }
+
+    /**
+     * Files listed in a manifest must be resolved against the directory of the manifest
+     */
+    @Test
+    public void testImportsFilesListedInAManifest() throws IOException {
+        write("a.jpg", "first");
+        write("b.jpg", "second");
+        File manifest = write("manifest.txt", "a.jpg\n\n" + new File(directory, "b.jpg").getAbsolutePath() + "\n");
+
+        ImportResult result = new BulkImporter(client, new ImportJournal(journalFile)).importManifest(manifest);
+
+        assertEquals(2, result.getImportedCount());
+        assertTrue(uploads.contains("a.jpg"));
+        assertTrue(uploads.contains("b.jpg"));
+    }
+
+}
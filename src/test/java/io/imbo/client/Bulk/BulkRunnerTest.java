@@ -0,0 +1,148 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Bulk runner test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class BulkRunnerTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * The runner must return results in the same order as the keys were given
+     */
+    @Test
+    public void testReturnsResultsInTheOrderOfTheKeys() throws IOException {
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 100; i++) {
+            keys.add("key" + i);
+        }
+
+        Map<String, BulkResult<String>> results = new BulkRunner(4).run(keys, new BulkOperation<String>() {
+            public String execute(String key) {
+                return key.toUpperCase();
+            }
+        });
+
+        assertEquals(keys.size(), results.size());
+
+        Iterator<String> resultKeys = results.keySet().iterator();
+        for (String key : keys) {
+            assertEquals(key, resultKeys.next());
+            assertEquals(key.toUpperCase(), results.get(key).getValue());
+            assertEquals(key, results.get(key).getKey());
+        }
+    }
+
+    /**
+     * A failing item must be reported without aborting the rest of the items
+     */
+    @Test
+    public void testReportsFailuresPerItem() throws IOException {
+        final IOException failure = new IOException("Failed");
+
+        Map<String, BulkResult<String>> results = new BulkRunner(2).run(Arrays.asList("a", "b", "c"), new BulkOperation<String>() {
+            public String execute(String key) throws IOException {
+                if (key.equals("b")) {
+                    throw failure;
+                }
+
+                return key;
+            }
+        });
+
+        assertTrue(results.get("a").isSuccess());
+        assertTrue(results.get("c").isSuccess());
+        assertFalse(results.get("b").isSuccess());
+        assertNull(results.get("b").getValue());
+        assertSame(failure, results.get("b").getException());
+    }
+
+    /**
+     * The runner must never have more operations in flight than the configured concurrency
+     */
+    @Test
+    public void testNeverExceedsTheConfiguredConcurrency() throws IOException {
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+
+        List<String> keys = new ArrayList<String>();
+        for (int i = 0; i < 50; i++) {
+            keys.add("key" + i);
+        }
+
+        new BulkRunner(3).run(keys, new BulkOperation<Integer>() {
+            public Integer execute(String key) throws InterruptedException {
+                int current = inFlight.incrementAndGet();
+                synchronized (maxInFlight) {
+                    maxInFlight.set(Math.max(maxInFlight.get(), current));
+                }
+
+                Thread.sleep(2);
+                inFlight.decrementAndGet();
+
+                return current;
+            }
+        });
+
+        assertTrue(maxInFlight.get() <= 3);
+    }
+
+    /**
+     * Duplicate keys must only be processed once
+     */
+    @Test
+    public void testProcessesDuplicateKeysOnce() throws IOException {
+        final AtomicInteger calls = new AtomicInteger();
+
+        Map<String, BulkResult<String>> results = new BulkRunner(2).run(Arrays.asList("a", "a", "b"), new BulkOperation<String>() {
+            public String execute(String key) {
+                calls.incrementAndGet();
+                return key;
+            }
+        });
+
+        assertEquals(2, results.size());
+        assertEquals(2, calls.get());
+    }
+
+    /**
+     * The runner must not accept a concurrency below 1
+     */
+    @Test
+    public void testThrowsExceptionOnInvalidConcurrency() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Concurrency must be at least 1");
+
+        new BulkRunner(0);
+    }
+
+}
@@ -0,0 +1,116 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Import journal test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImportJournalTest {
+
+    private File file;
+    private File image;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("imboclient-journal", ".txt");
+        file.delete();
+        image = File.createTempFile("imboclient-image\tname", ".jpg");
+
+        FileOutputStream output = new FileOutputStream(image);
+        output.write(new byte[] {1, 2, 3, 4, 5});
+        output.close();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        image.delete();
+    }
+
+    /**
+     * Recorded files must be read back when the journal is opened again
+     */
+    @Test
+    public void testReadsBackRecordedFiles() throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        journal.record(image, image.length(), image.lastModified(), "7cfdd07889b3295d6a550914ab35e068");
+        journal.close();
+
+        journal = new ImportJournal(file);
+        assertTrue(journal.isImported(image));
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", journal.getImageIdentifier(image));
+    }
+
+    /**
+     * The same file must be found whichever path it is reached through
+     */
+    @Test
+    public void testFindsFilesThroughOtherPaths() throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        journal.record(image, image.length(), image.lastModified(), "7cfdd07889b3295d6a550914ab35e068");
+
+        File other = new File(new File(image.getParentFile(), "."), image.getName());
+        assertTrue(journal.isImported(other));
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", journal.getImageIdentifier(other));
+    }
+
+    /**
+     * Files changed since they were recorded must not count as imported
+     */
+    @Test
+    public void testDoesNotCountChangedFilesAsImported() throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        journal.record(image, image.length() - 1, image.lastModified(), "7cfdd07889b3295d6a550914ab35e068");
+
+        assertFalse(journal.isImported(image));
+    }
+
+    /**
+     * A partly written last line must be discarded, so new records start on a line of their own
+     */
+    @Test
+    public void testDiscardsPartlyWrittenLastLine() throws IOException {
+        ImportJournal journal = new ImportJournal(file);
+        journal.record(image, image.length(), image.lastModified(), "7cfdd07889b3295d6a550914ab35e068");
+        journal.close();
+
+        long length = file.length();
+        FileOutputStream output = new FileOutputStream(file, true);
+        output.write("5\t1368000000000\tabc".getBytes("UTF-8"));
+        output.close();
+
+        journal = new ImportJournal(file);
+        assertEquals(length, file.length());
+        assertEquals(1, journal.getCount());
+
+        File other = new File(image.getPath() + ".other");
+        journal.record(other, 5, 1368000000000L, "52116c74f6fba61bbc30c225d292d647");
+        journal.close();
+
+        journal = new ImportJournal(file);
+        assertEquals(2, journal.getCount());
+        assertNull(journal.getImageIdentifier(new File("missing.jpg")));
+    }
+
+}
@@ -0,0 +1,222 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.imbo.client.ImboClient;
+import io.imbo.client.ServerException;
+import io.imbo.client.Http.HttpClient;
+import io.imbo.client.Http.ImboResponse;
+import io.imbo.client.Http.Response;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Meta data write queue test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class MetadataWriteQueueTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery() {{
+        // Edits are written from worker threads
+        setThreadingPolicy(new Synchroniser());
+    }};
+
+    private HttpClient httpClient = context.mock(HttpClient.class);
+    private ImboClient client;
+    private String imageIdentifier = "23d7f91b25f3013fcc75ce070c40e004";
+
+    /**
+     * Bodies of the meta data requests sent, in order
+     */
+    private List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+
+    @Before
+    public void setUp() {
+        client = new ImboClient("http://host", "key", "private");
+        client.setHttpClient(httpClient);
+    }
+
+    /**
+     * Action recording the request body, and responding once the latch is released
+     */
+    private CustomAction record(final CountDownLatch release) {
+        return new CustomAction("record body") {
+            public Object invoke(Invocation invocation) throws Throwable {
+                bodies.add((String) invocation.getParameter(1));
+                release.await(5, TimeUnit.SECONDS);
+
+                return new ImboResponse();
+            }
+        };
+    }
+
+    /**
+     * Edits to the same image must be merged into a single request
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMergesEditsToTheSameImage() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(record(new CountDownLatch(0)));
+        }});
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(50);
+        Future<Response> tags = queue.edit(imageIdentifier, new JSONObject("{\"tags\":[\"cat\"],\"flag\":false}"));
+        Future<Response> exif = queue.edit(imageIdentifier, new JSONObject("{\"width\":100}"));
+        Future<Response> moderation = queue.edit(imageIdentifier, new JSONObject("{\"flag\":true}"));
+
+        assertSame(tags, exif);
+        assertSame(tags, moderation);
+        assertEquals(1, queue.getPendingCount());
+
+        tags.get(5, TimeUnit.SECONDS);
+
+        JSONObject written = new JSONObject(bodies.get(0));
+        assertEquals(3, written.length());
+        assertEquals("cat", written.getJSONArray("tags").getString(0));
+        assertEquals(100, written.getInt("width"));
+        assertTrue(written.getBoolean("flag"));
+        assertEquals(3, queue.getEditCount());
+        assertEquals(1, queue.getWriteCount());
+    }
+
+    /**
+     * Reaching the size threshold must write every pending edit right away
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWritesWhenReachingTheSizeThreshold() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(record(new CountDownLatch(0)));
+        }});
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(60000).setMaxPending(2);
+        Future<Response> first = queue.edit("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", new JSONObject("{\"a\":1}"));
+        Future<Response> second = queue.edit("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb", new JSONObject("{\"b\":2}"));
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(0, queue.getPendingCount());
+    }
+
+    /**
+     * Edits made while a write to the image is in flight must wait for it to finish
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testNeverOverlapsWritesToTheSameImage() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(record(release));
+        }});
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(60000);
+        Future<Response> first = queue.edit(imageIdentifier, new JSONObject("{\"a\":1}"));
+        queue.flush();
+
+        Future<Response> second = queue.edit(imageIdentifier, new JSONObject("{\"a\":2}"));
+        queue.flush(imageIdentifier);
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bodies.isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        // Give the second write a chance to start, which it must not take
+        Thread.sleep(50);
+        assertEquals(1, bodies.size());
+        assertFalse(second.isDone());
+
+        release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+
+        assertEquals(2, bodies.size());
+        assertEquals(2, new JSONObject(bodies.get(1)).getInt("a"));
+    }
+
+    /**
+     * Failed writes must fail the futures of every edit merged into them
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testFailsTheFuturesOfFailedWrites() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(throwException(new ServerException("Image not found", 404)));
+        }});
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(0);
+        Future<Response> edit = queue.edit(imageIdentifier, new JSONObject("{\"a\":1}"));
+
+        try {
+            edit.get(5, TimeUnit.SECONDS);
+            fail("Expected the write to fail");
+        } catch (ExecutionException e) {
+            assertEquals(404, ((ServerException) e.getCause()).getErrorCode());
+        }
+    }
+
+    /**
+     * Shutting down must write pending edits, and refuse new ones
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testWritesPendingEditsOnShutdown() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(record(new CountDownLatch(0)));
+        }});
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(60000);
+        queue.edit("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa", new JSONObject("{\"a\":1}"));
+        queue.edit("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb", new JSONObject("{\"b\":2}"));
+
+        queue.shutdown();
+        assertTrue(queue.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, bodies.size());
+
+        try {
+            queue.edit("cccccccccccccccccccccccccccccccc", new JSONObject("{\"c\":3}"));
+            fail("Expected the queue to refuse edits after shutdown");
+        } catch (IllegalStateException e) {
+            assertEquals("Metadata write queue has been shut down", e.getMessage());
+        }
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import io.imbo.client.util.TempFiles;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Image data cache test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImageDataCacheTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TempFiles.createDirectory("imboclient-cache");
+    }
+
+    @After
+    public void tearDown() {
+        TempFiles.delete(directory);
+    }
+
+    /**
+     * A cached entry must be served without calling the loader again
+     */
+    @Test
+    public void testServesFreshEntriesFromTheCache() throws IOException {
+        ImageDataCache cache = new ImageDataCache(1024);
+        CountingLoader loader = new CountingLoader(new byte[] { 1, 2, 3 });
+
+        byte[] first = cache.get("http://imbo/a", loader);
+        byte[] second = cache.get("http://imbo/a", loader);
+
+        assertSame(first, second);
+        assertEquals(1, loader.calls.get());
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+
+    /**
+     * The least recently used entries must be evicted when the heap tier is full
+     */
+    @Test
+    public void testEvictsLeastRecentlyUsedEntriesWhenFull() throws IOException {
+        ImageDataCache cache = new ImageDataCache(10);
+        cache.put("a", new CacheEntry(new byte[4], null, null, System.currentTimeMillis()));
+        cache.put("b", new CacheEntry(new byte[4], null, null, System.currentTimeMillis()));
+
+        // Touch "a" so "b" becomes the least recently used entry
+        cache.lookup("a");
+        cache.put("c", new CacheEntry(new byte[4], null, null, System.currentTimeMillis()));
+
+        assertNotNull(cache.lookup("a"));
+        assertNull(cache.lookup("b"));
+        assertNotNull(cache.lookup("c"));
+        assertEquals(8, cache.getHeapSize());
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    /**
+     * Stale entries must be revalidated, and kept if the loader reports them as unchanged
+     */
+    @Test
+    public void testRevalidatesStaleEntries() throws IOException {
+        ImageDataCache cache = new ImageDataCache(1024).setMaxAge(0, TimeUnit.MILLISECONDS);
+        final byte[] data = { 1, 2, 3 };
+
+        cache.put("a", new CacheEntry(data, "\"etag\"", null, 0));
+
+        final CacheEntry[] passed = new CacheEntry[1];
+        byte[] result = cache.get("a", new ImageDataCache.Loader() {
+            public CacheEntry load(String key, CacheEntry stale) {
+                passed[0] = stale;
+                return null;
+            }
+        });
+
+        assertSame(data, result);
+        assertEquals("\"etag\"", passed[0].getEtag());
+        assertEquals(1, cache.getStats().getRevalidationCount());
+    }
+
+    /**
+     * Concurrent misses for the same key must result in a single load
+     */
+    @Test
+    public void testCoalescesConcurrentMisses() throws Exception {
+        final ImageDataCache cache = new ImageDataCache(1024);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger calls = new AtomicInteger();
+
+        final ImageDataCache.Loader loader = new ImageDataCache.Loader() {
+            public CacheEntry load(String key, CacheEntry stale) throws IOException {
+                calls.incrementAndGet();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException("Interrupted");
+                }
+
+                return new CacheEntry(new byte[] { 1 }, null, null, System.currentTimeMillis());
+            }
+        };
+
+        Thread[] threads = new Thread[5];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        cache.get("a", loader);
+                    } catch (IOException e) {
+                        // Asserted on below
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        Thread.sleep(100);
+        release.countDown();
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, calls.get());
+    }
+
+    /**
+     * Entries in the disk tier must survive a new cache instance
+     */
+    @Test
+    public void testKeepsEntriesOnDiskAcrossInstances() throws IOException {
+        byte[] data = { 1, 2, 3, 4, 5 };
+
+        ImageDataCache cache = new ImageDataCache(1024, directory, 1024);
+        cache.put("http://imbo/a", new CacheEntry(data, "\"etag\"", "Thu, 27 Sep 2012 10:12:34 GMT", 42));
+
+        ImageDataCache reopened = new ImageDataCache(1024, directory, 1024);
+        CacheEntry entry = reopened.lookup("http://imbo/a");
+
+        assertNotNull(entry);
+        assertArrayEquals(data, entry.getData());
+        assertEquals("\"etag\"", entry.getEtag());
+        assertEquals("Thu, 27 Sep 2012 10:12:34 GMT", entry.getLastModified());
+        assertEquals(42, entry.getStoredAt());
+    }
+
+    /**
+     * Truncated or corrupt cache files must behave like cache misses
+     */
+    @Test
+    public void testTreatsCorruptFilesAsMisses() throws IOException {
+        ImageDataCache cache = new ImageDataCache(1024, directory, 1024);
+        cache.put("http://imbo/a", new CacheEntry(new byte[100], "\"etag\"", null, 42));
+
+        // Cut the entry short after its key, and add a file with an invalid key length
+        File file = directory.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(30);
+        raf.close();
+
+        raf = new RandomAccessFile(new File(directory, "corrupt.cache"), "rw");
+        raf.writeInt(0x494d4243);
+        raf.writeInt(-5);
+        raf.close();
+
+        ImageDataCache reopened = new ImageDataCache(1024, directory, 1024);
+
+        assertNull(reopened.lookup("http://imbo/a"));
+        assertEquals(0, directory.listFiles().length);
+    }
+
+    /**
+     * Invalidating an image must remove all its variants from every tier
+     */
+    @Test
+    public void testCanInvalidateAllVariantsOfAnImage() throws IOException {
+        ImageDataCache cache = new ImageDataCache(1024, directory, 1024);
+        cache.put("http://imbo/users/key/images/abc.png", new CacheEntry(new byte[1], null, null, 0));
+        cache.put("http://imbo/users/key/images/abc?t[]=flipHorizontally", new CacheEntry(new byte[1], null, null, 0));
+        cache.put("http://imbo/users/key/images/def", new CacheEntry(new byte[1], null, null, 0));
+
+        cache.invalidateImage("abc");
+
+        assertNull(cache.lookup("http://imbo/users/key/images/abc.png"));
+        assertNull(cache.lookup("http://imbo/users/key/images/abc?t[]=flipHorizontally"));
+        assertNotNull(cache.lookup("http://imbo/users/key/images/def"));
+    }
+
+    private static class CountingLoader implements ImageDataCache.Loader {
+        private byte[] data;
+        private AtomicInteger calls = new AtomicInteger();
+
+        public CountingLoader(byte[] data) {
+            this.data = data;
+        }
+
+        public CacheEntry load(String key, CacheEntry stale) {
+            calls.incrementAndGet();
+            return new CacheEntry(data, null, null, System.currentTimeMillis());
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Meta data cache test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class MetadataCacheTest {
+
+    /**
+     * Cached meta data must be returned until it is invalidated
+     */
+    @Test
+    public void testReturnsCachedMetadataUntilInvalidated() throws JSONException {
+        MetadataCache cache = new MetadataCache();
+        cache.put("id", new JSONObject("{\"foo\":\"bar\"}"));
+
+        assertEquals("bar", cache.get("id").getString("foo"));
+
+        cache.invalidate("id");
+
+        assertNull(cache.get("id"));
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(1, cache.getStats().getMissCount());
+    }
+
+    /**
+     * Entries must expire once their time to live has passed
+     */
+    @Test
+    public void testExpiresEntriesAfterTheirTimeToLive() throws JSONException, InterruptedException {
+        MetadataCache cache = new MetadataCache(10, 1, TimeUnit.MILLISECONDS);
+        cache.put("id", new JSONObject("{\"foo\":\"bar\"}"));
+
+        Thread.sleep(5);
+
+        assertNull(cache.get("id"));
+        assertEquals(0, cache.size());
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    /**
+     * The least recently used entry must be evicted once the cache is full
+     */
+    @Test
+    public void testEvictsTheLeastRecentlyUsedEntryWhenFull() {
+        MetadataCache cache = new MetadataCache(2, 1, TimeUnit.MINUTES);
+        cache.put("a", new JSONObject());
+        cache.put("b", new JSONObject());
+        cache.get("a");
+        cache.put("c", new JSONObject());
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertEquals(1, cache.getStats().getEvictionCount());
+    }
+
+    /**
+     * Modifying returned or stored meta data must not affect the cached copy
+     */
+    @Test
+    public void testIsolatesCachedMetadataFromCallers() throws JSONException {
+        MetadataCache cache = new MetadataCache();
+        JSONObject metadata = new JSONObject("{\"foo\":\"bar\"}");
+        cache.put("id", metadata);
+
+        metadata.put("bar", "foo");
+        cache.get("id").put("baz", "foo");
+
+        JSONObject cached = cache.get("id");
+        assertFalse(cached.has("bar"));
+        assertFalse(cached.has("baz"));
+    }
+
+    /**
+     * Modifying nested values of returned or stored meta data must not affect the cached copy
+     */
+    @Test
+    public void testIsolatesNestedMetadataFromCallers() throws JSONException {
+        MetadataCache cache = new MetadataCache();
+        JSONObject metadata = new JSONObject("{\"foo\":{\"bar\":\"baz\"},\"tags\":[\"a\"]}");
+        cache.put("id", metadata);
+
+        metadata.getJSONObject("foo").put("bar", "changed");
+        metadata.getJSONArray("tags").put("b");
+        cache.get("id").getJSONObject("foo").put("bar", "changed");
+
+        JSONObject cached = cache.get("id");
+        assertEquals("baz", cached.getJSONObject("foo").getString("bar"));
+        assertEquals(1, cached.getJSONArray("tags").length());
+    }
+
+    /**
+     * Meta data fetched before an invalidation must not be cached after it
+     */
+    @Test
+    public void testDoesNotCacheMetadataFetchedBeforeAnInvalidation() throws JSONException {
+        MetadataCache cache = new MetadataCache();
+        long generation = cache.getGeneration();
+
+        cache.invalidate("id");
+
+        assertFalse(cache.put("id", new JSONObject("{\"foo\":\"stale\"}"), generation));
+        assertNull(cache.get("id"));
+
+        assertTrue(cache.put("id", new JSONObject("{\"foo\":\"bar\"}"), cache.getGeneration()));
+        assertNotNull(cache.get("id"));
+    }
+
+}
@@ -0,0 +1,171 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import io.imbo.client.ImboClient;
+import io.imbo.client.Images.ImagesResponse;
+import io.imbo.client.Images.Query;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Client serving image listings from an in-memory catalog
+ *
+ * Filters on from/to (inclusive, date added, in whole seconds), ids and checksums, sorts on
+ * added or updated, and pages the same way the server does.
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CatalogClientStub extends ImboClient {
+
+    private List<StubImage> images = new CopyOnWriteArrayList<StubImage>();
+    private List<Query> queries = new CopyOnWriteArrayList<Query>();
+
+    public CatalogClientStub() {
+        super("http://host", "key", "private");
+    }
+
+    /**
+     * Add an image to the catalog
+     *
+     * @param imageIdentifier Image identifier
+     * @param added Date added, in milliseconds. Sub-second precision is lost in listings
+     * @param updated Date updated, in milliseconds
+     */
+    public void addImage(String imageIdentifier, long added, long updated) {
+        images.add(new StubImage(imageIdentifier, added, updated));
+    }
+
+    /**
+     * Update the date updated of an image in the catalog
+     */
+    public void touchImage(String imageIdentifier, long updated) {
+        for (StubImage image : images) {
+            if (image.imageIdentifier.equals(imageIdentifier)) {
+                image.updated = updated;
+            }
+        }
+    }
+
+    /**
+     * Set the meta data of an image in the catalog, returned by listings asking for it
+     */
+    public void setMetadata(String imageIdentifier, JSONObject metadata) {
+        for (StubImage image : images) {
+            if (image.imageIdentifier.equals(imageIdentifier)) {
+                image.metadata = metadata;
+            }
+        }
+    }
+
+    /**
+     * Get the queries received so far
+     */
+    public List<Query> getQueries() {
+        return queries;
+    }
+
+    @Override
+    public ImagesResponse getImages(Query query) throws IOException, JSONException {
+        queries.add(query.copy());
+
+        List<StubImage> hits = new ArrayList<StubImage>();
+        for (StubImage image : images) {
+            // The server filters on whole seconds
+            if (query.from() != null && image.added / 1000 < query.from().getTime() / 1000) {
+                continue;
+            }
+
+            if (query.to() != null && image.added / 1000 > query.to().getTime() / 1000) {
+                continue;
+            }
+
+            if (query.ids() != null && !query.ids().isEmpty() && !query.ids().contains(image.imageIdentifier)) {
+                continue;
+            }
+
+            if (query.checksums() != null && !query.checksums().isEmpty() && !query.checksums().contains(image.imageIdentifier)) {
+                continue;
+            }
+
+            hits.add(image);
+        }
+
+        final String sort = query.sort() == null || query.sort().isEmpty() ? "added:asc" : query.sort().get(0);
+        Collections.sort(hits, new Comparator<StubImage>() {
+            public int compare(StubImage a, StubImage b) {
+                long diff = sort.startsWith("updated") ? a.updated - b.updated : a.added - b.added;
+                int result = diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+                return sort.endsWith("desc") ? -result : result;
+            }
+        });
+
+        int offset = (query.page() - 1) * query.limit();
+        JSONArray page = new JSONArray();
+        for (int i = offset; i < Math.min(hits.size(), offset + query.limit()); i++) {
+            page.put(hits.get(i).toJson(query.returnMetadata()));
+        }
+
+        JSONObject search = new JSONObject();
+        search.put("hits", hits.size());
+        search.put("count", page.length());
+        search.put("page", query.page());
+        search.put("limit", query.limit());
+
+        JSONObject response = new JSONObject();
+        response.put("search", search);
+        response.put("images", page);
+
+        return new ImagesResponse(response);
+    }
+
+    private static class StubImage {
+        private String imageIdentifier;
+        private long added;
+        private volatile long updated;
+        private volatile JSONObject metadata;
+
+        public StubImage(String imageIdentifier, long added, long updated) {
+            this.imageIdentifier = imageIdentifier;
+            this.added = added;
+            this.updated = updated;
+        }
+
+        public JSONObject toJson(boolean withMetadata) throws JSONException {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss z", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("GMT"));
+
+            JSONObject json = new JSONObject();
+            json.put("imageIdentifier", imageIdentifier);
+            json.put("checksum", imageIdentifier);
+            json.put("added", format.format(new Date(added)));
+            json.put("updated", format.format(new Date(updated)));
+
+            if (withMetadata) {
+                json.put("metadata", metadata == null ? new JSONObject() : metadata);
+            }
+
+            return json;
+        }
+    }
+
+}
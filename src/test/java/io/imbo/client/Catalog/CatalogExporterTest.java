@@ -0,0 +1,169 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import io.imbo.client.ServerException;
+import io.imbo.client.Http.HttpClient;
+import io.imbo.client.Http.ImboResponse;
+import io.imbo.client.Images.DownloadResult;
+import io.imbo.client.Images.Image;
+import io.imbo.client.util.TempFiles;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Catalog exporter test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CatalogExporterTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery();
+
+    private File directory;
+    private ExportClientStub client;
+
+    /**
+     * Image identifiers downloaded
+     */
+    private List<String> downloads = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Client recording downloads instead of sending them
+     */
+    private class ExportClientStub extends CatalogClientStub {
+        private String failing;
+
+        @Override
+        public DownloadResult downloadImage(String imageIdentifier, File file) throws IOException {
+            if (imageIdentifier.equals(failing)) {
+                throw new ServerException("Service unavailable", 503);
+            }
+
+            downloads.add(imageIdentifier);
+
+            FileOutputStream output = new FileOutputStream(file);
+            output.write(new byte[] {1, 2, 3});
+            output.close();
+
+            return new DownloadResult(new ImboResponse(), imageIdentifier, 3);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        directory = TempFiles.createDirectory("imboclient-export");
+
+        client = new ExportClientStub();
+        // Keep requests on the stub instead of a lane of the default HTTP client
+        client.setHttpClient(context.mock(HttpClient.class));
+        client.addImage("52116c74f6fba61bbc30c225d292d647", 1000000L, 1000000L);
+        client.addImage("7cfdd07889b3295d6a550914ab35e068", 2000000L, 2000000L);
+        client.addImage("23d7f91b25f3013fcc75ce070c40e004", 3000000L, 3000000L);
+    }
+
+    @After
+    public void tearDown() {
+        TempFiles.delete(directory);
+    }
+
+    private List<String> readMetadata() throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(new File(directory, CatalogExporter.METADATA_FILE)), "UTF-8"));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+
+        return lines;
+    }
+
+    /**
+     * Originals must be stored by checksum, with a line of meta data for every image
+     */
+    @Test
+    public void testStoresOriginalsByChecksum() throws Exception {
+        CatalogExporter exporter = new CatalogExporter(client, directory).setConcurrency(2);
+        ExportResult result = exporter.export();
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, result.getImageCount());
+        assertEquals(3, result.getDownloadedCount());
+        assertEquals(9, result.getByteCount());
+        assertTrue(new File(directory, "52/11/52116c74f6fba61bbc30c225d292d647").isFile());
+        assertEquals(new File(directory, "7c/fd/7cfdd07889b3295d6a550914ab35e068"), exporter.getOriginalFile("7cfdd07889b3295d6a550914ab35e068"));
+
+        List<String> lines = readMetadata();
+        assertEquals(3, lines.size());
+
+        JSONObject line = new JSONObject(lines.get(0));
+        Image image = new Image(line);
+        assertEquals("52116c74f6fba61bbc30c225d292d647", image.getIdentifier());
+        assertEquals(1000000L, image.getAddedDate().getTime());
+        assertEquals("52/11/52116c74f6fba61bbc30c225d292d647", line.getString("path"));
+    }
+
+    /**
+     * Originals already stored must not be downloaded again
+     */
+    @Test
+    public void testOnlyDownloadsNewImages() throws Exception {
+        new CatalogExporter(client, directory).export();
+        client.addImage("aab7a6ea2fc16e3bd1e5a30bbb0f07b4", 4000000L, 4000000L);
+        downloads.clear();
+
+        ExportResult result = new CatalogExporter(client, directory).export();
+
+        assertEquals(Collections.singletonList("aab7a6ea2fc16e3bd1e5a30bbb0f07b4"), downloads);
+        assertEquals(3, result.getSkippedCount());
+        assertEquals(4, readMetadata().size());
+    }
+
+    /**
+     * A failed download must be reported without stopping the export or leaving a file behind
+     */
+    @Test
+    public void testReportsFailedDownloads() throws Exception {
+        client.failing = "7cfdd07889b3295d6a550914ab35e068";
+
+        CatalogExporter exporter = new CatalogExporter(client, directory);
+        ExportResult result = exporter.export();
+
+        assertFalse(result.isSuccess());
+        assertEquals(2, result.getDownloadedCount());
+        assertTrue(result.getFailures().containsKey("7cfdd07889b3295d6a550914ab35e068"));
+        assertFalse(exporter.getOriginalFile("7cfdd07889b3295d6a550914ab35e068").exists());
+        assertEquals(3, readMetadata().size());
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class CatalogScannerTest {
+
+    private static final long START = 1368000000000L;
+
+    private CatalogClientStub client;
+    private CatalogScanner scanner;
+
+    @Before
+    public void setUp() {
+        client = new CatalogClientStub();
+        scanner = new CatalogScanner(client).setConcurrency(4).setPageSize(10).setMaxWindowHits(50);
+    }
+
+    @After
+    public void tearDown() {
+        client = null;
+        scanner = null;
+    }
+
+    /**
+     * Add images with one second between them, the first one added at START
+     */
+    private void addImages(int count) {
+        for (int i = 0; i < count; i++) {
+            client.addImage("image" + i, START + i * 1000L, START + i * 1000L);
+        }
+    }
+
+    /**
+     * The scanner must pass every image in the range to the handler exactly once
+     */
+    @Test
+    public void testScansEveryImageInTheRangeOnce() throws IOException, JSONException {
+        addImages(500);
+        client.addImage("before", START - 1000, START);
+        client.addImage("after", START + 500000, START);
+
+        final List<String> seen = new ArrayList<String>();
+        int count = scanner.scan(new Date(START), new Date(START + 500000), new ImageHandler() {
+            public void handle(Image image) {
+                seen.add(image.getIdentifier());
+            }
+        });
+
+        assertEquals(500, count);
+        assertEquals(500, seen.size());
+
+        Set<String> unique = new HashSet<String>(seen);
+        assertEquals(500, unique.size());
+        assertFalse(unique.contains("before"));
+        assertFalse(unique.contains("after"));
+    }
+
+    /**
+     * The scanner must split dense windows instead of paging deep into them
+     */
+    @Test
+    public void testSplitsWindowsWithTooManyHits() throws IOException, JSONException {
+        addImages(500);
+
+        scanner.scan(new Date(START), new Date(START + 500000), new ImageHandler() {
+            public void handle(Image image) {}
+        });
+
+        assertTrue(scanner.getSplitCount() > 0);
+        assertEquals(client.getQueries().size(), scanner.getRequestCount());
+
+        for (Query query : client.getQueries()) {
+            assertTrue(query.page() <= 5);
+            assertEquals(10, query.limit());
+        }
+    }
+
+    /**
+     * An ordered scan must pass images to the handler in the order they were added
+     */
+    @Test
+    public void testOrderedScanPassesImagesInTimeOrder() throws IOException, JSONException {
+        addImages(300);
+
+        final List<Long> added = new ArrayList<Long>();
+        scanner.setOrdered(true).scan(new Date(START), new Date(START + 300000), new ImageHandler() {
+            public void handle(Image image) {
+                added.add(image.getAddedDate().getTime());
+            }
+        });
+
+        assertEquals(300, added.size());
+        for (int i = 1; i < added.size(); i++) {
+            assertTrue(added.get(i - 1) < added.get(i));
+        }
+    }
+
+    /**
+     * The scanner must keep the filters of the query it was given
+     */
+    @Test
+    public void testKeepsFiltersFromTheGivenQuery() throws IOException, JSONException {
+        addImages(20);
+
+        Query query = new Query().addField("imageIdentifier").returnMetadata(true);
+        scanner.setQuery(query).scan(new Date(START), new Date(START + 20000), new ImageHandler() {
+            public void handle(Image image) {}
+        });
+
+        for (Query sent : client.getQueries()) {
+            assertEquals(query.fields(), sent.fields());
+            assertTrue(sent.returnMetadata());
+        }
+    }
+
+    /**
+     * A failing handler must abort the scan
+     */
+    @Test
+    public void testAbortsWhenTheHandlerFails() throws JSONException {
+        addImages(100);
+
+        try {
+            scanner.scan(new Date(START), new Date(START + 100000), new ImageHandler() {
+                public void handle(Image image) throws IOException {
+                    throw new IOException("Handler failed");
+                }
+            });
+            fail("Expected the handler exception");
+        } catch (IOException e) {
+            assertEquals("Handler failed", e.getMessage());
+        }
+    }
+
+    /**
+     * Windows must be whole seconds, and a second with too many images must be paged through
+     */
+    @Test
+    public void testPagesThroughSecondsWithTooManyHits() throws IOException, JSONException {
+        for (int i = 0; i < 120; i++) {
+            client.addImage("dense" + i, START + 1000 + i, START + 1000 + i);
+        }
+
+        addImages(10);
+
+        final Set<String> seen = new HashSet<String>();
+        int count = scanner.scan(new Date(START), new Date(START + 10000), new ImageHandler() {
+            public void handle(Image image) {
+                seen.add(image.getIdentifier());
+            }
+        });
+
+        assertEquals(130, count);
+        assertEquals(130, seen.size());
+
+        for (Query query : client.getQueries()) {
+            assertEquals(0, query.from().getTime() % 1000);
+            assertEquals(0, query.to().getTime() % 1000);
+            assertTrue(query.to().getTime() >= query.from().getTime());
+        }
+    }
+
+    /**
+     * An empty range must not send any requests
+     */
+    @Test
+    public void testEmptyRangeSendsNoRequests() throws IOException, JSONException {
+        assertEquals(0, scanner.scan(new Date(START), new Date(START), null));
+        assertEquals(0, client.getQueries().size());
+    }
+
+}
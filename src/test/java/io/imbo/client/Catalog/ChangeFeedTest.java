@@ -0,0 +1,213 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+import io.imbo.client.Images.Image;
+import io.imbo.client.Images.Query;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChangeFeedTest {
+
+    private static final long START = 1368000000000L;
+
+    private CatalogClientStub client;
+    private List<String> received;
+    private ImageHandler handler;
+    private ChangeFeed feed;
+    private File watermarkFile;
+
+    @Before
+    public void setUp() throws IOException {
+        client = new CatalogClientStub();
+        received = new ArrayList<String>();
+        handler = new ImageHandler() {
+            public void handle(Image image) {
+                received.add(image.getIdentifier());
+            }
+        };
+        feed = new ChangeFeed(client, handler).setPageSize(3).setOverlap(5, TimeUnit.SECONDS);
+
+        watermarkFile = File.createTempFile("imboclient-watermark", ".txt");
+        watermarkFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        feed.stop();
+        watermarkFile.delete();
+        client = null;
+        feed = null;
+    }
+
+    private void addImages(int count) {
+        for (int i = 0; i < count; i++) {
+            client.addImage("image" + i, START + i * 1000L, START + i * 1000L);
+        }
+    }
+
+    /**
+     * The feed must deliver every image on the first poll, oldest first
+     */
+    @Test
+    public void testDeliversAllImagesOnTheFirstPoll() throws IOException, JSONException {
+        addImages(10);
+
+        assertEquals(10, feed.poll());
+        assertEquals("image0", received.get(0));
+        assertEquals("image9", received.get(9));
+        assertEquals(START + 9000, feed.getWatermark().getTime());
+    }
+
+    /**
+     * The feed must only deliver new and updated images on later polls
+     */
+    @Test
+    public void testOnlyDeliversChangesOnLaterPolls() throws IOException, JSONException {
+        addImages(10);
+        feed.poll();
+        received.clear();
+
+        assertEquals(0, feed.poll());
+
+        client.touchImage("image2", START + 20000);
+        client.addImage("image10", START + 21000, START + 21000);
+
+        assertEquals(2, feed.poll());
+        assertEquals(Arrays.asList("image2", "image10"), received);
+    }
+
+    /**
+     * The feed must stop paging once it passes the overlap window
+     */
+    @Test
+    public void testStopsPagingAtTheOverlapWindow() throws IOException, JSONException {
+        addImages(30);
+        feed.poll();
+        int requests = client.getQueries().size();
+
+        feed.poll();
+
+        // The overlap covers six images, so three pages of three
+        assertEquals(3, client.getQueries().size() - requests);
+    }
+
+    /**
+     * The feed must deliver images that were stamped inside the overlap window
+     * after the previous poll, for instance by a server with a slow clock
+     */
+    @Test
+    public void testDeliversLateImagesWithinTheOverlapWindow() throws IOException, JSONException {
+        addImages(10);
+        feed.poll();
+        received.clear();
+
+        client.addImage("late", START + 7000, START + 7000);
+
+        assertEquals(1, feed.poll());
+        assertEquals(Arrays.asList("late"), received);
+    }
+
+    /**
+     * The feed must resume from the stored watermark
+     */
+    @Test
+    public void testResumesFromTheStoredWatermark() throws IOException, JSONException {
+        addImages(10);
+        feed.setWatermarkStore(new FileWatermarkStore(watermarkFile)).setOverlap(0, TimeUnit.SECONDS);
+        feed.poll();
+
+        received.clear();
+        ChangeFeed resumed = new ChangeFeed(client, handler)
+            .setWatermarkStore(new FileWatermarkStore(watermarkFile))
+            .setOverlap(0, TimeUnit.SECONDS);
+
+        // Delivery is at least once, so the image at the watermark is delivered again
+        assertEquals(1, resumed.poll());
+        assertEquals(Arrays.asList("image9"), received);
+    }
+
+    /**
+     * The watermark must only move past images the handler accepted
+     */
+    @Test
+    public void testWatermarkFollowsHandledImagesWhenTheHandlerFails() throws IOException, JSONException {
+        addImages(10);
+
+        ChangeFeed failing = new ChangeFeed(client, new ImageHandler() {
+            public void handle(Image image) throws IOException {
+                if (image.getIdentifier().equals("image5")) {
+                    throw new IOException("Handler failed");
+                }
+            }
+        }).setOverlap(0, TimeUnit.SECONDS);
+
+        try {
+            failing.poll();
+            fail("Expected the handler exception");
+        } catch (IOException e) {
+            assertEquals(START + 4000, failing.getWatermark().getTime());
+        }
+    }
+
+    /**
+     * When only following new images, the feed must filter on the date added
+     */
+    @Test
+    public void testUsesFromFilterWhenOnlyFollowingNewImages() throws IOException, JSONException {
+        addImages(10);
+        feed.setTrackUpdates(false);
+        feed.poll();
+
+        client.touchImage("image2", START + 20000);
+        client.addImage("image10", START + 21000, START + 21000);
+        received.clear();
+
+        assertEquals(1, feed.poll());
+        assertEquals(Arrays.asList("image10"), received);
+
+        Query last = client.getQueries().get(client.getQueries().size() - 1);
+        assertEquals(START + 4000, last.from().getTime());
+    }
+
+    /**
+     * Background polls must deliver changes and record errors
+     */
+    @Test
+    public void testPollsInTheBackground() throws InterruptedException {
+        addImages(3);
+        feed.setPollInterval(10, TimeUnit.MILLISECONDS).start();
+
+        for (int i = 0; i < 500 && feed.getWatermark() == null; i++) {
+            Thread.sleep(10);
+        }
+
+        feed.stop();
+        assertNotNull(feed.getWatermark());
+        assertNull(feed.getLastError());
+    }
+
+}
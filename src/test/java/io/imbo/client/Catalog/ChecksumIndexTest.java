@@ -0,0 +1,162 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.imbo.client.util.Crypto;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ChecksumIndexTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("imboclient-checksums", ".idx");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    /**
+     * The index must never rule out a checksum that was added
+     */
+    @Test
+    public void testHasNoFalseNegatives() {
+        ChecksumIndex index = new ChecksumIndex(10000, 0.01);
+
+        for (int i = 0; i < 10000; i++) {
+            index.add(Crypto.md5("image" + i));
+        }
+
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(index.mightContain(Crypto.md5("image" + i)));
+        }
+
+        assertEquals(10000, index.getCount());
+    }
+
+    /**
+     * The index must rule out most unknown checksums
+     */
+    @Test
+    public void testRulesOutMostUnknownChecksums() {
+        ChecksumIndex index = new ChecksumIndex(10000, 0.01);
+
+        for (int i = 0; i < 10000; i++) {
+            index.add(Crypto.md5("image" + i));
+        }
+
+        int maybe = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (index.mightContain(Crypto.md5("unknown" + i))) {
+                maybe++;
+            }
+        }
+
+        assertTrue("False positive rate too high: " + maybe, maybe < 300);
+        assertTrue(index.getExpectedFalsePositiveRate() < 0.02);
+    }
+
+    /**
+     * Checksums which are not MD5 hashes must be supported too
+     */
+    @Test
+    public void testSupportsChecksumsWhichAreNotHexEncoded() {
+        ChecksumIndex index = new ChecksumIndex(100, 0.01);
+        index.add("not a checksum");
+
+        assertTrue(index.mightContain("not a checksum"));
+        assertFalse(index.mightContain("another value"));
+    }
+
+    /**
+     * A memory-mapped index must keep its contents when opened again
+     */
+    @Test
+    public void testKeepsContentsInTheFileAcrossInstances() throws IOException {
+        ChecksumIndex index = new ChecksumIndex(file, 1000, 0.01);
+        index.add(Crypto.md5("image1"));
+        index.flush();
+
+        ChecksumIndex reopened = new ChecksumIndex(file, 5, 0.5);
+
+        assertTrue(reopened.mightContain(Crypto.md5("image1")));
+        assertEquals(1, reopened.getCount());
+        assertEquals(index.getBitCount(), reopened.getBitCount());
+        assertEquals(index.getHashCount(), reopened.getHashCount());
+    }
+
+    /**
+     * Opening a file which is not an index must fail
+     */
+    @Test
+    public void testRefusesFilesWhichAreNotIndexes() throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(new byte[100]);
+        output.close();
+
+        try {
+            new ChecksumIndex(file, 1000, 0.01);
+            fail("Expected the file to be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().endsWith("is not a checksum index"));
+        }
+    }
+
+    /**
+     * Clearing the index must remove all checksums
+     */
+    @Test
+    public void testCanBeCleared() {
+        ChecksumIndex index = new ChecksumIndex(100, 0.01);
+        index.add(Crypto.md5("image1"));
+        index.clear();
+
+        assertFalse(index.mightContain(Crypto.md5("image1")));
+        assertEquals(0, index.getCount());
+    }
+
+    /**
+     * The index must be able to populate itself from the catalog
+     */
+    @Test
+    public void testCanBePopulatedFromTheCatalog() throws IOException, JSONException {
+        CatalogClientStub client = new CatalogClientStub();
+        for (int i = 0; i < 50; i++) {
+            client.addImage(Crypto.md5("image" + i), 1368000000000L + i * 1000L, 1368000000000L);
+        }
+
+        ChecksumIndex index = new ChecksumIndex(1000, 0.01);
+
+        assertEquals(50, index.populate(client));
+        assertTrue(index.mightContain(Crypto.md5("image0")));
+        assertTrue(index.mightContain(Crypto.md5("image49")));
+        assertEquals(Arrays.asList("checksum"), client.getQueries().get(0).fields());
+    }
+
+}
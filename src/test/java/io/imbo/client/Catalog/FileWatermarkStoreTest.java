@@ -0,0 +1,61 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Catalog;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class FileWatermarkStoreTest {
+
+    private File file;
+    private FileWatermarkStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("imboclient-watermark", ".txt");
+        file.delete();
+        store = new FileWatermarkStore(file);
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+        store = null;
+    }
+
+    /**
+     * The store must report a missing watermark
+     */
+    @Test
+    public void testReturnsMinusOneWhenNothingIsStored() throws IOException {
+        assertEquals(-1, store.load());
+    }
+
+    /**
+     * The store must return the last saved watermark
+     */
+    @Test
+    public void testReturnsTheLastSavedWatermark() throws IOException {
+        store.save(1368000000000L);
+        store.save(1368000005000L);
+
+        assertEquals(1368000005000L, store.load());
+        assertEquals(1368000005000L, new FileWatermarkStore(file).load());
+    }
+
+}
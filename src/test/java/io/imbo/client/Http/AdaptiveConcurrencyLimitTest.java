@@ -0,0 +1,133 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Adaptive concurrency limit test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class AdaptiveConcurrencyLimitTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * Feed the limit a number of samples, with the limit fully used
+     */
+    private void sample(AdaptiveConcurrencyLimit limit, int count, long latency) {
+        for (int i = 0; i < count; i++) {
+            limit.onSample(latency, limit.getLimit(), false);
+        }
+    }
+
+    /**
+     * The limit must grow up to the highest limit while latency is stable
+     */
+    @Test
+    public void testGrowsWhileLatencyIsStable() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 50);
+        assertEquals(AdaptiveConcurrencyLimit.DEFAULT_INITIAL_LIMIT, limit.getLimit());
+
+        sample(limit, 10, 10000000);
+        assertTrue(limit.getLimit() > AdaptiveConcurrencyLimit.DEFAULT_INITIAL_LIMIT);
+
+        sample(limit, 500, 10000000);
+        assertEquals(50, limit.getLimit());
+    }
+
+    /**
+     * The limit must shrink when requests start to queue on the server
+     */
+    @Test
+    public void testShrinksWhenLatencyRises() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 50, 40);
+
+        sample(limit, 100, 10000000);
+        int before = limit.getLimit();
+
+        sample(limit, 30, 50000000);
+        assertTrue(limit.getLimit() < before / 2);
+        assertTrue(limit.getShortTermLatency() > limit.getLongTermLatency());
+    }
+
+    /**
+     * Dropped requests must cut the limit, down to the lowest limit
+     */
+    @Test
+    public void testBacksOffWhenRequestsAreDropped() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 50, 20);
+
+        limit.onSample(10000000, 20, true);
+        assertEquals(18, limit.getLimit());
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(10000000, 20, true);
+        }
+
+        assertEquals(2, limit.getLimit());
+        assertEquals(101, limit.getDropCount());
+    }
+
+    /**
+     * The limit must not grow while it is not used
+     */
+    @Test
+    public void testDoesNotGrowWhileMostlyUnused() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 50, 10);
+
+        for (int i = 0; i < 100; i++) {
+            limit.onSample(10000000, 2, false);
+        }
+
+        assertEquals(10, limit.getLimit());
+    }
+
+    /**
+     * The most recent latency samples must be available for metrics
+     */
+    @Test
+    public void testKeepsRecentLatencySamples() {
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10);
+
+        limit.onSample(1, 1, false);
+        limit.onSample(2, 1, true);
+        assertArrayEquals(new long[] { 1, 2 }, limit.getLatencySamples());
+
+        for (int i = 3; i <= AdaptiveConcurrencyLimit.SAMPLE_HISTORY + 2; i++) {
+            limit.onSample(i, 1, false);
+        }
+
+        long[] samples = limit.getLatencySamples();
+        assertEquals(AdaptiveConcurrencyLimit.SAMPLE_HISTORY, samples.length);
+        assertEquals(3, samples[0]);
+        assertEquals(AdaptiveConcurrencyLimit.SAMPLE_HISTORY + 2, samples[samples.length - 1]);
+        assertEquals(AdaptiveConcurrencyLimit.SAMPLE_HISTORY + 2, limit.getSampleCount());
+    }
+
+    /**
+     * The limit must refuse an initial limit outside its bounds
+     */
+    @Test
+    public void testThrowsExceptionOnInitialLimitOutOfBounds() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Initial limit must be between the lowest and highest limit");
+
+        new AdaptiveConcurrencyLimit(1, 10, 11);
+    }
+
+}
@@ -9,16 +9,23 @@
 package io.imbo.client.Http;
 
 import static io.imbo.client.util.PostBodyMatches.PostBodyMatches;
+import static io.imbo.client.util.RequestHasHeader.RequestHasHeader;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import io.imbo.client.ServerException;
 import io.imbo.client.Url.StatusUrl;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
@@ -28,6 +35,7 @@ import java.util.List;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.ProtocolVersion;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ResponseHandler;
@@ -36,10 +44,16 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.message.BasicStatusLine;
 import org.jmock.Expectations;
+import org.jmock.api.Invocation;
 import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -120,6 +134,163 @@ public class HttpClientTest {
         this.client.get(new URI("http://imbo-project.org/"));
     }
     
+    /**
+     * Clients for other request classes must share connections and dispatcher, and send
+     * their requests in their own lane
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSendsRequestsInTheLaneOfTheRequestClass() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final ImboResponse response = new ImboResponse();
+        
+        context.checking(new Expectations() {{
+            exactly(3).of(webClient).execute(with(any(HttpGet.class)), with(any(ResponseHandler.class)));
+            will(returnValue(response));
+        }});
+        
+        ImboHttpClient bulk = this.client.forRequestClass(RequestClass.BULK);
+        
+        assertSame(this.client, this.client.forRequestClass(RequestClass.INTERACTIVE));
+        assertSame(webClient, bulk.getHttpClient());
+        assertSame(this.client.getDispatcher(), bulk.getDispatcher());
+        assertEquals(RequestClass.BULK, bulk.getRequestClass());
+        
+        this.client.get(new URI("http://imbo-project.org/"));
+        bulk.get(new URI("http://imbo-project.org/"));
+        bulk.get(new URI("http://imbo-project.org/"));
+        
+        RequestDispatcher dispatcher = this.client.getDispatcher();
+        assertEquals(1, dispatcher.getDispatchedCount(RequestClass.INTERACTIVE));
+        assertEquals(2, dispatcher.getDispatchedCount(RequestClass.BULK));
+        assertEquals(0, dispatcher.getInFlight(RequestClass.BULK));
+    }
+    
+    /**
+     * Overload responses must make the adaptive limit of the lane back off
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReportsOverloadResponsesToTheAdaptiveLimit() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final ImboResponse response = new ImboResponse();
+        response.setStatusCode(503);
+        
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(with(any(HttpGet.class)), with(any(ResponseHandler.class)));
+            will(returnValue(response));
+        }});
+        
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10);
+        this.client.getDispatcher().setLimit(RequestClass.BULK, limit);
+        
+        try {
+            this.client.forRequestClass(RequestClass.BULK).get(new URI("http://imbo-project.org/"));
+            fail("Expected a server exception");
+        } catch (ServerException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+        
+        assertEquals(1, limit.getDropCount());
+        assertEquals(3, limit.getLimit());
+    }
+    
+    /**
+     * Only the time until the response headers arrive may count as latency, not the time
+     * spent reading the response body
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSamplesLatencyUntilTheResponseHeadersArrive() throws IOException, URISyntaxException {
+        useMockWebClient();
+        
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(with(any(HttpGet.class)), with(any(ResponseHandler.class)));
+            will(new CustomAction("respond with a slow body") {
+                public Object invoke(Invocation invocation) throws Throwable {
+                    InputStream body = new ByteArrayInputStream(new byte[] { 1, 2, 3 }) {
+                        public synchronized int read(byte[] buffer, int offset, int length) {
+                            try {
+                                Thread.sleep(500);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            
+                            return super.read(buffer, offset, length);
+                        }
+                    };
+                    
+                    HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                    response.setEntity(new InputStreamEntity(body, 3));
+                    response.setHeader("Content-Type", "image/png");
+                    
+                    return ((ResponseHandler<ImboResponse>) invocation.getParameter(1)).handleResponse(response);
+                }
+            });
+        }});
+        
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 10);
+        this.client.getDispatcher().setLimit(RequestClass.INTERACTIVE, limit);
+        
+        Response response = this.client.get(new URI("http://imbo-project.org/"));
+        
+        assertArrayEquals(new byte[] { 1, 2, 3 }, response.getRawBody());
+        assertTrue(limit.getLatencySamples()[0] < 250000000L);
+    }
+    
+    /**
+     * Request and response bodies must be paced when the throttle has a byte limit for the
+     * public key of the request
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThrottlesBodiesOfRequestsForLimitedKeys() throws IOException, URISyntaxException {
+        useMockWebClient();
+        
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(with(any(HttpPost.class)), with(any(ResponseHandler.class)));
+            will(new CustomAction("check entities") {
+                public Object invoke(Invocation invocation) throws Throwable {
+                    assertThat(((HttpPost) invocation.getParameter(0)).getEntity(), instanceOf(ThrottledEntity.class));
+                    
+                    HttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                    response.setEntity(new ByteArrayEntity(new byte[] { 1, 2, 3 }));
+                    response.setHeader("Content-Type", "image/png");
+                    
+                    ResponseHandler<ImboResponse> handler = (ResponseHandler<ImboResponse>) invocation.getParameter(1);
+                    ImboResponse imboResponse = handler.handleResponse(response);
+                    assertThat(response.getEntity(), instanceOf(ThrottledEntity.class));
+                    
+                    return imboResponse;
+                }
+            });
+        }});
+        
+        this.client.setThrottle(new RequestThrottle().setByteRate("key", RequestClass.INTERACTIVE, 1000000));
+        Response response = this.client.post(new URI("http://host/users/key/images"), new ByteArrayInputStream(new byte[] { 4, 5 }), null);
+        
+        assertArrayEquals(new byte[] { 1, 2, 3 }, response.getRawBody());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanGetHttpResourceWithCustomHeaders() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final ImboResponse response = new ImboResponse();
+        final ArrayList<Header> headers = new ArrayList<Header>();
+        headers.add(new BasicHeader("If-None-Match", "\"etag\""));
+        
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(
+                with(RequestHasHeader("If-None-Match", "\"etag\"")),
+                with(any(ResponseHandler.class))
+            );
+            will(returnValue(response));
+        }});
+        
+        this.client.get(new URI("http://imbo-project.org/"), headers);
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void testCanGetHttpResourceWithAnUrlClass() throws IOException, URISyntaxException {
@@ -207,6 +378,123 @@ public class HttpClientTest {
         this.client.post(new URI("http://imbo-project.org/"), "payload");
     }
     
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStreamsPostBodyWithKnownLength() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final ImboResponse response = new ImboResponse();
+        final byte[] body = new byte[] { 1, 2, 3, 4, 5 };
+        final ByteArrayOutputStream sent = new ByteArrayOutputStream();
+
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(
+                with(any(HttpPost.class)),
+                with(any(ResponseHandler.class))
+            );
+            will(new CustomAction("send entity") {
+                public Object invoke(Invocation invocation) throws Throwable {
+                    HttpEntity entity = ((HttpPost) invocation.getParameter(0)).getEntity();
+                    assertEquals(5, entity.getContentLength());
+                    assertFalse(entity.isRepeatable());
+                    entity.writeTo(sent);
+
+                    return response;
+                }
+            });
+        }});
+
+        this.client.post(new URI("http://imbo-project.org/"), new ByteArrayInputStream(body), body.length, null);
+        assertArrayEquals(body, sent.toByteArray());
+    }
+    
+    /**
+     * Returns an action which passes a response with the given body and Content-Length
+     * to the response handler of the request
+     */
+    private CustomAction respondWith(final byte[] body, final int contentLength) {
+        return new CustomAction("respond") {
+            @SuppressWarnings("unchecked")
+            public Object invoke(Invocation invocation) throws Throwable {
+                BasicHttpResponse response = new BasicHttpResponse(new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"));
+                response.setEntity(new ByteArrayEntity(body));
+                response.addHeader("Content-Type", "image/png");
+                response.addHeader("Content-Length", Integer.toString(contentLength));
+
+                return ((ResponseHandler<ImboResponse>) invocation.getParameter(1)).handleResponse(response);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanStreamHttpResourceToAnOutputStream() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final byte[] body = new byte[] { 1, 2, 3, 4, 5 };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(
+                with(any(HttpGet.class)),
+                with(any(ResponseHandler.class))
+            );
+            will(respondWith(body, body.length));
+        }});
+
+        Response response = this.client.get(new URI("http://imbo-project.org/"), null, output);
+
+        assertArrayEquals(body, output.toByteArray());
+        assertEquals(200, response.getStatusCode());
+        assertEquals(5, response.getContentLength());
+        assertEquals(null, response.getRawBody());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThrowsExceptionWhenAStreamedResponseIsTruncated() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final byte[] body = new byte[] { 1, 2, 3, 4, 5 };
+
+        exception.expect(IOException.class);
+        exception.expectMessage("Response truncated: expected 10 bytes, received 5");
+
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(
+                with(any(HttpGet.class)),
+                with(any(ResponseHandler.class))
+            );
+            will(respondWith(body, 10));
+        }});
+
+        this.client.get(new URI("http://imbo-project.org/"), null, new ByteArrayOutputStream());
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThrowsExceptionWhenServerIgnoresRequestedRange() throws IOException, URISyntaxException {
+        useMockWebClient();
+        final byte[] body = new byte[] { 1, 2, 3, 4, 5 };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ArrayList<Header> headers = new ArrayList<Header>();
+        headers.add(new BasicHeader("Range", "bytes=2-4"));
+
+        context.checking(new Expectations() {{
+            oneOf(webClient).execute(
+                with(any(HttpGet.class)),
+                with(any(ResponseHandler.class))
+            );
+            will(respondWith(body, body.length));
+        }});
+
+        try {
+            this.client.get(new URI("http://imbo-project.org/"), headers, output);
+            fail("Expected the response to be refused");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Server ignored the requested range"));
+        }
+
+        assertEquals(0, output.size());
+    }
+    
     @SuppressWarnings("unchecked")
     @Test
     public void testCanPostHttpResourceWithAnUrlClass() throws IOException, URISyntaxException {
@@ -0,0 +1,313 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.hamcrest.Matcher;
+import org.hamcrest.core.IsNot;
+import org.hamcrest.core.IsNull;
+import org.jmock.Expectations;
+import org.jmock.api.Action;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RangeDownloaderTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery() {{
+        // Segments are fetched from worker threads
+        setThreadingPolicy(new Synchroniser());
+    }};
+
+    private HttpClient httpClient = context.mock(HttpClient.class);
+    private URI url;
+    private File file;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException, URISyntaxException {
+        url = new URI("http://imbo/users/christer/images/image");
+        file = File.createTempFile("imboclient-range", ".bin");
+
+        data = new byte[10000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i * 31);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    private Response headResponse(boolean ranges) {
+        ImboResponse response = new ImboResponse();
+        response.setStatusCode(200);
+        response.setHeaders(ranges ? new Header[] {
+            new BasicHeader("Content-Length", Integer.toString(data.length)),
+            new BasicHeader("Accept-Ranges", "bytes")
+        } : new Header[] {
+            new BasicHeader("Content-Length", Integer.toString(data.length))
+        });
+
+        return response;
+    }
+
+    /**
+     * Returns an action which serves the requested range of the data. The first request for
+     * each range in breakAt breaks off halfway through
+     */
+    private Action serveRanges(final Set<Long> breakAt, final List<String> ranges) {
+        return new CustomAction("serve ranges") {
+            @SuppressWarnings("unchecked")
+            public Object invoke(Invocation invocation) throws Throwable {
+                List<Header> headers = (List<Header>) invocation.getParameter(1);
+                OutputStream output = (OutputStream) invocation.getParameter(2);
+                int start = 0;
+                int end = data.length - 1;
+
+                if (headers != null) {
+                    String range = headers.get(0).getValue();
+                    ranges.add(range);
+
+                    String[] bounds = range.substring("bytes=".length()).split("-");
+                    start = Integer.parseInt(bounds[0]);
+                    end = Integer.parseInt(bounds[1]);
+                }
+
+                if (breakAt.remove(Long.valueOf(start))) {
+                    output.write(data, start, (end - start + 1) / 2);
+                    throw new IOException("Connection reset");
+                }
+
+                output.write(data, start, end - start + 1);
+
+                ImboResponse response = new ImboResponse();
+                response.setStatusCode(headers == null ? 200 : 206);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * Matches any list of request headers
+     */
+    private static Matcher<List<Header>> anyHeaders() {
+        return new IsNot<List<Header>>(noHeaders());
+    }
+
+    /**
+     * Matches requests sent without headers
+     */
+    private static Matcher<List<Header>> noHeaders() {
+        return new IsNull<List<Header>>();
+    }
+
+    private byte[] readFile() throws IOException {
+        byte[] contents = new byte[(int) file.length()];
+        FileInputStream input = new FileInputStream(file);
+
+        try {
+            int offset = 0;
+            while (offset < contents.length) {
+                offset += input.read(contents, offset, contents.length - offset);
+            }
+        } finally {
+            input.close();
+        }
+
+        return contents;
+    }
+
+    /**
+     * Segments must be fetched as separate ranges and written in place
+     */
+    @Test
+    public void testFetchesSegmentsAsSeparateRanges() throws IOException {
+        final List<String> ranges = Collections.synchronizedList(new java.util.ArrayList<String>());
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(true)));
+
+            exactly(4).of(httpClient).get(with(equal(url)), with(anyHeaders()), with(any(OutputStream.class)));
+            will(serveRanges(new HashSet<Long>(), ranges));
+        }});
+
+        RangeDownloader downloader = new RangeDownloader(httpClient).setSegments(4).setMinSegmentSize(1000);
+
+        assertEquals(data.length, downloader.download(url, file));
+        assertArrayEquals(data, readFile());
+        assertTrue(ranges.containsAll(java.util.Arrays.asList(
+            "bytes=0-2499", "bytes=2500-4999", "bytes=5000-7499", "bytes=7500-9999"
+        )));
+    }
+
+    /**
+     * A broken segment must continue from its last received byte
+     */
+    @Test
+    public void testResumesBrokenSegmentsFromTheLastReceivedByte() throws IOException {
+        final List<String> ranges = Collections.synchronizedList(new java.util.ArrayList<String>());
+        final Set<Long> breakAt = Collections.synchronizedSet(new HashSet<Long>());
+        breakAt.add(0L);
+        breakAt.add(5000L);
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(true)));
+
+            exactly(4).of(httpClient).get(with(equal(url)), with(anyHeaders()), with(any(OutputStream.class)));
+            will(serveRanges(breakAt, ranges));
+        }});
+
+        RangeDownloader downloader = new RangeDownloader(httpClient).setSegments(2).setMinSegmentSize(1000);
+
+        assertEquals(data.length, downloader.download(url, file));
+        assertArrayEquals(data, readFile());
+        assertEquals(2, downloader.getResumeCount());
+        assertTrue(ranges.contains("bytes=2500-4999"));
+        assertTrue(ranges.contains("bytes=7500-9999"));
+    }
+
+    /**
+     * Small resources must not be split into segments smaller than the minimum
+     */
+    @Test
+    public void testDoesNotSplitBelowTheMinimumSegmentSize() throws IOException {
+        final List<String> ranges = Collections.synchronizedList(new java.util.ArrayList<String>());
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(true)));
+
+            oneOf(httpClient).get(with(equal(url)), with(anyHeaders()), with(any(OutputStream.class)));
+            will(serveRanges(new HashSet<Long>(), ranges));
+        }});
+
+        new RangeDownloader(httpClient).setSegments(8).download(url, file);
+
+        assertArrayEquals(data, readFile());
+        assertEquals(java.util.Arrays.asList("bytes=0-9999"), ranges);
+    }
+
+    /**
+     * Empty resources must not be requested at all, as they have no valid byte range
+     */
+    @Test
+    public void testDownloadsEmptyResourcesWithoutRequestingThem() throws IOException {
+        final ImboResponse head = new ImboResponse();
+        head.setStatusCode(200);
+        head.setHeaders(new Header[] {
+            new BasicHeader("Content-Length", "0"),
+            new BasicHeader("Accept-Ranges", "bytes")
+        });
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(head));
+        }});
+
+        assertEquals(0, new RangeDownloader(httpClient).download(url, file));
+        assertEquals(0, file.length());
+    }
+
+    /**
+     * Servers without byte range support must be downloaded in one request, starting over
+     * if it breaks
+     */
+    @Test
+    public void testStartsOverWhenServerDoesNotSupportRanges() throws IOException {
+        final List<String> ranges = Collections.synchronizedList(new java.util.ArrayList<String>());
+        final Set<Long> breakAt = Collections.synchronizedSet(new HashSet<Long>());
+        breakAt.add(0L);
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(false)));
+
+            exactly(2).of(httpClient).get(with(equal(url)), with(noHeaders()), with(any(OutputStream.class)));
+            will(serveRanges(breakAt, ranges));
+        }});
+
+        assertEquals(data.length, new RangeDownloader(httpClient).download(url, file));
+        assertArrayEquals(data, readFile());
+        assertTrue(ranges.isEmpty());
+    }
+
+    /**
+     * Breaks which each make progress must not use up the retries of a segment
+     */
+    @Test
+    public void testKeepsResumingSegmentsThatMakeProgress() throws IOException {
+        final List<String> ranges = Collections.synchronizedList(new java.util.ArrayList<String>());
+        final Set<Long> breakAt = Collections.synchronizedSet(new HashSet<Long>(java.util.Arrays.asList(0L, 5000L, 7500L, 8750L)));
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(true)));
+
+            exactly(5).of(httpClient).get(with(equal(url)), with(anyHeaders()), with(any(OutputStream.class)));
+            will(serveRanges(breakAt, ranges));
+        }});
+
+        RangeDownloader downloader = new RangeDownloader(httpClient).setSegments(1).setMaxRetries(1);
+        assertEquals(data.length, downloader.download(url, file));
+        assertArrayEquals(data, readFile());
+        assertEquals("bytes=9375-9999", ranges.get(4));
+    }
+
+    /**
+     * A segment which keeps breaking must eventually fail the download
+     */
+    @Test
+    public void testGivesUpAfterTheMaximumNumberOfRetries() throws IOException {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(url);
+            will(returnValue(headResponse(true)));
+
+            exactly(2).of(httpClient).get(with(equal(url)), with(anyHeaders()), with(any(OutputStream.class)));
+            will(throwException(new IOException("Connection reset")));
+        }});
+
+        try {
+            new RangeDownloader(httpClient).setMaxRetries(1).download(url, file);
+            fail("Expected the download to fail");
+        } catch (IOException e) {
+            assertEquals("Connection reset", e.getMessage());
+        }
+    }
+
+}
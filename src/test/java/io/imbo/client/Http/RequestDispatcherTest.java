@@ -0,0 +1,194 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Request dispatcher test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RequestDispatcherTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * Start a thread acquiring a connection, recording the class when it gets one
+     */
+    private Thread startRequest(final RequestDispatcher dispatcher, final RequestClass requestClass, final List<Object> log) {
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    dispatcher.acquire(requestClass);
+                    log.add(requestClass);
+                    dispatcher.release(requestClass);
+                } catch (InterruptedIOException e) {
+                    log.add(e);
+                }
+            }
+        });
+        thread.start();
+
+        return thread;
+    }
+
+    /**
+     * Wait until the given number of requests of a class are waiting
+     */
+    private void awaitQueued(RequestDispatcher dispatcher, RequestClass requestClass, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+
+        while (dispatcher.getQueued(requestClass) < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+
+        assertEquals(count, dispatcher.getQueued(requestClass));
+    }
+
+    /**
+     * Bulk requests must never take the connections reserved for interactive requests
+     */
+    @Test
+    public void testKeepsBulkRequestsWithinTheirQuota() throws Exception {
+        RequestDispatcher dispatcher = new RequestDispatcher(4);
+        List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+
+        assertEquals(2, dispatcher.getQuota(RequestClass.BULK));
+
+        dispatcher.acquire(RequestClass.BULK);
+        dispatcher.acquire(RequestClass.BULK);
+        Thread waiting = startRequest(dispatcher, RequestClass.BULK, log);
+        awaitQueued(dispatcher, RequestClass.BULK, 1);
+
+        // Interactive requests still get a connection right away
+        dispatcher.acquire(RequestClass.INTERACTIVE);
+        dispatcher.acquire(RequestClass.INTERACTIVE);
+        assertEquals(2, dispatcher.getInFlight(RequestClass.INTERACTIVE));
+        assertTrue(log.isEmpty());
+
+        dispatcher.release(RequestClass.INTERACTIVE);
+        assertTrue(log.isEmpty());
+
+        dispatcher.release(RequestClass.BULK);
+        waiting.join(5000);
+        assertEquals(Arrays.<Object>asList(RequestClass.BULK), log);
+    }
+
+    /**
+     * Free connections must be shared between waiting lanes by their weight
+     */
+    @Test
+    public void testSharesConnectionsByWeight() throws Exception {
+        RequestDispatcher dispatcher = new RequestDispatcher(1).setQuota(RequestClass.BULK, 1);
+        List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+        List<Thread> threads = new ArrayList<Thread>();
+
+        dispatcher.acquire(RequestClass.INTERACTIVE);
+
+        for (int i = 1; i <= 2; i++) {
+            threads.add(startRequest(dispatcher, RequestClass.BULK, log));
+            awaitQueued(dispatcher, RequestClass.BULK, i);
+        }
+
+        for (int i = 1; i <= 4; i++) {
+            threads.add(startRequest(dispatcher, RequestClass.INTERACTIVE, log));
+            awaitQueued(dispatcher, RequestClass.INTERACTIVE, i);
+        }
+
+        dispatcher.release(RequestClass.INTERACTIVE);
+
+        for (Thread thread : threads) {
+            thread.join(5000);
+        }
+
+        assertEquals(Arrays.<Object>asList(
+            RequestClass.BULK,
+            RequestClass.INTERACTIVE,
+            RequestClass.INTERACTIVE,
+            RequestClass.INTERACTIVE,
+            RequestClass.INTERACTIVE,
+            RequestClass.BULK
+        ), log);
+        assertEquals(2, dispatcher.getDispatchedCount(RequestClass.BULK));
+        assertEquals(5, dispatcher.getDispatchedCount(RequestClass.INTERACTIVE));
+    }
+
+    /**
+     * An adaptive limit must narrow the quota of its lane, and learn from finished requests
+     */
+    @Test
+    public void testNarrowsTheQuotaToTheAdaptiveLimit() throws Exception {
+        RequestDispatcher dispatcher = new RequestDispatcher(10);
+        AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 5, 2);
+        List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+
+        dispatcher.setLimit(RequestClass.BULK, limit);
+        dispatcher.acquire(RequestClass.BULK);
+        dispatcher.acquire(RequestClass.BULK);
+        Thread waiting = startRequest(dispatcher, RequestClass.BULK, log);
+        awaitQueued(dispatcher, RequestClass.BULK, 1);
+
+        dispatcher.release(RequestClass.BULK, 1000000, true);
+        assertEquals(1, limit.getLimit());
+        assertEquals(1, limit.getDropCount());
+        assertEquals(1, dispatcher.getQueued(RequestClass.BULK));
+        assertTrue(log.isEmpty());
+
+        dispatcher.release(RequestClass.BULK, 1000000, false);
+        waiting.join(5000);
+        assertEquals(Arrays.<Object>asList(RequestClass.BULK), log);
+        assertEquals(2, limit.getSampleCount());
+    }
+
+    /**
+     * An interrupted request must give up its place in line
+     */
+    @Test
+    public void testGivesUpThePlaceInLineWhenInterrupted() throws Exception {
+        RequestDispatcher dispatcher = new RequestDispatcher(1);
+        List<Object> log = Collections.synchronizedList(new ArrayList<Object>());
+
+        dispatcher.acquire(RequestClass.INTERACTIVE);
+        Thread waiting = startRequest(dispatcher, RequestClass.INTERACTIVE, log);
+        awaitQueued(dispatcher, RequestClass.INTERACTIVE, 1);
+
+        waiting.interrupt();
+        waiting.join(5000);
+
+        assertEquals(1, log.size());
+        assertTrue(log.get(0) instanceof InterruptedIOException);
+        assertEquals(0, dispatcher.getQueued(RequestClass.INTERACTIVE));
+        assertEquals(1, dispatcher.getInFlight(RequestClass.INTERACTIVE));
+    }
+
+    /**
+     * The dispatcher must refuse to release connections which were never acquired
+     */
+    @Test
+    public void testThrowsExceptionWhenReleasingWithoutRequestsInFlight() {
+        exception.expect(IllegalStateException.class);
+        exception.expectMessage("No BULK request in flight");
+
+        new RequestDispatcher(1).release(RequestClass.BULK);
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Http;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+/**
+ * Request throttle test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class RequestThrottleTest {
+
+    /**
+     * The public key must be found in URLs to user resources
+     */
+    @Test
+    public void testFindsThePublicKeyOfUrls() throws Exception {
+        assertEquals("key", RequestThrottle.getPublicKey(new URI("http://host/users/key/images/abc.jpg?t[]=border")));
+        assertEquals("key", RequestThrottle.getPublicKey(new URI("http://host/users/key.json")));
+        assertNull(RequestThrottle.getPublicKey(new URI("http://host/status.json")));
+    }
+
+    /**
+     * Limits without a public key must apply to every key without limits of its own
+     */
+    @Test
+    public void testFallsBackToTheDefaultLimits() {
+        RequestThrottle throttle = new RequestThrottle()
+            .setRequestRate(null, RequestClass.BULK, 10)
+            .setRequestRate("migration", RequestClass.BULK, 50)
+            .setByteRate(null, RequestClass.BULK, 1000000);
+
+        assertEquals(50, throttle.getRequestRate("migration", RequestClass.BULK), 0);
+        assertEquals(10, throttle.getRequestRate("other", RequestClass.BULK), 0);
+        assertEquals(10, throttle.getRequestRate(null, RequestClass.BULK), 0);
+        assertEquals(0, throttle.getRequestRate("migration", RequestClass.INTERACTIVE), 0);
+        assertEquals(1000000, throttle.getByteRate("migration", RequestClass.BULK));
+
+        throttle.setRequestRate("migration", RequestClass.BULK, 0);
+        assertEquals(10, throttle.getRequestRate("migration", RequestClass.BULK), 0);
+    }
+
+    /**
+     * Every key without limits of its own must get a bucket of its own at the default rate
+     */
+    @Test
+    public void testGivesEveryKeyItsOwnBucketAtTheDefaultRate() throws Exception {
+        RequestThrottle throttle = new RequestThrottle().setRequestRate(null, RequestClass.BULK, 5);
+        long start = System.nanoTime();
+
+        // One request per key fits in each bucket, so none of them wait
+        throttle.acquireRequest("a", RequestClass.BULK);
+        throttle.acquireRequest("b", RequestClass.BULK);
+        throttle.acquireRequest("c", RequestClass.BULK);
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+
+        // Replacing the default limit must apply to the keys using it
+        throttle.setRequestRate(null, RequestClass.BULK, 20);
+        assertEquals(20, throttle.getRequestRate("a", RequestClass.BULK), 0);
+    }
+
+    /**
+     * Requests must be spaced evenly by the request rate
+     */
+    @Test
+    public void testPacesRequests() throws Exception {
+        RequestThrottle throttle = new RequestThrottle().setRequestRate("key", RequestClass.INTERACTIVE, 50);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 6; i++) {
+            throttle.acquireRequest("key", RequestClass.INTERACTIVE);
+        }
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    /**
+     * Streams must only be wrapped when there is a byte limit, and then be paced by it
+     */
+    @Test
+    public void testPacesStreamsByTheByteRate() throws Exception {
+        RequestThrottle throttle = new RequestThrottle().setByteRate("key", RequestClass.BULK, 100000);
+        InputStream unthrottled = new ByteArrayInputStream(new byte[0]);
+        assertSame(unthrottled, throttle.throttle(unthrottled, "key", RequestClass.INTERACTIVE));
+
+        // The first burst is free, the rest takes 100 ms at 100 kB/s
+        byte[] data = new byte[RequestThrottle.BYTE_BURST_MIN + 10000];
+        long start = System.nanoTime();
+        InputStream input = throttle.throttle(new ByteArrayInputStream(data), "key", RequestClass.BULK);
+        byte[] buffer = new byte[4096];
+        int total = 0;
+        int read;
+
+        while ((read = input.read(buffer)) != -1) {
+            total += read;
+        }
+
+        assertEquals(data.length, total);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+
+        // The bucket is now in debt, so writing 10 kB more takes another 100 ms or so
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        OutputStream output = throttle.throttle(sink, "key", RequestClass.BULK);
+        start = System.nanoTime();
+        output.write(new byte[10000]);
+
+        assertEquals(10000, sink.size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+}
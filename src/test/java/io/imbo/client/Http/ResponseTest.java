@@ -10,8 +10,10 @@ package io.imbo.client.Http;
 
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import io.imbo.client.Http.ImboResponse;
 
 import java.util.Arrays;
@@ -66,6 +68,51 @@ public class ResponseTest {
 		assertEquals("bar", response.getHeaders().get("foo"));
 	}
 	
+	/**
+	 * The response class must look up headers regardless of the case of their names
+	 */
+	@Test
+	public void testCanGetAHeaderIgnoringTheCaseOfItsName() {
+		assertNull(response.getHeader("Content-Length"));
+		
+		response.setHeaders(new Header[] { new BasicHeader("content-length", "42") });
+		
+		assertEquals("42", response.getHeader("Content-Length"));
+		assertNull(response.getHeader("Accept-Ranges"));
+	}
+	
+	/**
+	 * The response class must expose the validators used for conditional requests
+	 */
+	@Test
+	public void testCanGetValidatorsFromHeaders() {
+		Header[] testHeaders = {
+			new BasicHeader("Etag", "\"abc\""),
+			new BasicHeader("Last-Modified", "Thu, 27 Sep 2012 10:12:34 GMT")
+		};
+		
+		assertNull(response.getETag());
+		assertNull(response.getLastModified());
+		
+		response.setHeaders(testHeaders);
+		
+		assertEquals("\"abc\"", response.getETag());
+		assertEquals("Thu, 27 Sep 2012 10:12:34 GMT", response.getLastModified());
+	}
+	
+	/**
+	 * The response class must be able to tell when a resource was not modified
+	 */
+	@Test
+	public void testCanTellWhenAResourceWasNotModified() {
+		response.setStatusCode(200);
+		assertFalse(response.isNotModified());
+		
+		response.setStatusCode(304);
+		assertTrue(response.isNotModified());
+		assertFalse(response.isError());
+	}
+	
 	/**
 	 * The response class must be able to set and get the body
 	 */
@@ -9,6 +9,7 @@
 package io.imbo.client.Images;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import io.imbo.client.Images.Image;
 
 import java.text.SimpleDateFormat;
@@ -138,4 +139,40 @@ public class ImageTest {
         assertEquals(data.optString("publicKey"), image.getPublicKey());
     }
 
+    /**
+     * The image instance must be able to fetch the meta data, if present
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testCanGetMetadataAfterBeingPopulatedThroughConstructor() throws JSONException {
+        assertNull(image.getMetadata());
+
+        data.put("metadata", new JSONObject().put("foo", "bar"));
+        image = new Image(data);
+
+        assertEquals("bar", image.getMetadata().getString("foo"));
+    }
+
+    /**
+     * The image instance must leave fields not present in a projected record unset
+     *
+     * @throws JSONException
+     */
+    @Test
+    public void testLeavesMissingFieldsUnsetForProjectedRecords() throws JSONException {
+        JSONObject sparse = new JSONObject();
+        sparse.put("imageIdentifier", "995b506ba1772e6a3fa25a2e3e618b08");
+        sparse.put("checksum", "995b506ba1772e6a3fa25a2e3e618b08");
+
+        image = new Image(sparse);
+
+        assertEquals(sparse.getString("checksum"), image.getChecksum());
+        assertEquals(0, image.getSize());
+        assertNull(image.getMimeType());
+        assertNull(image.getAddedDate());
+        assertNull(image.getUpdatedDate());
+        assertNull(image.getMetadata());
+    }
+
 }
@@ -13,8 +13,13 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
+
+import org.apache.http.message.BasicNameValuePair;
 
 import org.json.JSONException;
 import org.junit.After;
@@ -145,11 +150,11 @@ public class QueryTest {
         query.to(to);
         
         HashMap<String, String> map = query.toHashMap();
-        assertEquals(Long.toString(from.getTime()), map.get("from"));
+        assertEquals(Long.toString(from.getTime() / 1000), map.get("from"));
         assertEquals("5", map.get("limit"));
         assertEquals("3", map.get("page"));
         assertEquals("1", map.get("metadata"));
-        assertEquals(Long.toString(to.getTime()), map.get("to"));
+        assertEquals(Long.toString(to.getTime() / 1000), map.get("to"));
     }
     
     /**
@@ -166,5 +171,96 @@ public class QueryTest {
     	HashMap<String, String> map = query.toHashMap();
         assertTrue(map.isEmpty());
     }
+    
+    /**
+     * The query instance must return the checksums it was given
+     */
+    @Test
+    public void testCanSetAndGetTheChecksums() {
+        query.ids(Arrays.asList("id1"));
+        query.checksums(Arrays.asList("checksum1", "checksum2"));
+        
+        assertEquals(Arrays.asList("checksum1", "checksum2"), query.checksums());
+        assertEquals(Arrays.asList("id1"), query.ids());
+    }
+    
+    /**
+     * The query instance must copy given lists, so adding to the query
+     * does not modify the list of the caller
+     */
+    @Test
+    public void testCopiesListsGivenToSetters() {
+        List<String> ids = Arrays.asList("id1", "id2");
+        query.ids(ids);
+        query.addId("id3");
+        
+        assertEquals(2, ids.size());
+        assertEquals(Arrays.asList("id1", "id2", "id3"), query.ids());
+    }
+    
+    /**
+     * The query instance must be able to convert all values, including
+     * list values, to query parameters
+     */
+    @Test
+    public void testCanConvertToQueryParamsWithListValues() {
+        Date from = new Date();
+        
+        query.limit(5);
+        query.page(3);
+        query.returnMetadata(true);
+        query.from(from);
+        query.ids(Arrays.asList("id1", "id2"));
+        query.addChecksum("checksum1");
+        query.fields(Arrays.asList("imageIdentifier", "checksum"));
+        query.addSort("size:desc");
+        
+        List<String> params = new ArrayList<String>();
+        for (BasicNameValuePair param : query.toQueryParams()) {
+            params.add(param.getName() + "=" + param.getValue());
+        }
+        
+        assertEquals(Arrays.asList(
+            "limit=5",
+            "page=3",
+            "metadata=1",
+            "from=" + from.getTime() / 1000,
+            "ids[]=id1",
+            "ids[]=id2",
+            "checksums[]=checksum1",
+            "fields[]=imageIdentifier",
+            "fields[]=checksum",
+            "sort[]=size:desc"
+        ), params);
+    }
+    
+    /**
+     * Dates must be sent as whole seconds since the Unix epoch, which is what the server
+     * filters on
+     */
+    @Test
+    public void testSendsDatesAsUnixTimestamps() {
+        query.from(new Date(1348740754999L));
+        query.to(new Date(1348740755000L));
+        
+        List<String> params = new ArrayList<String>();
+        for (BasicNameValuePair param : query.toQueryParams()) {
+            params.add(param.getName() + "=" + param.getValue());
+        }
+        
+        assertTrue(params.contains("from=1348740754"));
+        assertTrue(params.contains("to=1348740755"));
+    }
+    
+    /**
+     * The query instance must return no query params if no values have been set
+     */
+    @Test
+    public void testCanConvertToQueryParamsWithNoValues() {
+        query.limit(0);
+        query.page(0);
+        
+        assertTrue(query.toQueryParams().isEmpty());
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,179 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Images;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import io.imbo.client.ImboClient;
+import io.imbo.client.ServerException;
+import io.imbo.client.Http.HttpClient;
+import io.imbo.client.Http.ImboResponse;
+import io.imbo.client.Url.TransformationTemplate;
+import io.imbo.client.util.UriMatches;
+
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Header;
+import org.jmock.Expectations;
+import org.jmock.api.Invocation;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.action.CustomAction;
+import org.jmock.lib.concurrent.Synchroniser;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class VariantWarmerTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery() {{
+        // Warm-up requests are sent from worker threads
+        setThreadingPolicy(new Synchroniser());
+    }};
+
+    private HttpClient httpClient = context.mock(HttpClient.class);
+    private ImboClient client;
+    private String imageIdentifier = "23d7f91b25f3013fcc75ce070c40e004";
+
+    private List<TransformationTemplate> templates = Arrays.asList(
+        TransformationTemplate.compile(TransformationTemplate.chain().thumbnail(200, 200, "outbound").jpg()),
+        TransformationTemplate.compile(TransformationTemplate.chain().maxSize(800, 0).jpg()),
+        TransformationTemplate.compile(TransformationTemplate.chain().maxSize(1600, 0).jpg())
+    );
+
+    @Before
+    public void setUp() {
+        client = new ImboClient("http://host", "key", "private");
+        client.setHttpClient(httpClient);
+    }
+
+    /**
+     * Every variant of the image must be requested with a HEAD request
+     */
+    @Test
+    public void testRequestsEveryVariantOfTheImage() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).head(with(UriMatches.UriMatches(".*/images/" + imageIdentifier + "\\.jpg\\?t\\[\\]=thumbnail.*")));
+            oneOf(httpClient).head(with(UriMatches.UriMatches(".*/images/" + imageIdentifier + "\\.jpg\\?t\\[\\]=maxSize%3Awidth%3D800.*")));
+            oneOf(httpClient).head(with(UriMatches.UriMatches(".*/images/" + imageIdentifier + "\\.jpg\\?t\\[\\]=maxSize%3Awidth%3D1600.*")));
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, templates).setRequestsPerSecond(1000);
+
+        assertEquals(3, warmer.warm(imageIdentifier));
+
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, warmer.getWarmedCount());
+        assertEquals(0, warmer.getFailedCount());
+    }
+
+    /**
+     * Variants can be fetched instead, to warm caches in front of the server too
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanFetchTheVariants() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(3).of(httpClient).get(with(any(URI.class)), (List<Header>) with(aNull(List.class)), with(any(OutputStream.class)));
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, templates).setRequestsPerSecond(1000).setUseGet(true);
+        warmer.warm(imageIdentifier);
+
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(3, warmer.getWarmedCount());
+    }
+
+    /**
+     * Failed warm-up requests must be counted, and never thrown
+     */
+    @Test
+    public void testCountsFailedRequests() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(3).of(httpClient).head(with(any(URI.class)));
+            will(throwException(new ServerException("Service unavailable", 503)));
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, templates).setRequestsPerSecond(1000);
+        warmer.warm(imageIdentifier);
+
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(0, warmer.getWarmedCount());
+        assertEquals(3, warmer.getFailedCount());
+    }
+
+    /**
+     * Variants which do not fit in the queue must be skipped instead of blocking the caller
+     */
+    @Test
+    public void testSkipsVariantsWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).head(with(any(URI.class)));
+            will(new CustomAction("block until released") {
+                public Object invoke(Invocation invocation) throws Throwable {
+                    release.await(5, TimeUnit.SECONDS);
+                    return new ImboResponse();
+                }
+            });
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, templates)
+            .setConcurrency(1)
+            .setQueueCapacity(1)
+            .setRequestsPerSecond(1000);
+
+        assertEquals(2, warmer.warm(imageIdentifier));
+        assertEquals(1, warmer.getDroppedCount());
+
+        release.countDown();
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(2, warmer.getWarmedCount());
+    }
+
+    /**
+     * Requests must be paced by the rate limit
+     */
+    @Test
+    public void testPacesRequestsByTheRateLimit() throws Exception {
+        context.checking(new Expectations() {{
+            exactly(3).of(httpClient).head(with(any(URI.class)));
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, templates).setConcurrency(3).setRequestsPerSecond(20);
+        long start = System.nanoTime();
+        warmer.warm(imageIdentifier);
+
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    /**
+     * A rate limit that is not positive must be rejected up front
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRateLimitsThatAreNotPositive() {
+        new VariantWarmer(client, templates).setRequestsPerSecond(0);
+    }
+
+}
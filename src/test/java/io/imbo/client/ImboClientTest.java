@@ -10,40 +10,67 @@ package io.imbo.client;
 
 import static io.imbo.client.util.UriMatches.UriMatches;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.startsWith;
+import io.imbo.client.ChecksumMismatchException;
 import io.imbo.client.ImboClient;
 import io.imbo.client.ServerException;
+import io.imbo.client.Bulk.BulkResult;
+import io.imbo.client.Bulk.MetadataWriteQueue;
+import io.imbo.client.Cache.CacheEntry;
+import io.imbo.client.Catalog.CatalogClientStub;
+import io.imbo.client.Catalog.ChecksumIndex;
+import io.imbo.client.Cache.ImageDataCache;
+import io.imbo.client.Cache.MetadataCache;
+import io.imbo.client.Cache.ResponseCache;
 import io.imbo.client.Http.ImboResponse;
 import io.imbo.client.Http.Response;
+import io.imbo.client.Images.DownloadResult;
 import io.imbo.client.Images.Image;
 import io.imbo.client.Images.ImagesResponse;
 import io.imbo.client.Images.Query;
+import io.imbo.client.Images.UploadResult;
+import io.imbo.client.Images.VariantWarmer;
 import io.imbo.client.Url.ImageUrl;
 import io.imbo.client.Url.ImagesUrl;
 import io.imbo.client.Url.MetadataUrl;
 import io.imbo.client.Url.StatusUrl;
+import io.imbo.client.Url.TransformationTemplate;
 import io.imbo.client.Url.Url;
 import io.imbo.client.Url.UserUrl;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.apache.http.message.BasicHeader;
 import org.jmock.Expectations;
 import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.jmock.lib.concurrent.Synchroniser;
 import org.json.JSONException;
 import org.json.JSONObject;
 import org.junit.After;
@@ -63,7 +90,10 @@ import org.junit.runners.JUnit4;
 public class ImboClientTest extends TestCase {
 
     @Rule
-    public JUnitRuleMockery context = new JUnitRuleMockery();
+    public JUnitRuleMockery context = new JUnitRuleMockery() {{
+        // Bulk operations invoke the HTTP client from worker threads
+        setThreadingPolicy(new Synchroniser());
+    }};
 
     @Rule
     public ExpectedException exception = ExpectedException.none();
@@ -130,6 +160,314 @@ public class ImboClientTest extends TestCase {
         assertSame(response, client.addImage(image));
     }
     
+    /**
+     * Returns an action which reads the posted stream to the end, like the HTTP client
+     * does when sending it, and then returns the given response
+     */
+    private org.jmock.api.Action drainPostedStream(final Response response) {
+        return new org.jmock.lib.action.CustomAction("read posted stream") {
+            public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+                InputStream input = (InputStream) invocation.getParameter(1);
+                byte[] buffer = new byte[4096];
+                while (input.read(buffer) != -1) {
+                    // Discard
+                }
+
+                return response;
+            }
+        };
+    }
+
+    /**
+     * The client must compute the checksum of an image while adding it
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testComputesTheChecksumWhileAddingAnImage() throws IOException {
+        final File image = new File("misc/imbo-logo.png");
+        final String checksum = client.getImageChecksum(image);
+        final ImboResponse response = new ImboResponse();
+        response.setHeaders(new org.apache.http.Header[] {
+            new BasicHeader("X-Imbo-ImageIdentifier", checksum)
+        });
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(InputStream.class)), with(equal(image.length())), (List<org.apache.http.Header>) with(anything()));
+            will(drainPostedStream(response));
+        }});
+
+        UploadResult result = client.addImageWithChecksum(image);
+
+        assertSame(response, result.getResponse());
+        assertEquals(checksum, result.getChecksum());
+        assertEquals(image.length(), result.getSize());
+    }
+
+    /**
+     * The client must fail when the server reports a different checksum for an added image
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThrowsExceptionWhenTheServerReportsADifferentChecksum() throws IOException {
+        final byte[] imgBytes = { 1, 2, 3, 4, 5 };
+        final ImboResponse response = new ImboResponse();
+        response.setBody("{\"imageIdentifier\":\"00000000000000000000000000000000\"}");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(InputStream.class)), with(equal(5L)), (List<org.apache.http.Header>) with(anything()));
+            will(drainPostedStream(response));
+        }});
+
+        try {
+            client.addImageWithChecksum(new ByteArrayInputStream(imgBytes), imgBytes.length);
+            fail("Expected a checksum mismatch");
+        } catch (ChecksumMismatchException e) {
+            assertEquals("00000000000000000000000000000000", e.getExpectedChecksum());
+            assertEquals("7cfdd07889b3295d6a550914ab35e068", e.getActualChecksum());
+        }
+    }
+
+    /**
+     * With a checksum index, adding a file must hash it in the same pass as the upload
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testHashesLocalImagesWhileUploadingWhenUsingAChecksumIndex() throws IOException {
+        final File image = new File("misc/imbo-logo.png");
+        final ImboResponse response = new ImboResponse();
+        ChecksumIndex index = new ChecksumIndex(100, 0.01);
+        client.setChecksumIndex(index);
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(InputStream.class)), with(equal(image.length())), (List<org.apache.http.Header>) with(anything()));
+            will(drainPostedStream(response));
+        }});
+
+        assertSame(response, client.addImage(image));
+        assertTrue(index.mightContain(client.getImageChecksum(image)));
+    }
+
+    /**
+     * Returns an action which writes data to the output stream passed to a streaming
+     * GET, and then returns a response with the given headers
+     */
+    private org.jmock.api.Action streamToOutput(final byte[] data, final org.apache.http.Header[] headers) {
+        return new org.jmock.lib.action.CustomAction("stream to output") {
+            public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+                ((java.io.OutputStream) invocation.getParameter(2)).write(data);
+
+                ImboResponse response = new ImboResponse();
+                response.setStatusCode(200);
+                response.setHeaders(headers);
+                return response;
+            }
+        };
+    }
+
+    /**
+     * The client must hash an image while downloading it, and verify it against the ETag
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testVerifiesDownloadedImagesAgainstTheETag() throws IOException {
+        final byte[] data = { 1, 2, 3, 4, 5 };
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(uriMatches(".*/images/" + imageIdentifier + ".*")), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(data, new org.apache.http.Header[] {
+                new BasicHeader("ETag", "\"7cfdd07889b3295d6a550914ab35e068\""),
+                new BasicHeader("Content-Length", "5"),
+                new BasicHeader("X-Imbo-OriginalFileSize", "5")
+            }));
+        }});
+
+        DownloadResult result = client.downloadImage(imageIdentifier, output);
+
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", result.getChecksum());
+        assertEquals(5, result.getSize());
+        assertTrue(Arrays.equals(data, output.toByteArray()));
+    }
+
+    /**
+     * Without an ETag, an original image must be verified against its identifier
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testVerifiesDownloadedOriginalsAgainstTheImageIdentifier() throws IOException {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 5 }, new org.apache.http.Header[0]));
+        }});
+
+        try {
+            client.downloadImage(imageIdentifier, new ByteArrayOutputStream());
+            fail("Expected a checksum mismatch");
+        } catch (ChecksumMismatchException e) {
+            assertEquals(imageIdentifier, e.getExpectedChecksum());
+            assertEquals("7cfdd07889b3295d6a550914ab35e068", e.getActualChecksum());
+        }
+    }
+
+    /**
+     * A download shorter than the original file size must fail
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testThrowsExceptionWhenADownloadIsShorterThanTheOriginalFileSize() throws IOException {
+        exception.expect(IOException.class);
+        exception.expectMessage("Incomplete download: expected 10 bytes, received 5");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 5 }, new org.apache.http.Header[] {
+                new BasicHeader("X-Imbo-OriginalFileSize", "10")
+            }));
+        }});
+
+        client.downloadImage(imageIdentifier, new ByteArrayOutputStream());
+    }
+
+    /**
+     * Compiled templates must be bound to the host serving the image
+     */
+    @Test
+    public void testCanBindTransformationTemplatesToImages() {
+        TransformationTemplate template = TransformationTemplate.compile(
+            TransformationTemplate.chain().thumbnail(200, 200, "outbound").compress(80).jpg()
+        );
+
+        assertEquals(
+            client.getImageUrl(imageIdentifier).thumbnail(200, 200, "outbound").compress(80).jpg().getUrl(),
+            client.getImageUrl(imageIdentifier, template)
+        );
+    }
+
+    /**
+     * Immutable image URLs must match the mutable ones
+     */
+    @Test
+    public void testCanGetImmutableImageUrls() {
+        assertEquals(
+            client.getImageUrl(imageIdentifier).thumbnail().jpg().getUrl(),
+            client.getImmutableImageUrl(imageIdentifier).thumbnail().jpg().getUrl()
+        );
+    }
+
+    /**
+     * Batches of URLs must match the URLs generated one by one, in parallel or not
+     */
+    @Test
+    public void testCanGenerateBatchesOfImageUrls() throws Exception {
+        List<String> imageIdentifiers = new ArrayList<String>();
+        for (int i = 0; i < 200; i++) {
+            imageIdentifiers.add(String.format("%032x", i * 7919));
+        }
+
+        List<TransformationTemplate> templates = new ArrayList<TransformationTemplate>();
+        for (int width = 320; width <= 1920; width += 320) {
+            templates.add(TransformationTemplate.compile(TransformationTemplate.chain().maxSize(width, 0).jpg()));
+        }
+
+        java.util.concurrent.ExecutorService executor = java.util.concurrent.Executors.newFixedThreadPool(4);
+
+        try {
+            String[][] sequential = client.getImageUrls(imageIdentifiers, templates);
+            String[][] parallel = client.getImageUrls(imageIdentifiers, templates, executor);
+
+            for (int i = 0; i < imageIdentifiers.size(); i++) {
+                for (int j = 0; j < templates.size(); j++) {
+                    String expected = client.getImageUrl(imageIdentifiers.get(i))
+                        .maxSize(320 * (j + 1), 0).jpg().getUrl();
+
+                    assertEquals(expected, sequential[i][j]);
+                    assertEquals(expected, parallel[i][j]);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Downloading to a file must only leave the file behind when it was verified
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testOnlyKeepsVerifiedDownloadsOnDisk() throws IOException {
+        final File file = File.createTempFile("imboclient-download", ".png");
+        file.delete();
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 5 }, new org.apache.http.Header[] {
+                new BasicHeader("ETag", "\"00000000000000000000000000000000\"")
+            }));
+
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 5 }, new org.apache.http.Header[] {
+                new BasicHeader("ETag", "\"7cfdd07889b3295d6a550914ab35e068\"")
+            }));
+        }});
+
+        try {
+            client.downloadImage(imageIdentifier, file);
+            fail("Expected a checksum mismatch");
+        } catch (ChecksumMismatchException e) {
+            assertFalse(file.exists());
+            assertFalse(new File(file.getPath() + ".part").exists());
+        }
+
+        client.downloadImage(imageIdentifier, file);
+
+        assertEquals(5, file.length());
+        assertFalse(new File(file.getPath() + ".part").exists());
+        file.delete();
+    }
+
+    /**
+     * Segmented downloads must request byte ranges and verify the file against the identifier
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testVerifiesSegmentedDownloadsAgainstTheImageIdentifier() throws IOException {
+        final File file = File.createTempFile("imboclient-download", ".png");
+        final ImboResponse head = new ImboResponse();
+        head.setStatusCode(200);
+        head.setHeaders(new org.apache.http.Header[] {
+            new BasicHeader("Content-Length", "5"),
+            new BasicHeader("Accept-Ranges", "bytes"),
+            new BasicHeader("X-Imbo-OriginalFileSize", "5")
+        });
+
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).head(with(any(Url.class)));
+            will(returnValue(head));
+
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 5 }, new org.apache.http.Header[0]));
+
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()), with(any(java.io.OutputStream.class)));
+            will(streamToOutput(new byte[] { 1, 2, 3, 4, 6 }, new org.apache.http.Header[0]));
+        }});
+
+        DownloadResult result = client.downloadImage("7cfdd07889b3295d6a550914ab35e068", file, 4);
+
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", result.getChecksum());
+        assertEquals(5, result.getSize());
+        assertSame(head, result.getResponse());
+        assertEquals(5, file.length());
+
+        try {
+            client.downloadImage("7cfdd07889b3295d6a550914ab35e068", file, 4);
+            fail("Expected a checksum mismatch");
+        } catch (ChecksumMismatchException e) {
+            assertFalse(new File(file.getPath() + ".part").exists());
+        }
+
+        file.delete();
+    }
+
     /**
      * The client must be able to add an in-memory image
      */
@@ -146,6 +484,62 @@ public class ImboClientTest extends TestCase {
         assertSame(response, client.addImage(imgBytes));
     }
     
+    /**
+     * The client must warm up the variants of an added image when a warmer is set
+     */
+    @Test
+    public void testWarmsUpVariantsOfAddedImages() throws Exception {
+        final byte[] imgBytes = { 1, 2, 3, 4, 5 };
+        final ImboResponse response = new ImboResponse();
+        response.setStatusCode(201);
+        response.setHeaders(new org.apache.http.Header[] {
+            new BasicHeader("X-Imbo-ImageIdentifier", "7cfdd07889b3295d6a550914ab35e068")
+        });
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
+            will(returnValue(response));
+            oneOf(httpClient).head(with(uriMatches(".*/images/7cfdd07889b3295d6a550914ab35e068\\.jpg\\?t\\[\\]=thumbnail.*")));
+        }});
+
+        VariantWarmer warmer = new VariantWarmer(client, Arrays.asList(
+            TransformationTemplate.compile(TransformationTemplate.chain().thumbnail().jpg())
+        ));
+        client.setVariantWarmer(warmer);
+
+        assertSame(response, client.addImage(imgBytes));
+
+        warmer.shutdown();
+        assertTrue(warmer.awaitTermination(5, TimeUnit.SECONDS));
+        assertEquals(1, warmer.getWarmedCount());
+    }
+
+    /**
+     * Meta data edits must be queued when a write queue is set, and written right away
+     * otherwise
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanEditMetadataBehindTheCaller() throws Exception {
+        final ImboResponse response = new ImboResponse();
+        
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+
+        Future<Response> direct = client.editMetadataLater(imageIdentifier, new JSONObject("{\"foo\":\"bar\"}"));
+        assertTrue(direct.isDone());
+        assertSame(response, direct.get());
+
+        MetadataWriteQueue queue = new MetadataWriteQueue(client).setDelay(10);
+        client.setMetadataWriteQueue(queue);
+
+        Future<Response> queued = client.editMetadataLater(imageIdentifier, new JSONObject("{\"foo\":\"bar\"}"));
+        assertSame(queued, client.editMetadataLater(imageIdentifier, new JSONObject("{\"bar\":\"foo\"}")));
+        assertSame(response, queued.get(5, TimeUnit.SECONDS));
+    }
+
     /**
      * The client must throw an exception when trying to add an empty in-memory image
      */
@@ -173,221 +567,765 @@ public class ImboClientTest extends TestCase {
     }
 
     /**
-     * The client must be able to fetch an image from an URL and add it
+     * The client must be able to fetch an image from an URL and add it
+     */
+    @Test
+    public void testReturnsResponseWhenAddingARemoteImage() throws URISyntaxException, IOException {
+        final Response getResponse = getResponseMock();
+        final ImboResponse postResponse = new ImboResponse();
+        final URI imageUrl = new URI("http://example.com/image.jpg");
+        final byte[] imgBytes = { 1, 2, 3, 4, 5 };
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(same(imageUrl)));
+            will(returnValue(getResponse));
+
+            oneOf(getResponse).getRawBody();
+            will(returnValue(imgBytes));
+
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
+            will(returnValue(postResponse));
+        }});
+
+        assertSame(postResponse, client.addImageFromUrl(imageUrl));
+    }
+    
+    /**
+     * The client must throw an exception when trying to add an empty remote image
+     */
+    @Test
+    public void testThrowsExceptionWhenTryingToAddEmptyRemoteImage() throws URISyntaxException, IOException {
+        final byte[] imgBytes = { };
+        final Response getResponse = getResponseMock();
+        final Response putResponse = getResponseMock();
+        final URI url = new URI("http://example.com/image.jpg");
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(same(url)));
+            will(returnValue(getResponse));
+
+            oneOf(getResponse).getRawBody();
+            will(returnValue(imgBytes));
+
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
+            will(returnValue(putResponse));
+        }});
+        
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Byte array is empty");
+
+        client.addImageFromUrl(url);
+    }
+    
+    /**
+     * The client must return a valid response after deleting a remote image
+     */
+    @Test
+    public void testReturnsResponseAfterDeletingAnImage() throws IOException {
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).delete(with(any(URI.class)));
+            will(returnValue(response));
+        }});
+        
+        assertSame(response, client.deleteImage(imageIdentifier));
+    }
+    
+    /**
+     * The client must return a valid response after editing metadata
+     * 
+     * @throws IOException
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReturnsResponseAfterEditingMetadata() throws IOException, JSONException {
+        final String metadata = "{\"foo\":\"bar\",\"bar\":\"foo\"}";
+        
+        final Response response = getResponseMock();
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(equal(metadata)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+
+        assertSame(response, this.client.editMetadata(this.imageIdentifier, new JSONObject(metadata)));
+    }
+
+    /**
+     * The client must return a valid response after having replaced metadata
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testReturnsResponseAfterReplacingMetadata() throws IOException, JSONException {
+        final String metadata = "{\"foo\":\"bar\",\"bar\":\"foo\"}";
+        
+        final Response response = getResponseMock();
+        context.checking(new Expectations() {{
+            oneOf(httpClient).put(with(uriMatches(signedUrlPattern)), with(equal(metadata)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+
+        assertSame(response, this.client.replaceMetadata(this.imageIdentifier, new JSONObject(metadata)));
+    }
+
+    /**
+     * The client must return a valid response after having deleted metadata
+     * 
+     * @throws IOException 
+     */
+    @Test
+    public void testReturnsResponseAfterDeletingMetadata() throws IOException {
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).delete(with(uriMatches(signedUrlPattern)));
+            will(returnValue(response));
+        }});
+
+        assertSame(response, this.client.deleteMetadata(this.imageIdentifier));
+    }
+
+    /**
+     * The client must return metadata as an array when fetching metadata
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @Test
+    public void testReturnsJsonObjectWithMetadataWhenFetchingMetadata() throws IOException, JSONException {
+        final String responseBody = "{\"foo\":\"bar\"}";
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(Url.class)));
+            will(returnValue(response));
+            
+            oneOf(response).getBody();
+            will(returnValue(responseBody));
+            
+        }});
+
+        assertEquals(
+            (new JSONObject(responseBody)).toString(),
+            this.client.getMetadata(this.imageIdentifier).toString()
+        );
+    }
+
+    /**
+     * The client must be able to fetch meta data for a set of images, reporting failures per image
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @Test
+    public void testCanFetchMetadataForASetOfImages() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        final String missing = "ff" + this.imageIdentifier.substring(2);
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(uriMatches(".*/images\\.json\\?.*metadata=1.*")));
+            will(returnValue(response));
+            
+            oneOf(response).getBody();
+            will(returnValue("{\"search\":{\"hits\":1,\"count\":1,\"page\":1,\"limit\":2},\"images\":[{\"imageIdentifier\":\"" + imageIdentifier + "\",\"metadata\":{\"foo\":\"bar\"}}]}"));
+            
+            oneOf(httpClient).get(with(urlMatches(".*/" + missing + "/meta\\.json.*")));
+            will(throwException(new ServerException("Image not found", 404)));
+        }});
+        
+        client.setBulkConcurrency(2);
+        Map<String, BulkResult<JSONObject>> results = client.getMetadata(Arrays.asList(imageIdentifier, missing));
+        
+        assertEquals(2, results.size());
+        assertTrue(results.get(imageIdentifier).isSuccess());
+        assertEquals("bar", results.get(imageIdentifier).getValue().getString("foo"));
+        assertFalse(results.get(missing).isSuccess());
+        assertEquals(404, ((ServerException) results.get(missing).getException()).getErrorCode());
+    }
+
+    /**
+     * Meta data for a set of images must be listed in chunks, only fetching the images the
+     * listings leave out one by one
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @Test
+    public void testListsMetadataForASetOfImagesInChunks() throws IOException, JSONException {
+        final List<String> fetched = Collections.synchronizedList(new ArrayList<String>());
+        CatalogClientStub stub = new CatalogClientStub() {
+            @Override
+            public JSONObject getMetadata(String imageIdentifier) throws JSONException, IOException {
+                fetched.add(imageIdentifier);
+                return new JSONObject().put("fetched", true);
+            }
+        };
+
+        stub.setHttpClient(httpClient);
+        stub.setExistenceChunkSize(2);
+        stub.addImage("aa", 1000L, 1000L);
+        stub.addImage("bb", 2000L, 2000L);
+        stub.setMetadata("aa", new JSONObject().put("foo", "a"));
+        stub.setMetadata("bb", new JSONObject().put("foo", "b"));
+
+        Map<String, BulkResult<JSONObject>> results = stub.getMetadata(Arrays.asList("aa", "bb", "cc"));
+
+        assertEquals(Arrays.asList("aa", "bb", "cc"), new ArrayList<String>(results.keySet()));
+        assertEquals("a", results.get("aa").getValue().getString("foo"));
+        assertEquals("b", results.get("bb").getValue().getString("foo"));
+        assertTrue(results.get("cc").getValue().getBoolean("fetched"));
+        assertEquals(Arrays.asList("cc"), fetched);
+
+        assertEquals(2, stub.getQueries().size());
+        assertEquals(Arrays.asList("aa", "bb"), stub.getQueries().get(0).ids());
+        assertTrue(stub.getQueries().get(0).returnMetadata());
+    }
+
+    /**
+     * The client must be able to edit meta data for a set of images
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanEditMetadataForASetOfImages() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        final Map<String, JSONObject> metadata = new LinkedHashMap<String, JSONObject>();
+        for (int i = 0; i < 10; i++) {
+            metadata.put(i + this.imageIdentifier.substring(1), new JSONObject("{\"foo\":" + i + "}"));
+        }
+        
+        context.checking(new Expectations() {{
+            exactly(10).of(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+        
+        Map<String, BulkResult<Response>> results = client.editMetadata(metadata);
+        
+        assertEquals(10, results.size());
+        for (BulkResult<Response> result : results.values()) {
+            assertSame(response, result.getValue());
+        }
+    }
+
+    /**
+     * The client must be able to replace meta data for a set of images
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testCanReplaceMetadataForASetOfImages() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        final Map<String, JSONObject> metadata = new LinkedHashMap<String, JSONObject>();
+        metadata.put(this.imageIdentifier, new JSONObject("{\"foo\":\"bar\"}"));
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).put(with(uriMatches(signedUrlPattern)), with(equal("{\"foo\":\"bar\"}")), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+        
+        assertSame(response, client.replaceMetadata(metadata).get(this.imageIdentifier).getValue());
+    }
+
+    /**
+     * The client must not accept a bulk concurrency below 1
+     */
+    @Test
+    public void testThrowsExceptionWhenSettingInvalidBulkConcurrency() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Concurrency must be at least 1");
+        
+        client.setBulkConcurrency(0);
+    }
+
+    /**
+     * When a response cache is set, unchanged meta data must be revalidated and served from the cache
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRevalidatesMetadataUsingConditionalRequestsWhenAResponseCacheIsSet() throws IOException, JSONException {
+        final Response first = getResponseMock();
+        final Response second = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(empty()));
+            will(returnValue(first));
+            
+            allowing(first).isNotModified();
+            will(returnValue(false));
+            
+            allowing(first).getRawBody();
+            will(returnValue(null));
+            
+            allowing(first).getBody();
+            will(returnValue("{\"foo\":\"bar\"}"));
+            
+            allowing(first).getETag();
+            will(returnValue("\"etag\""));
+            
+            allowing(first).getLastModified();
+            will(returnValue(null));
+            
+            oneOf(httpClient).get(with(any(URI.class)), with(hasIfNoneMatch("\"etag\"")));
+            will(returnValue(second));
+            
+            allowing(second).isNotModified();
+            will(returnValue(true));
+        }});
+        
+        ResponseCache cache = new ResponseCache(1024);
+        client.setResponseCache(cache);
+        
+        assertEquals("bar", this.client.getMetadata(this.imageIdentifier).getString("foo"));
+        assertEquals("bar", this.client.getMetadata(this.imageIdentifier).getString("foo"));
+        assertEquals(1, cache.getStats().getRevalidationCount());
+    }
+
+    /**
+     * Writing meta data through the client must drop it from a response cache serving fresh
+     * entries without revalidating
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testDropsWrittenMetadataFromTheResponseCache() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            exactly(4).of(httpClient).get(with(uriMatches(".*/meta\\.json.*")), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+            
+            allowing(response).isNotModified();
+            will(returnValue(false));
+            
+            allowing(response).getRawBody();
+            will(returnValue(null));
+            
+            allowing(response).getBody();
+            will(returnValue("{\"foo\":\"bar\"}"));
+            
+            allowing(response).getETag();
+            will(returnValue(null));
+            
+            allowing(response).getLastModified();
+            will(returnValue(null));
+            
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+            
+            oneOf(httpClient).put(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+            
+            oneOf(httpClient).delete(with(uriMatches(signedUrlPattern)));
+            will(returnValue(response));
+        }});
+        
+        client.setResponseCache(new ResponseCache(1024).setMaxAge(1, TimeUnit.MINUTES));
+        
+        client.getMetadata(this.imageIdentifier);
+        client.getMetadata(this.imageIdentifier);
+        client.editMetadata(this.imageIdentifier, new JSONObject("{\"bar\":\"foo\"}"));
+        client.getMetadata(this.imageIdentifier);
+        client.replaceMetadata(this.imageIdentifier, new JSONObject("{\"bar\":\"foo\"}"));
+        client.getMetadata(this.imageIdentifier);
+        client.deleteMetadata(this.imageIdentifier);
+        client.getMetadata(this.imageIdentifier);
+    }
+
+    /**
+     * When a meta data cache is set, repeated reads must be served from memory until the meta
+     * data is edited through the client
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testServesMetadataFromTheMetadataCacheUntilEdited() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            exactly(2).of(httpClient).get(with(any(Url.class)));
+            will(returnValue(response));
+            
+            exactly(2).of(response).getBody();
+            will(returnValue("{\"foo\":\"bar\"}"));
+            
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+        
+        MetadataCache cache = new MetadataCache();
+        client.setMetadataCache(cache);
+        
+        client.getMetadata(this.imageIdentifier);
+        client.getMetadata(this.imageIdentifier);
+        client.editMetadata(this.imageIdentifier, new JSONObject("{\"bar\":\"foo\"}"));
+        client.getMetadata(this.imageIdentifier);
+        
+        assertEquals(1, cache.getStats().getHitCount());
+        assertEquals(2, cache.getStats().getMissCount());
+    }
+
+    /**
+     * Meta data fetched while it is invalidated by a write must not be cached
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @Test
+    public void testDoesNotCacheMetadataInvalidatedWhileFetching() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        final MetadataCache cache = new MetadataCache();
+        client.setMetadataCache(cache);
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(Url.class)));
+            will(new org.jmock.lib.action.CustomAction("invalidate while in flight") {
+                public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+                    // A write of the meta data completing before the response arrives
+                    cache.invalidate(imageIdentifier);
+                    return response;
+                }
+            });
+            
+            oneOf(response).getBody();
+            will(returnValue("{\"foo\":\"stale\"}"));
+        }});
+        
+        assertEquals("stale", client.getMetadata(this.imageIdentifier).getString("foo"));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * Replacing meta data through the client must store the new meta data in the meta data cache
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testStoresReplacedMetadataInTheMetadataCache() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).put(with(uriMatches(signedUrlPattern)), with(any(String.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+        }});
+        
+        client.setMetadataCache(new MetadataCache());
+        client.replaceMetadata(this.imageIdentifier, new JSONObject("{\"foo\":\"bar\"}"));
+        
+        assertEquals("bar", client.getMetadata(this.imageIdentifier).getString("foo"));
+    }
+
+    /**
+     * The client must return a valid response after requesting an image using HEAD
+     * 
+     * @throws IOException 
      */
     @Test
-    public void testReturnsResponseWhenAddingARemoteImage() throws URISyntaxException, IOException {
-        final Response getResponse = getResponseMock();
-        final ImboResponse postResponse = new ImboResponse();
-        final URI imageUrl = new URI("http://example.com/image.jpg");
-        final byte[] imgBytes = { 1, 2, 3, 4, 5 };
+    public void testReturnsResponseAfterRequestingImageUsingHttpHead() throws IOException {
+        final Response response = getResponseMock();
 
         context.checking(new Expectations() {{
-            oneOf(httpClient).get(with(same(imageUrl)));
-            will(returnValue(getResponse));
-
-            oneOf(getResponse).getRawBody();
-            will(returnValue(imgBytes));
-
-            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
-            will(returnValue(postResponse));
+            oneOf(httpClient).head(with(any(Url.class)));
+            will(returnValue(response));
         }});
 
-        assertSame(postResponse, client.addImageFromUrl(imageUrl));
+        assertSame(response, this.client.headImage(this.imageIdentifier));
     }
-    
+
     /**
-     * The client must throw an exception when trying to add an empty remote image
+     * With request coalescing enabled, concurrent HEAD requests for the same image must share a
+     * single request
+     * 
+     * @throws Exception 
      */
     @Test
-    public void testThrowsExceptionWhenTryingToAddEmptyRemoteImage() throws URISyntaxException, IOException {
-        final byte[] imgBytes = { };
-        final Response getResponse = getResponseMock();
-        final Response putResponse = getResponseMock();
-        final URI url = new URI("http://example.com/image.jpg");
+    public void testCoalescesConcurrentHeadRequestsForTheSameImage() throws Exception {
+        final Response response = getResponseMock();
+        final Response[] results = new Response[3];
+        
+        client.setRequestCoalescing(true);
         
         context.checking(new Expectations() {{
-            oneOf(httpClient).get(with(same(url)));
-            will(returnValue(getResponse));
-
-            oneOf(getResponse).getRawBody();
-            will(returnValue(imgBytes));
-
-            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
-            will(returnValue(putResponse));
+            oneOf(httpClient).head(with(any(Url.class)));
+            will(new org.jmock.lib.action.CustomAction("wait for other callers") {
+                public Object invoke(org.jmock.api.Invocation invocation) throws Throwable {
+                    long deadline = System.currentTimeMillis() + 5000;
+                    while (client.getCoalescedRequestCount() < results.length - 1 && System.currentTimeMillis() < deadline) {
+                        Thread.sleep(1);
+                    }
+                    
+                    return response;
+                }
+            });
         }});
         
-        exception.expect(IllegalArgumentException.class);
-        exception.expectMessage("Byte array is empty");
-
-        client.addImageFromUrl(url);
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        results[index] = client.headImage(imageIdentifier);
+                    } catch (IOException e) {
+                        // Asserted on below
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        
+        for (Response result : results) {
+            assertSame(response, result);
+        }
+        
+        assertEquals(results.length - 1, client.getCoalescedRequestCount());
     }
-    
+
     /**
-     * The client must return a valid response after deleting a remote image
+     * When checking if an image identifier exists on the server and it does not,
+     * the client must return false
+     * 
+     * @throws IOException 
      */
     @Test
-    public void testReturnsResponseAfterDeletingAnImage() throws IOException {
-        final Response response = getResponseMock();
-        
+    public void testReturnsFalseWhenCheckingIfARemoteImageIdentifierExistsAndTheImageDoesNotExist() throws IOException {
         context.checking(new Expectations() {{
-            oneOf(httpClient).delete(with(any(URI.class)));
-            will(returnValue(response));
+            oneOf(httpClient).head(with(any(Url.class)));
+            will(throwException(new ServerException("Image does not exist", 404)));
         }});
-        
-        assertSame(response, client.deleteImage(imageIdentifier));
+
+        assertFalse(this.client.imageIdentifierExists(this.imageIdentifier));
     }
-    
+
     /**
-     * The client must return a valid response after editing metadata
+     * When checking if an image identifier exists on the server and it does,
+     * the client must return true
      * 
-     * @throws IOException
-     * @throws JSONException 
+     * @throws IOException 
      */
-    @SuppressWarnings("unchecked")
     @Test
-    public void testReturnsResponseAfterEditingMetadata() throws IOException, JSONException {
-        final String metadata = "{\"foo\":\"bar\",\"bar\":\"foo\"}";
-        
+    public void testReturnsTrueWhenCheckingIfARemoteImageIdentifierExistsAndTheImageExists() throws IOException {
         final Response response = getResponseMock();
+
         context.checking(new Expectations() {{
-            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(equal(metadata)), (List<org.apache.http.Header>) with(anything()));
+            oneOf(httpClient).head(with(any(Url.class)));
             will(returnValue(response));
         }});
 
-        assertSame(response, this.client.editMetadata(this.imageIdentifier, new JSONObject(metadata)));
+        assertTrue(this.client.imageIdentifierExists(this.imageIdentifier));
     }
 
     /**
-     * The client must return a valid response after having replaced metadata
+     * If the server responds with an error other than 404 the client must re-throw the exception
      * 
      * @throws IOException 
-     * @throws JSONException 
      */
-    @SuppressWarnings("unchecked")
     @Test
-    public void testReturnsResponseAfterReplacingMetadata() throws IOException, JSONException {
-        final String metadata = "{\"foo\":\"bar\",\"bar\":\"foo\"}";
+    public void testThrowsExceptionWhenCheckingIfAnImageIdentifierExistsAndTheServerRespondsWithAnErrorOtherThan404() throws IOException {
+        exception.expect(ServerException.class);
+        exception.expectMessage("Internal Server Error");
         
-        final Response response = getResponseMock();
         context.checking(new Expectations() {{
-            oneOf(httpClient).put(with(uriMatches(signedUrlPattern)), with(equal(metadata)), (List<org.apache.http.Header>) with(anything()));
-            will(returnValue(response));
+            oneOf(httpClient).head(with(any(Url.class)));
+            will(throwException(new ServerException("Internal Server Error", 500)));
         }});
 
-        assertSame(response, this.client.replaceMetadata(this.imageIdentifier, new JSONObject(metadata)));
+        this.client.imageIdentifierExists(this.imageIdentifier);
     }
 
     /**
-     * The client must return a valid response after having deleted metadata
+     * When checking if an image with a given checksum exists, the client must
+     * return false if the listing is empty
      * 
      * @throws IOException 
      */
     @Test
-    public void testReturnsResponseAfterDeletingMetadata() throws IOException {
+    public void testReturnsFalseWhenCheckingIfAChecksumExistsAndNoImageMatches() throws IOException {
         final Response response = getResponseMock();
-        
+
         context.checking(new Expectations() {{
-            oneOf(httpClient).delete(with(uriMatches(signedUrlPattern)));
+            oneOf(httpClient).get(with(uriMatches(".*?checksums\\[\\]=checksum1.*")));
             will(returnValue(response));
+
+            oneOf(response).getBody();
+            will(returnValue("{\"images\":[],\"search\":{\"hits\":0,\"count\":0,\"page\":1,\"limit\":1}}"));
         }});
 
-        assertSame(response, this.client.deleteMetadata(this.imageIdentifier));
+        assertFalse(this.client.imageWithChecksumExists("checksum1"));
     }
 
     /**
-     * The client must return metadata as an array when fetching metadata
+     * When checking if an image with a given checksum exists, the client must
+     * return true if the listing contains an image
      * 
      * @throws IOException 
-     * @throws JSONException 
      */
     @Test
-    public void testReturnsJsonObjectWithMetadataWhenFetchingMetadata() throws IOException, JSONException {
-        final String responseBody = "{\"foo\":\"bar\"}";
+    public void testReturnsTrueWhenCheckingIfAChecksumExistsAndAnImageMatches() throws IOException {
         final Response response = getResponseMock();
-        
+
         context.checking(new Expectations() {{
-            oneOf(httpClient).get(with(any(Url.class)));
+            oneOf(httpClient).get(with(any(URI.class)));
             will(returnValue(response));
-            
+
             oneOf(response).getBody();
-            will(returnValue(responseBody));
-            
+            will(returnValue(getImagesResponse(1, 1)));
         }});
 
-        assertEquals(
-            (new JSONObject(responseBody)).toString(),
-            this.client.getMetadata(this.imageIdentifier).toString()
-        );
+        assertTrue(this.client.imageWithChecksumExists("52116c74f6fba61bbc30c225d292d647"));
     }
 
     /**
-     * The client must return a valid response after requesting an image using HEAD
+     * An invalid listing must surface as an exception when checking for a checksum
      * 
      * @throws IOException 
      */
     @Test
-    public void testReturnsResponseAfterRequestingImageUsingHttpHead() throws IOException {
+    public void testThrowsExceptionWhenCheckingIfAChecksumExistsAndTheResponseIsInvalid() throws IOException {
+        exception.expect(IOException.class);
+        exception.expectMessage("Invalid images response from server");
+
         final Response response = getResponseMock();
 
         context.checking(new Expectations() {{
-            oneOf(httpClient).head(with(any(Url.class)));
+            oneOf(httpClient).get(with(any(URI.class)));
             will(returnValue(response));
+
+            oneOf(response).getBody();
+            will(returnValue("not json"));
         }});
 
-        assertSame(response, this.client.headImage(this.imageIdentifier));
+        this.client.imageWithChecksumExists("checksum1");
     }
 
     /**
-     * When checking if an image identifier exists on the server and it does not,
-     * the client must return false
+     * A checksum ruled out by the local index must not be looked up on the server
      * 
      * @throws IOException 
      */
     @Test
-    public void testReturnsFalseWhenCheckingIfARemoteImageIdentifierExistsAndTheImageDoesNotExist() throws IOException {
-        context.checking(new Expectations() {{
-            oneOf(httpClient).head(with(any(Url.class)));
-            will(throwException(new ServerException("Image does not exist", 404)));
-        }});
+    public void testDoesNotAskTheServerForChecksumsRuledOutByTheIndex() throws IOException {
+        this.client.setChecksumIndex(new ChecksumIndex(100, 0.01));
 
-        assertFalse(this.client.imageIdentifierExists(this.imageIdentifier));
+        assertFalse(this.client.imageWithChecksumExists("52116c74f6fba61bbc30c225d292d647"));
+        assertTrue(this.client.findExistingChecksums(Arrays.asList("52116c74f6fba61bbc30c225d292d647")).isEmpty());
     }
 
     /**
-     * When checking if an image identifier exists on the server and it does,
-     * the client must return true
+     * Images added through the client must be added to the local index, so
+     * lookups for them go to the server
      * 
      * @throws IOException 
      */
     @Test
-    public void testReturnsTrueWhenCheckingIfARemoteImageIdentifierExistsAndTheImageExists() throws IOException {
+    public void testAddsUploadedImagesToTheChecksumIndex() throws IOException {
+        final byte[] imgBytes = { 1, 2, 3, 4, 5 };
         final Response response = getResponseMock();
+        ChecksumIndex index = new ChecksumIndex(100, 0.01);
+        this.client.setChecksumIndex(index);
 
         context.checking(new Expectations() {{
-            oneOf(httpClient).head(with(any(Url.class)));
+            oneOf(httpClient).post(with(uriMatches(signedUrlPattern)), with(any(ByteArrayInputStream.class)));
+            will(returnValue(response));
+
+            oneOf(httpClient).get(with(uriMatches(".*?checksums\\[\\]=7cfdd07889b3295d6a550914ab35e068.*")));
             will(returnValue(response));
+
+            oneOf(response).getBody();
+            will(returnValue(getImagesResponse(1, 1)));
         }});
 
-        assertTrue(this.client.imageIdentifierExists(this.imageIdentifier));
+        this.client.addImage(imgBytes);
+
+        assertTrue(index.mightContain("7cfdd07889b3295d6a550914ab35e068"));
+        assertTrue(this.client.imageWithChecksumExists("7cfdd07889b3295d6a550914ab35e068"));
     }
 
     /**
-     * If the server responds with an error other than 404 the client must re-throw the exception
+     * The client must check many image identifiers using chunked, projected listings
      * 
      * @throws IOException 
      */
     @Test
-    public void testThrowsExceptionWhenCheckingIfAnImageIdentifierExistsAndTheServerRespondsWithAnErrorOtherThan404() throws IOException {
+    public void testCanFindExistingImageIdentifiersInChunks() throws IOException {
+        CatalogClientStub stub = new CatalogClientStub();
+        stub.setExistenceChunkSize(100);
+
+        List<String> identifiers = new ArrayList<String>();
+        Set<String> expected = new HashSet<String>();
+        for (int i = 0; i < 250; i++) {
+            identifiers.add("image" + i);
+
+            if (i % 2 == 0) {
+                stub.addImage("image" + i, i * 1000L, i * 1000L);
+                expected.add("image" + i);
+            }
+        }
+
+        assertEquals(expected, stub.findExistingImageIdentifiers(identifiers));
+        assertEquals(3, stub.getQueries().size());
+
+        for (Query query : stub.getQueries()) {
+            assertEquals(Arrays.asList("imageIdentifier", "checksum"), query.fields());
+            assertTrue(query.ids().size() <= 100);
+        }
+    }
+
+    /**
+     * The client must check many checksums using chunked listings
+     * 
+     * @throws IOException 
+     */
+    @Test
+    public void testCanFindExistingChecksumsInChunks() throws IOException {
+        CatalogClientStub stub = new CatalogClientStub();
+        stub.setExistenceChunkSize(2);
+        stub.addImage("checksum1", 1000L, 1000L);
+        stub.addImage("checksum3", 3000L, 3000L);
+
+        Set<String> existing = stub.findExistingChecksums(Arrays.asList("checksum1", "checksum2", "checksum3"));
+
+        assertEquals(new HashSet<String>(Arrays.asList("checksum1", "checksum3")), existing);
+        assertEquals(2, stub.getQueries().size());
+        assertEquals(Arrays.asList("checksum1", "checksum2"), stub.getQueries().get(0).checksums());
+    }
+
+    /**
+     * A failing chunk must fail the whole existence check
+     * 
+     * @throws IOException 
+     */
+    @Test
+    public void testThrowsExceptionWhenAnExistenceCheckChunkFails() throws IOException {
         exception.expect(ServerException.class);
         exception.expectMessage("Internal Server Error");
-        
+
         context.checking(new Expectations() {{
-            oneOf(httpClient).head(with(any(Url.class)));
+            allowing(httpClient).get(with(any(URI.class)));
             will(throwException(new ServerException("Internal Server Error", 500)));
         }});
 
-        this.client.imageIdentifierExists(this.imageIdentifier);
+        this.client.findExistingImageIdentifiers(Arrays.asList("id1", "id2"));
     }
 
     /**
@@ -650,6 +1588,35 @@ public class ImboClientTest extends TestCase {
         assertEquals(5, imagesResponse.getImages().size());
     }
 
+    /**
+     * The client must send list filters and field projections as repeated query parameters
+     * 
+     * @throws IOException 
+     * @throws JSONException 
+     */
+    @Test
+    public void testSendsListFiltersAndFieldsWhenFetchingImages() throws IOException, JSONException {
+        final Response response = getResponseMock();
+        final Query query = new Query();
+        query.limit(5);
+        query.page(3);
+        query.addId("id1");
+        query.addId("id2");
+        query.addField("imageIdentifier");
+        query.addField("checksum");
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(uriMatches(".*?limit=5&page=3&ids\\[\\]=id1&ids\\[\\]=id2&fields\\[\\]=imageIdentifier&fields\\[\\]=checksum&accessToken=.*")));
+            will(returnValue(response));
+            
+            oneOf(response).getBody();
+            will(returnValue(getImagesResponse(query.limit(), query.page())));
+        }});
+        
+        ImagesResponse imagesResponse = this.client.getImages(query);
+        assertEquals(5, imagesResponse.getImages().size());
+    }
+
     /**
      * The client must be able to return the binary image data from a remote image using an image identifier
      * 
@@ -695,6 +1662,68 @@ public class ImboClientTest extends TestCase {
         ));
     }
 
+    /**
+     * When an image data cache is set, repeated fetches of the same URL must only hit the server once
+     * 
+     * @throws IOException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testServesRepeatedImageDataFetchesFromTheCache() throws IOException {
+        final byte[] expectedData = new byte[] { 1, 2, 3, 4, 5 };
+        final Response response = getResponseMock();
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(any(URI.class)), (List<org.apache.http.Header>) with(anything()));
+            will(returnValue(response));
+            
+            allowing(response).isNotModified();
+            will(returnValue(false));
+            
+            allowing(response).getETag();
+            will(returnValue(null));
+            
+            allowing(response).getLastModified();
+            will(returnValue(null));
+            
+            oneOf(response).getRawBody();
+            will(returnValue(expectedData));
+        }});
+        
+        client.setImageDataCache(new ImageDataCache(1024));
+        
+        assertSame(expectedData, this.client.getImageData(this.imageIdentifier));
+        assertSame(expectedData, this.client.getImageData(this.imageIdentifier));
+    }
+
+    /**
+     * Stale cached image data must be revalidated using a conditional request
+     * 
+     * @throws IOException 
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testRevalidatesStaleCachedImageDataUsingAConditionalRequest() throws IOException {
+        final byte[] cachedData = new byte[] { 1, 2, 3, 4, 5 };
+        final Response response = getResponseMock();
+        final URI url = this.client.getImageUrl(this.imageIdentifier).toUri();
+        
+        ImageDataCache cache = new ImageDataCache(1024);
+        cache.put(url.toString(), new CacheEntry(cachedData, "\"etag\"", null, 0));
+        client.setImageDataCache(cache);
+        
+        context.checking(new Expectations() {{
+            oneOf(httpClient).get(with(equal(url)), with(hasIfNoneMatch("\"etag\"")));
+            will(returnValue(response));
+            
+            allowing(response).isNotModified();
+            will(returnValue(true));
+        }});
+        
+        assertSame(cachedData, this.client.getImageData(url));
+        assertEquals(1, cache.getStats().getRevalidationCount());
+    }
+
     /**
      * The client must be able to parse different URLs
      */
@@ -1037,6 +2066,36 @@ public class ImboClientTest extends TestCase {
         return UriMatches(regex);
     }
 
+    protected static <T> org.hamcrest.Matcher<Url> urlMatches(final String regex) {
+        return new org.hamcrest.TypeSafeMatcher<Url>() {
+            public void describeTo(org.hamcrest.Description description) {
+                description.appendText("URL matching " + regex);
+            }
+
+            protected boolean matchesSafely(Url url) {
+                return url.toString().matches(regex);
+            }
+        };
+    }
+
+    protected static org.hamcrest.Matcher<List<org.apache.http.Header>> hasIfNoneMatch(final String etag) {
+        return new org.hamcrest.TypeSafeMatcher<List<org.apache.http.Header>>() {
+            public void describeTo(org.hamcrest.Description description) {
+                description.appendText("headers containing If-None-Match: " + etag);
+            }
+
+            protected boolean matchesSafely(List<org.apache.http.Header> headers) {
+                for (org.apache.http.Header header : headers) {
+                    if (header.getName().equals("If-None-Match") && header.getValue().equals(etag)) {
+                        return true;
+                    }
+                }
+
+                return false;
+            }
+        };
+    }
+
     protected Response getResponseMock() {
         return context.mock(Response.class, "response" + (++mockCount));
     }
@@ -0,0 +1,58 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Outbox;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.ByteArrayInputStream;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Outbox entry test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class OutboxEntryTest {
+
+    /**
+     * Entries must read back the way they were written
+     */
+    @Test
+    public void testCanBeReadBackAfterSerializing() throws Exception {
+        OutboxEntry entry = OutboxEntry.addImage(new byte[] {1, 2, 3, 4, 5});
+        OutboxEntry read = OutboxEntry.fromStream(new ByteArrayInputStream(entry.toBytes()));
+
+        assertEquals(OutboxEntry.ADD_IMAGE, read.getType());
+        assertEquals("add:7cfdd07889b3295d6a550914ab35e068", read.getKey());
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", read.getImageIdentifier());
+        assertArrayEquals(new byte[] {1, 2, 3, 4, 5}, read.getData());
+    }
+
+    /**
+     * Keys must be derived from the operation, so equal operations share a key
+     */
+    @Test
+    public void testDerivesKeysFromTheOperation() throws Exception {
+        String id = "23d7f91b25f3013fcc75ce070c40e004";
+
+        assertEquals(
+            OutboxEntry.editMetadata(id, new JSONObject("{\"tag\":\"cat\"}")).getKey(),
+            OutboxEntry.editMetadata(id, new JSONObject("{\"tag\":\"cat\"}")).getKey()
+        );
+        assertFalse(
+            OutboxEntry.editMetadata(id, new JSONObject("{\"tag\":\"cat\"}")).getKey().equals(
+            OutboxEntry.editMetadata(id, new JSONObject("{\"tag\":\"dog\"}")).getKey())
+        );
+    }
+
+}
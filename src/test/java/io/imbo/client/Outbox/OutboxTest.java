@@ -0,0 +1,299 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Outbox;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import io.imbo.client.ImboClient;
+import io.imbo.client.ServerException;
+import io.imbo.client.Http.HttpClient;
+import io.imbo.client.Http.ImboResponse;
+import io.imbo.client.util.TempFiles;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.jmock.Expectations;
+import org.jmock.Sequence;
+import org.jmock.integration.junit4.JUnitRuleMockery;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+/**
+ * Outbox test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class OutboxTest {
+
+    @Rule
+    public JUnitRuleMockery context = new JUnitRuleMockery();
+
+    private HttpClient httpClient = context.mock(HttpClient.class);
+    private ImboClient client;
+    private File directory;
+    private Outbox outbox;
+    private String imageIdentifier = "23d7f91b25f3013fcc75ce070c40e004";
+
+    @Before
+    public void setUp() throws IOException {
+        client = new ImboClient("http://host", "key", "private");
+        client.setHttpClient(httpClient);
+
+        directory = TempFiles.createDirectory("imboclient-outbox");
+        outbox = new Outbox(client, directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        outbox.close();
+        TempFiles.delete(directory);
+    }
+
+    /**
+     * Operations not yet replayed must survive closing and opening the outbox
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testKeepsPendingOperationsAcrossRestarts() throws Exception {
+        final Sequence replay = context.sequence("replay");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with(any(InputStream.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything())); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+        }});
+
+        outbox.addImage(new byte[] {1, 2, 3, 4, 5});
+        outbox.editMetadata(imageIdentifier, new JSONObject("{\"tag\":\"cat\"}"));
+        outbox.close();
+
+        outbox = new Outbox(client, directory);
+        assertEquals(2, outbox.getPendingCount());
+        assertEquals(2, outbox.replay());
+        assertEquals(0, outbox.getPendingCount());
+        assertEquals(2, outbox.getReplayedCount());
+    }
+
+    /**
+     * Appending an operation already pending must not store it again
+     */
+    @Test
+    public void testIgnoresOperationsAlreadyPending() throws Exception {
+        String key = outbox.deleteImage(imageIdentifier);
+
+        assertFalse(outbox.append(OutboxEntry.deleteImage(imageIdentifier)));
+        assertEquals("delete:" + imageIdentifier, key);
+        assertTrue(outbox.isPending(key));
+        assertEquals(1, outbox.getPendingCount());
+    }
+
+    /**
+     * Adding an image again after deleting it must not be dropped as a duplicate
+     */
+    @Test
+    public void testKeepsAddingAnImageAgainAfterDeletingIt() throws Exception {
+        final Sequence replay = context.sequence("replay");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with(any(InputStream.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).delete(with(any(URI.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).post(with(any(URI.class)), with(any(InputStream.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+        }});
+
+        byte[] image = new byte[] {1, 2, 3, 4, 5};
+        outbox.addImage(image);
+        outbox.deleteImage("7cfdd07889b3295d6a550914ab35e068");
+        outbox.addImage(image);
+
+        assertEquals(3, outbox.getPendingCount());
+        assertEquals(3, outbox.replay());
+    }
+
+    /**
+     * Setting meta data back to an earlier value must not be dropped as a duplicate
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testKeepsEditsRevertingAnEarlierEdit() throws Exception {
+        final Sequence replay = context.sequence("replay");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with("{\"x\":1}"), (List<Header>) with(anything())); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).post(with(any(URI.class)), with("{\"x\":2}"), (List<Header>) with(anything())); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).post(with(any(URI.class)), with("{\"x\":1}"), (List<Header>) with(anything())); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+        }});
+
+        outbox.editMetadata(imageIdentifier, new JSONObject("{\"x\":1}"));
+        outbox.editMetadata(imageIdentifier, new JSONObject("{\"x\":2}"));
+        outbox.editMetadata(imageIdentifier, new JSONObject("{\"x\":1}"));
+
+        // Repeating the last edit is still a duplicate
+        assertFalse(outbox.append(OutboxEntry.editMetadata(imageIdentifier, new JSONObject("{\"x\":1}"))));
+        assertEquals(3, outbox.getPendingCount());
+        assertEquals(3, outbox.replay());
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    /**
+     * Replay must stop at the first operation the server is unable to take, and resume there
+     */
+    @Test
+    public void testStopsReplayingWhileTheServerIsUnavailable() throws Exception {
+        final Sequence replay = context.sequence("replay");
+
+        context.checking(new Expectations() {{
+            oneOf(httpClient).delete(with(any(URI.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+            oneOf(httpClient).delete(with(any(URI.class))); inSequence(replay);
+            will(throwException(new ServerException("Service unavailable", 503)));
+            oneOf(httpClient).delete(with(any(URI.class))); inSequence(replay);
+            will(returnValue(new ImboResponse()));
+        }});
+
+        outbox.deleteImage("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+        outbox.deleteImage("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+        try {
+            outbox.replay();
+            fail("Expected the replay to fail");
+        } catch (ServerException e) {
+            assertEquals(503, e.getErrorCode());
+        }
+
+        assertEquals(1, outbox.getPendingCount());
+        assertTrue(outbox.isPending("delete:bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"));
+
+        assertEquals(1, outbox.replay());
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    /**
+     * Operations the server rejects for good must be skipped, and deleting a missing image is done
+     */
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testSkipsRejectedOperations() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).post(with(any(URI.class)), with(any(String.class)), (List<Header>) with(anything()));
+            will(throwException(new ServerException("Bad request", 400)));
+            oneOf(httpClient).delete(with(any(URI.class)));
+            will(throwException(new ServerException("Image not found", 404)));
+        }});
+
+        outbox.editMetadata(imageIdentifier, new JSONObject("{\"tag\":\"cat\"}"));
+        outbox.deleteImage(imageIdentifier);
+
+        assertEquals(2, outbox.replay());
+        assertEquals(1, outbox.getFailedCount());
+        assertEquals(1, outbox.getReplayedCount());
+    }
+
+    /**
+     * A partly written operation at the end of the log must be discarded on open
+     */
+    @Test
+    public void testDiscardsPartlyWrittenOperations() throws Exception {
+        outbox.deleteImage(imageIdentifier);
+        outbox.close();
+
+        File log = new File(directory, "outbox.log");
+        long length = log.length();
+
+        FileOutputStream output = new FileOutputStream(log, true);
+        output.write(new byte[] {0, 0, 1, 0, 42, 42});
+        output.close();
+
+        outbox = new Outbox(client, directory);
+        assertEquals(1, outbox.getPendingCount());
+        assertEquals(length, log.length());
+    }
+
+    /**
+     * The log must be emptied once every operation has been replayed
+     */
+    @Test
+    public void testTruncatesTheLogOnceReplayed() throws Exception {
+        context.checking(new Expectations() {{
+            oneOf(httpClient).delete(with(any(URI.class)));
+            will(returnValue(new ImboResponse()));
+        }});
+
+        outbox.deleteImage(imageIdentifier);
+        outbox.replay();
+
+        assertEquals(0, new File(directory, "outbox.log").length());
+        assertEquals(0, outbox.getPendingBytes());
+
+        outbox.close();
+        outbox = new Outbox(client, directory);
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+    /**
+     * Appending must fail when the outbox stays full for the append timeout
+     */
+    @Test
+    public void testRefusesOperationsWhenFull() throws Exception {
+        outbox.setMaxPendingBytes(1).setAppendTimeout(10);
+        outbox.deleteImage("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+        try {
+            outbox.deleteImage("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+            fail("Expected the outbox to be full");
+        } catch (IOException e) {
+            assertEquals("Outbox is full", e.getMessage());
+        }
+
+        assertEquals(1, outbox.getPendingCount());
+    }
+
+    /**
+     * Images too large for a single record must be refused before they are read
+     */
+    @Test
+    public void testRefusesImagesLargerThanARecord() throws Exception {
+        File image = new File(directory, "large.jpg");
+        RandomAccessFile file = new RandomAccessFile(image, "rw");
+
+        try {
+            file.setLength(Outbox.MAX_RECORD_SIZE + 1L);
+        } finally {
+            file.close();
+        }
+
+        try {
+            outbox.addImage(image);
+            fail("Expected the image to be refused");
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Image is larger than"));
+        }
+
+        assertEquals(0, outbox.getPendingCount());
+    }
+
+}
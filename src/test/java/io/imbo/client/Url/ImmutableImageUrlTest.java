@@ -0,0 +1,149 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Immutable image URL tests
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class ImmutableImageUrlTest {
+
+    final private String baseUrl = "http://host";
+    final private String publicKey = "public";
+    final private String privateKey = "41ebdff96ee9986119a5033f30d9a6c8";
+    final private String imageIdentifier = "3aea3926533f3c7b87d5500789aa2a17";
+
+    private ImmutableImageUrl base = new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier);
+
+    private ImageUrl mutable() {
+        return new ImageUrl(baseUrl, publicKey, privateKey, imageIdentifier);
+    }
+
+    /**
+     * Every transformation must produce the same URL as the mutable image URL
+     */
+    @Test
+    public void testProducesTheSameUrlsAsTheMutableImageUrl() {
+        assertEquals(mutable().getUrl(), base.getUrl());
+        assertEquals(mutable().border("#FFF", 2, 3).getUrl(), base.border("#FFF", 2, 3).getUrl());
+        assertEquals(mutable().compress().getUrl(), base.compress().getUrl());
+        assertEquals(mutable().crop(1, 2, 3, 4).getUrl(), base.crop(1, 2, 3, 4).getUrl());
+        assertEquals(mutable().resize(100, 0).getUrl(), base.resize(100, 0).getUrl());
+        assertEquals(mutable().maxSize(0, 200).getUrl(), base.maxSize(0, 200).getUrl());
+        assertEquals(mutable().rotate(12.5, "#abc").getUrl(), base.rotate(12.5, "#abc").getUrl());
+        assertEquals(mutable().thumbnail(10, 20, "inset").getUrl(), base.thumbnail(10, 20, "inset").getUrl());
+        assertEquals(mutable().canvas(10, 20, "center", 1, 2, "fff").getUrl(), base.canvas(10, 20, "center", 1, 2, "fff").getUrl());
+        assertEquals(mutable().canvas(10, 20).getUrl(), base.canvas(10, 20).getUrl());
+        assertEquals(
+            mutable().flipHorizontally().flipVertically().transpose().transverse().desaturate().png().getUrl(),
+            base.flipHorizontally().flipVertically().transpose().transverse().desaturate().png().getUrl()
+        );
+        assertEquals(mutable().jpg().gif().getUrl(), base.jpg().gif().getUrl());
+    }
+
+    /**
+     * Transformations must leave the original URL untouched
+     */
+    @Test
+    public void testTransformationsLeaveTheOriginalUntouched() {
+        ImmutableImageUrl thumbnail = base.thumbnail().jpg();
+        ImmutableImageUrl small = thumbnail.compress(50);
+        ImmutableImageUrl large = thumbnail.compress(90);
+
+        assertEquals(mutable().getUrl(), base.getUrl());
+        assertEquals(mutable().thumbnail().jpg().getUrl(), thumbnail.getUrl());
+        assertEquals(mutable().thumbnail().jpg().compress(50).getUrl(), small.getUrl());
+        assertEquals(mutable().thumbnail().jpg().compress(90).getUrl(), large.getUrl());
+        assertEquals(imageIdentifier, base.getImageIdentifier());
+        assertEquals(imageIdentifier + ".jpg", thumbnail.getImageIdentifier());
+    }
+
+    /**
+     * Resetting must remove transformations and conversion
+     */
+    @Test
+    public void testResetReturnsTheUrlToTheOriginalImage() {
+        ImmutableImageUrl transformed = base.desaturate().png();
+
+        assertEquals(base.getUrl(), transformed.reset().getUrl());
+        assertEquals(mutable().desaturate().png().getUrl(), transformed.getUrl());
+    }
+
+    /**
+     * The URL must only be generated once
+     */
+    @Test
+    public void testMemoizesTheGeneratedUrl() {
+        final int[] tokens = { 0 };
+        ImmutableImageUrl url = new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier, new AccessToken() {
+            @Override
+            public String generateToken(String url, String key) {
+                tokens[0]++;
+                return super.generateToken(url, key);
+            }
+        }).desaturate();
+
+        assertSame(url.toString(), url.getUrl());
+        assertSame(url.getUrl(), url.toString());
+        assertEquals(1, tokens[0]);
+        assertNotSame(url.getUrl(), url.compress().getUrl());
+    }
+
+    /**
+     * Without a private key, the URL must not be signed
+     */
+    @Test
+    public void testProducesUnsignedUrlsWithoutAPrivateKey() {
+        ImmutableImageUrl url = new ImmutableImageUrl(baseUrl, publicKey, null, imageIdentifier).flipVertically();
+
+        assertEquals("http://host/users/public/images/" + imageIdentifier + "?t[]=flipVertically", url.getUrl());
+    }
+
+    /**
+     * A shared base URL must be usable from several threads at once
+     */
+    @Test
+    public void testCanBeSharedBetweenThreads() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+
+        try {
+            for (int i = 0; i < 200; i++) {
+                final int width = 100 + i;
+
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return base.maxSize(width, 0).jpg().getUrl();
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(mutable().maxSize(100 + i, 0).jpg().getUrl(), futures.get(i).get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,134 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Transformation canonicalizer tests
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class TransformationCanonicalizerTest {
+
+    final private String baseUrl = "http://host";
+    final private String publicKey = "public";
+    final private String privateKey = "41ebdff96ee9986119a5033f30d9a6c8";
+    final private String imageIdentifier = "3aea3926533f3c7b87d5500789aa2a17";
+
+    private List<String> canonicalize(String... transformations) {
+        return TransformationCanonicalizer.canonicalize(Arrays.asList(transformations));
+    }
+
+    /**
+     * Transformations which can not be simplified must be kept as they are
+     */
+    @Test
+    public void testKeepsTransformationsWhichCanNotBeSimplified() {
+        List<String> chain = Arrays.asList(
+            "thumbnail:width=200,height=200,fit=outbound",
+            "flipHorizontally",
+            "resize:width=100",
+            "canvas:width=300,height=300,mode=center,x=0,y=0,bg=ff0000"
+        );
+
+        assertEquals(chain, TransformationCanonicalizer.canonicalize(chain));
+    }
+
+    /**
+     * Transformations which do nothing must be removed
+     */
+    @Test
+    public void testRemovesNoopTransformations() {
+        assertEquals(
+            Arrays.asList("desaturate"),
+            canonicalize("rotate:angle=360,bg=000000", "resize:", "maxSize:", "border:color=000000,width=0,height=0", "desaturate")
+        );
+    }
+
+    /**
+     * Adjacent transformations which undo each other must cancel out, also when nested
+     */
+    @Test
+    public void testCancelsOutSelfCancellingTransformations() {
+        assertEquals(
+            Arrays.asList("desaturate"),
+            canonicalize("flipHorizontally", "flipVertically", "flipVertically", "flipHorizontally", "transpose", "transpose", "desaturate", "desaturate")
+        );
+        assertEquals(
+            Arrays.asList("flipHorizontally"),
+            canonicalize("flipHorizontally", "flipHorizontally", "flipHorizontally")
+        );
+    }
+
+    /**
+     * Colors and angles must be written the same way
+     */
+    @Test
+    public void testNormalizesParameters() {
+        assertEquals(
+            Arrays.asList("border:color=aabbcc,width=1,height=1", "rotate:angle=270,bg=ffffff"),
+            canonicalize("border:color=#ABC,width=1,height=1", "rotate:angle=-90,bg=#FFF")
+        );
+    }
+
+    /**
+     * Resizes and crops must be merged where the result is the same
+     */
+    @Test
+    public void testMergesResizesAndCrops() {
+        assertEquals(Arrays.asList("resize:width=100,height=50"), canonicalize("resize:width=100,height=50", "resize:width=100,height=50"));
+        assertEquals(Arrays.asList("resize:width=100,height=50"), canonicalize("resize:width=100,height=50", "maxSize:width=200"));
+        assertEquals(
+            Arrays.asList("resize:width=100,height=50", "maxSize:width=80"),
+            canonicalize("resize:width=100,height=50", "maxSize:width=80")
+        );
+        assertEquals(
+            Arrays.asList("crop:x=15,y=25,width=20,height=30"),
+            canonicalize("crop:x=10,y=20,width=100,height=100", "crop:x=5,y=5,width=20,height=30")
+        );
+        assertEquals(
+            Arrays.asList("crop:x=10,y=20,width=100,height=100", "crop:x=90,y=5,width=20,height=30"),
+            canonicalize("crop:x=10,y=20,width=100,height=100", "crop:x=90,y=5,width=20,height=30")
+        );
+    }
+
+    /**
+     * Only the last compression matters, wherever it is in the chain
+     */
+    @Test
+    public void testMovesTheLastCompressionToTheEnd() {
+        assertEquals(
+            Arrays.asList("thumbnail:width=50,height=50,fit=outbound", "compress:level=80"),
+            canonicalize("compress:level=50", "compress:level=80", "thumbnail:width=50,height=50,fit=outbound")
+        );
+    }
+
+    /**
+     * Differently built image URLs for the same image must end up the same
+     */
+    @Test
+    public void testMakesEquivalentImageUrlsEqual() {
+        ImageUrl first = new ImageUrl(baseUrl, publicKey, privateKey, imageIdentifier)
+            .compress(80).jpg().flipHorizontally().flipHorizontally().border("#FFF").canonicalize();
+        ImageUrl second = new ImageUrl(baseUrl, publicKey, privateKey, imageIdentifier)
+            .border("ffffff").jpg().compress(80).canonicalize();
+        ImmutableImageUrl third = new ImmutableImageUrl(baseUrl, publicKey, privateKey, imageIdentifier)
+            .rotate(0).border("#fff").compress(80).jpg().canonicalize();
+
+        assertEquals(second.getUrl(), first.getUrl());
+        assertEquals(second.getUrl(), third.getUrl());
+    }
+
+}
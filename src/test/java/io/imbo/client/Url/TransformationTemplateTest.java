@@ -0,0 +1,97 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+/**
+ * Transformation template tests
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class TransformationTemplateTest {
+
+    final private String baseUrl = "http://host";
+    final private String publicKey = "public";
+    final private String privateKey = "41ebdff96ee9986119a5033f30d9a6c8";
+    final private String[] imageIdentifiers = {
+        "3aea3926533f3c7b87d5500789aa2a17",
+        "23d7f91b25f3013fcc75ce070c40e004",
+        "7cfdd07889b3295d6a550914ab35e068.png"
+    };
+
+    /**
+     * A bound template must produce the same URL as applying the chain to the image
+     */
+    @Test
+    public void testProducesTheSameUrlAsTheTransformationChain() {
+        TransformationTemplate template = TransformationTemplate.compile(
+            TransformationTemplate.chain().thumbnail(200, 200, "outbound").compress(80).border("#FFF").jpg()
+        );
+
+        for (String imageIdentifier : imageIdentifiers) {
+            ImageUrl url = new ImageUrl(baseUrl, publicKey, privateKey, imageIdentifier)
+                .thumbnail(200, 200, "outbound").compress(80).border("#FFF").jpg();
+
+            assertEquals(url.getUrl(), template.bind(baseUrl, publicKey, privateKey, imageIdentifier));
+        }
+
+        assertEquals("jpg", template.getExtension());
+    }
+
+    /**
+     * A template without transformations must only sign the image URL
+     */
+    @Test
+    public void testSupportsTemplatesWithoutTransformations() {
+        TransformationTemplate template = TransformationTemplate.compile(TransformationTemplate.chain());
+
+        for (String imageIdentifier : imageIdentifiers) {
+            ImageUrl url = new ImageUrl(baseUrl, publicKey, privateKey, imageIdentifier);
+
+            assertEquals(url.getUrl(), template.bind(baseUrl, publicKey, privateKey, imageIdentifier));
+        }
+
+        assertEquals("", template.getQueryString());
+        assertNull(template.getExtension());
+    }
+
+    /**
+     * Without a private key, the template must produce an unsigned URL
+     */
+    @Test
+    public void testProducesUnsignedUrlsWithoutAPrivateKey() {
+        TransformationTemplate template = TransformationTemplate.compile(
+            TransformationTemplate.chain().flipHorizontally().png()
+        );
+
+        assertEquals(
+            "http://host/users/public/images/3aea3926533f3c7b87d5500789aa2a17.png?t[]=flipHorizontally",
+            template.bind(baseUrl, publicKey, null, imageIdentifiers[0])
+        );
+    }
+
+    /**
+     * Changing the chain after compiling must not affect the template
+     */
+    @Test
+    public void testIsNotAffectedByChangesToTheCompiledChain() {
+        ImageUrl chain = TransformationTemplate.chain().desaturate();
+        TransformationTemplate template = TransformationTemplate.compile(chain);
+
+        chain.compress(50).gif();
+
+        assertEquals("t[]=desaturate", template.getQueryString());
+        assertNull(template.getExtension());
+    }
+
+}
@@ -0,0 +1,111 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.Url;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * URL signer tests
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class UrlSignerTest {
+
+    final private String baseUrl = "http://host";
+    final private String publicKey = "public";
+    final private String privateKey = "41ebdff96ee9986119a5033f30d9a6c8";
+
+    private UrlSigner signer = new UrlSigner(publicKey, privateKey);
+
+    /**
+     * The signer must generate the same tokens as the plain access token
+     */
+    @Test
+    public void testGeneratesTheSameTokensAsThePlainAccessToken() {
+        AccessToken accessToken = new AccessToken();
+        String[] urls = {
+            "http://imbo/users/user/images.json",
+            "http://imbo/users/user/images/image?t[]=border:color=ff0000",
+            "http://imbo/users/user/images.json?metadata={\"navn\":\"blåbær\"}"
+        };
+
+        for (String url : urls) {
+            assertEquals(accessToken.generateToken(url, privateKey), signer.generateToken(url, privateKey));
+            assertEquals(accessToken.generateToken(url, "other key"), signer.generateToken(url, "other key"));
+        }
+    }
+
+    /**
+     * Signing a template must produce the same URL as binding it
+     */
+    @Test
+    public void testProducesTheSameUrlsAsBindingTheTemplate() {
+        TransformationTemplate[] templates = {
+            TransformationTemplate.compile(TransformationTemplate.chain()),
+            TransformationTemplate.compile(TransformationTemplate.chain().maxSize(320, 0).jpg()),
+            TransformationTemplate.compile(TransformationTemplate.chain().border("#ABC").canvas(100, 100).compress(75))
+        };
+
+        for (TransformationTemplate template : templates) {
+            assertEquals(
+                template.bind(baseUrl, publicKey, privateKey, "3aea3926533f3c7b87d5500789aa2a17"),
+                signer.sign(baseUrl, "3aea3926533f3c7b87d5500789aa2a17", template)
+            );
+        }
+    }
+
+    /**
+     * The signer must be safe to share between threads
+     */
+    @Test
+    public void testCanBeSharedBetweenThreads() throws Exception {
+        final TransformationTemplate template = TransformationTemplate.compile(TransformationTemplate.chain().thumbnail());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+
+        try {
+            for (int i = 0; i < 400; i++) {
+                final String imageIdentifier = String.format("%032x", i);
+
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() {
+                        return signer.sign(baseUrl, imageIdentifier, template);
+                    }
+                }));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                assertEquals(
+                    template.bind(baseUrl, publicKey, privateKey, String.format("%032x", i)),
+                    futures.get(i).get()
+                );
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A signer without a private key is useless
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testRequiresAPrivateKey() {
+        new UrlSigner(publicKey, null);
+    }
+
+}
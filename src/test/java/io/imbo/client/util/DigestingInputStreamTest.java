@@ -0,0 +1,52 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class DigestingInputStreamTest {
+
+    /**
+     * The stream must hash and count everything read through it
+     */
+    @Test
+    public void testHashesAndCountsBytesRead() throws IOException {
+        DigestingInputStream input = new DigestingInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+
+        assertEquals(1, input.read());
+        assertEquals(4, input.read(new byte[10], 0, 10));
+        assertEquals(-1, input.read());
+
+        assertEquals(5, input.getCount());
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", input.getChecksum());
+    }
+
+    /**
+     * Getting the checksum must not disturb hashing of the rest of the stream
+     */
+    @Test
+    public void testCanGetChecksumWhileReading() throws IOException {
+        DigestingInputStream input = new DigestingInputStream(new ByteArrayInputStream(new byte[] { 1, 2, 3, 4, 5 }));
+
+        input.read(new byte[2], 0, 2);
+        assertEquals(Crypto.toHex(DigestingInputStream.createMd5().digest(new byte[] { 1, 2 })), input.getChecksum());
+
+        input.read(new byte[3], 0, 3);
+        assertEquals("7cfdd07889b3295d6a550914ab35e068", input.getChecksum());
+    }
+
+}
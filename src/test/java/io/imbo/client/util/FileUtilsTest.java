@@ -0,0 +1,79 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class FileUtilsTest {
+
+    private File source;
+    private File target;
+
+    @Before
+    public void setUp() throws IOException {
+        source = File.createTempFile("imboclient-source", ".tmp");
+        target = File.createTempFile("imboclient-target", ".tmp");
+    }
+
+    @After
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    private void write(File file, String content) throws IOException {
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(content.getBytes("UTF-8"));
+        output.close();
+    }
+
+    /**
+     * Replacing must move the source over an existing target
+     */
+    @Test
+    public void testReplacesExistingTarget() throws IOException {
+        write(source, "new content");
+        write(target, "old");
+
+        FileUtils.replace(source, target);
+
+        assertFalse(source.exists());
+        assertEquals("new content".length(), target.length());
+    }
+
+    /**
+     * Replacing must fail when the source is missing, leaving the target alone
+     */
+    @Test
+    public void testFailsWhenTheSourceIsMissing() throws IOException {
+        source.delete();
+
+        try {
+            FileUtils.replace(source, target);
+            fail("Expected the replace to fail");
+        } catch (IOException e) {
+            assertTrue(target.exists());
+        }
+    }
+
+}
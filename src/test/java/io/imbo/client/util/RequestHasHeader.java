@@ -0,0 +1,52 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import org.apache.http.Header;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.hamcrest.Description;
+import org.hamcrest.Factory;
+import org.hamcrest.Matcher;
+import org.hamcrest.TypeSafeMatcher;
+
+/**
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ */
+public class RequestHasHeader extends TypeSafeMatcher<HttpRequestBase> {
+
+    private String name;
+    private String value;
+
+    public void setHeader(String name, String value) {
+        this.name = name;
+        this.value = value;
+    }
+
+    @Override
+    public void describeTo(Description description) {
+        description.appendText("request with header " + name + ": " + value);
+    }
+
+    @Override
+    protected boolean matchesSafely(HttpRequestBase request) {
+        Header header = request.getFirstHeader(name);
+
+        return header != null && header.getValue().equals(value);
+    }
+
+    @Factory
+    public static <T> Matcher<HttpRequestBase> RequestHasHeader(String name, String value) {
+        RequestHasHeader matcher = new RequestHasHeader();
+        matcher.setHeader(name, value);
+
+        return matcher;
+    }
+
+}
@@ -0,0 +1,132 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Single flight test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class SingleFlightTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * Concurrent calls with the same key must share a single execution
+     */
+    @Test
+    public void testMergesConcurrentCallsWithTheSameKey() throws Exception {
+        final SingleFlight<Object> flight = new SingleFlight<Object>();
+        final AtomicInteger executions = new AtomicInteger();
+        final Object result = new Object();
+        final Object[] results = new Object[4];
+
+        final Callable<Object> call = new Callable<Object>() {
+            public Object call() throws InterruptedException {
+                executions.incrementAndGet();
+
+                // Hold the call open until every other caller is waiting on it
+                long deadline = System.currentTimeMillis() + 5000;
+                while (flight.getCoalescedCount() < results.length - 1 && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(1);
+                }
+
+                return result;
+            }
+        };
+
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; i++) {
+            final int index = i;
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        results[index] = flight.execute("key", call);
+                    } catch (IOException e) {
+                        results[index] = e;
+                    }
+                }
+            });
+            threads[i].start();
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(1, executions.get());
+        for (Object actual : results) {
+            assertSame(result, actual);
+        }
+
+        assertEquals(0, flight.getInFlightCount());
+    }
+
+    /**
+     * Results must not be cached once the call has completed
+     */
+    @Test
+    public void testDoesNotCacheCompletedCalls() throws IOException {
+        SingleFlight<Integer> flight = new SingleFlight<Integer>();
+        final AtomicInteger executions = new AtomicInteger();
+
+        Callable<Integer> call = new Callable<Integer>() {
+            public Integer call() {
+                return executions.incrementAndGet();
+            }
+        };
+
+        assertEquals(Integer.valueOf(1), flight.execute("key", call));
+        assertEquals(Integer.valueOf(2), flight.execute("key", call));
+    }
+
+    /**
+     * IOExceptions thrown by the call must be rethrown as-is
+     */
+    @Test
+    public void testRethrowsIOExceptionsFromTheCall() throws IOException {
+        exception.expect(IOException.class);
+        exception.expectMessage("Connection reset");
+
+        new SingleFlight<Object>().execute("key", new Callable<Object>() {
+            public Object call() throws IOException {
+                throw new IOException("Connection reset");
+            }
+        });
+    }
+
+    /**
+     * Checked exceptions other than IOExceptions must be wrapped in an IOException
+     */
+    @Test
+    public void testWrapsOtherCheckedExceptions() throws IOException {
+        exception.expect(IOException.class);
+        exception.expectMessage("Interrupted");
+
+        new SingleFlight<Object>().execute("key", new Callable<Object>() {
+            public Object call() throws InterruptedException {
+                throw new InterruptedException("Interrupted");
+            }
+        });
+    }
+
+}
@@ -0,0 +1,55 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Temporary directories for tests working on the file system
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class TempFiles {
+
+    /**
+     * Create an empty temporary directory
+     *
+     * @param prefix Prefix of the directory name
+     * @return Directory
+     * @throws IOException If the directory can not be created
+     */
+    public static File createDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, "");
+
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory.getPath());
+        }
+
+        return directory;
+    }
+
+    /**
+     * Delete a file, or a directory along with everything below it
+     *
+     * @param file File or directory to delete
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+
+        file.delete();
+    }
+
+}
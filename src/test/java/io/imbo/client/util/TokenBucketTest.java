@@ -0,0 +1,84 @@
+/**
+ * This file is part of the imboclient-java package
+ *
+ * (c) Espen Hovlandsdal <espen@hovlandsdal.com>
+ *
+ * For the full copyright and license information, please view the LICENSE file that was
+ * distributed with this source code.
+ */
+package io.imbo.client.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+/**
+ * Token bucket test
+ *
+ * @author Espen Hovlandsdal <espen@hovlandsdal.com>
+ */
+public class TokenBucketTest {
+
+    @Rule
+    public ExpectedException exception = ExpectedException.none();
+
+    /**
+     * The bucket must start out full, and refuse tokens it does not have
+     */
+    @Test
+    public void testAllowsBurstsUpToTheCapacity() {
+        TokenBucket bucket = new TokenBucket(1, 5);
+
+        assertTrue(bucket.tryAcquire(3));
+        assertTrue(bucket.tryAcquire(2));
+        assertFalse(bucket.tryAcquire(1));
+    }
+
+    /**
+     * Reserving more tokens than are available must return the time until they are added
+     */
+    @Test
+    public void testReservesTokensAheadOfTime() {
+        TokenBucket bucket = new TokenBucket(10, 1);
+
+        assertEquals(0, bucket.reserve(1));
+
+        long wait = bucket.reserve(5);
+        assertTrue(wait > TimeUnit.MILLISECONDS.toNanos(400));
+        assertTrue(wait <= TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(bucket.getAvailable() < 0);
+    }
+
+    /**
+     * Acquiring tokens must pace the caller by the rate
+     */
+    @Test
+    public void testPacesCallersByTheRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        long start = System.nanoTime();
+
+        for (int i = 0; i < 11; i++) {
+            bucket.acquire(1);
+        }
+
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(90));
+    }
+
+    /**
+     * The bucket must refuse a rate which would never add tokens
+     */
+    @Test
+    public void testThrowsExceptionOnInvalidRate() {
+        exception.expect(IllegalArgumentException.class);
+        exception.expectMessage("Rate must be positive");
+
+        new TokenBucket(1, 1).setRate(0);
+    }
+
+}